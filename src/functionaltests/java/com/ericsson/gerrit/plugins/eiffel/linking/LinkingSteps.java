@@ -28,9 +28,12 @@ import org.mockserver.model.HttpRequest;
 import com.ericsson.gerrit.plugins.eiffel.GerritModule;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.git.CommitInformation;
+import com.ericsson.gerrit.plugins.eiffel.handlers.DatabaseConnectionRegistry;
+import com.ericsson.gerrit.plugins.eiffel.handlers.MessageQueueHandler;
 import com.ericsson.gerrit.plugins.eiffel.listeners.AbstractEventListener;
 import com.ericsson.gerrit.plugins.eiffel.listeners.ChangeMergedEventListener;
 import com.ericsson.gerrit.plugins.eiffel.listeners.PatchsetCreatedEventListener;
+import com.ericsson.gerrit.plugins.eiffel.messaging.RemremHttpClient;
 import com.google.common.base.Supplier;
 import com.google.gerrit.extensions.annotations.PluginData;
 import com.google.gerrit.extensions.annotations.PluginName;
@@ -45,6 +48,8 @@ import com.google.gerrit.server.data.PatchSetAttribute;
 import com.google.gerrit.server.events.ChangeMergedEvent;
 import com.google.gerrit.server.events.PatchSetCreatedEvent;
 import com.google.gerrit.server.events.PatchSetEvent;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.project.NoSuchProjectException;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
@@ -53,6 +58,7 @@ import com.google.gson.JsonParser;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Scopes;
 
 import cucumber.api.java.After;
 import cucumber.api.java.Before;
@@ -79,6 +85,9 @@ public class LinkingSteps {
     private final Map<String, String> eventTypes = getEventMap();
     private GerritMock gerritMock;
     private CommitInformation commitInformation;
+    private MessageQueueHandler messageQueueHandler;
+    private RemremHttpClient remremHttpClient;
+    private DatabaseConnectionRegistry databaseRegistry;
 
     @Before()
     public void setup() throws IOException, InterruptedException {
@@ -94,6 +103,11 @@ public class LinkingSteps {
                 new ModuleDependencis(tempDirLocation, commitInformation),
                 new GerritModule());
 
+        messageQueueHandler = injector.getInstance(MessageQueueHandler.class);
+        messageQueueHandler.start();
+        remremHttpClient = injector.getInstance(RemremHttpClient.class);
+        databaseRegistry = injector.getInstance(DatabaseConnectionRegistry.class);
+
         listeners = new ArrayList<>();
         listeners.add(injector.getInstance(ChangeMergedEventListener.class));
         listeners.add(injector.getInstance(PatchsetCreatedEventListener.class));
@@ -107,8 +121,11 @@ public class LinkingSteps {
 
     @After()
     public void afterScenario() throws IOException, InterruptedException {
+        messageQueueHandler.stop();
+        remremHttpClient.stop();
         server.stop();
         remRemMock.close();
+        databaseRegistry.closeAll();
 
         final Path dbPath = tempDirPath.resolve(PROJECT_NAME + ".db");
         Files.delete(dbPath);
@@ -442,8 +459,13 @@ public class LinkingSteps {
             } catch (final NoSuchProjectException e) {
                 throw new FunctionalTestException("Could not setup project configuration mock", e);
             }
+            when(pluginConfigFactory.getFromGerritConfig(pluginName, true)).thenReturn(
+                    pluginConfig);
             bind(PluginConfigFactory.class).toInstance(pluginConfigFactory);
+            bind(MessageQueueHandler.class).to(MessageQueueHandlerMock.class).in(Scopes.SINGLETON);
             bind(String.class).annotatedWith(CanonicalWebUrl.class).toInstance("web-url");
+            bind(WorkQueue.class).toInstance(mock(WorkQueue.class));
+            bind(GitRepositoryManager.class).toInstance(mock(GitRepositoryManager.class));
 
             bind(CommitInformation.class).toInstance(commitInformation);
 
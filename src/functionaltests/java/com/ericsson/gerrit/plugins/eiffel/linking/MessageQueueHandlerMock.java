@@ -0,0 +1,43 @@
+package com.ericsson.gerrit.plugins.eiffel.linking;
+
+import java.io.File;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.RetryConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.handlers.MessageQueueHandler;
+import com.ericsson.gerrit.plugins.eiffel.messaging.RemremHttpClient;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+
+/**
+ * There is no Gerrit work queue when running the functional tests, this class will instead send the
+ * events using a plain executor. The outbox is not opened, events are only kept in memory.
+ */
+public class MessageQueueHandlerMock extends MessageQueueHandler {
+
+    private final ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1);
+
+    @Inject
+    public MessageQueueHandlerMock(final PluginConfigFactory config,
+            @PluginName final String pluginName, @PluginData final File pluginDirectoryPath,
+            final RetryConfiguration retryConfiguration, final RemremHttpClient httpClient) {
+        super(null, config, pluginName, pluginDirectoryPath, retryConfiguration, httpClient);
+    }
+
+    @Override
+    public void start() {
+        // The pool is created together with the mock
+    }
+
+    @Override
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    @Override
+    public ScheduledThreadPoolExecutor getPool() {
+        return pool;
+    }
+}
@@ -18,13 +18,29 @@
 package com.ericsson.gerrit.plugins.eiffel;
 
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfigurationCache;
+import com.ericsson.gerrit.plugins.eiffel.events.generators.SourceHostResolver;
+import com.ericsson.gerrit.plugins.eiffel.handlers.DatabaseConnectionRegistry;
+import com.ericsson.gerrit.plugins.eiffel.handlers.EventIdRetention;
+import com.ericsson.gerrit.plugins.eiffel.handlers.MessageQueueHandler;
 import com.ericsson.gerrit.plugins.eiffel.listeners.ChangeMergedEventListener;
+import com.ericsson.gerrit.plugins.eiffel.listeners.EventGenerationQueue;
 import com.ericsson.gerrit.plugins.eiffel.listeners.PatchsetCreatedEventListener;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EventTemplateInvalidator;
+import com.ericsson.gerrit.plugins.eiffel.messaging.RemremHttpClient;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStore;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStoreRegistry;
+import com.ericsson.gerrit.plugins.eiffel.storage.LogEventIdStore;
+import com.ericsson.gerrit.plugins.eiffel.storage.SqliteEventIdStore;
 import com.google.gerrit.common.EventListener;
 import com.google.gerrit.extensions.annotations.Exports;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.server.config.ProjectConfigEntry;
 import com.google.inject.AbstractModule;
+import com.google.inject.internal.UniqueAnnotations;
 
 
 /**
@@ -42,12 +58,43 @@ public class GerritModule extends AbstractModule {
     @CoberturaIgnore
     protected void configure() {
         bindGerritEventListeners();
+        bindLifecycleListeners();
         bindPluginConfiguration();
+        bindEventIdStores();
     }
 
     private void bindGerritEventListeners() {
         DynamicSet.bind(binder(), EventListener.class).to(ChangeMergedEventListener.class);
         DynamicSet.bind(binder(), EventListener.class).to(PatchsetCreatedEventListener.class);
+        DynamicSet.bind(binder(), GitReferenceUpdatedListener.class)
+                  .to(EiffelPluginConfigurationCache.class);
+        DynamicSet.bind(binder(), GitReferenceUpdatedListener.class)
+                  .to(EventTemplateInvalidator.class);
+    }
+
+    private void bindLifecycleListeners() {
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                .to(MessageQueueHandler.class);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                .to(RemremHttpClient.class);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                .to(DatabaseConnectionRegistry.class);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                .to(EventIdRetention.class);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                .to(EventIdStoreRegistry.class);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                .to(SourceHostResolver.class);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create())
+                .to(EventGenerationQueue.class);
+    }
+
+    private void bindEventIdStores() {
+        DynamicMap.mapOf(binder(), EventIdStore.class);
+        bind(EventIdStore.class).annotatedWith(Exports.named(SqliteEventIdStore.NAME))
+                .to(SqliteEventIdStore.class);
+        bind(EventIdStore.class).annotatedWith(Exports.named(LogEventIdStore.NAME))
+                .to(LogEventIdStore.class);
     }
 
     private void bindPluginConfiguration() {
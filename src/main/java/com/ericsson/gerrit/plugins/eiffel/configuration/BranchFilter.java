@@ -0,0 +1,148 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiled form of the comma separated branch filter of a project. A branch matches the filter
+ * when it fully matches any of the regular expressions in it.
+ *
+ * Filters without regular expression characters are compared as plain strings, all other filters
+ * are combined into one pattern. Filters with named groups or group references are matched on
+ * their own, since groups of the same name cannot be combined and group numbers change when
+ * combined. The result of recently matched branch names is remembered.
+ *
+ */
+public class BranchFilter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BranchFilter.class);
+
+    private static final String SEPARATOR = ",";
+    private static final String REGEX_CHARACTERS = "\\[](){}.*+?^$|";
+    private static final Pattern GROUP_REFERENCE = Pattern.compile("\\\\[1-9]|\\\\k<|\\(\\?<");
+    private static final int MAX_CACHED_BRANCHES = 1024;
+
+    private final String filter;
+    private final Set<String> literals = new HashSet<>();
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final Map<String, Boolean> matchedBranches = new ConcurrentHashMap<>();
+
+    public BranchFilter(final String filter) {
+        this.filter = StringUtils.defaultString(filter);
+        if (this.filter.isEmpty()) {
+            return;
+        }
+
+        final List<String> combinedRegExes = new ArrayList<>();
+        for (final String regExString : this.filter.split(SEPARATOR)) {
+            if (StringUtils.containsNone(regExString, REGEX_CHARACTERS)) {
+                literals.add(regExString);
+            } else if (isValid(regExString)) {
+                if (GROUP_REFERENCE.matcher(regExString).find()) {
+                    patterns.add(Pattern.compile(regExString));
+                } else {
+                    combinedRegExes.add(regExString);
+                }
+            }
+        }
+
+        if (!combinedRegExes.isEmpty()) {
+            patterns.addAll(combine(combinedRegExes));
+        }
+    }
+
+    /**
+     * Returns true if no filter is configured, in which case all branches are accepted.
+     *
+     * @return boolean
+     */
+    public boolean isEmpty() {
+        return filter.isEmpty();
+    }
+
+    /**
+     * Returns true if the branch fully matches any of the configured filters.
+     *
+     * @param branch
+     * @return boolean
+     */
+    public boolean matches(final String branch) {
+        if (literals.contains(branch)) {
+            return true;
+        }
+
+        final Boolean cachedResult = matchedBranches.get(branch);
+        if (cachedResult != null) {
+            return cachedResult;
+        }
+
+        final boolean result = patterns.stream()
+                                       .anyMatch(pattern -> pattern.matcher(branch).matches());
+        if (matchedBranches.size() >= MAX_CACHED_BRANCHES) {
+            matchedBranches.clear();
+        }
+        matchedBranches.put(branch, result);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return filter;
+    }
+
+    /**
+     * Combines the regular expressions into one pattern, or compiles them one by one if they
+     * cannot be combined.
+     *
+     * @param regExes
+     * @return List of patterns
+     */
+    private static List<Pattern> combine(final List<String> regExes) {
+        try {
+            return Collections.singletonList(Pattern.compile(regExes.stream()
+                                                                    .map(regEx -> "(?:" + regEx + ")")
+                                                                    .collect(Collectors.joining("|"))));
+        } catch (final PatternSyntaxException e) {
+            LOGGER.debug("Matching branch filters one by one, they cannot be combined: {}", e.getMessage());
+            return regExes.stream().map(Pattern::compile).collect(Collectors.toList());
+        }
+    }
+
+    private boolean isValid(final String regExString) {
+        try {
+            Pattern.compile(regExString);
+            return true;
+        } catch (final PatternSyntaxException e) {
+            LOGGER.error("Ignoring invalid branch filter '{}': {}", regExString, e.getMessage());
+            return false;
+        }
+    }
+}
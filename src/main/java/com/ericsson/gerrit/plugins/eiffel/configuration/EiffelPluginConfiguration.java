@@ -50,6 +50,7 @@ public class EiffelPluginConfiguration {
     private final String remremUsername;
     private final String remremPassword;
     private final String filter;
+    private final BranchFilter branchFilter;
     private final boolean enabled;
     private final String flowContext;
     private File pluginDirectoryPath;
@@ -72,6 +73,7 @@ public class EiffelPluginConfiguration {
         // Read plugin configuration
         this.enabled = pluginConfig.getBoolean(ENABLED, false);
         this.filter = getMultiValueParameters(FILTER, pluginConfig);
+        this.branchFilter = new BranchFilter(this.filter);
         this.remremPublishURL = pluginConfig.getString(REMREM_PUBLISH_URL);
         this.remremUsername = pluginConfig.getString(REMREM_USERNAME);
         this.remremPassword = pluginConfig.getString(REMREM_PASSWORD);
@@ -113,6 +115,15 @@ public class EiffelPluginConfiguration {
         return filter;
     }
 
+    /**
+     * Returns the compiled branch filter, compiled once when the configuration is read.
+     *
+     * @return BranchFilter
+     */
+    public BranchFilter getBranchFilter() {
+        return branchFilter;
+    }
+
     public boolean isEnabled() {
         return enabled;
     }
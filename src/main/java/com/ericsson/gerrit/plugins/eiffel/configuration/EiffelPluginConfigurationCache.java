@@ -0,0 +1,96 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.configuration;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Keeps the EiffelPluginConfiguration of each project so that the project configuration is only
+ * read when it has changed.
+ *
+ * The cache is cleared when <code>refs/meta/config</code> of any project is updated. A project
+ * configuration change is rare, clearing all projects means that changes inherited from a parent
+ * project are also picked up without resolving the project hierarchy.
+ *
+ */
+@Singleton
+public class EiffelPluginConfigurationCache implements GitReferenceUpdatedListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            EiffelPluginConfigurationCache.class);
+
+    private final String pluginName;
+    private final File pluginDirectoryPath;
+    private final PluginConfigFactory pluginConfigFactory;
+    private final Map<Project.NameKey, EiffelPluginConfiguration> configurations = new ConcurrentHashMap<>();
+
+    @Inject
+    public EiffelPluginConfigurationCache(@PluginName final String pluginName,
+            @PluginData final File pluginDirectoryPath,
+            final PluginConfigFactory pluginConfigFactory) {
+        this.pluginName = pluginName;
+        this.pluginDirectoryPath = pluginDirectoryPath;
+        this.pluginConfigFactory = pluginConfigFactory;
+    }
+
+    /**
+     * Returns the configuration of the project, reading it if it is not cached.
+     *
+     * @param project
+     * @return EiffelPluginConfiguration
+     */
+    public EiffelPluginConfiguration get(final Project.NameKey project) {
+        return configurations.computeIfAbsent(project, this::load);
+    }
+
+    /**
+     * Removes all cached configurations.
+     */
+    public void invalidateAll() {
+        configurations.clear();
+    }
+
+    @Override
+    public void onGitReferenceUpdated(final Event event) {
+        if (RefNames.REFS_CONFIG.equals(event.getRefName())) {
+            LOGGER.debug("Configuration of project '{}' updated, clearing cached configurations.",
+                    event.getProjectName());
+            invalidateAll();
+        }
+    }
+
+    private EiffelPluginConfiguration load(final Project.NameKey project) {
+        final EiffelPluginConfiguration pluginConfig = new EiffelPluginConfiguration(pluginName,
+                project, pluginConfigFactory);
+        pluginConfig.setPluginDirectoryPath(pluginDirectoryPath);
+        return pluginConfig;
+    }
+}
@@ -18,35 +18,31 @@
 package com.ericsson.gerrit.plugins.eiffel.configuration;
 
 import io.github.resilience4j.retry.IntervalFunction;
-import io.github.resilience4j.retry.Retry;
-import io.github.resilience4j.retry.RetryConfig;
-import io.github.resilience4j.retry.RetryRegistry;
 
 public class RetryConfiguration {
 
     private static final long INITIAL_INTERVAL = 1000;
     private static final int MULTIPLIER = 2;
     private static final int MAX_ATTEMPTS = 3;
-    private static final String RETRY_SERVICE_NAME = "generateAndPublish";
 
-    private Retry retry;
+    private final IntervalFunction interval;
 
     public RetryConfiguration() {
-        IntervalFunction interval = IntervalFunction.ofExponentialBackoff(INITIAL_INTERVAL,
-                MULTIPLIER);
-        RetryConfig config = RetryConfig.custom()
-                                        .intervalFunction(interval)
-                                        .maxAttempts(MAX_ATTEMPTS)
-                                        .build();
-        RetryRegistry registry = RetryRegistry.of(config);
-        retry = registry.retry(RETRY_SERVICE_NAME);
-    }
-
-    public Retry getRetryPolicy() {
-        return retry;
+        interval = IntervalFunction.ofExponentialBackoff(INITIAL_INTERVAL, MULTIPLIER);
     }
 
     public int getMaxAttempts() {
         return MAX_ATTEMPTS;
     }
+
+    /**
+     * Returns the time to wait before the next attempt, in milliseconds, after the given number of
+     * failed attempts.
+     *
+     * @param failedAttempts
+     * @return long
+     */
+    public long getRetryInterval(final int failedAttempts) {
+        return interval.apply(failedAttempts);
+    }
 }
@@ -52,6 +52,18 @@ public class EiffelEventGenerator {
     }
 
 
+    static String getUrlBase(final String url) {
+        if (url == null) {
+            return null;
+        }
+        final int authorityStart = url.indexOf("://");
+        if (authorityStart < 0) {
+            return null;
+        }
+        final int pathStart = url.indexOf('/', authorityStart + 3);
+        return pathStart < 0 ? url : url.substring(0, pathStart);
+    }
+
     private static String getSshBaseUrl(final String host) throws URISyntaxException {
         URI uri;
         uri = new URI("ssh", null, host, DEFAULT_SSH_PORT, "/", null, null);
@@ -19,6 +19,7 @@ package com.ericsson.gerrit.plugins.eiffel.events.generators;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
 import com.ericsson.gerrit.plugins.eiffel.git.CommitInformation;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStore;
 import com.google.gerrit.server.data.ChangeAttribute;
 import com.google.gerrit.server.data.PatchSetAttribute;
 import com.google.gerrit.server.events.PatchSetCreatedEvent;
@@ -35,12 +36,16 @@ public final class EiffelSourceChangeCreatedEventGenerator extends EiffelEventGe
      * @param patchSetCreatedEvent
      * @param pluginDirectoryPath
      * @param commitInformation
+     * @param eventIdStore the store the linked event ids are looked up in
+     * @param sourceHostResolver resolves the host name and repository URI of the event
      * @return EiffelSourceChangeCreatedEvent
      */
     public static EiffelSourceChangeCreatedEvent generate(
             final EiffelPluginConfiguration pluginConfig,
             final PatchSetCreatedEvent patchSetCreatedEvent,
-            final CommitInformation commitInformation) {
+            final CommitInformation commitInformation,
+            final EventIdStore eventIdStore,
+            final SourceHostResolver sourceHostResolver) {
         final ChangeAttribute changeAttribute = patchSetCreatedEvent.change.get();
         final PatchSetAttribute patchSetAttribute = patchSetCreatedEvent.patchSet.get();
         final String projectName = changeAttribute.project;
@@ -57,7 +62,7 @@ public final class EiffelSourceChangeCreatedEventGenerator extends EiffelEventGe
         final EiffelSourceChangeCreatedEvent eiffelEvent = new EiffelSourceChangeCreatedEvent();
         eiffelEvent.msgParams.meta.type = TYPE;
         eiffelEvent.msgParams.meta.source.name = META_SOURCE_NAME;
-        eiffelEvent.msgParams.meta.source.host = determineHostName();
+        eiffelEvent.msgParams.meta.source.host = sourceHostResolver.getHostName();
         eiffelEvent.msgParams.meta.source.uri = url;
 
         eiffelEvent.eventParams.data.author.name = name;
@@ -71,11 +76,13 @@ public final class EiffelSourceChangeCreatedEventGenerator extends EiffelEventGe
         eiffelEvent.eventParams.data.change.insertions = insertions;
 
         eiffelEvent.eventParams.data.gitIdentifier.commitId = commitId;
-        eiffelEvent.eventParams.data.gitIdentifier.repoUri = createRepoURI(url, projectName);
+        eiffelEvent.eventParams.data.gitIdentifier.repoUri =
+                sourceHostResolver.getRepoURI(url, projectName);
         eiffelEvent.eventParams.data.gitIdentifier.branch = branch;
         eiffelEvent.eventParams.data.gitIdentifier.repoName = projectName;
 
-        final LinkGenerator linkGenerator = new LinkGenerator(pluginConfig, commitInformation);
+        final LinkGenerator linkGenerator = new LinkGenerator(pluginConfig, eventIdStore,
+                commitInformation);
         linkGenerator.addSccBase(commitId);
         linkGenerator.addSccPreviousVersion(changeId);
 
@@ -19,6 +19,7 @@ package com.ericsson.gerrit.plugins.eiffel.events.generators;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
 import com.ericsson.gerrit.plugins.eiffel.git.CommitInformation;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStore;
 import com.google.gerrit.server.data.ChangeAttribute;
 import com.google.gerrit.server.data.PatchSetAttribute;
 import com.google.gerrit.server.events.ChangeMergedEvent;
@@ -34,10 +35,13 @@ public final class EiffelSourceChangeSubmittedEventGenerator extends EiffelEvent
      * @param pluginConfig
      * @param commitInformation
      * @param pluginConfig
+     * @param eventIdStore the store the linked event ids are looked up in
+     * @param sourceHostResolver resolves the host name and repository URI of the event
      * @return EiffelSourceChangeSubmittedEvent
      */
     public static EiffelSourceChangeSubmittedEvent generate(final EiffelPluginConfiguration pluginConfig,
-            final ChangeMergedEvent changeMergedEvent, final CommitInformation commitInformation) {
+            final ChangeMergedEvent changeMergedEvent, final CommitInformation commitInformation,
+            final EventIdStore eventIdStore, final SourceHostResolver sourceHostResolver) {
         final ChangeAttribute changeAttribute = changeMergedEvent.change.get();
         final PatchSetAttribute patchSetAttribute = changeMergedEvent.patchSet.get();
         final String commitId = changeMergedEvent.newRev;
@@ -52,7 +56,7 @@ public final class EiffelSourceChangeSubmittedEventGenerator extends EiffelEvent
         final EiffelSourceChangeSubmittedEvent eiffelEvent = new EiffelSourceChangeSubmittedEvent();
         eiffelEvent.msgParams.meta.type = TYPE;
         eiffelEvent.msgParams.meta.source.name = META_SOURCE_NAME;
-        eiffelEvent.msgParams.meta.source.host = determineHostName();
+        eiffelEvent.msgParams.meta.source.host = sourceHostResolver.getHostName();
         eiffelEvent.msgParams.meta.source.uri = url;
 
         eiffelEvent.eventParams.data.submitter.name = name;
@@ -60,11 +64,13 @@ public final class EiffelSourceChangeSubmittedEventGenerator extends EiffelEvent
         eiffelEvent.eventParams.data.submitter.email = email;
 
         eiffelEvent.eventParams.data.gitIdentifier.commitId = commitId;
-        eiffelEvent.eventParams.data.gitIdentifier.repoUri = createRepoURI(url, projectName);
+        eiffelEvent.eventParams.data.gitIdentifier.repoUri =
+                sourceHostResolver.getRepoURI(url, projectName);
         eiffelEvent.eventParams.data.gitIdentifier.branch = branch;
         eiffelEvent.eventParams.data.gitIdentifier.repoName = projectName;
 
-        final LinkGenerator linkGenerator = new LinkGenerator(pluginConfig, commitInformation);
+        final LinkGenerator linkGenerator = new LinkGenerator(pluginConfig, eventIdStore,
+                commitInformation);
         linkGenerator.addScsChange(changeId);
         linkGenerator.addScsPreviousVersion(commitId);
         eiffelEvent.eventParams.links = linkGenerator.generateLinks();
@@ -10,8 +10,8 @@ import org.slf4j.LoggerFactory;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EventType;
 import com.ericsson.gerrit.plugins.eiffel.events.models.Link;
-import com.ericsson.gerrit.plugins.eiffel.exceptions.NoSuchElementException;
 import com.ericsson.gerrit.plugins.eiffel.git.CommitInformation;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStore;
 import com.ericsson.gerrit.plugins.eiffel.storage.EventStorage;
 import com.ericsson.gerrit.plugins.eiffel.storage.EventStorageFactory;
 
@@ -27,10 +27,12 @@ public class LinkGenerator {
     private static final String LINK_TYPE_CHANGE = "CHANGE";
     private final ArrayList<Link> links;
     private final CommitInformation commitInformation;
+    private final EventIdStore eventIdStore;
 
     public LinkGenerator(final EiffelPluginConfiguration pluginConfig,
-            final CommitInformation commitInformation) {
+            final EventIdStore eventIdStore, final CommitInformation commitInformation) {
         this.pluginConfig = pluginConfig;
+        this.eventIdStore = eventIdStore;
         this.commitInformation = commitInformation;
         links = new ArrayList<>();
     }
@@ -102,32 +104,36 @@ public class LinkGenerator {
     }
 
     /**
-     * Will for a given list of search criteria return the first found event
+     * Will for a given list of search criteria return the first found event, all search criteria
+     * are looked up at once
      */
     private String getPreviousEiffelEventId(final String linkedEiffelEventType,
             final List<String> searchCriterias) {
-        for (final String searchCriteria : searchCriterias) {
-            final String eiffelEventId = getPreviousEiffelEventId(linkedEiffelEventType,
-                    searchCriteria);
-            if (!StringUtils.isEmpty(eiffelEventId)) {
-                return eiffelEventId;
-            }
+        if (searchCriterias.isEmpty()) {
+            return "";
+        }
+        try {
+            final EventStorage eventStorage = EventStorageFactory.getEventStorage(
+                    pluginConfig, eventIdStore, linkedEiffelEventType);
+            return eventStorage.findFirstEventId(pluginConfig.getProject(), searchCriterias).orElse("");
+        } catch (final IllegalArgumentException e) {
+            LOGGER.error("Could not get previous Eiffel event.", e);
+            return "";
+        } catch (final Exception e) {
+            LOGGER.error("Could not get last submitted eiffel event id.", e);
+            return "";
         }
-        return "";
     }
 
     private String getPreviousEiffelEventId(final String linkedEiffelEventType,
             final String searchCriteria) {
         try {
             final EventStorage eventStorage = EventStorageFactory.getEventStorage(
-                    pluginConfig, linkedEiffelEventType);
-            return eventStorage.getEventId(pluginConfig.getProject(), searchCriteria);
+                    pluginConfig, eventIdStore, linkedEiffelEventType);
+            return eventStorage.findEventId(pluginConfig.getProject(), searchCriteria).orElse("");
         } catch (final IllegalArgumentException e) {
             LOGGER.error("Could not get previous Eiffel event.", e);
             return "";
-        } catch (final NoSuchElementException e) {
-            LOGGER.debug("Event Storage did not return any value for this query.", e);
-            return "";
         } catch (final Exception e) {
             LOGGER.error("Could not get last submitted eiffel event id.", e);
             return "";
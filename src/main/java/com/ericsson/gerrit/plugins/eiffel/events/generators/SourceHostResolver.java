@@ -0,0 +1,152 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.events.generators;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Resolves the host name sent as <code>meta.source.host</code> of the Eiffel events. The name is
+ * looked up in the background when the plugin is started and then refreshed, so that neither
+ * starting the plugin nor generating an event waits for a host name lookup. Events generated before
+ * the first lookup has finished are sent without source host. A host name given by the
+ * <code>sourceHost</code> setting is used as it is. Until the plugin is started the host name is
+ * resolved on first use.
+ *
+ * The repository URIs of the events are kept here as well, they only depend on the host of the
+ * change URL.
+ *
+ */
+@Singleton
+public class SourceHostResolver implements LifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SourceHostResolver.class);
+
+    static final String SOURCE_HOST = "sourceHost";
+    static final String REFRESH_INTERVAL = "sourceHostRefreshInterval";
+    private static final long DEFAULT_REFRESH_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private final WorkQueue workQueue;
+    private final String configuredHostName;
+    private final long refreshInterval;
+    private final Map<String, String> repoURIs = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> refreshTask;
+    private volatile String hostName;
+    private volatile boolean resolved;
+
+    @Inject
+    public SourceHostResolver(final WorkQueue workQueue, final PluginConfigFactory config,
+            @PluginName final String pluginName) {
+        final PluginConfig pluginConfig = config.getFromGerritConfig(pluginName, true);
+        this.configuredHostName = pluginConfig.getString(SOURCE_HOST, "");
+        this.refreshInterval = pluginConfig.getLong(REFRESH_INTERVAL, DEFAULT_REFRESH_INTERVAL);
+        this.workQueue = workQueue;
+    }
+
+    @Override
+    public void start() {
+        if (!configuredHostName.isEmpty()) {
+            setHostName(configuredHostName);
+            LOGGER.info("Sending Eiffel events with source host '{}'.", configuredHostName);
+            return;
+        }
+        setHostName(null);
+        if (refreshInterval > 0) {
+            refreshTask = workQueue.getDefaultQueue().scheduleAtFixedRate(
+                    this::refresh, 0, refreshInterval, TimeUnit.MILLISECONDS);
+        } else {
+            refreshTask = workQueue.getDefaultQueue().schedule(
+                    this::refresh, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+            refreshTask = null;
+        }
+        resolved = false;
+    }
+
+    /**
+     * Returns the host name of the Eiffel events, null if it could not be resolved.
+     *
+     * @return String
+     */
+    public String getHostName() {
+        if (!resolved) {
+            refresh();
+        }
+        return hostName;
+    }
+
+    /**
+     * Resolves the host name of the local host again. A host name resolved before is kept if the
+     * local host cannot be resolved.
+     */
+    void refresh() {
+        final String localHostName = EiffelEventGenerator.determineHostName();
+        if (localHostName == null) {
+            if (hostName == null) {
+                LOGGER.warn("Could not resolve the local host name, events are sent without source host.");
+                setHostName(null);
+            }
+            return;
+        }
+        if (!localHostName.equals(hostName)) {
+            LOGGER.info("Sending Eiffel events with source host '{}'.", localHostName);
+        }
+        setHostName(localHostName);
+    }
+
+    /**
+     * Returns the repository URI of a change URL. The URI only depends on the scheme and host of the
+     * change URL and is created once per scheme and host, which in practice is the canonical web URL
+     * of Gerrit.
+     *
+     * @param url
+     * @param projectName
+     * @return String
+     */
+    public String getRepoURI(final String url, final String projectName) {
+        final String urlBase = EiffelEventGenerator.getUrlBase(url);
+        if (urlBase == null) {
+            return EiffelEventGenerator.createRepoURI(url, projectName);
+        }
+        return repoURIs.computeIfAbsent(urlBase,
+                key -> EiffelEventGenerator.createRepoURI(url, projectName));
+    }
+
+    void setHostName(final String name) {
+        hostName = name;
+        resolved = true;
+    }
+}
@@ -19,42 +19,70 @@ package com.ericsson.gerrit.plugins.eiffel.git;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gerrit.extensions.restapi.IdString;
 import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.extensions.restapi.UnprocessableEntityException;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.project.CommitResource;
 import com.google.gerrit.server.project.CommitsCollection;
 import com.google.gerrit.server.project.ProjectResource;
 import com.google.gerrit.server.project.ProjectsCollection;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 
 /**
  * A class to fetch information of a commit from the repository.
  *
+ * The parents of a commit given by its full SHA are read directly from the repository and kept in
+ * a bounded cache, commits never change so the cached parents are never outdated. Other commit
+ * ids, and commits that cannot be read from the repository, are resolved through the project and
+ * commit REST collections.
+ *
  * <strong>Note:</strong> This class uses injects. To use this class the caller must inject it,
  * otherwise the injection framework cannot instantiate this class properly.
  *
  */
+@Singleton
 public class CommitInformation {
     private static final Logger LOGGER = LoggerFactory.getLogger(CommitInformation.class);
+    static final int PARENTS_CACHE_SIZE = 10000;
+
     private final CommitsCollection commitsCollection;
     private final ProjectsCollection projectsCollection;
+    private final GitRepositoryManager repositoryManager;
+    private final Map<String, List<String>> parentsCache = new LinkedHashMap<String, List<String>>(16, 0.75f,
+            true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, List<String>> eldest) {
+            return size() > PARENTS_CACHE_SIZE;
+        }
+    };
 
     /**
      * Package private constructor with injection for testing reasons. Injecting directly as field
      * variables makes it harder to test
      */
     @Inject
-    CommitInformation(final CommitsCollection commitsCollection, final ProjectsCollection projectsCollection) {
+    CommitInformation(final CommitsCollection commitsCollection, final ProjectsCollection projectsCollection,
+            final GitRepositoryManager repositoryManager) {
         this.commitsCollection = commitsCollection;
         this.projectsCollection = projectsCollection;
+        this.repositoryManager = repositoryManager;
     }
 
     /**
@@ -66,11 +94,53 @@ public class CommitInformation {
      * @return A list of parents SHAs
      */
     public List<String> getParentsSHAs(final String commitId, final String projectName) {
+        final boolean fullCommitId = ObjectId.isId(commitId);
+        if (fullCommitId) {
+            final List<String> cachedParentsSHAs = getCachedParentsSHAs(commitId);
+            if (cachedParentsSHAs != null) {
+                return cachedParentsSHAs;
+            }
+            final List<String> parentsSHAs = readParentsSHAs(commitId, projectName);
+            if (parentsSHAs != null) {
+                return cacheParentsSHAs(commitId, parentsSHAs);
+            }
+        }
+
         final List<RevCommit> parents = getParents(commitId, projectName);
         final List<String> parentsSHAs = getSHAs(parents);
+        if (fullCommitId && !parentsSHAs.isEmpty()) {
+            return cacheParentsSHAs(commitId, parentsSHAs);
+        }
         return parentsSHAs;
     }
 
+    /**
+     * Reads the parents of the commit from the repository of the project.
+     *
+     * @return the parents SHAs, or null if the commit could not be read
+     */
+    private List<String> readParentsSHAs(final String commitId, final String projectName) {
+        try (Repository repository = repositoryManager.openRepository(new Project.NameKey(projectName));
+                RevWalk walk = new RevWalk(repository)) {
+            walk.setRetainBody(false);
+            final RevCommit commit = walk.parseCommit(ObjectId.fromString(commitId));
+            return getSHAs(Arrays.asList(commit.getParents()));
+        } catch (final IOException e) {
+            LOGGER.debug("Cannot read the commit {} in {} from the repository.", commitId, projectName, e);
+            return null;
+        }
+    }
+
+    private synchronized List<String> getCachedParentsSHAs(final String commitId) {
+        return parentsCache.get(commitId);
+    }
+
+    private synchronized List<String> cacheParentsSHAs(final String commitId, final List<String> parentsSHAs) {
+        final List<String> cachedParentsSHAs = Collections.unmodifiableList(parentsSHAs);
+        parentsCache.put(commitId, cachedParentsSHAs);
+        return cachedParentsSHAs;
+    }
+
     /**
      * Will return a list of parents for a given commit. If the collections cannot find the project
      * or commit, an empty list will be returned.
@@ -0,0 +1,106 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Groups items with the same key into batches. A batch is handed to the flush action when it
+ * reaches the max batch size or when the batch window has passed since its first item was added,
+ * whichever comes first.
+ *
+ * @param <T> the type of the batched items
+ */
+public class Batcher<T> {
+    private final int maxBatchSize;
+    private final long batchWindow;
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<List<T>> flushAction;
+    private final Map<String, List<T>> openBatches = new HashMap<>();
+
+    /**
+     * @param maxBatchSize the max number of items in a batch
+     * @param batchWindow  the max time in milliseconds an item waits for the batch to fill up
+     * @param scheduler    the executor the batch window is timed on
+     * @param flushAction  called with every completed batch
+     */
+    public Batcher(final int maxBatchSize, final long batchWindow,
+            final ScheduledExecutorService scheduler, final Consumer<List<T>> flushAction) {
+        this.maxBatchSize = maxBatchSize;
+        this.batchWindow = batchWindow;
+        this.scheduler = scheduler;
+        this.flushAction = flushAction;
+    }
+
+    /**
+     * Adds an item to the open batch of the key, opening a new batch if needed.
+     *
+     * @param key
+     * @param item
+     */
+    public void add(final String key, final T item) {
+        List<T> completedBatch = null;
+        synchronized (openBatches) {
+            List<T> batch = openBatches.get(key);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                openBatches.put(key, batch);
+                if (maxBatchSize > 1 && !scheduleFlush(key, batch)) {
+                    completedBatch = batch;
+                }
+            }
+            batch.add(item);
+            if (batch.size() >= maxBatchSize) {
+                completedBatch = batch;
+            }
+            if (completedBatch != null) {
+                openBatches.remove(key);
+            }
+        }
+
+        if (completedBatch != null) {
+            flushAction.accept(completedBatch);
+        }
+    }
+
+    private boolean scheduleFlush(final String key, final List<T> batch) {
+        try {
+            scheduler.schedule(() -> flush(key, batch), batchWindow, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (final RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void flush(final String key, final List<T> batch) {
+        synchronized (openBatches) {
+            if (!openBatches.remove(key, batch)) {
+                // Already flushed when it became full
+                return;
+            }
+        }
+        flushAction.accept(batch);
+    }
+}
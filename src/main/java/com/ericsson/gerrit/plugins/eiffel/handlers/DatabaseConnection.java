@@ -0,0 +1,462 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.net.ConnectException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The open connections to one database file together with their prepared statements. The
+ * connections are opened on first use and the tables are created once every time they are
+ * opened. Writes to the same database are executed one at a time.
+ *
+ * When the storage profile uses write-ahead logging reads have a connection of their own, so a
+ * read never waits for a write to finish. Otherwise reads and writes share one connection.
+ *
+ * A database shared by all projects has a project column in each table, the project and the
+ * search criteria together are the primary key, and an index of the project and the time each
+ * row was last saved. Each project uses the database through a
+ * {@link ProjectDatabase}.
+ *
+ * Each row has the time its event id was last saved, so that old rows can be removed by
+ * {@link EventIdRetention}. Tables created before the column existed get it when they are
+ * opened, their rows count as saved at that time.
+ *
+ */
+class DatabaseConnection {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseConnection.class);
+    protected static final String EVENT_ID_KEY = "eventId";
+    protected static final String PROJECT_KEY = "project";
+    protected static final String UPDATED_KEY = "updated";
+    private static final int INCREMENTAL_VACUUM = 2;
+    /** The current time in milliseconds since the epoch, as an SQL expression. */
+    protected static final String CURRENT_TIME_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /**
+     * An operation executed on an open database session.
+     *
+     * @param <T> the result of the operation
+     */
+    @FunctionalInterface
+    interface SqlOperation<T> {
+        T execute(Session session) throws SQLException;
+    }
+
+    /**
+     * One open connection and the statements prepared on it, used by one thread at a time.
+     */
+    static class Session {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, PreparedStatement> preparedStatements = new HashMap<>();
+        private Connection connection;
+
+        /**
+         * Returns a prepared statement for the sql statement, prepared statements are kept as
+         * long as the connection is open.
+         *
+         * @param sqlStatement
+         * @return PreparedStatement
+         * @throws SQLException
+         */
+        PreparedStatement prepareStatement(final String sqlStatement) throws SQLException {
+            PreparedStatement preparedStatement = preparedStatements.get(sqlStatement);
+            if (preparedStatement == null) {
+                preparedStatement = connection.prepareStatement(sqlStatement);
+                preparedStatements.put(sqlStatement, preparedStatement);
+            } else {
+                preparedStatement.clearParameters();
+            }
+            return preparedStatement;
+        }
+
+        Connection getConnection() {
+            return connection;
+        }
+
+        private void close() {
+            for (PreparedStatement preparedStatement : preparedStatements.values()) {
+                try {
+                    preparedStatement.close();
+                } catch (SQLException e) {
+                    LOGGER.debug("Failed to close prepared statement.", e);
+                }
+            }
+            preparedStatements.clear();
+            if (connection != null) {
+                closeQuietly(connection);
+                connection = null;
+            }
+        }
+    }
+
+    private final String databaseFile;
+    private final StorageProfile storageProfile;
+    private final boolean sharedByProjects;
+    private final Session writer = new Session();
+    private final Session reader;
+    private volatile long lastUsed = System.currentTimeMillis();
+    private volatile boolean open;
+    private boolean incrementalVacuumChecked;
+
+
+    DatabaseConnection(final String databaseFile, final StorageProfile storageProfile,
+            final boolean sharedByProjects) {
+        this.databaseFile = databaseFile;
+        this.storageProfile = storageProfile;
+        this.sharedByProjects = sharedByProjects;
+        this.reader = storageProfile.isWriteAheadLog() ? new Session() : writer;
+    }
+
+    /**
+     * Returns true if the tables have a project column and are shared by all projects.
+     *
+     * @return boolean
+     */
+    boolean isSharedByProjects() {
+        return sharedByProjects;
+    }
+
+    /**
+     * Opens the connections and creates the tables if the connections are not already open.
+     *
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    void open() throws ConnectException, SQLException {
+        if (!open) {
+            execute(session -> null);
+        }
+    }
+
+
+    /**
+     * Executes the operation on the write connection, opening it first if needed.
+     *
+     * @param operation
+     * @return the result of the operation
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    <T> T execute(final SqlOperation<T> operation) throws ConnectException, SQLException {
+        return execute(writer, operation);
+    }
+
+    /**
+     * Executes the operation in one transaction on the write connection. The transaction is
+     * rolled back if the operation throws.
+     *
+     * @param operation
+     * @return the result of the operation
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    <T> T executeInTransaction(final SqlOperation<T> operation) throws ConnectException, SQLException {
+        return execute(writer, session -> {
+            final Connection connection = session.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                final T result = operation.execute(session);
+                connection.commit();
+                return result;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        });
+    }
+
+    /**
+     * Executes a read only operation, opening the connections first if needed.
+     *
+     * @param operation
+     * @return the result of the operation
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    <T> T query(final SqlOperation<T> operation) throws ConnectException, SQLException {
+        return execute(reader, operation);
+    }
+
+    /**
+     * Moves the content of the write-ahead log into the database, unless the database is being
+     * written to or is not open.
+     */
+    void checkpoint() {
+        if (!storageProfile.isWriteAheadLog() || !writer.lock.tryLock()) {
+            return;
+        }
+        try {
+            if (writer.connection != null) {
+                try (Statement statement = writer.connection.createStatement()) {
+                    statement.execute("PRAGMA wal_checkpoint(PASSIVE)");
+                }
+            }
+        } catch (SQLException e) {
+            LOGGER.warn("Failed to checkpoint database {}", databaseFile, e);
+        } finally {
+            writer.lock.unlock();
+        }
+    }
+
+    /**
+     * Enables incremental vacuum of a database created before it was enabled, new databases get
+     * it from the pragmas of the storage profile. It takes one complete vacuum of the database,
+     * which blocks writes while it runs, so it is only done by {@link EventIdRetention} in the
+     * background and tried once. A database that could not be vacuumed is still used.
+     *
+     * @return true if incremental vacuum is enabled
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    boolean enableIncrementalVacuum() throws ConnectException, SQLException {
+        return execute(session -> {
+            try (Statement statement = session.getConnection().createStatement()) {
+                if (queryInt(statement, "PRAGMA auto_vacuum") == INCREMENTAL_VACUUM) {
+                    return true;
+                }
+                if (incrementalVacuumChecked) {
+                    return false;
+                }
+                incrementalVacuumChecked = true;
+                LOGGER.info("Vacuuming database {} once to enable incremental vacuum.", databaseFile);
+                try {
+                    statement.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                    statement.execute("VACUUM");
+                } catch (SQLException e) {
+                    LOGGER.warn("Failed to enable incremental vacuum of database {}", databaseFile, e);
+                    return false;
+                }
+                return queryInt(statement, "PRAGMA auto_vacuum") == INCREMENTAL_VACUUM;
+            }
+        });
+    }
+
+    /**
+     * Returns pages freed by deleted rows to the file system in one transaction, at most the given
+     * number of pages. Nothing is returned from a database that incremental vacuum is not enabled
+     * for, see {@link #enableIncrementalVacuum()}.
+     *
+     * @param pages
+     * @return the number of free pages left in the database
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    int vacuum(final int pages) throws ConnectException, SQLException {
+        return executeInTransaction(session -> {
+            try (Statement statement = session.getConnection().createStatement()) {
+                if (queryInt(statement, "PRAGMA auto_vacuum") != INCREMENTAL_VACUUM) {
+                    return 0;
+                }
+                // The driver steps the pragma once per execution, which frees a single page
+                final int vacuumPages = Math.min(pages, queryInt(statement, "PRAGMA freelist_count"));
+                final PreparedStatement vacuumStatement = session.prepareStatement(
+                        String.format("PRAGMA incremental_vacuum(%d)", pages));
+                for (int i = 0; i < vacuumPages; i++) {
+                    vacuumStatement.execute();
+                }
+                return queryInt(statement, "PRAGMA freelist_count");
+            }
+        });
+    }
+
+    /**
+     * Closes the connections if they have not been used for the given time and are not in use.
+     *
+     * @param idleTimeout in milliseconds
+     */
+    void closeIfIdle(final long idleTimeout) {
+        if (System.currentTimeMillis() - lastUsed < idleTimeout || !writer.lock.tryLock()) {
+            return;
+        }
+        try {
+            if (!reader.lock.tryLock()) {
+                return;
+            }
+            try {
+                if (writer.connection != null) {
+                    LOGGER.debug("Closing idle database connection {}", databaseFile);
+                    closeSessions();
+                }
+            } finally {
+                reader.lock.unlock();
+            }
+        } finally {
+            writer.lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the connections, they are opened again on next use.
+     */
+    void close() {
+        writer.lock.lock();
+        reader.lock.lock();
+        try {
+            closeSessions();
+        } finally {
+            reader.lock.unlock();
+            writer.lock.unlock();
+        }
+    }
+
+    private <T> T execute(final Session session, final SqlOperation<T> operation)
+            throws ConnectException, SQLException {
+        session.lock.lock();
+        try {
+            lastUsed = System.currentTimeMillis();
+            openSessions();
+            return operation.execute(session);
+        } finally {
+            lastUsed = System.currentTimeMillis();
+            session.lock.unlock();
+        }
+    }
+
+    private synchronized void openSessions() throws ConnectException, SQLException {
+        if (writer.connection == null) {
+            writer.connection = openConnection(false);
+        }
+        if (reader.connection == null) {
+            reader.connection = openConnection(true);
+        }
+        open = true;
+    }
+
+    private synchronized void closeSessions() {
+        open = false;
+        reader.close();
+        writer.close();
+    }
+
+    private Connection openConnection(final boolean readOnly) throws ConnectException, SQLException {
+        final Connection newConnection = connect();
+        try (Statement statement = newConnection.createStatement()) {
+            for (String pragma : storageProfile.getPragmas(readOnly)) {
+                statement.execute(pragma);
+            }
+            if (!readOnly) {
+                createTables(newConnection, statement);
+            }
+        } catch (SQLException e) {
+            closeQuietly(newConnection);
+            throw e;
+        }
+        return newConnection;
+    }
+
+    /**
+     * This function connects to the database and returns a connection
+     *
+     * @return Connection to database
+     * @throws ConnectException
+     */
+    private Connection connect() throws ConnectException {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            return DriverManager.getConnection(databaseFile);
+        } catch (SQLException | ClassNotFoundException e) {
+            throw new ConnectException(
+                    String.format("Failed to create a database connection: %s", e));
+        }
+    }
+
+    /**
+     * This function loops the values in the Table enum and executes the create table command for
+     * each table and creates it in the database if it does not already exist.
+     *
+     * @param connection
+     * @param statement
+     * @throws SQLException
+     */
+    private void createTables(final Connection connection, final Statement statement) throws SQLException {
+        for (Table table : Table.values()) {
+            String sqlCreateStatement;
+            if (sharedByProjects) {
+                sqlCreateStatement = String.format(
+                        "CREATE TABLE IF NOT EXISTS %s (%s text NOT NULL, %s text NOT NULL, %s text, %s integer, "
+                                + "PRIMARY KEY (%s, %s)) WITHOUT ROWID",
+                        table, PROJECT_KEY, table.keyName, EVENT_ID_KEY, UPDATED_KEY, PROJECT_KEY,
+                        table.keyName);
+            } else {
+                sqlCreateStatement = String.format(
+                        "CREATE TABLE IF NOT EXISTS %s (%s text PRIMARY KEY, %s text, %s integer)", table,
+                        table.keyName, EVENT_ID_KEY, UPDATED_KEY);
+            }
+            statement.execute(sqlCreateStatement);
+            addUpdatedColumnIfMissing(connection, statement, table);
+            if (sharedByProjects) {
+                // Old rows of a project are found by retention without scanning all projects
+                statement.execute(String.format("CREATE INDEX IF NOT EXISTS %s_%s ON %s (%s, %s)", table,
+                        UPDATED_KEY, table, PROJECT_KEY, UPDATED_KEY));
+            }
+        }
+        LOGGER.debug("Created tables successfully");
+    }
+
+    /**
+     * Adds the updated column to a table created before it existed, the rows are given the
+     * current time.
+     *
+     * @param connection
+     * @param statement
+     * @param table
+     * @throws SQLException
+     */
+    private void addUpdatedColumnIfMissing(final Connection connection, final Statement statement,
+            final Table table) throws SQLException {
+        try (PreparedStatement tableInfoStatement = connection.prepareStatement(
+                String.format("PRAGMA table_info(%s)", table));
+                ResultSet columns = tableInfoStatement.executeQuery()) {
+            while (columns.next()) {
+                if (UPDATED_KEY.equals(columns.getString("name"))) {
+                    return;
+                }
+            }
+        }
+        statement.execute(String.format("ALTER TABLE %s ADD COLUMN %s integer", table, UPDATED_KEY));
+        statement.execute(String.format("UPDATE %s SET %s=%s", table, UPDATED_KEY, CURRENT_TIME_MILLIS));
+        LOGGER.info("Added column {} to table {} of database {}", UPDATED_KEY, table, databaseFile);
+    }
+
+    private static int queryInt(final Statement statement, final String sqlQuery) throws SQLException {
+        try (ResultSet result = statement.executeQuery(sqlQuery)) {
+            return result.next() ? result.getInt(1) : 0;
+        }
+    }
+
+    private static void closeQuietly(final Connection connectionToClose) {
+        try {
+            connectionToClose.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Failed to close database connection.", e);
+        }
+    }
+}
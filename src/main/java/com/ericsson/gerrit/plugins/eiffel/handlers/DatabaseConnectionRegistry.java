@@ -0,0 +1,336 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Keeps the open connections of each database file so that a storage lookup does not have to
+ * open the database file and create its tables every time. Connections that have not been used
+ * for a while are closed when the registry is next used, all connections are closed when the
+ * plugin is stopped.
+ *
+ * The connections are opened with the configured {@link StorageProfile}. When it uses
+ * write-ahead logging the logs of the open databases are checkpointed periodically. While the
+ * registry is started, saved event ids are collected and committed by the work queue when the
+ * profile has a write-behind window, see {@link ProjectDatabase#saveLater(Table, Map)}.
+ *
+ * With the <code>single</code> storage layout all projects share one database file. The database
+ * files of the projects are then migrated into it in the background when the plugin starts, a
+ * project that is used before its file is migrated is migrated right away.
+ *
+ * The key filter of a project is loaded in the background when the project is first used, so
+ * projects that are not used keep neither connections nor key filters, see
+ * {@link ProjectDatabase#loadKeyFilters()}.
+ *
+ */
+@Singleton
+public class DatabaseConnectionRegistry implements LifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseConnectionRegistry.class);
+
+    private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    private static final long IDLE_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    static final String SHARED_DATABASE_FILE = "eiffel-events.sqlite";
+
+    private final Map<String, DatabaseConnection> connections = new ConcurrentHashMap<>();
+    private final Map<String, ProjectDatabase> databases = new ConcurrentHashMap<>();
+    private final AtomicLong lastIdleCheck = new AtomicLong(System.currentTimeMillis());
+    private final StorageProfile storageProfile;
+    private volatile ScheduledExecutorService writeBehindScheduler;
+    private volatile Executor keyFilterLoader;
+
+    private final WorkQueue workQueue;
+    private final File pluginDir;
+    private ScheduledFuture<?> checkpointTask;
+    private volatile boolean started;
+
+    @Inject
+    public DatabaseConnectionRegistry(final WorkQueue workQueue, final PluginConfigFactory config,
+            @PluginName final String pluginName, @PluginData final File pluginDir) {
+        this.workQueue = workQueue;
+        this.pluginDir = pluginDir;
+        this.storageProfile = StorageProfile.fromConfig(config.getFromGerritConfig(pluginName, true));
+    }
+
+    /**
+     * Creates a registry that is not started by the plugin, the event ids are saved directly and
+     * the key filters are not loaded unless an executor is set.
+     *
+     * @param storageProfile
+     */
+    public DatabaseConnectionRegistry(final StorageProfile storageProfile) {
+        this.workQueue = null;
+        this.pluginDir = null;
+        this.storageProfile = storageProfile;
+    }
+
+    @Override
+    public void start() {
+        final long checkpointInterval = storageProfile.getCheckpointInterval();
+        if (storageProfile.isWriteAheadLog() && checkpointInterval > 0) {
+            checkpointTask = workQueue.getDefaultQueue().scheduleAtFixedRate(
+                    this::checkpointAll, checkpointInterval,
+                    checkpointInterval, TimeUnit.MILLISECONDS);
+        }
+        if (storageProfile.getWriteBehindWindow() > 0) {
+            setWriteBehindScheduler(workQueue.getDefaultQueue());
+        }
+        if (storageProfile.isKeyFilterEnabled()) {
+            setKeyFilterLoader(workQueue.getDefaultQueue());
+        }
+        started = true;
+        if (storageProfile.isSingleDatabase()) {
+            workQueue.getDefaultQueue().submit(this::migrateProjectDatabases);
+        }
+        LOGGER.info("Event storage uses profile: {}", storageProfile);
+    }
+
+    @Override
+    public void stop() {
+        started = false;
+        if (checkpointTask != null) {
+            checkpointTask.cancel(false);
+            checkpointTask = null;
+        }
+        setWriteBehindScheduler(null);
+        setKeyFilterLoader(null);
+        closeAll();
+        LOGGER.info("Event id cache hits: {}, misses: {}, key filter hits: {}", getEventIdCacheHits(),
+                getEventIdCacheMisses(), getKeyFilterHits());
+    }
+
+    /**
+     * Commits the collected event ids and closes all open connections, they are opened again on
+     * next use.
+     */
+    public void closeAll() {
+        databases.values().forEach(ProjectDatabase::flush);
+        connections.values().forEach(DatabaseConnection::close);
+    }
+
+    /**
+     * Checkpoints the write-ahead logs of all open databases that are not being written to.
+     */
+    public void checkpointAll() {
+        connections.values().forEach(DatabaseConnection::checkpoint);
+    }
+
+    /**
+     * Returns the number of event id lookups of all databases answered by the event id cache.
+     *
+     * @return long
+     */
+    public long getEventIdCacheHits() {
+        return databases.values().stream()
+                .mapToLong(database -> database.getEventIdCache().getHits()).sum();
+    }
+
+    /**
+     * Returns the number of event id lookups of all databases that queried the database.
+     *
+     * @return long
+     */
+    public long getEventIdCacheMisses() {
+        return databases.values().stream()
+                .mapToLong(database -> database.getEventIdCache().getMisses()).sum();
+    }
+
+    /**
+     * Returns the number of event id lookups of all databases answered by the key filters.
+     *
+     * @return long
+     */
+    public long getKeyFilterHits() {
+        return databases.values().stream().mapToLong(ProjectDatabase::getKeyFilterHits).sum();
+    }
+
+    /**
+     * Sets the executor that commits collected event ids, null saves event ids directly.
+     *
+     * @param scheduler
+     */
+    void setWriteBehindScheduler(final ScheduledExecutorService scheduler) {
+        writeBehindScheduler = scheduler;
+    }
+
+    ScheduledExecutorService getWriteBehindScheduler() {
+        return writeBehindScheduler;
+    }
+
+    /**
+     * Sets the executor that loads the key filters of opened projects, null leaves the key
+     * filters unloaded.
+     *
+     * @param loader
+     */
+    void setKeyFilterLoader(final Executor loader) {
+        keyFilterLoader = loader;
+    }
+
+    Executor getKeyFilterLoader() {
+        return keyFilterLoader;
+    }
+
+    /**
+     * Returns the database of the project, in the plugin data directory.
+     *
+     * @param pluginDir the plugin data directory
+     * @param project
+     * @return ProjectDatabase
+     */
+    ProjectDatabase get(final File pluginDir, final String project) {
+        closeIdleConnections();
+        final StorageProfile profile = storageProfile;
+        final Path projectDatabaseFile = Paths.get(pluginDir.toString(),
+                String.format("%s.%s", project, DatabaseHandler.FILE_TYPE_EXTENSION));
+        if (!profile.isSingleDatabase()) {
+            final String databaseFile = toJdbcUrl(projectDatabaseFile);
+            return databases.computeIfAbsent(databaseFile, key -> new ProjectDatabase(this,
+                    getConnection(databaseFile, profile, false), project, null, profile));
+        }
+
+        final String databaseFile = toJdbcUrl(Paths.get(pluginDir.toString(), SHARED_DATABASE_FILE));
+        return databases.computeIfAbsent(databaseFile + "/" + project, key -> new ProjectDatabase(this,
+                getConnection(databaseFile, profile, true), project, projectDatabaseFile, profile));
+    }
+
+    /**
+     * Migrates the database files of the projects into the shared database.
+     */
+    private void migrateProjectDatabases() {
+        final List<String> projectDatabases;
+        try {
+            projectDatabases = getProjectDatabases(pluginDir);
+        } catch (IOException e) {
+            LOGGER.error("Failed to list the project databases to migrate in {}", pluginDir, e);
+            return;
+        }
+        if (!projectDatabases.isEmpty()) {
+            LOGGER.info("Migrating {} project databases into the shared database.", projectDatabases.size());
+        }
+
+        for (String project : projectDatabases) {
+            if (!started) {
+                return;
+            }
+            try {
+                get(pluginDir, project).migrate();
+            } catch (Exception e) {
+                LOGGER.error("Failed to migrate the database of project '{}'.", project, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the projects with saved event ids in the plugin data directory, both the projects
+     * with a database file of their own and the projects in the shared database.
+     *
+     * @param pluginDir the plugin data directory
+     * @return List of project names
+     * @throws IOException
+     * @throws SQLException
+     */
+    List<String> getProjects(final File pluginDir) throws IOException, SQLException {
+        final Set<String> projects = new TreeSet<>(getProjectDatabases(pluginDir));
+        if (storageProfile.isSingleDatabase()) {
+            final String databaseFile = toJdbcUrl(Paths.get(pluginDir.toString(), SHARED_DATABASE_FILE));
+            final String sqlSelectStatement = Arrays.stream(Table.values())
+                    .map(table -> String.format("SELECT %s FROM %s", DatabaseConnection.PROJECT_KEY, table))
+                    .collect(Collectors.joining(" UNION "));
+            getConnection(databaseFile, storageProfile, true).query(session -> {
+                try (ResultSet result = session.prepareStatement(sqlSelectStatement).executeQuery()) {
+                    while (result.next()) {
+                        projects.add(result.getString(1));
+                    }
+                }
+                return null;
+            });
+        }
+        return new ArrayList<>(projects);
+    }
+
+    /**
+     * Returns the projects that have a database file of their own in the plugin data directory.
+     *
+     * @param pluginDir the plugin data directory
+     * @return List of project names
+     * @throws IOException
+     */
+    private static List<String> getProjectDatabases(final File pluginDir) throws IOException {
+        final Path pluginPath = pluginDir.toPath();
+        final String extension = "." + DatabaseHandler.FILE_TYPE_EXTENSION;
+        try (Stream<Path> files = Files.walk(pluginPath)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> pluginPath.relativize(file).toString().replace(File.separatorChar, '/'))
+                    .filter(relativePath -> relativePath.endsWith(extension))
+                    .map(relativePath -> relativePath.substring(0, relativePath.length() - extension.length()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private DatabaseConnection getConnection(final String databaseFile,
+            final StorageProfile profile, final boolean sharedByProjects) {
+        return connections.computeIfAbsent(databaseFile,
+                file -> new DatabaseConnection(file, profile, sharedByProjects));
+    }
+
+    private static String toJdbcUrl(final Path databaseFile) {
+        return String.format("jdbc:sqlite:%s", databaseFile);
+    }
+
+    private void closeIdleConnections() {
+        final long now = System.currentTimeMillis();
+        final long lastCheck = lastIdleCheck.get();
+        if (now - lastCheck < IDLE_CHECK_INTERVAL || !lastIdleCheck.compareAndSet(lastCheck, now)) {
+            return;
+        }
+        connections.values().forEach(connection -> connection.closeIfIdle(IDLE_TIMEOUT));
+    }
+}
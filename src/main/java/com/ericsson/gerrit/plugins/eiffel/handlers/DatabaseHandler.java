@@ -18,12 +18,16 @@ import java.io.File;
 import java.net.ConnectException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,29 +41,34 @@ import com.ericsson.gerrit.plugins.eiffel.exceptions.NoSuchElementException;
  * project depending how the classes that uses this handler implements this
  * function.
  *
+ * The database connection is shared by all handlers of the same file and kept
+ * open between calls, see {@link DatabaseConnectionRegistry}. When the storage
+ * profile uses a single database all projects share one file instead. Recently saved and
+ * fetched event ids are returned from an {@link EventIdCache} without querying
+ * the database, and search criteria that are not in the {@link KeyFilter} of the
+ * project are known to have no event id without querying the database.
+ *
  */
 public class DatabaseHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseHandler.class);
-    private static final String EVENT_ID_KEY = "eventId";
+    private static final String EVENT_ID_KEY = DatabaseConnection.EVENT_ID_KEY;
     protected static final String FILE_TYPE_EXTENSION = "db";
 
-    private final String databaseFile;
+    private final ProjectDatabase database;
     private File pluginDir;
     private String project;
 
-    public DatabaseHandler(final File pluginDir, final String project) throws ConnectException {
-        String fileName = String.format("%s.%s", project, FILE_TYPE_EXTENSION);
-
-        final Path filePath = Paths.get(pluginDir.toString(), fileName);
-        this.databaseFile = String.format("jdbc:sqlite:%s", filePath);
+    public DatabaseHandler(final DatabaseConnectionRegistry registry, final File pluginDir,
+            final String project) throws ConnectException {
         this.pluginDir = pluginDir;
         this.project = project;
+        this.database = registry.get(pluginDir, project);
 
-        String parentPath = buildParentFilePath();
-        createParentDirsIfNecessary(parentPath);
-
-        createNewDatabase();
-        createTables();
+        if (!database.isShared()) {
+            String parentPath = buildParentFilePath();
+            createParentDirsIfNecessary(parentPath);
+        }
+        openDatabase();
     }
 
     /**
@@ -73,25 +82,132 @@ public class DatabaseHandler {
      * @throws NoSuchElementException
      */
     public String getEventID(final Table table, final String searchCriteria) throws ConnectException, NoSuchElementException {
-        String eventID = "";
+        return findEventID(table, searchCriteria).orElseThrow(() -> new NoSuchElementException(
+                "Database did not return any value for this query. Table: " + table + ",KeyName: "
+                        + table.keyName + ",searchCriteria: " + searchCriteria));
+    }
 
-        String sqlSelectStatement = String.format("SELECT %s FROM %s WHERE %s=?", EVENT_ID_KEY, table, table.keyName);
-        try (Connection connection = connect();
-                PreparedStatement preparedStatement = connection.prepareStatement(sqlSelectStatement)) {
+    /**
+     * This function returns the event id of the search criteria, or an empty optional if it has
+     * none. A failing query is logged and returns an empty optional.
+     *
+     * @param table
+     * @param searchCriteria
+     * @return Optional eventId
+     * @throws ConnectException
+     */
+    public Optional<String> findEventID(final Table table, final String searchCriteria) throws ConnectException {
+        final EventIdCache eventIdCache = database.getEventIdCache();
+        String eventID = database.getUnsavedEventId(table, searchCriteria);
+        if (eventID == null) {
+            eventID = eventIdCache.get(table, searchCriteria);
+        }
+        if (eventID != null) {
+            return Optional.of(eventID);
+        }
+        if (!database.mightContain(table, searchCriteria)) {
+            return Optional.empty();
+        }
 
-            preparedStatement.setString(1, searchCriteria);
-            eventID = executeQuery(preparedStatement);
+        eventID = "";
+        final long cacheVersion = eventIdCache.getVersion();
+        String sqlSelectStatement = database.createSelectStatement(table);
+        try {
+            eventID = database.query(connection -> {
+                PreparedStatement preparedStatement = connection.prepareStatement(sqlSelectStatement);
+                database.setSearchCriteria(preparedStatement, 1, searchCriteria);
+                return executeQuery(preparedStatement);
+            });
 
         } catch (SQLException e) {
             LOGGER.error("Error when trying to fetch values from database: {}", e.getMessage(), e);
         }
 
         if (eventID.isEmpty()) {
-            throw new NoSuchElementException("Database did not return any value for this query. Table: "
-                    + table + ",KeyName: " + table.keyName + ",searchCriteria: " + searchCriteria);
+            return Optional.empty();
         }
+        eventIdCache.putIfUnchanged(table, searchCriteria, eventID, cacheVersion);
 
-        return eventID;
+        return Optional.of(eventID);
+    }
+
+    /**
+     * This function returns the event id of the first search criteria in the list that has an
+     * event id. The search criteria that are not cached, and not known by the key filter to have
+     * no event id, are looked up with a single query.
+     *
+     * @param table
+     * @param searchCriteria in order of preference, for example the parents of a commit
+     * @return eventId
+     * @throws ConnectException
+     * @throws NoSuchElementException
+     */
+    public String getFirstEventID(final Table table, final List<String> searchCriteria)
+            throws ConnectException, NoSuchElementException {
+        return findFirstEventID(table, searchCriteria).orElseThrow(() -> new NoSuchElementException(
+                "Database did not return any value for this query. Table: " + table + ",KeyName: "
+                        + table.keyName + ",searchCriteria: " + searchCriteria));
+    }
+
+    /**
+     * This function returns the event id of the first search criteria in the list that has an
+     * event id, or an empty optional if none of them has one, see
+     * {@link #getFirstEventID(Table, List)}.
+     *
+     * @param table
+     * @param searchCriteria in order of preference
+     * @return Optional eventId
+     * @throws ConnectException
+     */
+    public Optional<String> findFirstEventID(final Table table, final List<String> searchCriteria)
+            throws ConnectException {
+        final EventIdCache eventIdCache = database.getEventIdCache();
+        // An event id known without a query is used unless an earlier search criteria has one
+        int knownIndex = searchCriteria.size();
+        String knownEventID = null;
+        for (int i = 0; i < searchCriteria.size() && knownEventID == null; i++) {
+            knownEventID = database.getUnsavedEventId(table, searchCriteria.get(i));
+            if (knownEventID == null) {
+                knownEventID = eventIdCache.get(table, searchCriteria.get(i));
+            }
+            knownIndex = i;
+        }
+        if (knownEventID != null && knownIndex == 0) {
+            return Optional.of(knownEventID);
+        }
+
+        final List<String> unknownSearchCriteria = new ArrayList<>();
+        final int unknownCount = knownEventID != null ? knownIndex : searchCriteria.size();
+        for (String key : searchCriteria.subList(0, unknownCount)) {
+            if (database.mightContain(table, key)) {
+                unknownSearchCriteria.add(key);
+            }
+        }
+        Map<String, String> eventIDs = Collections.emptyMap();
+        final long cacheVersion = eventIdCache.getVersion();
+        if (!unknownSearchCriteria.isEmpty()) {
+            String sqlSelectStatement = database.createSelectAllStatement(table, unknownSearchCriteria.size());
+            try {
+                eventIDs = database.query(connection -> {
+                    PreparedStatement preparedStatement = connection.prepareStatement(sqlSelectStatement);
+                    database.setSearchCriteria(preparedStatement, 1, unknownSearchCriteria);
+                    return executeQueryAll(preparedStatement, table);
+                });
+
+            } catch (SQLException e) {
+                LOGGER.error("Error when trying to fetch values from database: {}", e.getMessage(), e);
+            }
+        }
+
+        for (String key : unknownSearchCriteria) {
+            final String eventID = eventIDs.get(key);
+            if (eventID != null) {
+                eventIDs.forEach((foundKey, foundEventID) -> eventIdCache.putIfUnchanged(table, foundKey,
+                        foundEventID, cacheVersion));
+                return Optional.of(eventID);
+            }
+        }
+        return Optional.ofNullable(knownEventID);
     }
 
     /**
@@ -106,8 +222,10 @@ public class DatabaseHandler {
      */
     public void updateInto(final Table table, final String searchCriteria, final String eiffelEvent)
             throws ConnectException, SQLException {
-        String sqlUpdateStatement = String.format("UPDATE %s SET %s=? WHERE %s=?", table, EVENT_ID_KEY, table.keyName);
+        String sqlUpdateStatement = database.createUpdateStatement(table);
+        database.addKeys(table, Collections.singleton(searchCriteria));
         prepareAndExecuteStatement(sqlUpdateStatement, searchCriteria, eiffelEvent);
+        database.getEventIdCache().putAll(table, Collections.singletonMap(searchCriteria, eiffelEvent));
     }
 
     /**
@@ -122,62 +240,111 @@ public class DatabaseHandler {
      */
     public void insertInto(final Table table, final String key, final String value)
             throws SQLException, ConnectException {
-        String sqlInsertStatement = String.format("INSERT INTO %s(%s,%s) VALUES(?,?)", table, EVENT_ID_KEY,
-                table.keyName);
+        String sqlInsertStatement = database.createInsertStatement(table);
+        database.addKeys(table, Collections.singleton(key));
         prepareAndExecuteStatement(sqlInsertStatement, key, value);
+        database.getEventIdCache().putAll(table, Collections.singletonMap(key, value));
 
     }
 
     /**
-     * This function will create a sql database structure in the database file if it
-     * does not exist.
+     * This function saves the event id of the search criteria, inserting it if the search
+     * criteria does not exist in the table and replacing the event id otherwise. The replaced
+     * event id is read in the same transaction as the upsert.
      *
+     * @param table
+     * @param searchCriteria
+     * @param eiffelEvent
+     * @return the replaced event id, or an empty string if there was none
      * @throws ConnectException
+     * @throws SQLException
      */
-    private void createNewDatabase() throws ConnectException {
-        try (Connection sqlConnection = connect()) {
-            if (sqlConnection != null) {
-                //When getMetaData is called, it will create the .db file
-                sqlConnection.getMetaData();
-                sqlConnection.close();
-            }
+    public String upsert(final Table table, final String searchCriteria, final String eiffelEvent)
+            throws ConnectException, SQLException {
+        String sqlSelectStatement = database.createSelectStatement(table);
+        String sqlUpsertStatement = database.createUpsertStatement(table);
+        database.addKeys(table, Collections.singleton(searchCriteria));
+        try {
+            String oldEventId = database.executeInTransaction(connection -> {
+                PreparedStatement selectStatement = connection.prepareStatement(sqlSelectStatement);
+                database.setSearchCriteria(selectStatement, 1, searchCriteria);
+                String replacedEventId = executeQuery(selectStatement);
+
+                PreparedStatement upsertStatement = connection.prepareStatement(sqlUpsertStatement);
+                upsertStatement.setString(1, eiffelEvent);
+                database.setSearchCriteria(upsertStatement, 2, searchCriteria);
+                upsertStatement.executeUpdate();
+                return replacedEventId;
+            });
+            database.getEventIdCache().putAll(table, Collections.singletonMap(searchCriteria, eiffelEvent));
+            return oldEventId;
 
         } catch (SQLException e) {
-            LOGGER.error("Error when trying to create new database.", e);
+            LOGGER.error("Error when trying to save event id {} with search criteria {} into table {}",
+                    eiffelEvent, searchCriteria, table, e);
+            throw e;
         }
     }
 
     /**
-     * This function loops the values in the Table enum and executes the create
-     * table command for each table and creates it in the database if it does not already
-     * exist.
+     * This function saves several event ids to the given table in one transaction. Each entry is
+     * updated if the search criteria already exists in the table and inserted otherwise.
      *
+     * @param table
+     * @param eventIds event ids mapped by search criteria
      * @throws ConnectException
+     * @throws SQLException
      */
-    private void createTables() throws ConnectException {
-        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
-            for (Table table : Table.values()) {
-                createTable(table, statement);
-            }
-            LOGGER.debug("Created tables successfully");
+    public void saveAll(final Table table, final Map<String, String> eventIds)
+            throws ConnectException, SQLException {
+        try {
+            database.executeInTransaction(connection -> {
+                database.upsertAll(connection, table, eventIds);
+                return null;
+            });
+            database.getEventIdCache().putAll(table, eventIds);
+
         } catch (SQLException e) {
-            LOGGER.error("Error while creating Tables in database.", e);
+            LOGGER.error("Error when trying to save {} event ids into table {}: {}", eventIds.size(), table,
+                    eventIds, e);
+            throw e;
         }
     }
 
     /**
-     * This function connects to the database and returns a connection
+     * Returns true if event ids saved with {@link #saveLater(Table, Map)} are committed later
+     * together with other saved event ids.
+     *
+     * @return boolean
+     */
+    public boolean isWriteBehindEnabled() {
+        return database.isWriteBehindEnabled();
+    }
+
+    /**
+     * This function saves event ids to the given table together with the event ids saved by
+     * other handlers of the same database. The event ids are returned by
+     * {@link #getEventID(Table, String)} right away, even before they are committed.
+     *
+     * @param table
+     * @param eventIds event ids mapped by search criteria
+     * @return a future completed when the event ids are committed
+     */
+    public CompletableFuture<Void> saveLater(final Table table, final Map<String, String> eventIds) {
+        return database.saveLater(table, eventIds);
+    }
+
+    /**
+     * This function opens the shared database connection, which creates the database
+     * file and the tables if they do not exist.
      *
-     * @return Connection to database
      * @throws ConnectException
      */
-    private Connection connect() throws ConnectException {
+    private void openDatabase() throws ConnectException {
         try {
-            Class.forName("org.sqlite.JDBC");
-            return DriverManager.getConnection(this.databaseFile);
-        } catch (SQLException | ClassNotFoundException e) {
-            throw new ConnectException(
-                    String.format("Failed to create a database connection.", e));
+            database.open();
+        } catch (SQLException e) {
+            LOGGER.error("Error while creating Tables in database.", e);
         }
     }
 
@@ -198,8 +365,26 @@ public class DatabaseHandler {
     }
 
     /**
-     * Creates a prepared statement and executes an update on the sqlStatement
-     * given.
+     * Executes the prepared statement and returns the event ids mapped by search criteria.
+     *
+     * @param preparedStatement
+     * @param table
+     * @return Map of event ids
+     * @throws SQLException
+     */
+    private Map<String, String> executeQueryAll(final PreparedStatement preparedStatement, final Table table)
+            throws SQLException {
+        final Map<String, String> eventIDs = new HashMap<>();
+        try (ResultSet result = preparedStatement.executeQuery();) {
+            while (result.next()) {
+                eventIDs.put(result.getString(table.keyName), result.getString(EVENT_ID_KEY));
+            }
+        }
+        return eventIDs;
+    }
+
+    /**
+     * Prepares and executes an update on the sqlStatement given.
      *
      * @param sqlStatement
      * @param keyValue
@@ -209,12 +394,13 @@ public class DatabaseHandler {
      */
     private void prepareAndExecuteStatement(final String sqlStatement, final String searchCriteria, final String eiffelEvent)
             throws ConnectException, SQLException {
-        // We must declare the connection here to get to auto close
-        try (Connection connection = connect();
-                PreparedStatement preparedStatement = connection.prepareStatement(sqlStatement)) {
-            preparedStatement.setString(1, eiffelEvent);
-            preparedStatement.setString(2, searchCriteria);
-            int updateCount = preparedStatement.executeUpdate();
+        try {
+            int updateCount = database.execute(connection -> {
+                PreparedStatement preparedStatement = connection.prepareStatement(sqlStatement);
+                preparedStatement.setString(1, eiffelEvent);
+                database.setSearchCriteria(preparedStatement, 2, searchCriteria);
+                return preparedStatement.executeUpdate();
+            });
 
             if (updateCount == 0) {
                 throw new SQLException("No changes was saved in the database.");
@@ -263,10 +449,4 @@ public class DatabaseHandler {
         }
         return relativeParentPath;
     }
-
-    private void createTable(final Table table, final Statement statement) throws ConnectException, SQLException {
-        String sqlCreateStatement = String.format("CREATE TABLE IF NOT EXISTS %s (%s text PRIMARY KEY, %s text)", table,
-                table.keyName, EVENT_ID_KEY);
-        statement.execute(sqlCreateStatement);
-    }
-}
\ No newline at end of file
+}
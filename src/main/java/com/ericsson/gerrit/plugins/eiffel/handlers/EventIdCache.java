@@ -0,0 +1,184 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the most recently used event ids of one database so that repeated lookups of the same
+ * change id or commit id do not query the database. Each table keeps at most the configured
+ * number of event ids, the least recently used event id is evicted first and event ids are
+ * looked up again once they are older than the time to live.
+ *
+ * Event ids are added when they are saved and removed when their rows are deleted. An event id
+ * read from the database is only added if no event id was saved or deleted while it was read, so
+ * a lookup never replaces a newer event id or brings back a deleted one.
+ *
+ */
+class EventIdCache {
+    private final int maxSize;
+    private final long timeToLive;
+    private final Map<Table, Map<String, CachedEventId>> eventIds = new EnumMap<>(Table.class);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long version;
+
+    private static class CachedEventId {
+        private final String eventId;
+        private final long expires;
+
+        CachedEventId(final String eventId, final long expires) {
+            this.eventId = eventId;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @param maxSize maximum number of event ids of each table, zero or less disables the cache
+     * @param timeToLive milliseconds an event id is kept, zero or less keeps it until evicted
+     */
+    EventIdCache(final int maxSize, final long timeToLive) {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        for (Table table : Table.values()) {
+            eventIds.put(table, new LinkedHashMap<String, CachedEventId>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, CachedEventId> eldest) {
+                    return size() > maxSize;
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the cached event id of the search criteria.
+     *
+     * @param table
+     * @param searchCriteria
+     * @return the event id, or null if it is not cached
+     */
+    String get(final Table table, final String searchCriteria) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        final CachedEventId cachedEventId;
+        synchronized (this) {
+            final Map<String, CachedEventId> tableEventIds = eventIds.get(table);
+            cachedEventId = tableEventIds.get(searchCriteria);
+            if (cachedEventId != null && isExpired(cachedEventId)) {
+                tableEventIds.remove(searchCriteria);
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        if (cachedEventId == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cachedEventId.eventId;
+    }
+
+    /**
+     * Returns a version that changes every time an event id is saved or deleted, used to add event ids read
+     * from the database with {@link #putIfUnchanged(Table, String, String, long)}.
+     *
+     * @return long
+     */
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Adds an event id read from the database unless an event id was saved after the version
+     * was fetched.
+     *
+     * @param table
+     * @param searchCriteria
+     * @param eventId
+     * @param readVersion the version fetched before the event id was read
+     */
+    synchronized void putIfUnchanged(final Table table, final String searchCriteria,
+            final String eventId, final long readVersion) {
+        if (maxSize > 0 && version == readVersion) {
+            eventIds.get(table).put(searchCriteria, newCachedEventId(eventId));
+        }
+    }
+
+    /**
+     * Adds saved event ids.
+     *
+     * @param table
+     * @param savedEventIds event ids mapped by search criteria
+     */
+    synchronized void putAll(final Table table, final Map<String, String> savedEventIds) {
+        version++;
+        if (maxSize <= 0) {
+            return;
+        }
+        final Map<String, CachedEventId> tableEventIds = eventIds.get(table);
+        for (Map.Entry<String, String> eventId : savedEventIds.entrySet()) {
+            tableEventIds.put(eventId.getKey(), newCachedEventId(eventId.getValue()));
+        }
+    }
+
+    /**
+     * Removes the event ids of deleted rows.
+     *
+     * @param table
+     * @param searchCriteria
+     */
+    synchronized void invalidate(final Table table, final Collection<String> searchCriteria) {
+        version++;
+        eventIds.get(table).keySet().removeAll(searchCriteria);
+    }
+
+    /**
+     * Removes all event ids of the table, used when rows are deleted without knowing which.
+     *
+     * @param table
+     */
+    synchronized void invalidateAll(final Table table) {
+        version++;
+        eventIds.get(table).clear();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private CachedEventId newCachedEventId(final String eventId) {
+        final long expires = timeToLive > 0 ? System.currentTimeMillis() + timeToLive : Long.MAX_VALUE;
+        return new CachedEventId(eventId, expires);
+    }
+
+    private boolean isExpired(final CachedEventId cachedEventId) {
+        return System.currentTimeMillis() >= cachedEventId.expires;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.InternalChangeQuery;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+/**
+ * Removes event ids that are no longer needed for linking from the SQLite databases, so that the
+ * databases and their page caches only hold the event ids still in use.
+ *
+ * The event ids of submitted commits are kept for the latest commits of each branch, older
+ * commits are not expected to be the parent of a new change. The event id of a change is removed
+ * when the change is merged or abandoned and no patch set has been created for it in the
+ * configured number of days, the event ids of open changes are kept however long they have been
+ * idle. Event ids saved after a run started are never removed by it.
+ *
+ * A run removes a limited number of rows at a time and pauses in between so that saving new event
+ * ids is not held up, the freed pages are then returned to the file system by incremental vacuum
+ * in steps of the same size. A database created before incremental vacuum was enabled is vacuumed
+ * completely once, the first time old event ids are removed from it.
+ *
+ */
+@Singleton
+public class EventIdRetention implements LifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventIdRetention.class);
+
+    static final String COMMITS_PER_BRANCH = "storageRetentionCommitsPerBranch";
+    static final String CHANGE_DAYS = "storageRetentionChangeDays";
+    static final String INTERVAL = "storageRetentionInterval";
+    static final String BATCH_SIZE = "storageRetentionBatchSize";
+    static final String BATCH_PAUSE = "storageRetentionBatchPause";
+    private static final long DEFAULT_INTERVAL = TimeUnit.DAYS.toMillis(1);
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final long DEFAULT_BATCH_PAUSE = 1000;
+
+    private enum Phase {
+        CHANGES, COMMITS, VACUUM
+    }
+
+    private final WorkQueue workQueue;
+    private final DatabaseConnectionRegistry databaseRegistry;
+    private final GitRepositoryManager repositoryManager;
+    private final Provider<InternalChangeQuery> queryProvider;
+    private final File pluginDir;
+    private final int commitsPerBranch;
+    private final int changeDays;
+    private final long interval;
+    private final int batchSize;
+    private final long batchPause;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private ScheduledFuture<?> retentionTask;
+    private volatile boolean started;
+
+    @Inject
+    public EventIdRetention(final WorkQueue workQueue, final DatabaseConnectionRegistry databaseRegistry,
+            final GitRepositoryManager repositoryManager, final Provider<InternalChangeQuery> queryProvider,
+            final PluginConfigFactory config, @PluginName final String pluginName,
+            @PluginData final File pluginDir) {
+        final PluginConfig pluginConfig = config.getFromGerritConfig(pluginName, true);
+        this.commitsPerBranch = pluginConfig.getInt(COMMITS_PER_BRANCH, 0);
+        this.changeDays = pluginConfig.getInt(CHANGE_DAYS, 0);
+        this.interval = pluginConfig.getLong(INTERVAL, DEFAULT_INTERVAL);
+        this.batchSize = Math.max(1, pluginConfig.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE));
+        this.batchPause = Math.max(0, pluginConfig.getLong(BATCH_PAUSE, DEFAULT_BATCH_PAUSE));
+        this.workQueue = workQueue;
+        this.databaseRegistry = databaseRegistry;
+        this.repositoryManager = repositoryManager;
+        this.queryProvider = queryProvider;
+        this.pluginDir = pluginDir;
+    }
+
+    @Override
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        started = true;
+        retentionTask = workQueue.getDefaultQueue().scheduleAtFixedRate(this::startRun, interval,
+                interval, TimeUnit.MILLISECONDS);
+        LOGGER.info("Keeping event ids of the latest {} commits of each branch and of open changes or "
+                + "changes updated in the last {} days, 0 keeps all.", commitsPerBranch, changeDays);
+    }
+
+    @Override
+    public void stop() {
+        started = false;
+        if (retentionTask != null) {
+            retentionTask.cancel(false);
+            retentionTask = null;
+        }
+    }
+
+    /**
+     * Returns true if event ids of commits or changes are removed.
+     *
+     * @return boolean
+     */
+    boolean isEnabled() {
+        return interval > 0 && (commitsPerBranch > 0 || changeDays > 0);
+    }
+
+    /**
+     * Starts removing old event ids of all projects, unless the previous run is still going on.
+     */
+    void startRun() {
+        if (!running.compareAndSet(false, true)) {
+            LOGGER.debug("Previous removal of old event ids still running.");
+            return;
+        }
+        try {
+            new RetentionRun(databaseRegistry.getProjects(pluginDir)).run();
+        } catch (IOException | SQLException | RuntimeException e) {
+            LOGGER.error("Failed to list the projects to remove old event ids of.", e);
+            running.set(false);
+        }
+    }
+
+    /**
+     * Returns the ids of the latest commits of each branch of the project.
+     *
+     * @param project
+     * @return Set of commit ids
+     * @throws IOException
+     */
+    private Set<String> getLatestCommits(final String project) throws IOException {
+        final Set<String> latestCommits = new HashSet<>();
+        try (Repository repository = repositoryManager.openRepository(new Project.NameKey(project));
+                RevWalk walk = new RevWalk(repository)) {
+            walk.setRetainBody(false);
+            for (Ref branch : repository.getRefDatabase().getRefs(Constants.R_HEADS).values()) {
+                walk.reset();
+                walk.markStart(walk.parseCommit(branch.getObjectId()));
+                int count = 0;
+                for (RevCommit commit : walk) {
+                    if (count++ >= commitsPerBranch) {
+                        break;
+                    }
+                    latestCommits.add(commit.name());
+                }
+            }
+        }
+        return latestCommits;
+    }
+
+    /**
+     * Returns the change ids of the open changes of the project.
+     *
+     * @param project
+     * @return Set of change ids
+     * @throws OrmException
+     */
+    private Set<String> getOpenChanges(final String project) throws OrmException {
+        final Set<String> openChanges = new HashSet<>();
+        for (ChangeData changeData : queryProvider.get().byProjectOpen(new Project.NameKey(project))) {
+            openChanges.add(changeData.change().getKey().get());
+        }
+        return openChanges;
+    }
+
+    /**
+     * Removes old event ids of one project after the other, one step at a time. Each step is
+     * scheduled in the work queue after the batch pause.
+     */
+    private class RetentionRun implements Runnable {
+        private final long startTime = System.currentTimeMillis();
+        private final Iterator<String> projects;
+        private String project;
+        private ProjectDatabase database;
+        private Phase phase;
+        private List<String> expiredKeys;
+        private int expiredKeyIndex;
+        private int deleted;
+        private int totalDeleted;
+
+        RetentionRun(final List<String> projects) {
+            this.projects = projects.iterator();
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (started && step()) {
+                    workQueue.getDefaultQueue().schedule(this, batchPause, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("Work queue stopped, stopping removal of old event ids.");
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to remove old event ids.", e);
+            }
+            running.set(false);
+            LOGGER.info("Removed {} old event ids in {} ms.", totalDeleted,
+                    System.currentTimeMillis() - startTime);
+        }
+
+        /**
+         * Removes or vacuums one batch of the current project, moving on to the next project when
+         * it is done.
+         *
+         * @return false when all projects are done
+         */
+        private boolean step() {
+            if (database == null && !nextProject()) {
+                return false;
+            }
+            try {
+                switch (phase) {
+                case CHANGES:
+                    if (expiredKeys == null) {
+                        expiredKeys = getExpiredChanges();
+                    } else if (!deleteExpiredKeys(Table.SCC_TABLE)) {
+                        nextPhase(Phase.COMMITS);
+                    }
+                    break;
+                case COMMITS:
+                    if (commitsPerBranch <= 0) {
+                        nextPhase(Phase.VACUUM);
+                    } else if (expiredKeys == null) {
+                        expiredKeys = getExpiredCommits();
+                    } else if (!deleteExpiredKeys(Table.SCS_TABLE)) {
+                        nextPhase(Phase.VACUUM);
+                    }
+                    break;
+                default:
+                    // A database without incremental vacuum is converted by one complete vacuum,
+                    // which also frees all pages
+                    if (deleted == 0 || !database.enableIncrementalVacuum()
+                            || database.vacuum(batchSize) == 0) {
+                        LOGGER.debug("Removed {} old event ids of project '{}'.", deleted, project);
+                        database = null;
+                    }
+                    break;
+                }
+            } catch (IOException | SQLException e) {
+                LOGGER.error("Failed to remove old event ids of project '{}'.", project, e);
+                database = null;
+            }
+            return true;
+        }
+
+        private boolean nextProject() {
+            totalDeleted += deleted;
+            deleted = 0;
+            if (!projects.hasNext()) {
+                return false;
+            }
+            project = projects.next();
+            database = databaseRegistry.get(pluginDir, project);
+            nextPhase(changeDays > 0 ? Phase.CHANGES : Phase.COMMITS);
+            return true;
+        }
+
+        private void nextPhase(final Phase nextPhase) {
+            phase = nextPhase;
+            expiredKeys = null;
+            expiredKeyIndex = 0;
+        }
+
+        /**
+         * Deletes the next batch of expired keys from the table.
+         *
+         * @param table
+         * @return false when there were no expired keys left to delete
+         * @throws IOException
+         * @throws SQLException
+         */
+        private boolean deleteExpiredKeys(final Table table) throws IOException, SQLException {
+            if (expiredKeyIndex >= expiredKeys.size()) {
+                return false;
+            }
+            final int end = Math.min(expiredKeyIndex + batchSize, expiredKeys.size());
+            deleted += database.deleteAll(table, expiredKeys.subList(expiredKeyIndex, end));
+            expiredKeyIndex = end;
+            return true;
+        }
+
+        /**
+         * Returns the changes of the project with an event id saved before the configured number
+         * of days that are no longer open.
+         *
+         * @return List of change ids
+         * @throws IOException
+         * @throws SQLException
+         */
+        private List<String> getExpiredChanges() throws IOException, SQLException {
+            final List<String> savedChanges = database.getSavedBefore(Table.SCC_TABLE,
+                    startTime - TimeUnit.DAYS.toMillis(changeDays));
+            if (savedChanges.isEmpty()) {
+                return savedChanges;
+            }
+            try {
+                savedChanges.removeAll(getOpenChanges(project));
+            } catch (OrmException | RuntimeException e) {
+                LOGGER.warn("Failed to find the open changes of project '{}', keeping its event ids.",
+                        project, e);
+                savedChanges.clear();
+            }
+            return savedChanges;
+        }
+
+        /**
+         * Returns the commits of the project with a saved event id that are not among the latest
+         * commits of any branch.
+         *
+         * @return List of commit ids
+         * @throws IOException
+         * @throws SQLException
+         */
+        private List<String> getExpiredCommits() throws IOException, SQLException {
+            final List<String> savedCommits = database.getSavedBefore(Table.SCS_TABLE, startTime);
+            if (savedCommits.isEmpty()) {
+                return savedCommits;
+            }
+            try {
+                savedCommits.removeAll(getLatestCommits(project));
+            } catch (RepositoryNotFoundException e) {
+                LOGGER.debug("Repository of project '{}' not found, keeping its event ids.", project);
+                savedCommits.clear();
+            }
+            return savedCommits;
+        }
+    }
+}
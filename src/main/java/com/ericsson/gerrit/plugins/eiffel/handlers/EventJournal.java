@@ -0,0 +1,432 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+
+/**
+ * Append-only journal of events that are pending, shared by the {@link EventOutbox} and the
+ * {@link GerritEventInbox}. An event is appended when it is added and a removal record is
+ * appended when it is handled, events that are still pending when the journal is opened are
+ * returned to the owner. The records written to the outbox and the inbox for the same Gerrit event
+ * share the id of the Gerrit event, so that an event left in both is only handled once.
+ *
+ * Appends are written by a single writer thread. All records queued while the writer is busy are
+ * serialized, written and synced to disk together, so the cost of the sync is shared by many
+ * events. The journal is truncated whenever no event is pending.
+ *
+ */
+class EventJournal {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventJournal.class);
+
+    private static final long MAX_JOURNAL_SIZE = 64L * 1024 * 1024;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final Gson gson;
+    private final Path journalPath;
+    private final String journalName;
+    private final String writerThreadName;
+    private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+    private final ConcurrentNavigableMap<Long, Record> pendingEvents = new ConcurrentSkipListMap<>();
+
+    private FileChannel journal;
+    private volatile ExecutorService writer;
+    private long nextSequence;
+    private long maxJournalSize = MAX_JOURNAL_SIZE;
+
+    /**
+     * @param journalPath path of the journal file
+     * @param journalName name of the journal used in log messages
+     * @param writerThreadName name format of the writer thread
+     * @param gson used to serialize the events
+     */
+    EventJournal(final Path journalPath, final String journalName, final String writerThreadName,
+            final Gson gson) {
+        this.journalPath = journalPath;
+        this.journalName = journalName;
+        this.writerThreadName = writerThreadName;
+        this.gson = gson;
+    }
+
+    /**
+     * Opens the journal and returns the events that were pending when it was closed, in the order
+     * they were added.
+     *
+     * @return List of pending records
+     * @throws IOException
+     */
+    List<Record> open() throws IOException {
+        readJournal();
+        rewriteJournal();
+        writer = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat(writerThreadName).setDaemon(true).build());
+        return new ArrayList<>(pendingEvents.values());
+    }
+
+    /**
+     * Appends an event to the journal. The event is serialized on the writer thread.
+     *
+     * @param project
+     * @param eventType
+     * @param gerritEventId
+     *            id of the Gerrit event, or of the Gerrit event the event was generated from, may
+     *            be null
+     * @param event
+     * @return a future that completes with the sequence number of the event when it is synced to
+     *         disk. Futures of events added one after another complete in the same order.
+     */
+    CompletableFuture<Long> add(final String project, final String eventType,
+            final String gerritEventId, final Object event) {
+        final Record record = new Record();
+        record.operation = Operation.ADDED;
+        record.project = project;
+        record.eventType = eventType;
+        record.gerritEventId = gerritEventId;
+
+        final PendingWrite pendingWrite = new PendingWrite(record, event);
+        queue(pendingWrite);
+        return pendingWrite.written;
+    }
+
+    /**
+     * Marks an event as handled, it is not returned when the journal is opened again. The mark is
+     * not synced immediately, if it is lost the event is returned once more.
+     *
+     * @param sequence
+     */
+    void remove(final long sequence) {
+        final Record record = new Record();
+        record.operation = Operation.REMOVED;
+        record.sequence = sequence;
+        queue(new PendingWrite(record, null));
+    }
+
+    /**
+     * Returns pending events in the order they were added, starting at the given sequence number.
+     * An event is visible here before the future returned when it was added completes.
+     *
+     * @param fromSequence
+     * @param maxRecords
+     * @return List of pending records
+     */
+    List<Record> getPending(final long fromSequence, final int maxRecords) {
+        final List<Record> records = new ArrayList<>();
+        for (final Record record : pendingEvents.tailMap(fromSequence).values()) {
+            if (records.size() >= maxRecords) {
+                break;
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * Writes the remaining records and closes the journal.
+     */
+    void close() {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("Timed out waiting for the {} to be written.", journalName);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.close();
+        } catch (final IOException e) {
+            LOGGER.error("Failed to close the {} journal.", journalName, e);
+        }
+        writer = null;
+    }
+
+    /**
+     * Deserializes the event of a record.
+     *
+     * @param record
+     * @param eventClass
+     * @return the event
+     * @throws JsonParseException
+     */
+    <T> T toEvent(final Record record, final Class<T> eventClass) {
+        return gson.fromJson(record.event, eventClass);
+    }
+
+    private void queue(final PendingWrite pendingWrite) {
+        final ExecutorService currentWriter = writer;
+        if (currentWriter == null || currentWriter.isShutdown()) {
+            pendingWrite.written.completeExceptionally(
+                    new IllegalStateException(String.format("The %s is closed.", journalName)));
+            return;
+        }
+        pendingWrites.add(pendingWrite);
+        try {
+            currentWriter.execute(this::writePending);
+        } catch (final RejectedExecutionException e) {
+            pendingWrites.remove(pendingWrite);
+            pendingWrite.written.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Writes everything queued so far with one sync. Runs on the writer thread only, a call that
+     * finds the queue empty has had its records written by an earlier call.
+     */
+    private void writePending() {
+        final List<PendingWrite> batch = new ArrayList<>();
+        pendingWrites.drainTo(batch);
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final List<PendingWrite> written = new ArrayList<>(batch.size());
+        try {
+            final StringBuilder lines = new StringBuilder();
+            for (final PendingWrite pendingWrite : batch) {
+                final Record record = pendingWrite.record;
+                if (record.operation == Operation.ADDED && !serialize(pendingWrite)) {
+                    continue;
+                }
+                if (record.operation == Operation.ADDED) {
+                    record.sequence = nextSequence++;
+                }
+                lines.append(gson.toJson(record)).append('\n');
+                written.add(pendingWrite);
+            }
+            writeFully(ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8)));
+            journal.force(false);
+        } catch (final IOException e) {
+            LOGGER.error("Failed to write {} records to the {} journal.", written.size(),
+                    journalName, e);
+            written.forEach(pendingWrite -> pendingWrite.written.completeExceptionally(e));
+            return;
+        }
+
+        for (final PendingWrite pendingWrite : written) {
+            apply(pendingWrite.record);
+            pendingWrite.written.complete(pendingWrite.record.sequence);
+        }
+        shrinkJournal();
+    }
+
+    private boolean serialize(final PendingWrite pendingWrite) {
+        try {
+            pendingWrite.record.event = gson.toJsonTree(pendingWrite.event);
+            return true;
+        } catch (final RuntimeException e) {
+            LOGGER.error("Failed to serialize {} for the {} journal.", pendingWrite.record.eventType,
+                    journalName, e);
+            pendingWrite.written.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    /**
+     * A failed rewrite is logged, the journal keeps appending to the old file and the rewrite is
+     * tried again once the journal has grown to twice its size.
+     */
+    private void shrinkJournal() {
+        try {
+            if (pendingEvents.isEmpty()) {
+                journal.truncate(0);
+            } else if (journal.size() > maxJournalSize) {
+                rewriteJournal();
+                maxJournalSize = MAX_JOURNAL_SIZE;
+            }
+        } catch (final IOException e) {
+            LOGGER.error("Failed to shrink the {} journal.", journalName, e);
+            maxJournalSize *= 2;
+        }
+    }
+
+    private void readJournal() throws IOException {
+        pendingEvents.clear();
+        nextSequence = 0;
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final Record record = parseRecord(line);
+                if (record != null) {
+                    apply(record);
+                    nextSequence = Math.max(nextSequence, record.sequence + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the journal with one holding only the pending events. The new file is written
+     * through a channel of its own, which replaces the journal channel only after the move
+     * succeeded, so the journal keeps appending to the old file when it cannot be replaced.
+     */
+    private void rewriteJournal() throws IOException {
+        Files.createDirectories(journalPath.getParent());
+        final Path newJournalPath = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        final FileChannel newJournal = FileChannel.open(newJournalPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            // Not closed, closing the writer would close the channel that replaces the journal
+            final Writer newJournalWriter = Channels.newWriter(newJournal,
+                    StandardCharsets.UTF_8.name());
+            for (final Record record : pendingEvents.values()) {
+                newJournalWriter.write(gson.toJson(record));
+                newJournalWriter.write('\n');
+            }
+            newJournalWriter.flush();
+            newJournal.force(true);
+            Files.move(newJournalPath, journalPath, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            closeQuietly(newJournal);
+            try {
+                Files.deleteIfExists(newJournalPath);
+            } catch (final IOException deleteException) {
+                LOGGER.debug("Failed to delete {}", newJournalPath, deleteException);
+            }
+            throw e;
+        }
+
+        if (journal != null) {
+            closeQuietly(journal);
+        }
+        journal = newJournal;
+    }
+
+    private void closeQuietly(final FileChannel channel) {
+        try {
+            channel.close();
+        } catch (final IOException e) {
+            LOGGER.debug("Failed to close the {} journal channel.", journalName, e);
+        }
+    }
+
+    private void writeFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+    }
+
+    private void apply(final Record record) {
+        if (record.operation == Operation.ADDED) {
+            pendingEvents.put(record.sequence, record);
+        } else {
+            pendingEvents.remove(record.sequence);
+        }
+    }
+
+    /**
+     * A crash while writing may leave the last line incomplete, such lines are skipped. The event
+     * of an incomplete ADDED line was never handed over.
+     */
+    private Record parseRecord(final String line) {
+        if (line.isEmpty()) {
+            return null;
+        }
+        try {
+            final Record record = gson.fromJson(line, Record.class);
+            if (record == null || record.operation == null) {
+                LOGGER.warn("Skipping invalid record in the {} journal: {}", journalName, line);
+                return null;
+            }
+            return record;
+        } catch (final JsonParseException e) {
+            LOGGER.warn("Skipping unreadable record in the {} journal: {}", journalName, line);
+            return null;
+        }
+    }
+
+    private enum Operation {
+        ADDED, REMOVED
+    }
+
+    /**
+     * A record of the journal.
+     */
+    static class Record {
+        private Operation operation;
+        private long sequence;
+        private String project;
+        private String eventType;
+        private String gerritEventId;
+        private JsonElement event;
+
+        long getSequence() {
+            return sequence;
+        }
+
+        String getProject() {
+            return project;
+        }
+
+        String getEventType() {
+            return eventType;
+        }
+
+        String getGerritEventId() {
+            return gerritEventId;
+        }
+    }
+
+    private static class PendingWrite {
+        private final Record record;
+        private final Object event;
+        private final CompletableFuture<Long> written = new CompletableFuture<>();
+
+        PendingWrite(final Record record, final Object event) {
+            this.record = record;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EventType;
+import com.google.gson.Gson;
+
+/**
+ * Journal of the Eiffel events that are queued for sending, kept in the plugin data directory. An
+ * event is appended before it is queued and marked as sent when its id has been stored, events
+ * that are still in the journal when the plugin starts are sent again. An event generated from a
+ * Gerrit event of the {@link GerritEventInbox} records the id of the Gerrit event.
+ *
+ * The journal is written as described in {@link EventJournal}.
+ *
+ */
+public class EventOutbox {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventOutbox.class);
+
+    private static final String JOURNAL_FILE_NAME = "outbox.journal";
+    private static final String JOURNAL_NAME = "Eiffel outbox";
+    private static final String WRITER_THREAD_NAME = "Eiffel-Outbox-Writer-%d";
+
+    private final EventJournal journal;
+
+    public EventOutbox(final File pluginDirectoryPath) {
+        this.journal = new EventJournal(new File(pluginDirectoryPath, JOURNAL_FILE_NAME).toPath(),
+                JOURNAL_NAME, WRITER_THREAD_NAME, new Gson());
+    }
+
+    /**
+     * Opens the journal and returns the events that were not sent before the plugin was stopped, in
+     * the order they were added.
+     *
+     * @return List of pending entries
+     * @throws IOException
+     */
+    public List<Entry> open() throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        for (final EventJournal.Record record : journal.open()) {
+            final EiffelEvent eiffelEvent = toEiffelEvent(record);
+            if (eiffelEvent != null) {
+                entries.add(new Entry(record.getSequence(), record.getProject(),
+                        record.getGerritEventId(), eiffelEvent));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Appends an event to the journal.
+     *
+     * @param project
+     * @param eiffelEvent
+     * @return a future that completes when the event is synced to disk
+     */
+    public CompletableFuture<Entry> add(final String project, final EiffelEvent eiffelEvent) {
+        return add(project, null, eiffelEvent);
+    }
+
+    /**
+     * Appends an event generated from a Gerrit event to the journal.
+     *
+     * @param project
+     * @param gerritEventId
+     *            id of the Gerrit event in the inbox, may be null
+     * @param eiffelEvent
+     * @return a future that completes when the event is synced to disk
+     */
+    public CompletableFuture<Entry> add(final String project, final String gerritEventId,
+            final EiffelEvent eiffelEvent) {
+        return journal.add(project, eiffelEvent.msgParams.meta.type, gerritEventId, eiffelEvent)
+                      .thenApply(sequence -> new Entry(sequence, project, gerritEventId, eiffelEvent));
+    }
+
+    /**
+     * Marks an event as sent, it will not be sent again when the plugin starts. The mark is not
+     * synced immediately, if it is lost the event is sent once more.
+     *
+     * @param entry
+     */
+    public void remove(final Entry entry) {
+        journal.remove(entry.getSequence());
+    }
+
+    /**
+     * Writes the remaining records and closes the journal.
+     */
+    public void close() {
+        journal.close();
+    }
+
+    private EiffelEvent toEiffelEvent(final EventJournal.Record record) {
+        final Class<? extends EiffelEvent> eventClass;
+        switch (record.getEventType() == null ? "" : record.getEventType()) {
+            case EventType.SCC_EVENT:
+                eventClass = EiffelSourceChangeCreatedEvent.class;
+                break;
+            case EventType.SCS_EVENT:
+                eventClass = EiffelSourceChangeSubmittedEvent.class;
+                break;
+            default:
+                LOGGER.warn("Skipping {} with unknown type '{}' in the Eiffel outbox journal.",
+                        record.getSequence(), record.getEventType());
+                return null;
+        }
+        return journal.toEvent(record, eventClass);
+    }
+
+    /**
+     * An event read from or added to the journal.
+     */
+    public static class Entry {
+        private final long sequence;
+        private final String project;
+        private final String gerritEventId;
+        private final EiffelEvent eiffelEvent;
+
+        public Entry(final long sequence, final String project, final String gerritEventId,
+                final EiffelEvent eiffelEvent) {
+            this.sequence = sequence;
+            this.project = project;
+            this.gerritEventId = gerritEventId;
+            this.eiffelEvent = eiffelEvent;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getProject() {
+            return project;
+        }
+
+        /**
+         * @return id of the Gerrit event the Eiffel event was generated from, or null
+         */
+        public String getGerritEventId() {
+            return gerritEventId;
+        }
+
+        public EiffelEvent getEiffelEvent() {
+            return eiffelEvent;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventTypes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Journal of the Gerrit events that Eiffel events are generated from, kept in the plugin data
+ * directory. A Gerrit event is appended before it is queued for generation and removed when the
+ * generated Eiffel event is written to the {@link EventOutbox}, which takes over from there, or
+ * when generation failed. Events that were queued, or not queued because the generator queue was
+ * full, are generated when the plugin starts.
+ *
+ * Every Gerrit event is given an id, which the outbox records with the generated Eiffel event.
+ *
+ * The journal is written as described in {@link EventJournal}.
+ *
+ */
+public class GerritEventInbox {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GerritEventInbox.class);
+
+    private static final String JOURNAL_FILE_NAME = "inbox.journal";
+    private static final String JOURNAL_NAME = "Gerrit event inbox";
+    private static final String WRITER_THREAD_NAME = "Eiffel-Inbox-Writer-%d";
+
+    private final EventJournal journal;
+
+    public GerritEventInbox(final File pluginDirectoryPath) {
+        final Gson gson = new GsonBuilder().registerTypeAdapterFactory(new SupplierAdapterFactory())
+                                           .create();
+        this.journal = new EventJournal(new File(pluginDirectoryPath, JOURNAL_FILE_NAME).toPath(),
+                JOURNAL_NAME, WRITER_THREAD_NAME, gson);
+    }
+
+    /**
+     * Opens the journal and returns the Gerrit events that were not handled before the plugin was
+     * stopped, in the order they were added.
+     *
+     * @return List of pending entries
+     * @throws IOException
+     */
+    public List<Entry> open() throws IOException {
+        return toEntries(journal.open());
+    }
+
+    /**
+     * Appends a Gerrit event to the journal.
+     *
+     * @param project
+     * @param gerritEvent
+     * @return a future that completes when the event is synced to disk. Futures of events added one
+     *         after another complete in the same order, on the writer thread of the journal.
+     */
+    public CompletableFuture<Entry> add(final String project, final Event gerritEvent) {
+        final String id = UUID.randomUUID().toString();
+        return journal.add(project, gerritEvent.type, id, gerritEvent)
+                      .thenApply(sequence -> new Entry(this, sequence, project, id, gerritEvent));
+    }
+
+    /**
+     * Marks a Gerrit event as handled, it will not be returned when the plugin starts. The mark is
+     * not synced immediately, if it is lost the event is handled once more. Removing an entry
+     * again does nothing.
+     *
+     * @param entry
+     */
+    public void remove(final Entry entry) {
+        if (entry.removed.compareAndSet(false, true)) {
+            journal.remove(entry.getSequence());
+        }
+    }
+
+    /**
+     * Returns the pending Gerrit events starting at the given sequence number, in the order they
+     * were added. An event is returned here before the future returned when it was added completes.
+     *
+     * @param fromSequence
+     * @param maxEntries
+     * @return List of pending entries
+     */
+    public List<Entry> getPending(final long fromSequence, final int maxEntries) {
+        return toEntries(journal.getPending(fromSequence, maxEntries));
+    }
+
+    /**
+     * Writes the remaining records and closes the journal.
+     */
+    public void close() {
+        journal.close();
+    }
+
+    /**
+     * Events that can no longer be read are removed, they would otherwise stay in the journal.
+     */
+    private List<Entry> toEntries(final List<EventJournal.Record> records) {
+        final List<Entry> entries = new ArrayList<>(records.size());
+        for (final EventJournal.Record record : records) {
+            final Event gerritEvent = toGerritEvent(record);
+            if (gerritEvent == null) {
+                journal.remove(record.getSequence());
+            } else {
+                entries.add(new Entry(this, record.getSequence(), record.getProject(),
+                        record.getGerritEventId(), gerritEvent));
+            }
+        }
+        return entries;
+    }
+
+    private Event toGerritEvent(final EventJournal.Record record) {
+        final Class<?> eventClass = record.getEventType() == null ? null
+                : EventTypes.getClass(record.getEventType());
+        if (eventClass == null || !Event.class.isAssignableFrom(eventClass)) {
+            LOGGER.warn("Skipping {} with unknown type '{}' in the Gerrit event inbox journal.",
+                    record.getSequence(), record.getEventType());
+            return null;
+        }
+        try {
+            return (Event) journal.toEvent(record, eventClass);
+        } catch (final JsonParseException e) {
+            LOGGER.warn("Skipping unreadable {} '{}' in the Gerrit event inbox journal.",
+                    record.getSequence(), record.getEventType(), e);
+            return null;
+        }
+    }
+
+    /**
+     * A Gerrit event read from or added to the journal.
+     */
+    public static class Entry {
+        private final GerritEventInbox inbox;
+        private final long sequence;
+        private final String project;
+        private final String id;
+        private final Event gerritEvent;
+        private final AtomicBoolean removed = new AtomicBoolean();
+
+        Entry(final GerritEventInbox inbox, final long sequence, final String project,
+                final String id, final Event gerritEvent) {
+            this.inbox = inbox;
+            this.sequence = sequence;
+            this.project = project;
+            this.id = id;
+            this.gerritEvent = gerritEvent;
+        }
+
+        /**
+         * Marks the Gerrit event as handled, see {@link GerritEventInbox#remove}.
+         */
+        public void remove() {
+            inbox.remove(this);
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public String getProject() {
+            return project;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Event getGerritEvent() {
+            return gerritEvent;
+        }
+    }
+
+    /**
+     * Gerrit events hold their attributes in suppliers, the value of a supplier is written in its
+     * place and read back into a supplier of that value.
+     */
+    private static class SupplierAdapterFactory implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(final Gson gson, final TypeToken<T> typeToken) {
+            if (typeToken.getRawType() != Supplier.class
+                    || !(typeToken.getType() instanceof ParameterizedType)) {
+                return null;
+            }
+            final Type valueType = ((ParameterizedType) typeToken.getType()).getActualTypeArguments()[0];
+            return (TypeAdapter<T>) new SupplierAdapter<>(gson.getAdapter(TypeToken.get(valueType)));
+        }
+    }
+
+    private static class SupplierAdapter<V> extends TypeAdapter<Supplier<V>> {
+        private final TypeAdapter<V> valueAdapter;
+
+        SupplierAdapter(final TypeAdapter<V> valueAdapter) {
+            this.valueAdapter = valueAdapter;
+        }
+
+        @Override
+        public void write(final JsonWriter jsonWriter, final Supplier<V> supplier)
+                throws IOException {
+            if (supplier == null) {
+                jsonWriter.nullValue();
+            } else {
+                valueAdapter.write(jsonWriter, supplier.get());
+            }
+        }
+
+        @Override
+        public Supplier<V> read(final JsonReader jsonReader) throws IOException {
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.nextNull();
+                return null;
+            }
+            return Suppliers.ofInstance(valueAdapter.read(jsonReader));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter over the search criteria saved in one table of a project. When
+ * {@link #mightContain(String)} returns false no event id is saved for the search criteria, when
+ * it returns true an event id is probably saved.
+ *
+ * The filter grows as keys are added: when a stage is full a stage twice as large, with half the
+ * false positive rate, is added, which keeps the false positive rate of all stages below
+ * {@value #FALSE_POSITIVE_RATE}. Keys are never removed, a removed event id is a false positive
+ * until the filter is loaded again.
+ *
+ */
+class KeyFilter {
+    static final int MIN_CAPACITY = 1024;
+    static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int MAX_HASHES = 32;
+    private static final double LN2_SQUARED = Math.log(2) * Math.log(2);
+
+    private volatile Stage[] stages = new Stage[0];
+
+    private static class Stage {
+        private final AtomicLongArray bits;
+        private final long bitCount;
+        private final int hashes;
+        private final int capacity;
+        private final AtomicInteger count = new AtomicInteger();
+
+        Stage(final int capacity, final double falsePositiveRate) {
+            final long words = Math.max(1,
+                    (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / LN2_SQUARED / Long.SIZE));
+            this.bits = new AtomicLongArray(Math.toIntExact(words));
+            this.bitCount = words * Long.SIZE;
+            this.hashes = Math.min(MAX_HASHES, Math.max(1,
+                    (int) Math.ceil(-Math.log(falsePositiveRate) / Math.log(2))));
+            this.capacity = capacity;
+        }
+
+        boolean mightContain(final long hash1, final long hash2) {
+            for (int i = 0; i < hashes; i++) {
+                final long bit = index(hash1, hash2, i);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void put(final long hash1, final long hash2) {
+            for (int i = 0; i < hashes; i++) {
+                final long bit = index(hash1, hash2, i);
+                final int word = (int) (bit >>> 6);
+                final long mask = 1L << bit;
+                long value = bits.get(word);
+                while ((value & mask) == 0 && !bits.compareAndSet(word, value, value | mask)) {
+                    value = bits.get(word);
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        boolean isFull() {
+            return count.get() >= capacity;
+        }
+
+        private long index(final long hash1, final long hash2, final int i) {
+            return ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+        }
+    }
+
+    /**
+     * Returns false if the key was never added.
+     *
+     * @param key
+     * @return boolean
+     */
+    boolean mightContain(final String key) {
+        final long hash = hash(key);
+        final long hash1 = mix(hash);
+        final long hash2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (Stage stage : stages) {
+            if (stage.mightContain(hash1, hash2)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the key.
+     *
+     * @param key
+     */
+    void put(final String key) {
+        final long hash = hash(key);
+        final long hash1 = mix(hash);
+        final long hash2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        Stage[] currentStages = stages;
+        for (Stage stage : currentStages) {
+            if (stage.mightContain(hash1, hash2)) {
+                return;
+            }
+        }
+        Stage stage = currentStages.length == 0 ? null : currentStages[currentStages.length - 1];
+        if (stage == null || stage.isFull()) {
+            stage = addStage(0);
+        }
+        stage.put(hash1, hash2);
+    }
+
+    /**
+     * Makes room for the given number of keys in the last stage, so that loading many keys does
+     * not add one stage after another.
+     *
+     * @param keys
+     */
+    void reserve(final int keys) {
+        addStage(keys);
+    }
+
+    /**
+     * Returns the number of stages, each added when the previous one was full.
+     *
+     * @return int
+     */
+    int getStageCount() {
+        return stages.length;
+    }
+
+    private synchronized Stage addStage(final int keys) {
+        final Stage[] currentStages = stages;
+        final Stage last = currentStages.length == 0 ? null : currentStages[currentStages.length - 1];
+        if (last != null && last.capacity - last.count.get() >= Math.max(1, keys)) {
+            return last;
+        }
+        final int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max((long) MIN_CAPACITY,
+                Math.max(keys, last == null ? 0 : 2L * last.capacity)));
+        final double falsePositiveRate = FALSE_POSITIVE_RATE / (2 << currentStages.length);
+        final Stage[] newStages = new Stage[currentStages.length + 1];
+        System.arraycopy(currentStages, 0, newStages, 0, currentStages.length);
+        newStages[currentStages.length] = new Stage(capacity, falsePositiveRate);
+        stages = newStages;
+        return newStages[currentStages.length];
+    }
+
+    private static long hash(final String key) {
+        // 64 bit FNV-1a of the UTF-8 bytes
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static long mix(final long hash) {
+        // Finalizer of MurmurHash3
+        long mixed = hash;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xFF51AFD7ED558CCDL;
+        mixed ^= mixed >>> 33;
+        mixed *= 0xC4CEB93F2FE53A53L;
+        mixed ^= mixed >>> 33;
+        return mixed;
+    }
+}
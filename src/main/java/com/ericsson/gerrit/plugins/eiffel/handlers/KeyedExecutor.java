@@ -0,0 +1,156 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor that runs tasks sharing a key one after another, in the order they were submitted,
+ * while tasks with unrelated keys run in parallel on the underlying executor.
+ *
+ * A task may have several keys, it will then wait for the previous task of every key. A task is
+ * considered finished when the stage it returns completes, which makes it possible to keep the key
+ * while the work continues on another executor.
+ *
+ * The number of tasks that are queued or running is bounded, a task submitted when the bound is
+ * reached is rejected so that waiting chains of tasks cannot grow without limit.
+ *
+ */
+public class KeyedExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyedExecutor.class);
+
+    private final Executor executor;
+    private final int maxOutstandingTasks;
+    private final Map<String, CompletableFuture<Void>> lastTasks = new HashMap<>();
+    private int outstandingTasks;
+
+    public KeyedExecutor(final Executor executor) {
+        this(executor, Integer.MAX_VALUE);
+    }
+
+    public KeyedExecutor(final Executor executor, final int maxOutstandingTasks) {
+        this.executor = executor;
+        this.maxOutstandingTasks = maxOutstandingTasks;
+    }
+
+    /**
+     * Submits a task that is started on the underlying executor when all previously submitted
+     * tasks with any of the given keys are finished. Failing tasks are logged and do not stop
+     * following tasks from running.
+     *
+     * @param keys the keys the task must be ordered on
+     * @param task the task to run, returning a stage that completes when the task is finished
+     * @return a future that completes, never exceptionally, when the task is finished
+     * @throws RejectedExecutionException if the maximum number of outstanding tasks is reached
+     */
+    public CompletableFuture<Void> submit(final Collection<String> keys,
+            final Supplier<? extends CompletionStage<Void>> task) {
+        final Set<String> uniqueKeys = new LinkedHashSet<>(keys);
+        final CompletableFuture<Void> finished = new CompletableFuture<>();
+
+        synchronized (lastTasks) {
+            if (outstandingTasks >= maxOutstandingTasks) {
+                throw new RejectedExecutionException(
+                        String.format("%d tasks are already queued or running.", outstandingTasks));
+            }
+            outstandingTasks++;
+
+            final CompletableFuture<?>[] previousTasks = uniqueKeys.stream()
+                                                                   .map(lastTasks::get)
+                                                                   .filter(Objects::nonNull)
+                                                                   .distinct()
+                                                                   .toArray(CompletableFuture[]::new);
+
+            for (final String key : uniqueKeys) {
+                lastTasks.put(key, finished);
+            }
+
+            CompletableFuture.allOf(previousTasks)
+                             .thenComposeAsync(ignored -> task.get(), executor)
+                             .whenComplete((result, error) -> {
+                                 if (error != null) {
+                                     LOGGER.error("Task ordered on keys {} failed.", uniqueKeys,
+                                             error);
+                                 }
+                                 release(uniqueKeys, finished);
+                                 finished.complete(null);
+                             });
+        }
+
+        return finished;
+    }
+
+    /**
+     * Submits a task that is finished when the runnable returns.
+     *
+     * @param keys the keys the task must be ordered on
+     * @param task the task to run
+     * @return a future that completes, never exceptionally, when the task is finished
+     * @throws RejectedExecutionException if the maximum number of outstanding tasks is reached
+     */
+    public CompletableFuture<Void> execute(final Collection<String> keys, final Runnable task) {
+        return submit(keys, () -> {
+            task.run();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Returns the number of keys that currently have a queued or running task.
+     *
+     * @return number of keys
+     */
+    public int getActiveKeyCount() {
+        synchronized (lastTasks) {
+            return lastTasks.size();
+        }
+    }
+
+    /**
+     * Returns the number of tasks that are queued or running.
+     *
+     * @return number of tasks
+     */
+    public int getOutstandingTaskCount() {
+        synchronized (lastTasks) {
+            return outstandingTasks;
+        }
+    }
+
+    private void release(final Set<String> keys, final CompletableFuture<Void> finished) {
+        synchronized (lastTasks) {
+            outstandingTasks--;
+            for (final String key : keys) {
+                lastTasks.remove(key, finished);
+            }
+        }
+    }
+}
@@ -17,45 +17,430 @@
 
 package com.ericsson.gerrit.plugins.eiffel.handlers;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfigurationCache;
+import com.ericsson.gerrit.plugins.eiffel.configuration.RetryConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.exceptions.EventRejectedException;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSender;
+import com.ericsson.gerrit.plugins.eiffel.messaging.EventTemplateCache;
+import com.ericsson.gerrit.plugins.eiffel.messaging.RemremHttpClient;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStoreRegistry;
+import com.google.gerrit.extensions.annotations.PluginData;
 import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.config.PluginConfig;
 import com.google.gerrit.server.config.PluginConfigFactory;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 
+/**
+ * Owns the pool used to send Eiffel events to REMReM. The pool is created in the Gerrit work queue
+ * so it is listed by <code>gerrit show-queue</code>. If autoscaling is enabled the number of
+ * threads is adjusted between the configured pool size and max pool size.
+ *
+ * Events are written to the {@link EventOutbox} before they are queued and removed from it when
+ * their id has been stored. The Gerrit event an Eiffel event was generated from is removed from the
+ * {@link GerritEventInbox} as soon as the Eiffel event is written to the outbox.
+ *
+ * Events left in the outbox are sent again when the plugin starts, one after another in the order
+ * they were written. The Gerrit events that Eiffel events are generated from are held until then,
+ * see {@link #getResend}.
+ *
+ * If batching is enabled, events of the same project and type that are queued within the batch
+ * window are sent to REMReM in one request.
+ *
+ */
+@Singleton
 public class MessageQueueHandler implements LifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageQueueHandler.class);
+
     private static final String THREADS = "senderThreadPoolSize";
+    private static final String MAX_THREADS = "senderThreadPoolMaxSize";
+    private static final String AUTOSCALE = "senderThreadPoolAutoscale";
+    private static final String BATCH_SIZE = "senderBatchSize";
+    private static final String BATCH_WINDOW = "senderBatchWindow";
     private static final int DEFAULT_POOLSIZE = 1;
+    private static final int DEFAULT_MAX_POOLSIZE = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_BATCH_SIZE = 1;
+    private static final long DEFAULT_BATCH_WINDOW = 100;
+    private static final long AUTOSCALE_INTERVAL = 10;
+    private static final TimeUnit AUTOSCALE_INTERVAL_UNIT = TimeUnit.SECONDS;
+    private static final String QUEUE_NAME = "Eiffel Message Sender";
 
     private final WorkQueue workQueue;
+    private final EiffelPluginConfigurationCache pluginConfigCache;
+    private final File pluginDirectoryPath;
+    private final RetryConfiguration retryConfiguration;
+    private final RemremHttpClient httpClient;
+    private final EventIdStoreRegistry eventIdStoreRegistry;
+    private final EventTemplateCache eventTemplates;
     private final int poolSize;
-    private ScheduledThreadPoolExecutor pool;
+    private final int maxPoolSize;
+    private final boolean autoscale;
+    private final int batchSize;
+    private final long batchWindow;
+    private volatile WorkQueue.Executor pool;
+    private volatile SenderPoolAutoscaler autoscaler;
+    private volatile EventOutbox outbox;
+    private volatile Batcher<QueuedEvent> batcher;
+    private ScheduledFuture<?> autoscaleTask;
+    private final CompletableFuture<Set<String>> resend = new CompletableFuture<>();
 
     @Inject
     public MessageQueueHandler(final WorkQueue workQueue, final PluginConfigFactory config,
-            @PluginName final String pluginName) {
+            @PluginName final String pluginName, @PluginData final File pluginDirectoryPath,
+            final EiffelPluginConfigurationCache pluginConfigCache,
+            final RetryConfiguration retryConfiguration, final RemremHttpClient httpClient,
+            final EventIdStoreRegistry eventIdStoreRegistry, final EventTemplateCache eventTemplates) {
         final PluginConfig pluginConfig = config.getFromGerritConfig(pluginName, true);
-        this.poolSize = pluginConfig.getInt(THREADS, DEFAULT_POOLSIZE);
+        this.poolSize = Math.max(1, pluginConfig.getInt(THREADS, DEFAULT_POOLSIZE));
+        this.maxPoolSize = pluginConfig.getInt(MAX_THREADS, Math.max(poolSize, DEFAULT_MAX_POOLSIZE));
+        this.autoscale = pluginConfig.getBoolean(AUTOSCALE, false);
+        this.batchSize = Math.max(1, pluginConfig.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE));
+        this.batchWindow = pluginConfig.getLong(BATCH_WINDOW, DEFAULT_BATCH_WINDOW);
         this.workQueue = workQueue;
+        this.pluginDirectoryPath = pluginDirectoryPath;
+        this.pluginConfigCache = pluginConfigCache;
+        this.retryConfiguration = retryConfiguration;
+        this.httpClient = httpClient;
+        this.eventIdStoreRegistry = eventIdStoreRegistry;
+        this.eventTemplates = eventTemplates;
     }
 
     @Override
     public void start() {
-        pool = workQueue.createQueue(poolSize, "Eiffel Message Sender");
+        final List<EventOutbox.Entry> unsentEntries = openOutbox();
+        pool = workQueue.createQueue(poolSize, QUEUE_NAME);
+        if (batchSize > 1) {
+            final ScheduledThreadPoolExecutor senderPool = pool;
+            batcher = new Batcher<>(batchSize, batchWindow, senderPool,
+                    batch -> sendWithRetries(batch, senderPool));
+        }
+        if (autoscale) {
+            autoscaler = new SenderPoolAutoscaler(pool, poolSize, maxPoolSize);
+            autoscaleTask = workQueue.getDefaultQueue().scheduleAtFixedRate(autoscaler,
+                    AUTOSCALE_INTERVAL, AUTOSCALE_INTERVAL, AUTOSCALE_INTERVAL_UNIT);
+        }
+        LOGGER.info("Started Eiffel message sender with {} threads{}.", poolSize,
+                autoscale ? String.format(", autoscaling up to %d threads", maxPoolSize) : "");
+        resendUnsentEvents(unsentEntries);
     }
 
     @Override
     public void stop() {
+        if (autoscaleTask != null) {
+            autoscaleTask.cancel(false);
+            autoscaleTask = null;
+        }
         if (pool != null) {
+            final int pendingSends = pool.shutdownNow().size();
+            if (pendingSends > 0) {
+                LOGGER.warn("Eiffel message sender stopped with {} pending sends.", pendingSends);
+            }
+            pool.unregisterWorkQueue();
             pool = null;
         }
+        autoscaler = null;
+        batcher = null;
+        if (outbox != null) {
+            outbox.close();
+            outbox = null;
+        }
+    }
+
+    /**
+     * Writes the Eiffel event to the outbox and queues it for sending. Failed sends are rescheduled
+     * on the pool after the retry interval from the RetryConfiguration, the sender thread is not
+     * held while waiting.
+     *
+     * @param eiffelEvent
+     * @param pluginConfig
+     * @return a future that completes when the event is sent and its id stored, or sending or
+     *         storing failed
+     */
+    public CompletableFuture<Void> send(final EiffelEvent eiffelEvent,
+            final EiffelPluginConfiguration pluginConfig) {
+        return send(eiffelEvent, pluginConfig, null);
+    }
+
+    /**
+     * Writes the Eiffel event to the outbox and queues it for sending, the Gerrit event it was
+     * generated from is removed from the inbox once the Eiffel event is written to the outbox.
+     *
+     * @param eiffelEvent
+     * @param pluginConfig
+     * @param gerritEventEntry
+     *            the inbox entry of the Gerrit event, or null
+     * @return a future that completes when the event is sent and its id stored, or sending or
+     *         storing failed
+     */
+    public CompletableFuture<Void> send(final EiffelEvent eiffelEvent,
+            final EiffelPluginConfiguration pluginConfig,
+            final GerritEventInbox.Entry gerritEventEntry) {
+        final ScheduledThreadPoolExecutor senderPool = getPool();
+        if (senderPool == null) {
+            LOGGER.error("Eiffel message sender is not started, dropping {} for project '{}'.",
+                    eiffelEvent.getClass().getSimpleName(), pluginConfig.getProject());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final EventOutbox currentOutbox = outbox;
+        if (currentOutbox == null) {
+            return queue(eiffelEvent, pluginConfig, senderPool, null);
+        }
+        final String gerritEventId = gerritEventEntry == null ? null : gerritEventEntry.getId();
+        return currentOutbox.add(pluginConfig.getProject(), gerritEventId, eiffelEvent)
+                            .handle((entry, error) -> {
+                                if (error != null) {
+                                    LOGGER.error("Failed to write {} for project '{}' to the outbox, "
+                                            + "it will not be sent again after a restart.",
+                                            eiffelEvent.getClass().getSimpleName(),
+                                            pluginConfig.getProject(), error);
+                                } else if (gerritEventEntry != null) {
+                                    gerritEventEntry.remove();
+                                }
+                                return entry;
+                            })
+                            .thenCompose(entry -> queue(eiffelEvent, pluginConfig, senderPool,
+                                    entry));
     }
 
     public ScheduledThreadPoolExecutor getPool() {
         return this.pool;
     }
-}
 
+    /**
+     * Returns a future that completes when the events left in the outbox at start are resent, with
+     * the ids of the Gerrit events they were generated from. Gerrit events left in the inbox with
+     * one of these ids must not be generated again.
+     *
+     * @return the ids of the Gerrit events whose Eiffel events were left in the outbox
+     */
+    public CompletableFuture<Set<String>> getResend() {
+        return resend;
+    }
+
+    /**
+     * Records the time one send to REMReM took, used when autoscaling the pool.
+     *
+     * @param latencyMillis
+     */
+    public void recordSendLatency(final long latencyMillis) {
+        final SenderPoolAutoscaler currentAutoscaler = autoscaler;
+        if (currentAutoscaler != null) {
+            currentAutoscaler.recordLatency(latencyMillis);
+        }
+    }
+
+    private List<EventOutbox.Entry> openOutbox() {
+        final EventOutbox newOutbox = new EventOutbox(pluginDirectoryPath);
+        try {
+            final List<EventOutbox.Entry> unsentEntries = newOutbox.open();
+            outbox = newOutbox;
+            return unsentEntries;
+        } catch (final IOException e) {
+            LOGGER.error("Failed to open the Eiffel outbox, queued events will not be sent again "
+                    + "after a restart.", e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void resendUnsentEvents(final List<EventOutbox.Entry> unsentEntries) {
+        final Set<String> gerritEventIds = new HashSet<>();
+        if (unsentEntries.isEmpty()) {
+            resend.complete(gerritEventIds);
+            return;
+        }
+        LOGGER.info("Sending {} Eiffel events left in the outbox.", unsentEntries.size());
+        CompletableFuture<Void> resent = CompletableFuture.completedFuture(null);
+        for (final EventOutbox.Entry entry : unsentEntries) {
+            if (entry.getGerritEventId() != null) {
+                gerritEventIds.add(entry.getGerritEventId());
+            }
+            final EiffelPluginConfiguration pluginConfig;
+            try {
+                pluginConfig = pluginConfigCache.get(new Project.NameKey(entry.getProject()));
+            } catch (final ExceptionInInitializerError e) {
+                LOGGER.error("Could not read the configuration of project '{}', the event stays in "
+                        + "the outbox.", entry.getProject(), e);
+                continue;
+            }
+            // Events are sent one after another so that they reach REMReM in the order
+            // they were written, like events queued after the start.
+            resent = resent.thenCompose(
+                    ignored -> queue(entry.getEiffelEvent(), pluginConfig, pool, entry));
+        }
+        resent.whenComplete((result, error) -> resend.complete(gerritEventIds));
+    }
+
+    private CompletableFuture<Void> queue(final EiffelEvent eiffelEvent,
+            final EiffelPluginConfiguration pluginConfig,
+            final ScheduledThreadPoolExecutor senderPool, final EventOutbox.Entry entry) {
+        final QueuedEvent queuedEvent = new QueuedEvent(eiffelEvent, pluginConfig, entry);
+        final Batcher<QueuedEvent> currentBatcher = batcher;
+        if (currentBatcher == null) {
+            sendWithRetries(Collections.singletonList(queuedEvent), senderPool);
+        } else {
+            final String batchKey = String.format("%s:%s", eiffelEvent.msgParams.meta.type,
+                    pluginConfig.getProject());
+            currentBatcher.add(batchKey, queuedEvent);
+        }
+        return queuedEvent.sent;
+    }
+
+    private void sendWithRetries(final List<QueuedEvent> queuedEvents,
+            final ScheduledThreadPoolExecutor senderPool) {
+        scheduleSendAttempt(createSender(queuedEvents), senderPool, queuedEvents, 1, 0);
+    }
+
+    private EiffelEventSender createSender(final List<QueuedEvent> queuedEvents) {
+        final QueuedEvent firstEvent = queuedEvents.get(0);
+        final EiffelEventSender eiffelEventSender = new EiffelEventSender(firstEvent.pluginConfig,
+                httpClient, eventIdStoreRegistry.get(), eventTemplates);
+        eiffelEventSender.setEiffelEventType(firstEvent.eiffelEvent.getClass().getSimpleName());
+        if (queuedEvents.size() == 1) {
+            eiffelEventSender.setEiffelEventMessage(firstEvent.eiffelEvent);
+        } else {
+            eiffelEventSender.setEiffelEventMessages(queuedEvents.stream()
+                                                                 .map(queuedEvent -> queuedEvent.eiffelEvent)
+                                                                 .collect(Collectors.toList()));
+        }
+        return eiffelEventSender;
+    }
+
+    private void scheduleSendAttempt(final EiffelEventSender eiffelEventSender,
+            final ScheduledThreadPoolExecutor senderPool, final List<QueuedEvent> queuedEvents,
+            final int attempt, final long delay) {
+        try {
+            senderPool.schedule(
+                    () -> attemptSend(eiffelEventSender, senderPool, queuedEvents, attempt), delay,
+                    TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            LOGGER.error("Eiffel message sender is stopped, giving up sending after {} attempts.",
+                    attempt - 1);
+            queuedEvents.forEach(queuedEvent -> queuedEvent.sent.complete(null));
+        }
+    }
+
+    /**
+     * Events REMReM did not publish are sent again on their own, the published events of the same
+     * batch are removed from the outbox when their ids are stored and are only then completed, also
+     * if storing the ids failed. Events REMReM rejected are removed from the outbox without being
+     * sent again.
+     */
+    private void attemptSend(final EiffelEventSender eiffelEventSender,
+            final ScheduledThreadPoolExecutor senderPool, final List<QueuedEvent> queuedEvents,
+            final int attempt) {
+        final long startTime = System.currentTimeMillis();
+        try {
+            final CompletableFuture<Void> stored = eiffelEventSender.send();
+            final Set<EiffelEvent> notPublished = Collections.newSetFromMap(new IdentityHashMap<>());
+            notPublished.addAll(eiffelEventSender.getUnpublishedEvents());
+            final Set<EiffelEvent> rejected = Collections.newSetFromMap(new IdentityHashMap<>());
+            rejected.addAll(eiffelEventSender.getRejectedEvents());
+            final List<QueuedEvent> publishedEvents = new ArrayList<>();
+            final List<QueuedEvent> unpublishedEvents = new ArrayList<>();
+            final List<QueuedEvent> rejectedEvents = new ArrayList<>();
+            for (final QueuedEvent queuedEvent : queuedEvents) {
+                if (notPublished.contains(queuedEvent.eiffelEvent)) {
+                    unpublishedEvents.add(queuedEvent);
+                } else if (rejected.contains(queuedEvent.eiffelEvent)) {
+                    rejectedEvents.add(queuedEvent);
+                } else {
+                    publishedEvents.add(queuedEvent);
+                }
+            }
+            drop(rejectedEvents);
+            stored.whenComplete((result, error) -> {
+                try {
+                    if (error == null) {
+                        publishedEvents.forEach(queuedEvent -> removeFromOutbox(queuedEvent.entry));
+                    } else {
+                        LOGGER.warn("Failed to store the event ids, the events stay in the outbox "
+                                + "and are sent again after a restart.");
+                    }
+                } finally {
+                    publishedEvents.forEach(queuedEvent -> queuedEvent.sent.complete(null));
+                }
+            });
+            if (!unpublishedEvents.isEmpty()) {
+                retryOrGiveUp(createSender(unpublishedEvents), senderPool, unpublishedEvents,
+                        attempt);
+            }
+        } catch (final EventRejectedException e) {
+            drop(queuedEvents);
+        } catch (final RuntimeException e) {
+            retryOrGiveUp(eiffelEventSender, senderPool, queuedEvents, attempt);
+        } finally {
+            recordSendLatency(System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private void retryOrGiveUp(final EiffelEventSender eiffelEventSender,
+            final ScheduledThreadPoolExecutor senderPool, final List<QueuedEvent> queuedEvents,
+            final int attempt) {
+        if (attempt < retryConfiguration.getMaxAttempts()) {
+            scheduleSendAttempt(eiffelEventSender, senderPool, queuedEvents, attempt + 1,
+                    retryConfiguration.getRetryInterval(attempt));
+        } else {
+            if (queuedEvents.stream().anyMatch(queuedEvent -> queuedEvent.entry != null)) {
+                LOGGER.warn("Giving up sending after {} attempts, the event stays in the "
+                        + "outbox and is sent again after a restart.", attempt);
+            }
+            queuedEvents.forEach(queuedEvent -> queuedEvent.sent.complete(null));
+        }
+    }
+
+    private void drop(final List<QueuedEvent> rejectedEvents) {
+        if (!rejectedEvents.isEmpty()) {
+            LOGGER.warn("REMReM rejected {} eiffel messages, they are removed from the outbox and "
+                    + "not sent again.", rejectedEvents.size());
+        }
+        for (final QueuedEvent queuedEvent : rejectedEvents) {
+            removeFromOutbox(queuedEvent.entry);
+            queuedEvent.sent.complete(null);
+        }
+    }
+
+    private void removeFromOutbox(final EventOutbox.Entry entry) {
+        final EventOutbox currentOutbox = outbox;
+        if (entry != null && currentOutbox != null) {
+            currentOutbox.remove(entry);
+        }
+    }
+
+    private static class QueuedEvent {
+        private final EiffelEvent eiffelEvent;
+        private final EiffelPluginConfiguration pluginConfig;
+        private final EventOutbox.Entry entry;
+        private final CompletableFuture<Void> sent = new CompletableFuture<>();
+
+        QueuedEvent(final EiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig,
+                final EventOutbox.Entry entry) {
+            this.eiffelEvent = eiffelEvent;
+            this.pluginConfig = pluginConfig;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,805 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.handlers.DatabaseConnection.Session;
+import com.ericsson.gerrit.plugins.eiffel.handlers.DatabaseConnection.SqlOperation;
+
+/**
+ * The event ids of one project. The project either has a database of its own or shares one
+ * database with all other projects, in which case every statement is limited to the rows of the
+ * project.
+ *
+ * Event ids saved with {@link #saveLater(Table, Map)} are collected from all sender threads and
+ * committed in one transaction when the write-behind window of the storage profile has passed or
+ * enough event ids are collected. Until then they are returned from memory by
+ * {@link #getUnsavedEventId(Table, String)}. Event ids that fail to be committed are collected
+ * again and retried with a growing delay, their savers are only told about the failure when no
+ * retry can be scheduled. Recently used event ids are kept in an {@link EventIdCache}.
+ *
+ * While the {@link DatabaseConnectionRegistry} is started the saved search criteria of each table
+ * are loaded into a {@link KeyFilter} in the background when the project is first opened. Saved
+ * search criteria are added to it, so once it is loaded a search criteria that is not in the
+ * filter has no event id and is not looked up in the database.
+ *
+ * When the project shares a database and its own database file from before still exists, the
+ * event ids in that file are copied into the shared database the first time the project is
+ * opened and the file is renamed to <code>&lt;project&gt;.db.migrated</code>.
+ *
+ */
+class ProjectDatabase {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProjectDatabase.class);
+    private static final String EVENT_ID_KEY = DatabaseConnection.EVENT_ID_KEY;
+    private static final String PROJECT_KEY = DatabaseConnection.PROJECT_KEY;
+    private static final String UPDATED_KEY = DatabaseConnection.UPDATED_KEY;
+    private static final String CURRENT_TIME_MILLIS = DatabaseConnection.CURRENT_TIME_MILLIS;
+    private static final String MIGRATED_EXTENSION = "migrated";
+    private static final List<String> SIDECAR_SUFFIXES = Arrays.asList("-wal", "-shm");
+    private static final long MAX_FLUSH_RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private final DatabaseConnectionRegistry registry;
+    private final DatabaseConnection connection;
+    private final String project;
+    private final StorageProfile storageProfile;
+    private final EventIdCache eventIdCache;
+    private final Map<Table, KeyFilter> keyFilters = new EnumMap<>(Table.class);
+    private final AtomicBoolean keyFilterLoadScheduled = new AtomicBoolean();
+    private final AtomicLong keyFilterHits = new AtomicLong();
+    private volatile boolean keyFiltersLoaded;
+    private volatile Path legacyDatabaseFile;
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Object unsavedLock = new Object();
+    private Map<Table, Map<String, String>> unsaved = new EnumMap<>(Table.class);
+    private Map<Table, Map<String, String>> flushing = Collections.emptyMap();
+    private CompletableFuture<Void> unsavedFlushed = new CompletableFuture<>();
+    private int unsavedCount;
+    private boolean flushScheduled;
+    private long flushRetryDelay;
+
+    /**
+     * @param registry the registry that keeps the database
+     * @param connection the connection of the database file
+     * @param project the project name
+     * @param legacyDatabaseFile database file of the project to migrate into a shared database,
+     *        null if there is nothing to migrate
+     * @param storageProfile
+     */
+    ProjectDatabase(final DatabaseConnectionRegistry registry, final DatabaseConnection connection,
+            final String project, final Path legacyDatabaseFile, final StorageProfile storageProfile) {
+        this.registry = registry;
+        this.connection = connection;
+        this.project = project;
+        this.storageProfile = storageProfile;
+        this.legacyDatabaseFile = connection.isSharedByProjects() ? legacyDatabaseFile : null;
+        this.eventIdCache = new EventIdCache(storageProfile.getEventIdCacheSize(),
+                storageProfile.getEventIdCacheTtl());
+        if (storageProfile.isKeyFilterEnabled()) {
+            for (Table table : Table.values()) {
+                keyFilters.put(table, new KeyFilter());
+            }
+        }
+    }
+
+    /**
+     * Returns true if the project shares its database with other projects.
+     *
+     * @return boolean
+     */
+    boolean isShared() {
+        return connection.isSharedByProjects();
+    }
+
+    /**
+     * Opens the database and migrates the database file of the project if needed. The key
+     * filters are loaded in the background the first time the database is opened.
+     *
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    void open() throws ConnectException, SQLException {
+        migrate();
+        scheduleKeyFilterLoad();
+    }
+
+    /**
+     * Opens the database and migrates the database file of the project if needed, without
+     * loading the key filters.
+     *
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    void migrate() throws ConnectException, SQLException {
+        connection.open();
+        if (legacyDatabaseFile != null) {
+            migrateLegacyDatabase();
+        }
+    }
+
+    <T> T execute(final SqlOperation<T> operation) throws ConnectException, SQLException {
+        return connection.execute(operation);
+    }
+
+    <T> T executeInTransaction(final SqlOperation<T> operation) throws ConnectException, SQLException {
+        return connection.executeInTransaction(operation);
+    }
+
+    <T> T query(final SqlOperation<T> operation) throws ConnectException, SQLException {
+        return connection.query(operation);
+    }
+
+    EventIdCache getEventIdCache() {
+        return eventIdCache;
+    }
+
+    /**
+     * Returns false if no event id is saved for the search criteria, true if the key filter is
+     * not loaded or an event id is probably saved.
+     *
+     * @param table
+     * @param searchCriteria
+     * @return boolean
+     */
+    boolean mightContain(final Table table, final String searchCriteria) {
+        if (!keyFiltersLoaded || keyFilters.get(table).mightContain(searchCriteria)) {
+            return true;
+        }
+        keyFilterHits.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Adds search criteria to the key filter of the table, must be called before their event
+     * ids are committed.
+     *
+     * @param table
+     * @param searchCriteria
+     */
+    void addKeys(final Table table, final Collection<String> searchCriteria) {
+        final KeyFilter keyFilter = keyFilters.get(table);
+        if (keyFilter != null) {
+            searchCriteria.forEach(keyFilter::put);
+        }
+    }
+
+    /**
+     * Returns the number of lookups answered by the key filters without querying the database.
+     *
+     * @return long
+     */
+    long getKeyFilterHits() {
+        return keyFilterHits.get();
+    }
+
+    /**
+     * Loads the saved search criteria of all tables into the key filters, after which
+     * {@link #mightContain(Table, String)} answers from them. A failure is logged and leaves
+     * the lookups to the database.
+     */
+    void loadKeyFilters() {
+        if (keyFilters.isEmpty() || keyFiltersLoaded) {
+            return;
+        }
+        try {
+            int loaded = 0;
+            for (Map.Entry<Table, KeyFilter> keyFilter : keyFilters.entrySet()) {
+                loaded += loadKeyFilter(keyFilter.getKey(), keyFilter.getValue());
+            }
+            keyFiltersLoaded = true;
+            LOGGER.debug("Loaded {} search criteria of project {} into the key filters", loaded, project);
+        } catch (ConnectException | SQLException e) {
+            LOGGER.warn("Failed to load the key filters of project {}, event ids are looked up in "
+                    + "the database.", project, e);
+        }
+    }
+
+    /**
+     * Creates a SELECT statement of the event id, the search criteria is set with
+     * {@link #setSearchCriteria(PreparedStatement, int, String)} from the first parameter.
+     *
+     * @param table
+     * @return String
+     */
+    String createSelectStatement(final Table table) {
+        return String.format("SELECT %s FROM %s WHERE %s", EVENT_ID_KEY, table, createCondition(table));
+    }
+
+    /**
+     * Creates a SELECT statement of the search criteria and event ids of several search criteria,
+     * the search criteria are set with {@link #setSearchCriteria(PreparedStatement, int, List)}
+     * from the first parameter.
+     *
+     * @param table
+     * @param count the number of search criteria
+     * @return String
+     */
+    String createSelectAllStatement(final Table table, final int count) {
+        final String parameters = String.join(",", Collections.nCopies(count, "?"));
+        return String.format("SELECT %s, %s FROM %s WHERE %s%s IN (%s)", table.keyName, EVENT_ID_KEY,
+                table, createProjectCondition(), table.keyName, parameters);
+    }
+
+    /**
+     * Creates an UPDATE statement, the event id is the first parameter followed by the search
+     * criteria.
+     *
+     * @param table
+     * @return String
+     */
+    String createUpdateStatement(final Table table) {
+        return String.format("UPDATE %s SET %s=?, %s=%s WHERE %s", table, EVENT_ID_KEY, UPDATED_KEY,
+                CURRENT_TIME_MILLIS, createCondition(table));
+    }
+
+    /**
+     * Creates an INSERT statement, the event id is the first parameter followed by the search
+     * criteria.
+     *
+     * @param table
+     * @return String
+     */
+    String createInsertStatement(final Table table) {
+        if (isShared()) {
+            return String.format("INSERT INTO %s(%s,%s,%s,%s) VALUES(?,?,?,%s)", table, EVENT_ID_KEY,
+                    PROJECT_KEY, table.keyName, UPDATED_KEY, CURRENT_TIME_MILLIS);
+        }
+        return String.format("INSERT INTO %s(%s,%s,%s) VALUES(?,?,%s)", table, EVENT_ID_KEY,
+                table.keyName, UPDATED_KEY, CURRENT_TIME_MILLIS);
+    }
+
+    /**
+     * Creates an INSERT statement that updates the event id when the search criteria already
+     * exists, the event id is the first parameter followed by the search criteria.
+     *
+     * @param table
+     * @return String
+     */
+    String createUpsertStatement(final Table table) {
+        final String conflictTarget = isShared() ? PROJECT_KEY + "," + table.keyName : table.keyName;
+        return String.format("%s ON CONFLICT(%s) DO UPDATE SET %s=excluded.%s, %s=excluded.%s",
+                createInsertStatement(table), conflictTarget, EVENT_ID_KEY, EVENT_ID_KEY, UPDATED_KEY,
+                UPDATED_KEY);
+    }
+
+    /**
+     * Sets the search criteria, and the project if the database is shared, starting at the
+     * given parameter index.
+     *
+     * @param preparedStatement
+     * @param parameterIndex
+     * @param searchCriteria
+     * @return the index of the next parameter
+     * @throws SQLException
+     */
+    int setSearchCriteria(final PreparedStatement preparedStatement, final int parameterIndex,
+            final String searchCriteria) throws SQLException {
+        int index = setProject(preparedStatement, parameterIndex);
+        preparedStatement.setString(index++, searchCriteria);
+        return index;
+    }
+
+    /**
+     * Sets several search criteria, and the project if the database is shared, starting at the
+     * given parameter index.
+     *
+     * @param preparedStatement
+     * @param parameterIndex
+     * @param searchCriteria
+     * @return the index of the next parameter
+     * @throws SQLException
+     */
+    int setSearchCriteria(final PreparedStatement preparedStatement, final int parameterIndex,
+            final List<String> searchCriteria) throws SQLException {
+        int index = setProject(preparedStatement, parameterIndex);
+        for (String key : searchCriteria) {
+            preparedStatement.setString(index++, key);
+        }
+        return index;
+    }
+
+    /**
+     * Returns true if saved event ids are collected and committed later, which requires a
+     * write-behind window and a running {@link DatabaseConnectionRegistry}.
+     *
+     * @return boolean
+     */
+    boolean isWriteBehindEnabled() {
+        return storageProfile.getWriteBehindWindow() > 0
+                && registry.getWriteBehindScheduler() != null;
+    }
+
+    /**
+     * Collects the event ids to be committed together with the event ids saved by other threads.
+     * The event ids are committed right away if enough event ids are collected or no flush can be
+     * scheduled.
+     *
+     * @param table
+     * @param eventIds event ids mapped by search criteria
+     * @return a future completed when the event ids are committed, or completed exceptionally if
+     *         they could not be saved
+     */
+    CompletableFuture<Void> saveLater(final Table table, final Map<String, String> eventIds) {
+        final CompletableFuture<Void> flushed;
+        final boolean flushNow;
+        synchronized (unsavedLock) {
+            unsaved.computeIfAbsent(table, key -> new LinkedHashMap<>()).putAll(eventIds);
+            addKeys(table, eventIds.keySet());
+            unsavedCount += eventIds.size();
+            flushed = unsavedFlushed;
+            flushNow = (unsavedCount >= storageProfile.getWriteBehindSize() && flushRetryDelay == 0)
+                    || !scheduleFlush();
+        }
+        if (flushNow) {
+            flush();
+        }
+        return flushed;
+    }
+
+    /**
+     * Returns the event id of the search criteria if it is saved but not yet committed.
+     *
+     * @param table
+     * @param searchCriteria
+     * @return the event id, or null if there is no uncommitted event id
+     */
+    String getUnsavedEventId(final Table table, final String searchCriteria) {
+        synchronized (unsavedLock) {
+            String eventId = getEventId(unsaved, table, searchCriteria);
+            if (eventId == null) {
+                eventId = getEventId(flushing, table, searchCriteria);
+            }
+            return eventId;
+        }
+    }
+
+    /**
+     * Commits the collected event ids in one transaction. When it fails the event ids are
+     * collected again and committed by a retry, see {@link #retryFlush(Map, CompletableFuture)}.
+     */
+    void flush() {
+        flushLock.lock();
+        try {
+            final Map<Table, Map<String, String>> eventIds;
+            final CompletableFuture<Void> flushed;
+            final int count;
+            synchronized (unsavedLock) {
+                if (unsavedCount == 0) {
+                    return;
+                }
+                eventIds = unsaved;
+                flushed = unsavedFlushed;
+                count = unsavedCount;
+                flushing = eventIds;
+                unsaved = new EnumMap<>(Table.class);
+                unsavedFlushed = new CompletableFuture<>();
+                unsavedCount = 0;
+                flushScheduled = false;
+            }
+
+            try {
+                executeInTransaction(session -> {
+                    for (Map.Entry<Table, Map<String, String>> tableEventIds : eventIds.entrySet()) {
+                        upsertAll(session, tableEventIds.getKey(), tableEventIds.getValue());
+                    }
+                    return null;
+                });
+                eventIds.forEach(eventIdCache::putAll);
+                LOGGER.debug("Saved {} collected event ids of project {}", count, project);
+                synchronized (unsavedLock) {
+                    flushRetryDelay = 0;
+                }
+                flushed.complete(null);
+            } catch (ConnectException | SQLException e) {
+                final long retryDelay = retryFlush(eventIds, flushed);
+                if (retryDelay > 0) {
+                    LOGGER.warn("Failed to save {} collected event ids of project {}, retrying in {} ms.",
+                            count, project, retryDelay, e);
+                } else {
+                    LOGGER.error("Failed to save {} collected event ids of project {}.", count, project, e);
+                    flushed.completeExceptionally(e);
+                }
+            } finally {
+                synchronized (unsavedLock) {
+                    flushing = Collections.emptyMap();
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Collects the event ids of a failed flush again and schedules a flush after a delay that
+     * doubles with every failure. Event ids saved for the same search criteria since the failed
+     * flush started are newer and are kept. The future of the failed flush is completed by the
+     * flush that commits the event ids.
+     *
+     * @param eventIds the event ids of the failed flush
+     * @param flushed the future of the failed flush
+     * @return the delay of the retry in milliseconds, zero if no retry could be scheduled
+     */
+    private long retryFlush(final Map<Table, Map<String, String>> eventIds,
+            final CompletableFuture<Void> flushed) {
+        final ScheduledExecutorService scheduler = registry.getWriteBehindScheduler();
+        if (scheduler == null) {
+            return 0;
+        }
+        synchronized (unsavedLock) {
+            final long retryDelay = flushRetryDelay == 0 ? Math.max(1, storageProfile.getWriteBehindWindow())
+                    : Math.min(flushRetryDelay * 2, MAX_FLUSH_RETRY_DELAY);
+            try {
+                scheduler.schedule(this::flush, retryDelay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                return 0;
+            }
+            flushRetryDelay = retryDelay;
+            flushScheduled = true;
+            for (Map.Entry<Table, Map<String, String>> tableEventIds : eventIds.entrySet()) {
+                final Map<String, String> unsavedEventIds = unsaved.computeIfAbsent(
+                        tableEventIds.getKey(), key -> new LinkedHashMap<>());
+                for (Map.Entry<String, String> eventId : tableEventIds.getValue().entrySet()) {
+                    if (unsavedEventIds.putIfAbsent(eventId.getKey(), eventId.getValue()) == null) {
+                        unsavedCount++;
+                    }
+                }
+            }
+            unsavedFlushed.whenComplete((result, error) -> {
+                if (error == null) {
+                    flushed.complete(null);
+                } else {
+                    flushed.completeExceptionally(error);
+                }
+            });
+            return retryDelay;
+        }
+    }
+
+    /**
+     * Upserts the event ids with the prepared upsert statement of the session.
+     *
+     * @param session
+     * @param table
+     * @param eventIds event ids mapped by search criteria
+     * @throws SQLException
+     */
+    void upsertAll(final Session session, final Table table, final Map<String, String> eventIds)
+            throws SQLException {
+        final PreparedStatement upsertStatement = session.prepareStatement(createUpsertStatement(table));
+        addKeys(table, eventIds.keySet());
+        for (Map.Entry<String, String> eventId : eventIds.entrySet()) {
+            upsertStatement.setString(1, eventId.getValue());
+            setSearchCriteria(upsertStatement, 2, eventId.getKey());
+            upsertStatement.executeUpdate();
+        }
+    }
+
+    /**
+     * Deletes at most the given number of rows that were last saved before the given time, the
+     * cached event ids of the table are removed.
+     *
+     * @param table
+     * @param time in milliseconds since the epoch
+     * @param limit
+     * @return the number of deleted rows
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    int deleteSavedBefore(final Table table, final long time, final int limit)
+            throws ConnectException, SQLException {
+        final String sqlDeleteStatement = String.format(
+                "DELETE FROM %s WHERE %s IN (SELECT %s FROM %s WHERE %s%s<? LIMIT ?)%s", table,
+                table.keyName, table.keyName, table, createProjectCondition(), UPDATED_KEY,
+                isShared() ? String.format(" AND %s=?", PROJECT_KEY) : "");
+        return execute(session -> {
+            final PreparedStatement deleteStatement = session.prepareStatement(sqlDeleteStatement);
+            int index = setProject(deleteStatement, 1);
+            deleteStatement.setLong(index++, time);
+            deleteStatement.setInt(index++, limit);
+            setProject(deleteStatement, index);
+            final int deleted = deleteStatement.executeUpdate();
+            if (deleted > 0) {
+                eventIdCache.invalidateAll(table);
+            }
+            return deleted;
+        });
+    }
+
+    /**
+     * Returns the search criteria of all rows that were last saved before the given time.
+     *
+     * @param table
+     * @param time in milliseconds since the epoch
+     * @return List of search criteria
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    List<String> getSavedBefore(final Table table, final long time) throws ConnectException, SQLException {
+        final String sqlSelectStatement = String.format("SELECT %s FROM %s WHERE %s%s<?",
+                table.keyName, table, createProjectCondition(), UPDATED_KEY);
+        return query(session -> {
+            final PreparedStatement selectStatement = session.prepareStatement(sqlSelectStatement);
+            final int index = setProject(selectStatement, 1);
+            selectStatement.setLong(index, time);
+            final List<String> searchCriteria = new ArrayList<>();
+            try (ResultSet result = selectStatement.executeQuery()) {
+                while (result.next()) {
+                    searchCriteria.add(result.getString(1));
+                }
+            }
+            return searchCriteria;
+        });
+    }
+
+    /**
+     * Deletes the rows of the search criteria in one transaction and removes their cached event
+     * ids.
+     *
+     * @param table
+     * @param searchCriteria
+     * @return the number of deleted rows
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    int deleteAll(final Table table, final Collection<String> searchCriteria)
+            throws ConnectException, SQLException {
+        final String sqlDeleteStatement = String.format("DELETE FROM %s WHERE %s", table,
+                createCondition(table));
+        final int deleted = executeInTransaction(session -> {
+            final PreparedStatement deleteStatement = session.prepareStatement(sqlDeleteStatement);
+            int deletedRows = 0;
+            for (String key : searchCriteria) {
+                setSearchCriteria(deleteStatement, 1, key);
+                deletedRows += deleteStatement.executeUpdate();
+            }
+            return deletedRows;
+        });
+        eventIdCache.invalidate(table, searchCriteria);
+        return deleted;
+    }
+
+    /**
+     * Enables incremental vacuum of the database, see
+     * {@link DatabaseConnection#enableIncrementalVacuum()}.
+     *
+     * @return true if incremental vacuum is enabled
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    boolean enableIncrementalVacuum() throws ConnectException, SQLException {
+        return connection.enableIncrementalVacuum();
+    }
+
+    /**
+     * Returns pages freed by deleted rows of the database to the file system, see
+     * {@link DatabaseConnection#vacuum(int)}.
+     *
+     * @param pages
+     * @return the number of free pages left in the database
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    int vacuum(final int pages) throws ConnectException, SQLException {
+        return connection.vacuum(pages);
+    }
+
+    /**
+     * Copies the event ids of the database file the project used before it shared a database.
+     * Event ids already saved in the shared database are kept. The write-ahead log of the file
+     * is checkpointed into it first, any log and shared memory files left are renamed together
+     * with it so that they are never applied to a new database file of the same name.
+     *
+     * The migration is tried once. If it fails the project uses the shared database without the
+     * old event ids, and the file is migrated by the background migration at the next start.
+     *
+     * @throws ConnectException
+     */
+    private synchronized void migrateLegacyDatabase() throws ConnectException {
+        final Path databaseFile = legacyDatabaseFile;
+        if (databaseFile == null) {
+            return;
+        }
+        if (Files.isRegularFile(databaseFile)) {
+            final int migrated;
+            try {
+                migrated = connection.execute(session -> copyLegacyDatabase(session, databaseFile));
+            } catch (SQLException e) {
+                legacyDatabaseFile = null;
+                LOGGER.error("Failed to migrate database {} of project '{}', it is migrated again at "
+                        + "next start.", databaseFile, project, e);
+                return;
+            }
+            final Path migratedFile = databaseFile.resolveSibling(
+                    databaseFile.getFileName() + "." + MIGRATED_EXTENSION);
+            try {
+                Files.move(databaseFile, migratedFile);
+                for (String suffix : SIDECAR_SUFFIXES) {
+                    final Path sidecarFile = databaseFile.resolveSibling(databaseFile.getFileName() + suffix);
+                    if (Files.exists(sidecarFile)) {
+                        Files.move(sidecarFile, migratedFile.resolveSibling(migratedFile.getFileName() + suffix),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Failed to rename migrated database {}, it is migrated again at next "
+                        + "start.", databaseFile, e);
+            }
+            LOGGER.info("Migrated {} event ids of project '{}' into the shared database.", migrated,
+                    project);
+        }
+        legacyDatabaseFile = null;
+    }
+
+    private int copyLegacyDatabase(final Session session, final Path databaseFile) throws SQLException {
+        final Connection sqlConnection = session.getConnection();
+        try (PreparedStatement attachStatement = sqlConnection.prepareStatement(
+                "ATTACH DATABASE ? AS legacy")) {
+            attachStatement.setString(1, databaseFile.toString());
+            attachStatement.execute();
+        }
+        int migrated = 0;
+        try {
+            try (PreparedStatement checkpointStatement = sqlConnection.prepareStatement(
+                    "PRAGMA legacy.wal_checkpoint(TRUNCATE)")) {
+                checkpointStatement.execute();
+            }
+            sqlConnection.setAutoCommit(false);
+            for (Table table : Table.values()) {
+                final String sqlCopyStatement = String.format(
+                        "INSERT OR IGNORE INTO main.%s(%s,%s,%s,%s) SELECT ?,%s,%s,%s FROM legacy.%s",
+                        table, PROJECT_KEY, table.keyName, EVENT_ID_KEY, UPDATED_KEY, table.keyName,
+                        EVENT_ID_KEY, CURRENT_TIME_MILLIS, table);
+                try (PreparedStatement copyStatement = sqlConnection.prepareStatement(sqlCopyStatement)) {
+                    copyStatement.setString(1, project);
+                    migrated += copyStatement.executeUpdate();
+                }
+            }
+            sqlConnection.commit();
+        } catch (SQLException e) {
+            if (!sqlConnection.getAutoCommit()) {
+                sqlConnection.rollback();
+            }
+            throw e;
+        } finally {
+            sqlConnection.setAutoCommit(true);
+            try (PreparedStatement detachStatement = sqlConnection.prepareStatement("DETACH DATABASE legacy")) {
+                detachStatement.execute();
+            }
+        }
+        return migrated;
+    }
+
+    private int loadKeyFilter(final Table table, final KeyFilter keyFilter)
+            throws ConnectException, SQLException {
+        final String sqlCountStatement = String.format("SELECT COUNT(*) FROM %s%s", table,
+                isShared() ? String.format(" WHERE %s=?", PROJECT_KEY) : "");
+        final String sqlSelectStatement = String.format("SELECT %s FROM %s%s", table.keyName, table,
+                isShared() ? String.format(" WHERE %s=?", PROJECT_KEY) : "");
+        return query(session -> {
+            final PreparedStatement countStatement = session.prepareStatement(sqlCountStatement);
+            setProject(countStatement, 1);
+            try (ResultSet result = countStatement.executeQuery()) {
+                keyFilter.reserve(result.next() ? result.getInt(1) : 0);
+            }
+            final PreparedStatement selectStatement = session.prepareStatement(sqlSelectStatement);
+            setProject(selectStatement, 1);
+            int loaded = 0;
+            try (ResultSet result = selectStatement.executeQuery()) {
+                while (result.next()) {
+                    keyFilter.put(result.getString(1));
+                    loaded++;
+                }
+            }
+            return loaded;
+        });
+    }
+
+    /**
+     * Loads the key filters with the executor of the {@link DatabaseConnectionRegistry} unless
+     * they are already loaded or being loaded.
+     */
+    private void scheduleKeyFilterLoad() {
+        final Executor loader = registry.getKeyFilterLoader();
+        if (keyFilters.isEmpty() || loader == null || !keyFilterLoadScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            loader.execute(this::loadKeyFilters);
+        } catch (RejectedExecutionException e) {
+            keyFilterLoadScheduled.set(false);
+        }
+    }
+
+    /**
+     * Schedules a flush at the end of the write-behind window unless one is already scheduled.
+     * Must be called holding the unsaved lock.
+     *
+     * @return false if no flush could be scheduled
+     */
+    private boolean scheduleFlush() {
+        if (flushScheduled) {
+            return true;
+        }
+        final ScheduledExecutorService scheduler = registry.getWriteBehindScheduler();
+        if (scheduler == null || storageProfile.getWriteBehindWindow() <= 0) {
+            return false;
+        }
+        try {
+            scheduler.schedule(this::flush, storageProfile.getWriteBehindWindow(), TimeUnit.MILLISECONDS);
+            flushScheduled = true;
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private String createProjectCondition() {
+        return isShared() ? String.format("%s=? AND ", PROJECT_KEY) : "";
+    }
+
+    private int setProject(final PreparedStatement preparedStatement, final int parameterIndex)
+            throws SQLException {
+        int index = parameterIndex;
+        if (isShared()) {
+            preparedStatement.setString(index++, project);
+        }
+        return index;
+    }
+
+    private String createCondition(final Table table) {
+        if (isShared()) {
+            return String.format("%s=? AND %s=?", PROJECT_KEY, table.keyName);
+        }
+        return String.format("%s=?", table.keyName);
+    }
+
+    private static String getEventId(final Map<Table, Map<String, String>> eventIds, final Table table,
+            final String searchCriteria) {
+        final Map<String, String> tableEventIds = eventIds.get(table);
+        return tableEventIds == null ? null : tableEventIds.get(searchCriteria);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically adjusts the number of sender threads. The pool grows while sends are queuing up
+ * and shrinks when threads are idle. If the REMReM latency gets considerably worse than the best
+ * latency observed, REMReM is assumed to be overloaded and the pool backs off instead of growing.
+ *
+ */
+public class SenderPoolAutoscaler implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SenderPoolAutoscaler.class);
+
+    private static final int QUEUED_TASKS_PER_THREAD = 2;
+    private static final int LATENCY_DEGRADATION_FACTOR = 2;
+    private static final int BASELINE_RECOVERY_DIVISOR = 10;
+    private static final long NO_LATENCY = -1;
+
+    private final ThreadPoolExecutor pool;
+    private final int minPoolSize;
+    private final int maxPoolSize;
+
+    private final LongAdder latencySum = new LongAdder();
+    private final LongAdder latencyCount = new LongAdder();
+    private long baselineLatency = NO_LATENCY;
+
+    public SenderPoolAutoscaler(final ThreadPoolExecutor pool, final int minPoolSize,
+            final int maxPoolSize) {
+        this.pool = pool;
+        this.minPoolSize = minPoolSize;
+        this.maxPoolSize = Math.max(minPoolSize, maxPoolSize);
+    }
+
+    /**
+     * Records the time one send to REMReM took.
+     *
+     * @param latencyMillis
+     */
+    public void recordLatency(final long latencyMillis) {
+        latencySum.add(latencyMillis);
+        latencyCount.increment();
+    }
+
+    @Override
+    public void run() {
+        final int currentPoolSize = pool.getCorePoolSize();
+        final int newPoolSize = computePoolSize(currentPoolSize, countReadyTasks(),
+                pool.getActiveCount(), takeAverageLatency());
+
+        if (newPoolSize != currentPoolSize) {
+            LOGGER.debug("Changing Eiffel sender pool size from {} to {}.", currentPoolSize,
+                    newPoolSize);
+            pool.setCorePoolSize(newPoolSize);
+        }
+    }
+
+    /**
+     * Computes the pool size to use for the next period.
+     *
+     * @param currentPoolSize number of threads in the pool
+     * @param readyTasks      number of sends waiting for a thread
+     * @param activeThreads   number of threads currently sending
+     * @param averageLatency  average REMReM latency in milliseconds during the last period, or a
+     *                        negative value if nothing was sent
+     * @return the new pool size
+     */
+    int computePoolSize(final int currentPoolSize, final int readyTasks, final int activeThreads,
+            final long averageLatency) {
+        final boolean isLatencyDegraded = updateBaselineLatency(averageLatency);
+
+        if (isLatencyDegraded && currentPoolSize > minPoolSize) {
+            return currentPoolSize - 1;
+        }
+        if (!isLatencyDegraded && readyTasks > currentPoolSize * QUEUED_TASKS_PER_THREAD
+                && currentPoolSize < maxPoolSize) {
+            return currentPoolSize + 1;
+        }
+        if (readyTasks == 0 && activeThreads < currentPoolSize && currentPoolSize > minPoolSize) {
+            return currentPoolSize - 1;
+        }
+        return currentPoolSize;
+    }
+
+    /**
+     * Keeps track of the best latency seen, letting it slowly follow a permanently slower REMReM.
+     * Returns true if the given latency is considerably worse than the baseline.
+     */
+    private boolean updateBaselineLatency(final long averageLatency) {
+        if (averageLatency < 0) {
+            return false;
+        }
+        if (baselineLatency == NO_LATENCY || averageLatency < baselineLatency) {
+            baselineLatency = averageLatency;
+            return false;
+        }
+
+        final boolean isLatencyDegraded = averageLatency > Math.max(baselineLatency, 1)
+                * LATENCY_DEGRADATION_FACTOR;
+        baselineLatency += Math.max(1, baselineLatency / BASELINE_RECOVERY_DIVISOR);
+        return isLatencyDegraded;
+    }
+
+    private long takeAverageLatency() {
+        final long count = latencyCount.sumThenReset();
+        final long sum = latencySum.sumThenReset();
+        if (count == 0) {
+            return NO_LATENCY;
+        }
+        return sum / count;
+    }
+
+    /**
+     * Retries waiting for their next attempt are also kept in the queue and should not make the
+     * pool grow, only tasks that are due are counted.
+     */
+    private int countReadyTasks() {
+        int readyTasks = 0;
+        for (final Runnable task : pool.getQueue()) {
+            if (!(task instanceof Delayed) || ((Delayed) task).getDelay(TimeUnit.MILLISECONDS) <= 0) {
+                readyTasks++;
+            }
+        }
+        return readyTasks;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.server.config.PluginConfig;
+
+/**
+ * SQLite settings used when the event id databases are opened.
+ *
+ * The default <code>wal</code> profile uses write-ahead logging, readers then use their own
+ * connection and never wait for a write to finish. The <code>rollback</code> profile keeps the
+ * SQLite defaults, a rollback journal with full sync.
+ *
+ * The layout decides if each project has a database file of its own, the default, or if all
+ * projects share a single database.
+ *
+ */
+public class StorageProfile {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageProfile.class);
+
+    static final String PROFILE = "storageProfile";
+    static final String LAYOUT = "storageLayout";
+    static final String SYNCHRONOUS = "storageSynchronous";
+    static final String BUSY_TIMEOUT = "storageBusyTimeout";
+    static final String CACHE_SIZE = "storageCacheSize";
+    static final String CHECKPOINT_INTERVAL = "storageCheckpointInterval";
+    static final String WRITE_BEHIND_WINDOW = "storageWriteBehindWindow";
+    static final String WRITE_BEHIND_SIZE = "storageWriteBehindSize";
+    static final String EVENT_ID_CACHE_SIZE = "storageEventIdCacheSize";
+    static final String EVENT_ID_CACHE_TTL = "storageEventIdCacheTtl";
+    static final String KEY_FILTER = "storageKeyFilter";
+
+    static final String WAL_PROFILE = "wal";
+    static final String ROLLBACK_PROFILE = "rollback";
+    static final String PROJECT_LAYOUT = "project";
+    static final String SINGLE_LAYOUT = "single";
+    private static final List<String> SYNCHRONOUS_MODES = Arrays.asList("OFF", "NORMAL", "FULL", "EXTRA");
+    private static final int DEFAULT_BUSY_TIMEOUT = 5000;
+    private static final int DEFAULT_CACHE_SIZE = 2048;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 60000;
+    private static final long DEFAULT_WRITE_BEHIND_WINDOW = 0;
+    private static final int DEFAULT_WRITE_BEHIND_SIZE = 100;
+    private static final int DEFAULT_EVENT_ID_CACHE_SIZE = 1000;
+    private static final long DEFAULT_EVENT_ID_CACHE_TTL = 3600000;
+
+    public static final StorageProfile DEFAULT = new StorageProfile(true, false, "NORMAL",
+            DEFAULT_BUSY_TIMEOUT, DEFAULT_CACHE_SIZE, DEFAULT_CHECKPOINT_INTERVAL,
+            DEFAULT_WRITE_BEHIND_WINDOW, DEFAULT_WRITE_BEHIND_SIZE, DEFAULT_EVENT_ID_CACHE_SIZE, DEFAULT_EVENT_ID_CACHE_TTL, true);
+
+    private final boolean writeAheadLog;
+    private final boolean singleDatabase;
+    private final String synchronous;
+    private final int busyTimeout;
+    private final int cacheSize;
+    private final long checkpointInterval;
+    private final long writeBehindWindow;
+    private final int writeBehindSize;
+    private final int eventIdCacheSize;
+    private final long eventIdCacheTtl;
+    private final boolean keyFilter;
+
+    StorageProfile(final boolean writeAheadLog, final boolean singleDatabase,
+            final String synchronous, final int busyTimeout,
+            final int cacheSize, final long checkpointInterval, final long writeBehindWindow,
+            final int writeBehindSize, final int eventIdCacheSize, final long eventIdCacheTtl,
+            final boolean keyFilter) {
+        this.writeAheadLog = writeAheadLog;
+        this.singleDatabase = singleDatabase;
+        this.synchronous = synchronous;
+        this.busyTimeout = busyTimeout;
+        this.cacheSize = cacheSize;
+        this.checkpointInterval = checkpointInterval;
+        this.writeBehindWindow = writeBehindWindow;
+        this.writeBehindSize = writeBehindSize;
+        this.eventIdCacheSize = eventIdCacheSize;
+        this.eventIdCacheTtl = eventIdCacheTtl;
+        this.keyFilter = keyFilter;
+    }
+
+    /**
+     * Reads the storage profile from the global plugin configuration.
+     *
+     * @param pluginConfig
+     * @return StorageProfile
+     */
+    public static StorageProfile fromConfig(final PluginConfig pluginConfig) {
+        final String profile = pluginConfig.getString(PROFILE, WAL_PROFILE);
+        boolean writeAheadLog = !ROLLBACK_PROFILE.equalsIgnoreCase(profile);
+        if (profile != null && writeAheadLog && !WAL_PROFILE.equalsIgnoreCase(profile)) {
+            LOGGER.warn("Unknown {} '{}', using '{}'.", PROFILE, profile, WAL_PROFILE);
+        }
+
+        final String layout = pluginConfig.getString(LAYOUT, PROJECT_LAYOUT);
+        final boolean singleDatabase = SINGLE_LAYOUT.equalsIgnoreCase(layout);
+        if (layout != null && !singleDatabase && !PROJECT_LAYOUT.equalsIgnoreCase(layout)) {
+            LOGGER.warn("Unknown {} '{}', using '{}'.", LAYOUT, layout, PROJECT_LAYOUT);
+        }
+
+        final String defaultSynchronous = writeAheadLog ? "NORMAL" : "FULL";
+        String synchronous = pluginConfig.getString(SYNCHRONOUS, defaultSynchronous);
+        synchronous = synchronous == null ? defaultSynchronous : synchronous.toUpperCase(Locale.ROOT);
+        if (!SYNCHRONOUS_MODES.contains(synchronous)) {
+            LOGGER.warn("Unknown {} '{}', using '{}'.", SYNCHRONOUS, synchronous, defaultSynchronous);
+            synchronous = defaultSynchronous;
+        }
+
+        return new StorageProfile(writeAheadLog, singleDatabase, synchronous,
+                Math.max(0, pluginConfig.getInt(BUSY_TIMEOUT, DEFAULT_BUSY_TIMEOUT)),
+                pluginConfig.getInt(CACHE_SIZE, DEFAULT_CACHE_SIZE),
+                pluginConfig.getLong(CHECKPOINT_INTERVAL, DEFAULT_CHECKPOINT_INTERVAL),
+                pluginConfig.getLong(WRITE_BEHIND_WINDOW, DEFAULT_WRITE_BEHIND_WINDOW),
+                Math.max(1, pluginConfig.getInt(WRITE_BEHIND_SIZE, DEFAULT_WRITE_BEHIND_SIZE)),
+                pluginConfig.getInt(EVENT_ID_CACHE_SIZE, DEFAULT_EVENT_ID_CACHE_SIZE),
+                pluginConfig.getLong(EVENT_ID_CACHE_TTL, DEFAULT_EVENT_ID_CACHE_TTL),
+                pluginConfig.getBoolean(KEY_FILTER, true));
+    }
+
+    /**
+     * Returns true if write-ahead logging is used, reads then use a connection of their own.
+     *
+     * @return boolean
+     */
+    public boolean isWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    /**
+     * Returns true if all projects share one database, otherwise each project has a database
+     * file of its own.
+     *
+     * @return boolean
+     */
+    public boolean isSingleDatabase() {
+        return singleDatabase;
+    }
+
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    /**
+     * Milliseconds a connection waits for a lock held by another connection.
+     *
+     * @return int
+     */
+    public int getBusyTimeout() {
+        return busyTimeout;
+    }
+
+    /**
+     * Page cache size of each connection in KiB, zero or less keeps the SQLite default.
+     *
+     * @return int
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Milliseconds between checkpoints of the write-ahead logs, zero or less disables the
+     * periodic checkpoint.
+     *
+     * @return long
+     */
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Milliseconds saved event ids are collected before they are committed together, zero or
+     * less saves every event id directly.
+     *
+     * @return long
+     */
+    public long getWriteBehindWindow() {
+        return writeBehindWindow;
+    }
+
+    /**
+     * Number of collected event ids that are committed without waiting for the window to end.
+     *
+     * @return int
+     */
+    public int getWriteBehindSize() {
+        return writeBehindSize;
+    }
+
+    /**
+     * Number of recently used event ids of each table and project kept in memory, zero or less
+     * disables the cache.
+     *
+     * @return int
+     */
+    public int getEventIdCacheSize() {
+        return eventIdCacheSize;
+    }
+
+    /**
+     * Milliseconds an event id is kept in memory, zero or less keeps it until it is evicted.
+     *
+     * @return long
+     */
+    public long getEventIdCacheTtl() {
+        return eventIdCacheTtl;
+    }
+
+    /**
+     * Returns true if lookups of search criteria without an event id are answered by a
+     * {@link KeyFilter} of each project instead of the database.
+     *
+     * @return boolean
+     */
+    public boolean isKeyFilterEnabled() {
+        return keyFilter;
+    }
+
+    /**
+     * Returns the pragma statements to run when a connection is opened.
+     *
+     * @param readOnly true for connections that only read
+     * @return List of pragma statements
+     */
+    List<String> getPragmas(final boolean readOnly) {
+        final List<String> pragmas = new ArrayList<>();
+        if (!readOnly) {
+            // Only takes effect before the first table of a new database is created
+            pragmas.add("PRAGMA auto_vacuum=INCREMENTAL");
+            pragmas.add(String.format("PRAGMA journal_mode=%s", writeAheadLog ? "WAL" : "DELETE"));
+            pragmas.add(String.format("PRAGMA synchronous=%s", synchronous));
+        } else {
+            pragmas.add("PRAGMA query_only=1");
+        }
+        pragmas.add(String.format("PRAGMA busy_timeout=%d", busyTimeout));
+        if (cacheSize > 0) {
+            // A negative cache size is in KiB instead of pages
+            pragmas.add(String.format("PRAGMA cache_size=-%d", cacheSize));
+        }
+        return pragmas;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %s layout, synchronous=%s, busyTimeout=%d, cacheSize=%dKiB, checkpointInterval=%d, "
+                + "writeBehindWindow=%d, writeBehindSize=%d, eventIdCacheSize=%d, eventIdCacheTtl=%d, "
+                + "keyFilter=%b",
+                writeAheadLog ? WAL_PROFILE : ROLLBACK_PROFILE,
+                singleDatabase ? SINGLE_LAYOUT : PROJECT_LAYOUT, synchronous, busyTimeout, cacheSize,
+                checkpointInterval, writeBehindWindow, writeBehindSize, eventIdCacheSize, eventIdCacheTtl,
+                keyFilter);
+    }
+}
@@ -17,20 +17,21 @@
 package com.ericsson.gerrit.plugins.eiffel.listeners;
 
 import java.io.File;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
-import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ericsson.gerrit.plugins.eiffel.configuration.BranchFilter;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
-import com.ericsson.gerrit.plugins.eiffel.configuration.RetryConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfigurationCache;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
-import com.ericsson.gerrit.plugins.eiffel.messaging.EiffelEventSender;
+import com.ericsson.gerrit.plugins.eiffel.events.generators.SourceHostResolver;
+import com.ericsson.gerrit.plugins.eiffel.handlers.GerritEventInbox;
+import com.ericsson.gerrit.plugins.eiffel.handlers.MessageQueueHandler;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStore;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStoreRegistry;
 import com.google.gerrit.common.EventListener;
 import com.google.gerrit.reviewdb.client.Project;
 import com.google.gerrit.server.config.CanonicalWebUrl;
@@ -38,36 +39,39 @@ import com.google.gerrit.server.events.ChangeEvent;
 import com.google.gerrit.server.events.Event;
 import com.google.inject.Inject;
 
-import io.github.resilience4j.decorators.Decorators;
-import io.github.resilience4j.retry.Retry;
-import io.vavr.control.Try;
-
 /**
  * Abstract class implemented by the Gerrit event listeners, enforces needed listener methods and
  * contains some helper methods to determine if Eiffel event sending is activated for the project
  * the Gerrit event was sent by.
  *
+ * Gerrit delivers events to all listeners from the same thread, so the listener only performs the
+ * cheap checks there. Generation of the Eiffel event (link lookups and git reads) is done by the
+ * generator workers of the {@link EventGenerationQueue} and sending/storing is done by the sender
+ * pool of the {@link MessageQueueHandler}.
+ *
+ * Events are ordered on the keys given by {@link #getOrderingKeys}: an event is not generated
+ * until the previous event with a common key has been sent and stored, so that links can be
+ * resolved against the stored event ids. Events with unrelated keys are handled in parallel.
+ *
  */
 public abstract class AbstractEventListener implements EventListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractEventListener.class);
 
-    private static final int CORE_POOL_SIZE = 3;
-    private static final int MAXIMUM_POOL_SIZE = 3;
-    private static final long KEEP_ALIVE = 0;
-    private static final TimeUnit TIME_UNIT = TimeUnit.MILLISECONDS;
-    private static final int QUEUE_SIZE = 16384;
+    @Inject
+    private EiffelPluginConfigurationCache pluginConfigCache;
 
-    private static AtomicBoolean initialized = new AtomicBoolean();
-    private static ThreadPoolExecutor executor;
+    @Inject
+    private MessageQueueHandler messageQueueHandler;
 
-    private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    @Inject
+    private EventGenerationQueue generationQueue;
 
     @Inject
-    private com.google.gerrit.server.config.PluginConfigFactory pluginConfigFactory;
+    private EventIdStoreRegistry eventIdStoreRegistry;
 
     @Inject
-    private RetryConfiguration retryConfiguration;
+    private SourceHostResolver sourceHostResolver;
 
     @Inject
     @CanonicalWebUrl
@@ -79,7 +83,6 @@ public abstract class AbstractEventListener implements EventListener {
     public AbstractEventListener(final String pluginName, final File pluginDirectoryPath) {
         this.pluginName = pluginName;
         this.pluginDirectoryPath = pluginDirectoryPath;
-        initializeThreadPoolExecutor();
     }
 
     @Override
@@ -93,12 +96,13 @@ public abstract class AbstractEventListener implements EventListener {
             return;
         }
 
-        prepareAndSendEiffelEvent(gerritEvent, pluginConfig);
+        generationQueue.submit(this, gerritEvent, pluginConfig);
     }
 
     /**
-     * Based on project name from the gerrit event, creates a project specific
-     * EiffelPluginConfiguration.
+     * Based on project name from the gerrit event, returns the project specific
+     * EiffelPluginConfiguration. The configuration is cached until the project configuration is
+     * updated.
      *
      * @param gerritEvent
      * @return EiffelPluginConfiguration
@@ -106,31 +110,54 @@ public abstract class AbstractEventListener implements EventListener {
     public EiffelPluginConfiguration createPluginConfig(final Event gerritEvent) {
         final ChangeEvent changeEvent = (ChangeEvent) gerritEvent;
         final Project.NameKey projectNameKey = changeEvent.getProjectNameKey();
-        final EiffelPluginConfiguration pluginConfig = new EiffelPluginConfiguration(pluginName,
-                projectNameKey, pluginConfigFactory);
-        pluginConfig.setPluginDirectoryPath(pluginDirectoryPath);
-        return pluginConfig;
+        return pluginConfigCache.get(projectNameKey);
+    }
+
+    /**
+     * Sends an Eiffel message to the REMReM service using the sender pool of the
+     * {@link MessageQueueHandler}.
+     *
+     * @param eiffelEvent
+     * @param pluginConfig
+     * @return a future that completes when the event is sent and its id stored, or sending failed
+     */
+    public CompletableFuture<Void> sendEiffelEvent(final EiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig) {
+        return sendEiffelEvent(eiffelEvent, pluginConfig, null);
     }
 
     /**
-     * Sends an Eiffel message to the REMReM service. RetryConfiguration contains the retry policy
-     * for the send method.
+     * Sends an Eiffel message to the REMReM service using the sender pool of the
+     * {@link MessageQueueHandler}, the Gerrit event is removed from the inbox once the Eiffel event
+     * is written to the outbox.
      *
      * @param eiffelEvent
      * @param pluginConfig
+     * @param gerritEventEntry
+     *            the inbox entry of the Gerrit event the Eiffel event was generated from, or null
+     * @return a future that completes when the event is sent and its id stored, or sending failed
      */
-    public void sendEiffelEvent(final EiffelEvent eiffelEvent, final EiffelPluginConfiguration pluginConfig) {
-        final EiffelEventSender eiffelEventSender = new EiffelEventSender(pluginConfig);
-        eiffelEventSender.setEiffelEventType(eiffelEvent.getClass().getSimpleName());
-        eiffelEventSender.setEiffelEventMessage(eiffelEvent);
-
-        final Retry policy = retryConfiguration.getRetryPolicy();
-        final Runnable decoratedRunnable = Decorators.ofRunnable(() -> eiffelEventSender.send())
-                                               .withRetry(policy)
-                                               .decorate();
-        executor.submit(() -> {
-            Try.runRunnable(decoratedRunnable);
-        });
+    public CompletableFuture<Void> sendEiffelEvent(final EiffelEvent eiffelEvent,
+            final EiffelPluginConfiguration pluginConfig,
+            final GerritEventInbox.Entry gerritEventEntry) {
+        return messageQueueHandler.send(eiffelEvent, pluginConfig, gerritEventEntry);
+    }
+
+    /**
+     * Returns the store that the event ids linked to are looked up in.
+     *
+     * @return EventIdStore
+     */
+    protected EventIdStore getEventIdStore() {
+        return eventIdStoreRegistry.get();
+    }
+
+    /**
+     * Returns the resolver of the source host and repository URI of the Eiffel events.
+     *
+     * @return SourceHostResolver
+     */
+    protected SourceHostResolver getSourceHostResolver() {
+        return sourceHostResolver;
     }
 
     /**
@@ -148,8 +175,8 @@ public abstract class AbstractEventListener implements EventListener {
 
         final ChangeEvent changeEvent = (ChangeEvent) gerritEvent;
         final String branch = changeEvent.change.get().branch;
-        final String filter = pluginConfig.getFilter();
-        final boolean isFilterSet = !StringUtils.isEmpty(filter);
+        final BranchFilter filter = pluginConfig.getBranchFilter();
+        final boolean isFilterSet = !filter.isEmpty();
         final boolean isBranchNameInConfiguredFilter = isFilterSet
                 && isBranchNameInConfiguredFilter(branch, filter, pluginConfig.getProject());
 
@@ -159,14 +186,69 @@ public abstract class AbstractEventListener implements EventListener {
 
     protected abstract boolean isExpectedGerritEvent(Event gerritEvent);
 
-    protected abstract void prepareAndSendEiffelEvent(Event gerritEvent,
+    protected abstract EiffelEvent generateEiffelEvent(Event gerritEvent,
             EiffelPluginConfiguration pluginConfig);
 
-    private void initializeThreadPoolExecutor() {
-        if (initialized.compareAndSet(false, true)) {
-            executor = new ThreadPoolExecutor(CORE_POOL_SIZE, MAXIMUM_POOL_SIZE, KEEP_ALIVE,
-                    TIME_UNIT, queue);
+    /**
+     * Returns the keys the Gerrit event must be ordered on. Events sharing a key are generated and
+     * sent one after another in the order they were received from Gerrit.
+     *
+     * @param gerritEvent
+     * @param pluginConfig
+     * @return List of ordering keys
+     */
+    protected abstract List<String> getOrderingKeys(Event gerritEvent,
+            EiffelPluginConfiguration pluginConfig);
+
+    /**
+     * Returns an ordering key for the change of the Gerrit event.
+     *
+     * @param gerritEvent
+     * @param pluginConfig
+     * @return String
+     */
+    protected static String getChangeOrderingKey(final Event gerritEvent,
+            final EiffelPluginConfiguration pluginConfig) {
+        final ChangeEvent changeEvent = (ChangeEvent) gerritEvent;
+        return String.format("change:%s:%s", pluginConfig.getProject(), changeEvent.changeKey);
+    }
+
+    /**
+     * Returns an ordering key for the branch of the Gerrit event.
+     *
+     * @param gerritEvent
+     * @param pluginConfig
+     * @return String
+     */
+    protected static String getBranchOrderingKey(final Event gerritEvent,
+            final EiffelPluginConfiguration pluginConfig) {
+        final ChangeEvent changeEvent = (ChangeEvent) gerritEvent;
+        return String.format("branch:%s:%s", pluginConfig.getProject(),
+                changeEvent.change.get().branch);
+    }
+
+    /**
+     * Generates and sends the Eiffel event, called by the generator workers.
+     *
+     * @param gerritEvent
+     * @param pluginConfig
+     * @param gerritEventEntry
+     *            the inbox entry of the Gerrit event, or null
+     * @return a future that completes when the event is sent and its id stored, or generation or
+     *         sending failed
+     */
+    CompletableFuture<Void> generateAndSendEiffelEvent(final Event gerritEvent,
+            final EiffelPluginConfiguration pluginConfig,
+            final GerritEventInbox.Entry gerritEventEntry) {
+        final EiffelEvent eiffelEvent;
+        try {
+            eiffelEvent = generateEiffelEvent(gerritEvent, pluginConfig);
+        } catch (final RuntimeException e) {
+            LOGGER.error("Failed to generate eiffel event from Gerrit event '{}' for project '{}'.",
+                    gerritEvent.type, pluginConfig.getProject(), e);
+            return CompletableFuture.completedFuture(null);
         }
+        return sendEiffelEvent(eiffelEvent, pluginConfig, gerritEventEntry);
     }
 
     private boolean isPluginEnabled(final EiffelPluginConfiguration pluginConfig) {
@@ -180,13 +262,10 @@ public abstract class AbstractEventListener implements EventListener {
         return true;
     }
 
-    private boolean isBranchNameInConfiguredFilter(final String branch, final String filter,
+    private boolean isBranchNameInConfiguredFilter(final String branch, final BranchFilter filter,
             final String project) {
-        final String[] filterList = filter.split(",");
-        for (final String regExString : filterList) {
-            if (branch.matches(regExString)) {
-                return true;
-            }
+        if (filter.matches(branch)) {
+            return true;
         }
 
         LOGGER.debug(
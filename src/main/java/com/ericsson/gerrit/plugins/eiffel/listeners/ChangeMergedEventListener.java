@@ -18,6 +18,8 @@
 package com.ericsson.gerrit.plugins.eiffel.listeners;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,14 +61,25 @@ public class ChangeMergedEventListener extends AbstractEventListener {
     }
 
     @Override
-    protected void prepareAndSendEiffelEvent(final Event gerritEvent,
+    protected EiffelSourceChangeSubmittedEvent generateEiffelEvent(final Event gerritEvent,
             final EiffelPluginConfiguration pluginConfig) {
         final ChangeMergedEvent changeMergedEvent = (ChangeMergedEvent) gerritEvent;
         LOGGER.info("ChangeMergedEvent recieved from Gerrit, "
                 + "preparing to send a SourceChangeSubmitted eiffel event.\n{}",
                 changeMergedEvent);
-        final EiffelSourceChangeSubmittedEvent eiffelEvent = EiffelSourceChangeSubmittedEventGenerator.generate(
-                pluginConfig, changeMergedEvent, commitInformation);
-        sendEiffelEvent(eiffelEvent, pluginConfig);
+        return EiffelSourceChangeSubmittedEventGenerator.generate(
+                pluginConfig, changeMergedEvent, commitInformation, getEventIdStore(),
+                getSourceHostResolver());
+    }
+
+    /**
+     * A SourceChangeSubmitted event links to the last event of its change and to the last submitted
+     * event on its branch, so it is ordered on both.
+     */
+    @Override
+    protected List<String> getOrderingKeys(final Event gerritEvent,
+            final EiffelPluginConfiguration pluginConfig) {
+        return Arrays.asList(getChangeOrderingKey(gerritEvent, pluginConfig),
+                getBranchOrderingKey(gerritEvent, pluginConfig));
     }
 }
@@ -0,0 +1,346 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.listeners;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.handlers.GerritEventInbox;
+import com.ericsson.gerrit.plugins.eiffel.handlers.KeyedExecutor;
+import com.ericsson.gerrit.plugins.eiffel.handlers.MessageQueueHandler;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.events.Event;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+/**
+ * Queue of the Gerrit events that Eiffel events are generated from, shared by the Gerrit event
+ * listeners.
+ *
+ * A Gerrit event is written to the {@link GerritEventInbox} before it is queued and removed from it
+ * when the Eiffel event generated from it is written to the outbox of the
+ * {@link MessageQueueHandler}, or generation failed. The events are queued on the
+ * {@link KeyedExecutor} in the order they were written. When the queue is full the events stay in
+ * the inbox, later events are not queued before them, and they are queued from the inbox in the
+ * same order when generation of earlier events has finished. Events left in the inbox when the
+ * plugin stops are queued the same way when it starts, so the order on the keys of the listeners
+ * is kept in both cases.
+ *
+ * At start, no Gerrit event is queued until the Eiffel events left in the outbox are resent. A
+ * Gerrit event left in the inbox whose Eiffel event was also left in the outbox is removed
+ * without being generated again.
+ *
+ * The thread that hands over a Gerrit event never generates it.
+ *
+ */
+@Singleton
+public class EventGenerationQueue implements LifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventGenerationQueue.class);
+
+    private static final int GENERATOR_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static final long KEEP_ALIVE = 0;
+    private static final TimeUnit TIME_UNIT = TimeUnit.MILLISECONDS;
+    private static final int QUEUE_SIZE = 16384;
+    private static final int REPLAY_BATCH_SIZE = 100;
+    private static final long STOP_TIMEOUT_SECONDS = 10;
+    private static final String GENERATOR_THREAD_NAME = "Eiffel-Event-Generator-%d";
+    private static final String REPLAY_THREAD_NAME = "Eiffel-Inbox-Replay-%d";
+
+    private final File pluginDirectoryPath;
+    private final List<Provider<? extends AbstractEventListener>> listenerProviders;
+    private final MessageQueueHandler messageQueueHandler;
+    private final ThreadPoolExecutor generatorExecutor;
+    private final KeyedExecutor keyedExecutor;
+    private final AtomicBoolean replayScheduled = new AtomicBoolean();
+    private volatile GerritEventInbox inbox;
+    private volatile ExecutorService replayer;
+    private volatile Set<String> resentGerritEventIds = Collections.emptySet();
+
+    /**
+     * Guarded by this. While spilling, events are left in the inbox and queued from there, starting
+     * at nextSequence. Replayed is set when an event has been queued from the inbox.
+     */
+    private volatile boolean spilling;
+    private long nextSequence;
+    private boolean replayed;
+
+    @Inject
+    public EventGenerationQueue(@PluginData final File pluginDirectoryPath,
+            final Provider<PatchsetCreatedEventListener> patchsetCreatedEventListener,
+            final Provider<ChangeMergedEventListener> changeMergedEventListener,
+            final MessageQueueHandler messageQueueHandler) {
+        this(pluginDirectoryPath, Arrays.asList(patchsetCreatedEventListener,
+                changeMergedEventListener), messageQueueHandler, QUEUE_SIZE);
+    }
+
+    EventGenerationQueue(final File pluginDirectoryPath,
+            final List<Provider<? extends AbstractEventListener>> listenerProviders,
+            final MessageQueueHandler messageQueueHandler, final int queueSize) {
+        this.pluginDirectoryPath = pluginDirectoryPath;
+        this.listenerProviders = listenerProviders;
+        this.messageQueueHandler = messageQueueHandler;
+        this.generatorExecutor = new ThreadPoolExecutor(GENERATOR_POOL_SIZE, GENERATOR_POOL_SIZE,
+                KEEP_ALIVE, TIME_UNIT, new ArrayBlockingQueue<>(queueSize),
+                createThreadFactory(GENERATOR_THREAD_NAME));
+        this.keyedExecutor = new KeyedExecutor(generatorExecutor, queueSize);
+    }
+
+    @Override
+    public void start() {
+        final GerritEventInbox newInbox = new GerritEventInbox(pluginDirectoryPath);
+        final List<GerritEventInbox.Entry> pendingEntries;
+        try {
+            pendingEntries = newInbox.open();
+        } catch (final IOException e) {
+            LOGGER.error("Failed to open the Gerrit event inbox, queued Gerrit events will not be "
+                    + "handled again after a restart.", e);
+            return;
+        }
+
+        replayer = Executors.newSingleThreadExecutor(createThreadFactory(REPLAY_THREAD_NAME));
+        synchronized (this) {
+            if (!pendingEntries.isEmpty()) {
+                LOGGER.info("Generating Eiffel events for {} Gerrit events left in the inbox.",
+                        pendingEntries.size());
+                nextSequence = pendingEntries.get(0).getSequence();
+            }
+            // Events are kept in the inbox until the outbox is resent, so that an event left in
+            // both is not sent twice and later events are not sent before it.
+            spilling = true;
+            inbox = newInbox;
+        }
+        messageQueueHandler.getResend().thenAccept(gerritEventIds -> {
+            resentGerritEventIds = gerritEventIds;
+            scheduleReplay();
+        });
+    }
+
+    @Override
+    public void stop() {
+        final ExecutorService currentReplayer = replayer;
+        replayer = null;
+        if (currentReplayer != null) {
+            currentReplayer.shutdownNow();
+        }
+        final int pendingGenerations = generatorExecutor.shutdownNow().size();
+        if (pendingGenerations > 0) {
+            LOGGER.info("Eiffel event generator stopped with {} pending events.", pendingGenerations);
+        }
+        try {
+            generatorExecutor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final GerritEventInbox currentInbox = inbox;
+        inbox = null;
+        if (currentInbox != null) {
+            currentInbox.close();
+        }
+    }
+
+    /**
+     * Writes the Gerrit event to the inbox and queues the generation of the Eiffel event on the
+     * ordering keys of the listener. The calling thread is released as soon as the event is handed
+     * to the inbox writer.
+     *
+     * @param listener
+     * @param gerritEvent
+     * @param pluginConfig
+     */
+    public void submit(final AbstractEventListener listener, final Event gerritEvent,
+            final EiffelPluginConfiguration pluginConfig) {
+        final GerritEventInbox currentInbox = inbox;
+        if (currentInbox == null) {
+            queueWithoutInbox(listener, gerritEvent, pluginConfig);
+            return;
+        }
+
+        currentInbox.add(pluginConfig.getProject(), gerritEvent).whenComplete((entry, error) -> {
+            if (error != null) {
+                LOGGER.error("Failed to write Gerrit event '{}' for project '{}' to the inbox, it "
+                        + "will not be handled again after a restart.", gerritEvent.type,
+                        pluginConfig.getProject(), error);
+                queueWithoutInbox(listener, gerritEvent, pluginConfig);
+            } else {
+                queueFromInbox(entry, listener, pluginConfig);
+            }
+        });
+    }
+
+    /**
+     * Runs on the inbox writer thread, in the order the events were written. Events written while
+     * spilling are queued by the replay. A replay is scheduled when spilling starts, since the
+     * queued tasks may have finished before they could see it.
+     */
+    private synchronized void queueFromInbox(final GerritEventInbox.Entry entry,
+            final AbstractEventListener listener, final EiffelPluginConfiguration pluginConfig) {
+        if (spilling || entry.getSequence() < nextSequence) {
+            return;
+        }
+        try {
+            queue(listener, entry.getGerritEvent(), pluginConfig, entry);
+            nextSequence = entry.getSequence() + 1;
+        } catch (final RejectedExecutionException e) {
+            LOGGER.warn("Eiffel event generation queue is full, Gerrit events are kept in the inbox "
+                    + "until there is room in the queue.");
+            spilling = true;
+            nextSequence = entry.getSequence();
+            scheduleReplay();
+        }
+    }
+
+    private void queueWithoutInbox(final AbstractEventListener listener, final Event gerritEvent,
+            final EiffelPluginConfiguration pluginConfig) {
+        try {
+            queue(listener, gerritEvent, pluginConfig, null);
+        } catch (final RejectedExecutionException e) {
+            LOGGER.error("Eiffel event generation queue is full, dropping Gerrit event '{}' for project '{}'.",
+                    gerritEvent.type, pluginConfig.getProject(), e);
+        }
+    }
+
+    /**
+     * The event is removed from the inbox when the generated Eiffel event is written to the outbox.
+     * If generation or the write fails it is removed when the task completes. If the task is not
+     * run because the plugin is stopping, the event stays in the inbox.
+     */
+    private void queue(final AbstractEventListener listener, final Event gerritEvent,
+            final EiffelPluginConfiguration pluginConfig, final GerritEventInbox.Entry entry) {
+        final List<String> orderingKeys = listener.getOrderingKeys(gerritEvent, pluginConfig);
+        keyedExecutor.submit(orderingKeys,
+                () -> listener.generateAndSendEiffelEvent(gerritEvent, pluginConfig, entry)
+                              .whenComplete((result, error) -> removeFromInbox(entry)))
+                     .thenRun(this::onGenerationFinished);
+    }
+
+    private void onGenerationFinished() {
+        if (spilling) {
+            scheduleReplay();
+        }
+    }
+
+    private void scheduleReplay() {
+        final ExecutorService currentReplayer = replayer;
+        if (currentReplayer == null || !replayScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            currentReplayer.execute(this::replaySpilledEvents);
+        } catch (final RejectedExecutionException e) {
+            replayScheduled.set(false);
+        }
+    }
+
+    /**
+     * Queues the events left in the inbox in the order they were written, until the queue is full
+     * again or all events are queued.
+     */
+    private void replaySpilledEvents() {
+        replayScheduled.set(false);
+        final GerritEventInbox currentInbox = inbox;
+        if (currentInbox == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!spilling) {
+                return;
+            }
+            final List<GerritEventInbox.Entry> entries = currentInbox.getPending(nextSequence,
+                    REPLAY_BATCH_SIZE);
+            for (final GerritEventInbox.Entry entry : entries) {
+                if (!replay(currentInbox, entry)) {
+                    return;
+                }
+                nextSequence = entry.getSequence() + 1;
+                replayed = true;
+            }
+            if (entries.size() < REPLAY_BATCH_SIZE) {
+                if (replayed) {
+                    LOGGER.info("All Gerrit events kept in the inbox are queued for generation.");
+                    replayed = false;
+                }
+                spilling = false;
+                return;
+            }
+        }
+        scheduleReplay();
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    private boolean replay(final GerritEventInbox currentInbox, final GerritEventInbox.Entry entry) {
+        final Event gerritEvent = entry.getGerritEvent();
+        if (resentGerritEventIds.contains(entry.getId())) {
+            LOGGER.debug("Eiffel event of Gerrit event '{}' for project '{}' was resent from the "
+                    + "outbox, removing it.", gerritEvent.type, entry.getProject());
+            currentInbox.remove(entry);
+            return true;
+        }
+        try {
+            for (final Provider<? extends AbstractEventListener> listenerProvider : listenerProviders) {
+                final AbstractEventListener listener = listenerProvider.get();
+                if (listener.isExpectedGerritEvent(gerritEvent)) {
+                    queue(listener, gerritEvent, listener.createPluginConfig(gerritEvent), entry);
+                    return true;
+                }
+            }
+            LOGGER.warn("No listener handles Gerrit event '{}' kept in the inbox, removing it.",
+                    gerritEvent.type);
+        } catch (final RejectedExecutionException e) {
+            return false;
+        } catch (final RuntimeException e) {
+            LOGGER.error("Failed to queue Gerrit event '{}' for project '{}' kept in the inbox, "
+                    + "removing it.", gerritEvent.type, entry.getProject(), e);
+        }
+        currentInbox.remove(entry);
+        return true;
+    }
+
+    private void removeFromInbox(final GerritEventInbox.Entry entry) {
+        if (entry != null && inbox != null) {
+            entry.remove();
+        }
+    }
+
+    private static ThreadFactory createThreadFactory(final String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+}
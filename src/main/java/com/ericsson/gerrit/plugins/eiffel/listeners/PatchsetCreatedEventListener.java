@@ -18,6 +18,8 @@
 package com.ericsson.gerrit.plugins.eiffel.listeners;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,15 +62,25 @@ public class PatchsetCreatedEventListener extends AbstractEventListener {
     }
 
     @Override
-    protected void prepareAndSendEiffelEvent(final Event gerritEvent,
+    protected EiffelSourceChangeCreatedEvent generateEiffelEvent(final Event gerritEvent,
             final EiffelPluginConfiguration pluginConfig) {
         final PatchSetCreatedEvent patchSetCreatedEvent = (PatchSetCreatedEvent) gerritEvent;
         LOGGER.info("PatchSetCreatedEvent recieved from Gerrit, "
                 + "preparing to send a SourceChangeCreated eiffel event.\n{}",
                 patchSetCreatedEvent);
 
-        final EiffelSourceChangeCreatedEvent eiffelEvent = EiffelSourceChangeCreatedEventGenerator.generate(
-                pluginConfig, patchSetCreatedEvent, commitInformation);
-        sendEiffelEvent(eiffelEvent, pluginConfig);
+        return EiffelSourceChangeCreatedEventGenerator.generate(
+                pluginConfig, patchSetCreatedEvent, commitInformation, getEventIdStore(),
+                getSourceHostResolver());
+    }
+
+    /**
+     * A SourceChangeCreated event links to the previous patch set of its change, so it is ordered on
+     * the change.
+     */
+    @Override
+    protected List<String> getOrderingKeys(final Event gerritEvent,
+            final EiffelPluginConfiguration pluginConfig) {
+        return Collections.singletonList(getChangeOrderingKey(gerritEvent, pluginConfig));
     }
 }
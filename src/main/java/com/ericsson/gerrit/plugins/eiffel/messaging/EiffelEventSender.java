@@ -17,73 +17,82 @@
 package com.ericsson.gerrit.plugins.eiffel.messaging;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.ConnectException;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.URIBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ericsson.eiffelcommons.utils.HttpRequest;
-import com.ericsson.eiffelcommons.utils.HttpRequest.HttpMethod;
-import com.ericsson.eiffelcommons.utils.ResponseEntity;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.exceptions.EventRejectedException;
 import com.ericsson.gerrit.plugins.eiffel.exceptions.HttpRequestFailedException;
 import com.ericsson.gerrit.plugins.eiffel.exceptions.MissingConfigurationException;
 import com.ericsson.gerrit.plugins.eiffel.exceptions.NoSuchElementException;
 import com.ericsson.gerrit.plugins.eiffel.storage.EventStorage;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStore;
 import com.ericsson.gerrit.plugins.eiffel.storage.EventStorageFactory;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 public class EiffelEventSender {
     private static final String GENERATE_PUBLISH_ENDPOINT = "/generateAndPublish/";
     private static final String MESSAGE_PROTOCOL = "mp";
     private static final String MESSAGE_TYPE = "msgType";
     private static final String EIFFEL_PROTOCOL = "eiffelsemantics";
-    private static final String CONTENT_TYPE_HEADER = "Content-Type";
-    private static final String APPLICATION_JSON = "application/json";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(EiffelEventSender.class);
 
-    private final Gson gson = new Gson();
-    private EiffelEvent eiffelEvent;
+    private List<EiffelEvent> eiffelEvents = Collections.emptyList();
+    private List<EiffelEvent> unpublishedEvents = Collections.emptyList();
+    private List<EiffelEvent> rejectedEvents = Collections.emptyList();
     private String eiffelType;
     private final EiffelPluginConfiguration pluginConfig;
-    private final HttpRequest httpRequest;
+    private final RemremHttpClient httpClient;
+    private final EventIdStore eventIdStore;
+    private final EventTemplateCache eventTemplates;
 
-    public EiffelEventSender(final EiffelPluginConfiguration pluginConfig) {
-        this(pluginConfig, new HttpRequest(HttpMethod.POST));
-    }
-
-    public EiffelEventSender(final EiffelPluginConfiguration pluginConfig, final HttpRequest httpRequest) {
-        this.httpRequest = httpRequest;
+    public EiffelEventSender(final EiffelPluginConfiguration pluginConfig, final RemremHttpClient httpClient,
+            final EventIdStore eventIdStore, final EventTemplateCache eventTemplates) {
+        this.httpClient = httpClient;
         this.pluginConfig = pluginConfig;
+        this.eventIdStore = eventIdStore;
+        this.eventTemplates = eventTemplates;
     }
 
     /**
      * Sends a REMReM Eiffel message to the generateAndPublish endpoint. RuntimeException is thrown
-     * when an IOException or HttpRequestFailedException occurs so that the retry logic works.
+     * when an IOException or HttpRequestFailedException occurs so that the retry logic works. When
+     * REMReM rejects the request with a client error other than request timeout or too many
+     * requests, EventRejectedException is thrown and the messages should not be sent again.
+     *
+     * Several messages of the same type are sent as one array request, their generated ids are
+     * saved in one storage transaction. Messages REMReM did not publish are not saved, they are
+     * returned by {@link #getUnpublishedEvents()} so that they can be sent again, or by
+     * {@link #getRejectedEvents()} if REMReM rejected them.
      *
+     * @return a future completed when the generated ids are stored, the ids may be committed
+     *         after this method has returned
      */
-    public void send() {
+    public CompletableFuture<Void> send() {
         try {
             verifyConfiguration();
-            final String generatedEventId = generateAndPublish();
-            final EventStorage eventStorage = EventStorageFactory.getEventStorage(pluginConfig,
-                    eiffelEvent.msgParams.meta.type);
-            eventStorage.saveEventId(generatedEventId, eiffelEvent);
+            final List<String> generatedEventIds = generateAndPublish();
+            return saveEventIds(generatedEventIds);
 
         } catch (URISyntaxException | MissingConfigurationException | NoSuchElementException e) {
             LOGGER.error("Failed to send eiffel message.", e);
         } catch (SQLException | ConnectException e) {
             LOGGER.error("Failed to save the internal state after sending event.", e);
+        } catch (final EventRejectedException e) {
+            LOGGER.error("REMReM rejected eiffel message, it is not sent again.", e);
+            throw e;
         } catch (final HttpRequestFailedException e) {
             LOGGER.error("Failed to send eiffel message.", e);
             throw e;
@@ -91,48 +100,133 @@ public class EiffelEventSender {
             LOGGER.error("Failed to send eiffel message.", e);
             throw new HttpRequestFailedException(e);
         }
+        return CompletableFuture.completedFuture(null);
     }
 
     public EiffelEventSender setEiffelEventMessage(final EiffelEvent eiffelEvent) {
-        this.eiffelEvent = eiffelEvent;
+        this.eiffelEvents = Collections.singletonList(eiffelEvent);
         return this;
     }
 
+    /**
+     * Sets several messages of the same Eiffel type to be sent in one request.
+     *
+     * @param eiffelEvents
+     * @return EiffelEventSender
+     */
+    public EiffelEventSender setEiffelEventMessages(final List<? extends EiffelEvent> eiffelEvents) {
+        this.eiffelEvents = new ArrayList<>(eiffelEvents);
+        return this;
+    }
+
+    /**
+     * Returns the messages that REMReM did not publish in the last send, they have no id and are
+     * not saved.
+     *
+     * @return List of unpublished messages
+     */
+    public List<EiffelEvent> getUnpublishedEvents() {
+        return unpublishedEvents;
+    }
+
+    /**
+     * Returns the messages that REMReM rejected in the last send, they have no id and sending them
+     * again would fail the same way.
+     *
+     * @return List of rejected messages
+     */
+    public List<EiffelEvent> getRejectedEvents() {
+        return rejectedEvents;
+    }
+
     public EiffelEventSender setEiffelEventType(final String eiffelType) {
         this.eiffelType = eiffelType;
         return this;
     }
 
-    private String generateAndPublish()
+    private List<String> generateAndPublish()
             throws URISyntaxException, IOException, MissingConfigurationException,
             HttpRequestFailedException {
-        assembleRequest();
-        final ResponseEntity response = httpRequest.performRequest();
+        final RemremResponse response = httpClient.post(createPublishUri(),
+                pluginConfig.getRemremUsername(), pluginConfig.getRemremPassword(),
+                createRequestBody());
         verifyResponse(response);
 
-        final String generatedEventId = getGeneratedEventId(response);
-        return generatedEventId;
+        final List<String> generatedEventIds = getGeneratedEventIds(response);
+        return generatedEventIds;
     }
 
-    private String getGeneratedEventId(final ResponseEntity response) {
-        final String jsonBody = response.getBody();
-        final JsonObject responseBody = new JsonParser().parse(jsonBody).getAsJsonObject();
-        final JsonArray events = responseBody.get("events").getAsJsonArray();
-        final String generatedEventId = events.get(0).getAsJsonObject().get("id").getAsString();
-        return generatedEventId;
+    /**
+     * Returns the generated ids in the order of the sent messages. A message REMReM did not
+     * publish has no id and null is returned in its place, the messages REMReM rejected are kept
+     * in the rejected events.
+     */
+    private List<String> getGeneratedEventIds(final RemremResponse response) throws IOException {
+        final List<PublishResult> results = response.getResults();
+        LOGGER.debug("REMReM response :: {}", results);
+
+        final List<String> generatedEventIds = new ArrayList<>();
+        final List<EiffelEvent> rejected = new ArrayList<>();
+        for (int i = 0; i < eiffelEvents.size(); i++) {
+            final PublishResult result = i < results.size() ? results.get(i) : null;
+            if (result == null || !result.isPublished()) {
+                LOGGER.error("REMReM did not publish eiffel message.\ninput message :: {}\nresult :: {}",
+                        eiffelEvents.get(i), result);
+                generatedEventIds.add(null);
+                if (result != null && result.isRejected()) {
+                    rejected.add(eiffelEvents.get(i));
+                }
+            } else {
+                generatedEventIds.add(result.getId());
+            }
+        }
+        rejectedEvents = rejected;
+        LOGGER.info("Generated and published {} of {} eiffel messages.",
+                generatedEventIds.stream().filter(id -> id != null).count(), eiffelEvents.size());
+        return generatedEventIds;
     }
 
-    private void verifyResponse(final ResponseEntity response) throws HttpRequestFailedException {
-        final int statusCode = response.getStatusCode();
-        final String result = response.getBody();
+    private CompletableFuture<Void> saveEventIds(final List<String> generatedEventIds)
+            throws NoSuchElementException, SQLException, ConnectException {
+        final List<String> publishedEventIds = new ArrayList<>();
+        final List<EiffelEvent> publishedEvents = new ArrayList<>();
+        final List<EiffelEvent> notPublishedEvents = new ArrayList<>();
+        for (int i = 0; i < eiffelEvents.size(); i++) {
+            if (generatedEventIds.get(i) != null) {
+                publishedEventIds.add(generatedEventIds.get(i));
+                publishedEvents.add(eiffelEvents.get(i));
+            } else if (!rejectedEvents.contains(eiffelEvents.get(i))) {
+                notPublishedEvents.add(eiffelEvents.get(i));
+            }
+        }
+        unpublishedEvents = notPublishedEvents;
+        if (publishedEvents.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
 
-        if (HttpStatus.SC_OK == statusCode) {
-            LOGGER.info("Generated and published eiffel message successfully. \n{}", result);
-        } else if (HttpStatus.SC_INTERNAL_SERVER_ERROR == statusCode || HttpStatus.SC_SERVICE_UNAVAILABLE == statusCode ) {
+        final EventStorage eventStorage = EventStorageFactory.getEventStorage(pluginConfig, eventIdStore,
+                publishedEvents.get(0).msgParams.meta.type);
+        if (publishedEvents.size() == 1) {
+            return eventStorage.saveEventId(publishedEventIds.get(0), publishedEvents.get(0));
+        } else {
+            return eventStorage.saveEventIds(publishedEventIds, publishedEvents);
+        }
+    }
+
+    /**
+     * Every status code other than 2xx is a failure, the results of such a response are not read.
+     * Only server errors, request timeouts and too many requests are worth sending again.
+     */
+    private void verifyResponse(final RemremResponse response) throws HttpRequestFailedException {
+        if (!response.isSuccessful()) {
             final String errorMessage = String.format(
                     "Could not generate and publish eiffel message due to server issue or invalid json data, "
                             + "Status Code :: %d\npublishURL :: %s\ninput message :: %s\nError Message  :: %s",
-                    statusCode, httpRequest.getBaseUrl(), eiffelEvent, result);
+                    response.getStatusCode(), pluginConfig.getRemremPublishURL(), getEiffelMessageDescription(),
+                    response.getBody());
+            if (response.isRejected()) {
+                throw new EventRejectedException(errorMessage);
+            }
             throw new HttpRequestFailedException(errorMessage);
         }
     }
@@ -142,29 +236,32 @@ public class EiffelEventSender {
             final String errorMessage = String.format(
                     "Neccessary configuration is missing to send event."
                             + "\neiffelMessage: %s\neiffelType: %s\neiffelProtocol: %s",
-                    eiffelEvent, eiffelType, EIFFEL_PROTOCOL);
+                    getEiffelMessageDescription(), eiffelType, EIFFEL_PROTOCOL);
             throw new MissingConfigurationException(errorMessage);
         }
     }
 
     private boolean isConfigurationSet() {
-        final boolean isConfigurationSet = eiffelEvent != null
+        final boolean isConfigurationSet = !eiffelEvents.isEmpty() && eiffelEvents.get(0) != null
                 && !StringUtils.isEmpty(eiffelType);
         return isConfigurationSet;
     }
 
-    private void assembleRequest() throws UnsupportedEncodingException {
-        final String username = pluginConfig.getRemremUsername();
-        final String password = pluginConfig.getRemremPassword();
-        final String url = pluginConfig.getRemremPublishURL();
-        final String eiffelMessage = gson.toJsonTree(this.eiffelEvent).toString();
+    private URI createPublishUri() throws URISyntaxException {
+        final URIBuilder uriBuilder = new URIBuilder(pluginConfig.getRemremPublishURL());
+        // The configured URL may end with a slash, which is not repeated before the endpoint
+        final String path = StringUtils.defaultString(StringUtils.stripEnd(uriBuilder.getPath(), "/"));
+        return uriBuilder.setPath(path + GENERATE_PUBLISH_ENDPOINT)
+                         .addParameter(MESSAGE_PROTOCOL, EIFFEL_PROTOCOL)
+                         .addParameter(MESSAGE_TYPE, eiffelType)
+                         .build();
+    }
+
+    private JsonRequestBody createRequestBody() throws IOException {
+        return EventSerializer.serialize(eiffelEvents, eventTemplates);
+    }
 
-        httpRequest.setBasicAuth(username, password);
-        httpRequest.setBaseUrl(url);
-        httpRequest.setEndpoint(GENERATE_PUBLISH_ENDPOINT);
-        httpRequest.addParameter(MESSAGE_PROTOCOL, EIFFEL_PROTOCOL);
-        httpRequest.addParameter(MESSAGE_TYPE, eiffelType);
-        httpRequest.setHeader(CONTENT_TYPE_HEADER, APPLICATION_JSON);
-        httpRequest.setBody(eiffelMessage);
+    private Object getEiffelMessageDescription() {
+        return eiffelEvents.size() == 1 ? eiffelEvents.get(0) : eiffelEvents;
     }
 }
@@ -0,0 +1,92 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Serializes Eiffel events to the JSON body of a REMReM request. The events are streamed into a
+ * buffer of the sending thread, which is reused for the next request, without building a JSON
+ * tree or string of them first.
+ *
+ * Source change events are written by an {@link EventTemplate} of their project and type, which
+ * is kept by the given {@link EventTemplateCache}.
+ *
+ */
+public final class EventSerializer {
+    // Buffers grown larger by a big batch are not kept for the next request
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    // Same output as JsonElement.toString(), which does not escape HTML characters
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final ThreadLocal<JsonRequestBody> BODIES = ThreadLocal.withInitial(
+            JsonRequestBody::new);
+
+    private EventSerializer() {
+    }
+
+    /**
+     * Serializes a single event as a JSON object and several events as a JSON array.
+     *
+     * @param eiffelEvents
+     * @param eventTemplates
+     * @return the request body, valid until the next call on the same thread
+     * @throws IOException
+     */
+    public static JsonRequestBody serialize(final List<? extends EiffelEvent> eiffelEvents,
+            final EventTemplateCache eventTemplates) throws IOException {
+        final JsonRequestBody body = getBody();
+        final JsonWriter jsonWriter = new JsonWriter(body.getWriter());
+        if (eiffelEvents.size() == 1) {
+            write(jsonWriter, eventTemplates, eiffelEvents.get(0));
+        } else {
+            jsonWriter.beginArray();
+            for (EiffelEvent eiffelEvent : eiffelEvents) {
+                write(jsonWriter, eventTemplates, eiffelEvent);
+            }
+            jsonWriter.endArray();
+        }
+        jsonWriter.flush();
+        return body;
+    }
+
+    private static void write(final JsonWriter jsonWriter, final EventTemplateCache eventTemplates,
+            final EiffelEvent eiffelEvent) throws IOException {
+        if (eiffelEvent == null) {
+            jsonWriter.nullValue();
+        } else if (!EventTemplate.write(GSON, eventTemplates, jsonWriter, eiffelEvent)) {
+            GSON.toJson(eiffelEvent, eiffelEvent.getClass(), jsonWriter);
+        }
+    }
+
+    private static JsonRequestBody getBody() {
+        JsonRequestBody body = BODIES.get();
+        if (body.capacity() > MAX_RETAINED_SIZE) {
+            body = new JsonRequestBody();
+            BODIES.set(body);
+        }
+        body.reset();
+        return body;
+    }
+}
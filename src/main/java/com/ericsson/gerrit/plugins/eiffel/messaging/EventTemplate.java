@@ -0,0 +1,290 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.models.Author;
+import com.ericsson.gerrit.plugins.eiffel.events.models.Change;
+import com.ericsson.gerrit.plugins.eiffel.events.models.GitIdentifier;
+import com.ericsson.gerrit.plugins.eiffel.events.models.KeyValue;
+import com.ericsson.gerrit.plugins.eiffel.events.models.Link;
+import com.ericsson.gerrit.plugins.eiffel.events.models.Meta;
+import com.ericsson.gerrit.plugins.eiffel.events.models.Source;
+import com.ericsson.gerrit.plugins.eiffel.events.models.Submitter;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes the EiffelSourceChangeCreatedEvent and EiffelSourceChangeSubmittedEvent of a project
+ * without reflection. The values that are the same for all events of a project and type, the
+ * event type, source host and name, repository name and URI and the change tracker, are encoded
+ * once and copied into every event, only the other values are encoded per event.
+ *
+ * A template is created again when an event has other constant values than the template, for
+ * example when the source host has been refreshed. The templates are kept by the
+ * {@link EventTemplateCache}. The output is the same as that of Gson for the event.
+ *
+ */
+final class EventTemplate {
+    private final String type;
+    private final String host;
+    private final String sourceName;
+    private final String repoName;
+    private final String repoUri;
+    private final String tracker;
+
+    private final String encodedType;
+    private final String encodedHost;
+    private final String encodedSourceName;
+    private final String encodedRepoName;
+    private final String encodedRepoUri;
+    private final String encodedTracker;
+
+    private EventTemplate(final Gson gson, final String type, final String host,
+            final String sourceName, final String repoName, final String repoUri,
+            final String tracker) {
+        this.type = type;
+        this.host = host;
+        this.sourceName = sourceName;
+        this.repoName = repoName;
+        this.repoUri = repoUri;
+        this.tracker = tracker;
+        this.encodedType = encode(gson, type);
+        this.encodedHost = encode(gson, host);
+        this.encodedSourceName = encode(gson, sourceName);
+        this.encodedRepoName = encode(gson, repoName);
+        this.encodedRepoUri = encode(gson, repoUri);
+        this.encodedTracker = encode(gson, tracker);
+    }
+
+    /**
+     * Writes the event with the template of its project and type.
+     *
+     * @param gson
+     *            used to encode the constant values of a new template
+     * @param eventTemplates
+     *            the templates of the projects, a new template is added to them
+     * @param jsonWriter
+     * @param eiffelEvent
+     * @return false if there is no template for the event, it is then not written
+     * @throws IOException
+     */
+    static boolean write(final Gson gson, final EventTemplateCache eventTemplates,
+            final JsonWriter jsonWriter, final EiffelEvent eiffelEvent) throws IOException {
+        if (!hasTemplateFields(eiffelEvent)) {
+            return false;
+        }
+        if (eiffelEvent instanceof EiffelSourceChangeCreatedEvent) {
+            final EiffelSourceChangeCreatedEvent createdEvent = (EiffelSourceChangeCreatedEvent) eiffelEvent;
+            final Change change = createdEvent.eventParams.data.change;
+            getTemplate(gson, eventTemplates, eiffelEvent,
+                    createdEvent.eventParams.data.gitIdentifier, change == null ? null : change.tracker).writeCreatedEvent(jsonWriter, createdEvent);
+        } else {
+            final EiffelSourceChangeSubmittedEvent submittedEvent = (EiffelSourceChangeSubmittedEvent) eiffelEvent;
+            getTemplate(gson, eventTemplates, eiffelEvent,
+                    submittedEvent.eventParams.data.gitIdentifier, null)
+                    .writeSubmittedEvent(jsonWriter, submittedEvent);
+        }
+        return true;
+    }
+
+    private static boolean hasTemplateFields(final EiffelEvent eiffelEvent) {
+        if (eiffelEvent.msgParams == null || eiffelEvent.msgParams.meta == null
+                || eiffelEvent.msgParams.meta.source == null) {
+            return false;
+        }
+        if (eiffelEvent instanceof EiffelSourceChangeCreatedEvent) {
+            final EiffelSourceChangeCreatedEvent createdEvent = (EiffelSourceChangeCreatedEvent) eiffelEvent;
+            return createdEvent.eventParams != null && createdEvent.eventParams.data != null
+                    && createdEvent.eventParams.data.gitIdentifier != null;
+        }
+        if (eiffelEvent instanceof EiffelSourceChangeSubmittedEvent) {
+            final EiffelSourceChangeSubmittedEvent submittedEvent = (EiffelSourceChangeSubmittedEvent) eiffelEvent;
+            return submittedEvent.eventParams != null && submittedEvent.eventParams.data != null
+                    && submittedEvent.eventParams.data.gitIdentifier != null;
+        }
+        return false;
+    }
+
+    private static EventTemplate getTemplate(final Gson gson, final EventTemplateCache eventTemplates,
+            final EiffelEvent eiffelEvent, final GitIdentifier gitIdentifier, final String tracker) {
+        final Meta meta = eiffelEvent.msgParams.meta;
+        final String key = eiffelEvent.getClass().getName() + ':' + gitIdentifier.repoName;
+        final EventTemplate template = eventTemplates.get(key);
+        if (template != null && template.matches(meta, gitIdentifier, tracker)) {
+            return template;
+        }
+        final EventTemplate newTemplate = new EventTemplate(gson, meta.type, meta.source.host,
+                meta.source.name, gitIdentifier.repoName, gitIdentifier.repoUri, tracker);
+        eventTemplates.put(key, newTemplate);
+        return newTemplate;
+    }
+
+    private boolean matches(final Meta meta, final GitIdentifier gitIdentifier, final String tracker) {
+        return Objects.equals(type, meta.type) && Objects.equals(host, meta.source.host)
+                && Objects.equals(sourceName, meta.source.name)
+                && Objects.equals(repoName, gitIdentifier.repoName)
+                && Objects.equals(repoUri, gitIdentifier.repoUri)
+                && Objects.equals(this.tracker, tracker);
+    }
+
+    private void writeCreatedEvent(final JsonWriter jsonWriter,
+            final EiffelSourceChangeCreatedEvent eiffelEvent) throws IOException {
+        jsonWriter.beginObject();
+        jsonWriter.name("eventParams").beginObject();
+        jsonWriter.name("data").beginObject();
+        final Author author = eiffelEvent.eventParams.data.author;
+        if (author != null) {
+            writePerson(jsonWriter, "author", author.name, author.email, author.id, author.group);
+        }
+        final Change change = eiffelEvent.eventParams.data.change;
+        if (change != null) {
+            jsonWriter.name("change").beginObject();
+            jsonWriter.name("insertions").value(change.insertions);
+            jsonWriter.name("deletions").value(change.deletions);
+            writeEncoded(jsonWriter, "tracker", encodedTracker);
+            writeValue(jsonWriter, "details", change.details);
+            writeValue(jsonWriter, "id", change.id);
+            jsonWriter.endObject();
+        }
+        writeGitIdentifier(jsonWriter, eiffelEvent.eventParams.data.gitIdentifier);
+        writeCustomData(jsonWriter, eiffelEvent.eventParams.data.customData);
+        jsonWriter.endObject();
+        writeLinks(jsonWriter, eiffelEvent.eventParams.links);
+        jsonWriter.endObject();
+        writeMsgParams(jsonWriter, eiffelEvent.msgParams.meta.source);
+        jsonWriter.endObject();
+    }
+
+    private void writeSubmittedEvent(final JsonWriter jsonWriter,
+            final EiffelSourceChangeSubmittedEvent eiffelEvent) throws IOException {
+        jsonWriter.beginObject();
+        jsonWriter.name("eventParams").beginObject();
+        jsonWriter.name("data").beginObject();
+        final Submitter submitter = eiffelEvent.eventParams.data.submitter;
+        if (submitter != null) {
+            writePerson(jsonWriter, "submitter", submitter.name, submitter.email, submitter.id,
+                    submitter.group);
+        }
+        writeGitIdentifier(jsonWriter, eiffelEvent.eventParams.data.gitIdentifier);
+        writeCustomData(jsonWriter, eiffelEvent.eventParams.data.customData);
+        jsonWriter.endObject();
+        writeLinks(jsonWriter, eiffelEvent.eventParams.links);
+        jsonWriter.endObject();
+        writeMsgParams(jsonWriter, eiffelEvent.msgParams.meta.source);
+        jsonWriter.endObject();
+    }
+
+    private void writeGitIdentifier(final JsonWriter jsonWriter, final GitIdentifier gitIdentifier)
+            throws IOException {
+        jsonWriter.name("gitIdentifier").beginObject();
+        writeValue(jsonWriter, "commitId", gitIdentifier.commitId);
+        writeEncoded(jsonWriter, "repoUri", encodedRepoUri);
+        writeValue(jsonWriter, "branch", gitIdentifier.branch);
+        writeEncoded(jsonWriter, "repoName", encodedRepoName);
+        jsonWriter.endObject();
+    }
+
+    private void writeMsgParams(final JsonWriter jsonWriter, final Source source)
+            throws IOException {
+        jsonWriter.name("msgParams").beginObject();
+        jsonWriter.name("meta").beginObject();
+        writeEncoded(jsonWriter, "type", encodedType);
+        jsonWriter.name("source").beginObject();
+        writeValue(jsonWriter, "domainId", source.domainId);
+        writeEncoded(jsonWriter, "host", encodedHost);
+        writeEncoded(jsonWriter, "name", encodedSourceName);
+        writeValue(jsonWriter, "uri", source.uri);
+        jsonWriter.endObject();
+        jsonWriter.endObject();
+        jsonWriter.endObject();
+    }
+
+    private static void writePerson(final JsonWriter jsonWriter, final String field,
+            final String name, final String email, final String id, final String group)
+            throws IOException {
+        jsonWriter.name(field).beginObject();
+        writeValue(jsonWriter, "name", name);
+        writeValue(jsonWriter, "email", email);
+        writeValue(jsonWriter, "id", id);
+        writeValue(jsonWriter, "group", group);
+        jsonWriter.endObject();
+    }
+
+    private static void writeCustomData(final JsonWriter jsonWriter, final List<KeyValue> customData)
+            throws IOException {
+        if (customData == null) {
+            return;
+        }
+        jsonWriter.name("customData").beginArray();
+        for (KeyValue keyValue : customData) {
+            if (keyValue == null) {
+                jsonWriter.nullValue();
+                continue;
+            }
+            jsonWriter.beginObject();
+            writeValue(jsonWriter, "key", keyValue.key);
+            writeValue(jsonWriter, "value", keyValue.value);
+            jsonWriter.endObject();
+        }
+        jsonWriter.endArray();
+    }
+
+    private static void writeLinks(final JsonWriter jsonWriter, final List<Link> links)
+            throws IOException {
+        if (links == null) {
+            return;
+        }
+        jsonWriter.name("links").beginArray();
+        for (Link link : links) {
+            if (link == null) {
+                jsonWriter.nullValue();
+                continue;
+            }
+            jsonWriter.beginObject();
+            writeValue(jsonWriter, "type", link.type);
+            writeValue(jsonWriter, "target", link.target);
+            jsonWriter.endObject();
+        }
+        jsonWriter.endArray();
+    }
+
+    private static void writeValue(final JsonWriter jsonWriter, final String name,
+            final String value) throws IOException {
+        if (value != null) {
+            jsonWriter.name(name).value(value);
+        }
+    }
+
+    private static void writeEncoded(final JsonWriter jsonWriter, final String name,
+            final String encodedValue) throws IOException {
+        if (encodedValue != null) {
+            jsonWriter.name(name).jsonValue(encodedValue);
+        }
+    }
+
+    private static String encode(final Gson gson, final String value) {
+        return value == null ? null : gson.toJson(value);
+    }
+}
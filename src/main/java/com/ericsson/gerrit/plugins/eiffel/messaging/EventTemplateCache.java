@@ -0,0 +1,49 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.inject.Singleton;
+
+/**
+ * Keeps the {@link EventTemplate} of each project and event type. There are at most two templates
+ * per project, they are removed by the {@link EventTemplateInvalidator} when a project
+ * configuration is updated and go away with the plugin instance.
+ *
+ */
+@Singleton
+public class EventTemplateCache {
+    private final Map<String, EventTemplate> templates = new ConcurrentHashMap<>();
+
+    EventTemplate get(final String key) {
+        return templates.get(key);
+    }
+
+    void put(final String key, final EventTemplate template) {
+        templates.put(key, template);
+    }
+
+    /**
+     * Removes all templates.
+     */
+    public void invalidateAll() {
+        templates.clear();
+    }
+}
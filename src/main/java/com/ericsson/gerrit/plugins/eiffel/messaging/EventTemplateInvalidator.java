@@ -0,0 +1,44 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Removes the event templates of all projects when <code>refs/meta/config</code> of any project is
+ * updated, so that changed constant values of the events are picked up.
+ *
+ */
+@Singleton
+public class EventTemplateInvalidator implements GitReferenceUpdatedListener {
+    private final EventTemplateCache eventTemplates;
+
+    @Inject
+    public EventTemplateInvalidator(final EventTemplateCache eventTemplates) {
+        this.eventTemplates = eventTemplates;
+    }
+
+    @Override
+    public void onGitReferenceUpdated(final Event event) {
+        if (RefNames.REFS_CONFIG.equals(event.getRefName())) {
+            eventTemplates.invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8 encoded JSON request body written by {@link EventSerializer}. The body is a buffer reused
+ * by the next serialization on the same thread, so it must be sent before then.
+ *
+ */
+public final class JsonRequestBody extends ByteArrayOutputStream {
+    private static final int INITIAL_SIZE = 4096;
+
+    private final Writer writer = new OutputStreamWriter(this, StandardCharsets.UTF_8);
+
+    JsonRequestBody() {
+        super(INITIAL_SIZE);
+    }
+
+    /**
+     * Returns the buffer holding the body, only the first {@link #size()} bytes belong to it.
+     *
+     * @return byte array
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    int capacity() {
+        return buf.length;
+    }
+
+    Writer getWriter() {
+        return writer;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, count, StandardCharsets.UTF_8);
+    }
+}
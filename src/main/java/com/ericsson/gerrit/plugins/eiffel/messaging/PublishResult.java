@@ -0,0 +1,187 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Result of one message in a REMReM generateAndPublish response. The response is read as a
+ * stream, only the id, status code, result and message of each message are kept.
+ *
+ */
+final class PublishResult {
+    private static final String EVENTS = "events";
+    private static final String ID = "id";
+    private static final String STATUS_CODE = "status_code";
+    private static final String RESULT = "result";
+    private static final String MESSAGE = "message";
+
+    private String id;
+    private int statusCode;
+    private String result;
+    private String message;
+
+    private PublishResult() {
+    }
+
+    /**
+     * Reads the results of a response in the order of the sent messages.
+     *
+     * @param body
+     * @return List of results
+     * @throws IOException
+     *             if the body is not JSON
+     */
+    static List<PublishResult> parse(final String body) throws IOException {
+        return parse(new StringReader(body));
+    }
+
+    /**
+     * Reads the results of a response in the order of the sent messages. The results are expected
+     * in the <code>events</code> array of the response object, a response that is an array of
+     * results or a single result object is read as well. The reader is closed.
+     *
+     * @param body
+     * @return List of results
+     * @throws IOException
+     *             if the body is not JSON or could not be read
+     */
+    static List<PublishResult> parse(final Reader body) throws IOException {
+        try (JsonReader reader = new JsonReader(body)) {
+            reader.setLenient(true);
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                return readResults(reader);
+            }
+            final List<PublishResult> results = new ArrayList<>();
+            final PublishResult result = new PublishResult();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (EVENTS.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    results.addAll(readResults(reader));
+                } else {
+                    result.readField(name, reader);
+                }
+            }
+            reader.endObject();
+            if (results.isEmpty() && result.id != null) {
+                return Collections.singletonList(result);
+            }
+            return results;
+        }
+    }
+
+    private static List<PublishResult> readResults(final JsonReader reader) throws IOException {
+        final List<PublishResult> results = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                results.add(new PublishResult());
+                continue;
+            }
+            final PublishResult result = new PublishResult();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                result.readField(reader.nextName(), reader);
+            }
+            reader.endObject();
+            results.add(result);
+        }
+        reader.endArray();
+        return results;
+    }
+
+    private void readField(final String name, final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+        switch (name) {
+        case ID:
+            id = readString(reader);
+            break;
+        case STATUS_CODE:
+            if (reader.peek() == JsonToken.NUMBER) {
+                statusCode = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+            break;
+        case RESULT:
+            result = readString(reader);
+            break;
+        case MESSAGE:
+            message = readString(reader);
+            break;
+        default:
+            reader.skipValue();
+        }
+    }
+
+    private static String readString(final JsonReader reader) throws IOException {
+        final JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    /**
+     * Returns true if REMReM generated an id for the message and did not report an error status
+     * for it. A result without status code is published if it has an id.
+     *
+     * @return boolean
+     */
+    boolean isPublished() {
+        return id != null && (statusCode == 0 || RemremResponse.isSuccessful(statusCode));
+    }
+
+    /**
+     * Returns true if REMReM reported a status for the message that sending it again will not
+     * change, see {@link RemremResponse#isRejected()}.
+     *
+     * @return boolean
+     */
+    boolean isRejected() {
+        return RemremResponse.isRejected(statusCode);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    int getStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{id=%s, status_code=%d, result=%s, message=%s}", id, statusCode,
+                result, message);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * HTTP client shared by all senders. Connections to REMReM are pooled and kept alive between
+ * requests, so that a connection and TLS handshake is not needed for every event. The client is
+ * closed when the plugin is stopped.
+ *
+ */
+@Singleton
+public class RemremHttpClient implements LifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemremHttpClient.class);
+
+    private static final String MAX_CONNECTIONS = "remremMaxConnections";
+    private static final String MAX_CONNECTIONS_PER_ROUTE = "remremMaxConnectionsPerRoute";
+    private static final String KEEP_ALIVE = "remremKeepAlive";
+    private static final String IDLE_TIMEOUT = "remremIdleTimeout";
+    private static final String CONNECT_TIMEOUT = "remremConnectTimeout";
+    private static final String READ_TIMEOUT = "remremReadTimeout";
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+    private static final long DEFAULT_KEEP_ALIVE = 60000;
+    private static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final int DEFAULT_READ_TIMEOUT = 30000;
+
+    private final CloseableHttpClient httpClient;
+
+    @Inject
+    public RemremHttpClient(final PluginConfigFactory config, @PluginName final String pluginName) {
+        final PluginConfig pluginConfig = config.getFromGerritConfig(pluginName, true);
+        final int maxConnections = Math.max(1,
+                pluginConfig.getInt(MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS));
+        final int maxConnectionsPerRoute = Math.max(1,
+                pluginConfig.getInt(MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+        final long keepAlive = pluginConfig.getLong(KEEP_ALIVE, DEFAULT_KEEP_ALIVE);
+        final long idleTimeout = pluginConfig.getLong(IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT);
+        final int connectTimeout = pluginConfig.getInt(CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+        final int readTimeout = pluginConfig.getInt(READ_TIMEOUT, DEFAULT_READ_TIMEOUT);
+
+        // No time to live, how long a connection is kept is decided by the keep-alive strategy
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+                                                         .setConnectTimeout(connectTimeout)
+                                                         .setConnectionRequestTimeout(connectTimeout)
+                                                         .setSocketTimeout(readTimeout)
+                                                         .build();
+
+        final ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> getKeepAlive(
+                response, context, keepAlive);
+        final HttpClientBuilder httpClientBuilder = HttpClients.custom()
+                                                               .setConnectionManager(connectionManager)
+                                                               .setDefaultRequestConfig(requestConfig)
+                                                               .setKeepAliveStrategy(keepAliveStrategy)
+                                                               .evictExpiredConnections();
+        if (idleTimeout > 0) {
+            httpClientBuilder.evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+        }
+        this.httpClient = httpClientBuilder.build();
+    }
+
+    @Override
+    public void start() {
+        // The client is created together with the instance
+    }
+
+    @Override
+    public void stop() {
+        try {
+            httpClient.close();
+        } catch (final IOException e) {
+            LOGGER.error("Failed to close the REMReM HTTP client.", e);
+        }
+    }
+
+    /**
+     * Posts a JSON body to the given URI using basic authentication if a username is given. The
+     * body is sent from its buffer without copying it.
+     *
+     * The publish results of a 2xx response are read from the response stream. The body of any
+     * other response is kept as a string for the error message.
+     *
+     * @param uri
+     * @param username
+     * @param password
+     * @param body
+     * @return the status code and the results or body of the response
+     * @throws IOException
+     *             if the request failed or the results could not be read
+     */
+    public RemremResponse post(final URI uri, final String username, final String password,
+            final JsonRequestBody body) throws IOException {
+        final HttpPost request = new HttpPost(uri);
+        if (!StringUtils.isEmpty(username)) {
+            final String credentials = String.format("%s:%s", username,
+                    StringUtils.defaultString(password));
+            final String encodedCredentials = Base64.getEncoder()
+                                                    .encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+            request.setHeader(HttpHeaders.AUTHORIZATION, "Basic " + encodedCredentials);
+        }
+        request.setEntity(new ByteArrayEntity(body.getBuffer(), 0, body.size(),
+                ContentType.APPLICATION_JSON));
+
+        return httpClient.execute(request, response -> {
+            final int statusCode = response.getStatusLine().getStatusCode();
+            final HttpEntity entity = response.getEntity();
+            if (!RemremResponse.isSuccessful(statusCode)) {
+                final String responseBody = entity == null ? ""
+                        : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+                return new RemremResponse(statusCode, responseBody);
+            }
+            if (entity == null) {
+                return new RemremResponse(statusCode, Collections.<PublishResult> emptyList());
+            }
+            final Charset charset = ContentType.getOrDefault(entity).getCharset();
+            return new RemremResponse(statusCode, PublishResult.parse(new InputStreamReader(
+                    entity.getContent(), charset == null ? StandardCharsets.UTF_8 : charset)));
+        });
+    }
+
+    /**
+     * Returns how long a connection is kept alive after the response, the timeout of a
+     * <code>Keep-Alive</code> header of the server if it is shorter than the configured value. A
+     * configured value of zero or less keeps the connection alive as long as the server allows.
+     *
+     * @param response
+     * @param context
+     * @param keepAlive
+     *            the configured keep alive in milliseconds
+     * @return keep alive in milliseconds
+     */
+    static long getKeepAlive(final HttpResponse response, final HttpContext context,
+            final long keepAlive) {
+        final long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(
+                response, context);
+        if (serverKeepAlive < 0) {
+            return keepAlive;
+        }
+        if (keepAlive <= 0) {
+            return serverKeepAlive;
+        }
+        return Math.min(serverKeepAlive, keepAlive);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.http.HttpStatus;
+
+/**
+ * Status code and body of a REMReM response. The publish results of a successful response are
+ * read from the response stream, the body is then not kept.
+ *
+ */
+public class RemremResponse {
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private final int statusCode;
+    private final String body;
+    private List<PublishResult> results;
+
+    public RemremResponse(final int statusCode, final String body) {
+        this.statusCode = statusCode;
+        this.body = body;
+    }
+
+    RemremResponse(final int statusCode, final List<PublishResult> results) {
+        this(statusCode, "");
+        this.results = results;
+    }
+
+    /**
+     * Returns true if the status code is a 2xx code.
+     *
+     * @return boolean
+     */
+    public boolean isSuccessful() {
+        return isSuccessful(statusCode);
+    }
+
+    /**
+     * Returns true if the request failed with a status code that sending it again will not
+     * change. Server errors, request timeouts and too many requests are not rejections.
+     *
+     * @return boolean
+     */
+    public boolean isRejected() {
+        return isRejected(statusCode);
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * Returns the publish results in the order of the sent messages.
+     *
+     * @return List of results
+     * @throws IOException
+     *             if the body is not JSON
+     */
+    List<PublishResult> getResults() throws IOException {
+        if (results == null) {
+            results = PublishResult.parse(body);
+        }
+        return results;
+    }
+
+    static boolean isSuccessful(final int statusCode) {
+        return statusCode >= HttpStatus.SC_OK && statusCode < HttpStatus.SC_MULTIPLE_CHOICES;
+    }
+
+    static boolean isRejected(final int statusCode) {
+        return statusCode >= HttpStatus.SC_MULTIPLE_CHOICES
+                && statusCode < HttpStatus.SC_INTERNAL_SERVER_ERROR
+                && statusCode != HttpStatus.SC_REQUEST_TIMEOUT
+                && statusCode != SC_TOO_MANY_REQUESTS;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
+
+/**
+ * An append-only log of the event ids of one project. Every saved event id is appended to the
+ * log file and all event ids are kept in memory, so a lookup never reads the file.
+ *
+ * Each record is the length and CRC32 of its content followed by the table, the search criteria
+ * and the event id. When the log is opened it is read from the start, later records replace
+ * earlier ones. A record that was not completely written is cut off. When most records of the
+ * log are replaced the log is rewritten with only the current event ids.
+ *
+ */
+class EventIdLog implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventIdLog.class);
+    private static final int MAX_RECORD_SIZE = 0x10000;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private final Path file;
+    private final boolean sync;
+    private final Map<Table, Map<String, String>> eventIds = new EnumMap<>(Table.class);
+    private FileChannel channel;
+    private long records;
+    private long minCompactionRecords = MIN_COMPACTION_RECORDS;
+
+    private EventIdLog(final Path file, final boolean sync) {
+        this.file = file;
+        this.sync = sync;
+        for (Table table : Table.values()) {
+            eventIds.put(table, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Opens the log file, creating it if it does not exist, and reads its event ids.
+     *
+     * @param file
+     * @param sync true if every save is forced to the disk before it returns
+     * @return EventIdLog
+     * @throws IOException
+     */
+    static EventIdLog open(final Path file, final boolean sync) throws IOException {
+        final EventIdLog log = new EventIdLog(file, sync);
+        log.load();
+        return log;
+    }
+
+    /**
+     * Returns the event id of the search criteria.
+     *
+     * @param table
+     * @param searchCriteria
+     * @return the event id, or null if there is none
+     */
+    String get(final Table table, final String searchCriteria) {
+        return eventIds.get(table).get(searchCriteria);
+    }
+
+    /**
+     * Appends the event ids to the log with one write.
+     *
+     * @param table
+     * @param savedEventIds event ids mapped by search criteria
+     * @throws IOException
+     */
+    synchronized void putAll(final Table table, final Map<String, String> savedEventIds) throws IOException {
+        if (channel == null) {
+            throw new IOException("Event id log is closed: " + file);
+        }
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (Map.Entry<String, String> eventId : savedEventIds.entrySet()) {
+            writeRecord(buffer, table, eventId.getKey(), eventId.getValue());
+        }
+        final long position = channel.position();
+        try {
+            writeFully(channel, ByteBuffer.wrap(buffer.toByteArray()));
+        } catch (IOException e) {
+            channel.truncate(position);
+            channel.position(position);
+            throw e;
+        }
+        if (sync) {
+            channel.force(false);
+        }
+
+        eventIds.get(table).putAll(savedEventIds);
+        records += savedEventIds.size();
+        if (records > minCompactionRecords && records > 2 * size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Returns the number of current event ids.
+     *
+     * @return long
+     */
+    long size() {
+        return eventIds.values().stream().mapToLong(Map::size).sum();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void load() throws IOException {
+        long validLength = 0;
+        if (Files.exists(file)) {
+            try (InputStream fileStream = Files.newInputStream(file);
+                    DataInputStream input = new DataInputStream(new BufferedInputStream(fileStream))) {
+                while (true) {
+                    final int length = input.readInt();
+                    final int checksum = input.readInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE) {
+                        throw new IOException("Invalid record length " + length);
+                    }
+                    final byte[] content = new byte[length];
+                    input.readFully(content);
+                    if (checksum(content) != checksum) {
+                        throw new IOException("Invalid record checksum");
+                    }
+                    readRecord(content);
+                    validLength += Integer.BYTES * 2 + length;
+                    records++;
+                }
+            } catch (EOFException e) {
+                // End of the log, or a record that was not completely written
+            } catch (IOException e) {
+                LOGGER.warn("Event id log {} is damaged after {} bytes, the rest is ignored.", file,
+                        validLength, e);
+            }
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() > validLength) {
+            channel.truncate(validLength);
+        }
+        channel.position(validLength);
+    }
+
+    private void readRecord(final byte[] content) throws IOException {
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(content));
+        final int tableIndex = input.readUnsignedByte();
+        if (tableIndex >= Table.values().length) {
+            throw new IOException("Invalid table " + tableIndex);
+        }
+        final String searchCriteria = input.readUTF();
+        final String eventId = input.readUTF();
+        eventIds.get(Table.values()[tableIndex]).put(searchCriteria, eventId);
+    }
+
+    /**
+     * Writes the current event ids to a new log file and replaces the log file with it. The new
+     * file is opened before it replaces the log, so the log keeps appending to the old file
+     * when it cannot be replaced. A failed compaction is logged and tried again once the log
+     * has grown to twice its size.
+     */
+    private void compact() {
+        final Path compactedFile = file.resolveSibling(file.getFileName() + ".compact");
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        long compactedRecords = 0;
+        FileChannel compactedChannel = null;
+        try {
+            compactedChannel = FileChannel.open(compactedFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            for (Map.Entry<Table, Map<String, String>> tableEventIds : eventIds.entrySet()) {
+                for (Map.Entry<String, String> eventId : tableEventIds.getValue().entrySet()) {
+                    writeRecord(buffer, tableEventIds.getKey(), eventId.getKey(), eventId.getValue());
+                    compactedRecords++;
+                    if (buffer.size() > MAX_RECORD_SIZE) {
+                        writeFully(compactedChannel, ByteBuffer.wrap(buffer.toByteArray()));
+                        buffer.reset();
+                    }
+                }
+            }
+            writeFully(compactedChannel, ByteBuffer.wrap(buffer.toByteArray()));
+            compactedChannel.force(false);
+            Files.move(compactedFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to compact event id log {}, appending to it as before.", file, e);
+            closeQuietly(compactedChannel);
+            try {
+                Files.deleteIfExists(compactedFile);
+            } catch (IOException deleteException) {
+                LOGGER.debug("Failed to delete {}", compactedFile, deleteException);
+            }
+            minCompactionRecords = records * 2;
+            return;
+        }
+
+        closeQuietly(channel);
+        channel = compactedChannel;
+        LOGGER.debug("Compacted event id log {} from {} to {} records.", file, records, compactedRecords);
+        records = compactedRecords;
+        minCompactionRecords = MIN_COMPACTION_RECORDS;
+    }
+
+    private static void closeQuietly(final FileChannel channelToClose) {
+        if (channelToClose == null) {
+            return;
+        }
+        try {
+            channelToClose.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close event id log channel.", e);
+        }
+    }
+
+    private static void writeRecord(final ByteArrayOutputStream buffer, final Table table,
+            final String searchCriteria, final String eventId) throws IOException {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final DataOutputStream contentOutput = new DataOutputStream(content);
+        contentOutput.writeByte(table.ordinal());
+        contentOutput.writeUTF(searchCriteria);
+        contentOutput.writeUTF(eventId);
+        final byte[] contentBytes = content.toByteArray();
+        if (contentBytes.length > MAX_RECORD_SIZE) {
+            throw new IOException("Event id record is too large: " + searchCriteria);
+        }
+
+        final DataOutputStream output = new DataOutputStream(buffer);
+        output.writeInt(contentBytes.length);
+        output.writeInt(checksum(contentBytes));
+        output.write(contentBytes);
+    }
+
+    private static int checksum(final byte[] content) {
+        final CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(final FileChannel target, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+}
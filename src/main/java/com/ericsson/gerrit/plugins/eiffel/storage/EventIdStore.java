@@ -0,0 +1,137 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.storage;
+
+import java.io.File;
+import java.net.ConnectException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import com.ericsson.gerrit.plugins.eiffel.exceptions.NoSuchElementException;
+import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
+
+/**
+ * Stores the event id of the last event of each change id and commit id, used by
+ * {@link EventStorage}.
+ *
+ * Implementations are exported with <code>Exports.named(...)</code> and selected with the
+ * <code>storageBackend</code> setting, see {@link EventIdStoreRegistry}.
+ *
+ * Lookups are made with the <code>find</code> methods, which return an empty optional when no
+ * event id is saved. Stores should override them so that a missing event id does not throw.
+ *
+ */
+public interface EventIdStore {
+
+    /**
+     * Returns the event id saved for the search criteria.
+     *
+     * @param pluginDir the plugin data directory
+     * @param project
+     * @param table
+     * @param searchCriteria
+     * @return eventId
+     * @throws NoSuchElementException if no event id is saved for the search criteria
+     * @throws ConnectException if the store cannot be opened
+     */
+    String getEventId(File pluginDir, String project, Table table, String searchCriteria)
+            throws NoSuchElementException, ConnectException;
+
+    /**
+     * Returns the event id saved for the search criteria.
+     *
+     * @param pluginDir the plugin data directory
+     * @param project
+     * @param table
+     * @param searchCriteria
+     * @return Optional eventId, empty if no event id is saved for the search criteria
+     * @throws ConnectException if the store cannot be opened
+     */
+    default Optional<String> findEventId(final File pluginDir, final String project, final Table table,
+            final String searchCriteria) throws ConnectException {
+        try {
+            return Optional.of(getEventId(pluginDir, project, table, searchCriteria));
+        } catch (NoSuchElementException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns the event id of the first search criteria in the list that has one.
+     *
+     * @param pluginDir the plugin data directory
+     * @param project
+     * @param table
+     * @param searchCriteria in order of preference
+     * @return eventId
+     * @throws NoSuchElementException if no event id is saved for any of the search criteria
+     * @throws ConnectException if the store cannot be opened
+     */
+    default String getFirstEventId(final File pluginDir, final String project, final Table table,
+            final List<String> searchCriteria) throws NoSuchElementException, ConnectException {
+        return findFirstEventId(pluginDir, project, table, searchCriteria).orElseThrow(
+                () -> new NoSuchElementException(String.format("No event id saved for any of %s in %s.",
+                        searchCriteria, table)));
+    }
+
+    /**
+     * Returns the event id of the first search criteria in the list that has one. Stores that can
+     * look up several search criteria at once should override this.
+     *
+     * @param pluginDir the plugin data directory
+     * @param project
+     * @param table
+     * @param searchCriteria in order of preference
+     * @return Optional eventId, empty if no event id is saved for any of the search criteria
+     * @throws ConnectException if the store cannot be opened
+     */
+    default Optional<String> findFirstEventId(final File pluginDir, final String project, final Table table,
+            final List<String> searchCriteria) throws ConnectException {
+        for (String key : searchCriteria) {
+            final Optional<String> eventId = findEventId(pluginDir, project, table, key);
+            if (eventId.isPresent()) {
+                return eventId;
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Saves event ids, replacing the event ids already saved for the same search criteria.
+     *
+     * @param pluginDir the plugin data directory
+     * @param project
+     * @param table
+     * @param eventIds event ids mapped by search criteria
+     * @return a future completed when the event ids are durably saved
+     * @throws ConnectException if the store cannot be opened
+     * @throws SQLException if the event ids could not be saved
+     */
+    CompletableFuture<Void> saveEventIds(File pluginDir, String project, Table table,
+            Map<String, String> eventIds) throws ConnectException, SQLException;
+
+    /**
+     * Releases the resources of the store when the plugin is stopped.
+     */
+    default void close() {
+    }
+}
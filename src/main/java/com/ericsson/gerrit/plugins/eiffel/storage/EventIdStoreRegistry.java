@@ -0,0 +1,91 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Selects the {@link EventIdStore} used by {@link EventStorage}. The stores are bound in the
+ * plugin module with <code>Exports.named(...)</code>, the <code>storageBackend</code> setting
+ * names the store to use. The SQLite store is used until the plugin is started, if the setting
+ * is not given or if no store has the configured name.
+ *
+ */
+@Singleton
+public class EventIdStoreRegistry implements LifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventIdStoreRegistry.class);
+    static final String BACKEND = "storageBackend";
+
+    private final EventIdStore defaultStore;
+    private final DynamicMap<EventIdStore> eventIdStores;
+    private final String backend;
+    private volatile EventIdStore eventIdStore;
+
+    @Inject
+    public EventIdStoreRegistry(final SqliteEventIdStore defaultStore,
+            final DynamicMap<EventIdStore> eventIdStores, final PluginConfigFactory config,
+            @PluginName final String pluginName) {
+        this.defaultStore = defaultStore;
+        this.eventIdStore = defaultStore;
+        this.eventIdStores = eventIdStores;
+        this.backend = config.getFromGerritConfig(pluginName, true).getString(BACKEND,
+                SqliteEventIdStore.NAME);
+    }
+
+    @Override
+    public void start() {
+        for (DynamicMap.Entry<EventIdStore> entry : eventIdStores) {
+            if (entry.getExportName().equals(backend)) {
+                setEventIdStore(entry.getProvider().get());
+                LOGGER.info("Event ids are stored by the '{}' backend.", backend);
+                return;
+            }
+        }
+        LOGGER.error("No event id storage backend named '{}', using '{}'.", backend,
+                SqliteEventIdStore.NAME);
+    }
+
+    @Override
+    public void stop() {
+        final EventIdStore stoppedStore = eventIdStore;
+        setEventIdStore(defaultStore);
+        stoppedStore.close();
+    }
+
+    /**
+     * Returns the store used for event ids.
+     *
+     * @return EventIdStore
+     */
+    public EventIdStore get() {
+        return eventIdStore;
+    }
+
+    void setEventIdStore(final EventIdStore store) {
+        eventIdStore = store;
+    }
+}
@@ -20,6 +20,12 @@ package com.ericsson.gerrit.plugins.eiffel.storage;
 import java.io.FileNotFoundException;
 import java.net.ConnectException;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,67 +33,139 @@ import org.slf4j.LoggerFactory;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
 import com.ericsson.gerrit.plugins.eiffel.exceptions.NoSuchElementException;
-import com.ericsson.gerrit.plugins.eiffel.handlers.DatabaseHandler;
 import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
 
 public abstract class EventStorage {
     protected static final Logger LOGGER = LoggerFactory.getLogger(EventStorage.class);
     protected EiffelPluginConfiguration pluginConfig;
+    protected EventIdStore eventIdStore;
 
-    public EventStorage(final EiffelPluginConfiguration pluginConfig) {
+    public EventStorage(final EiffelPluginConfiguration pluginConfig, final EventIdStore eventIdStore) {
         this.pluginConfig = pluginConfig;
+        this.eventIdStore = eventIdStore;
     }
 
     public abstract String getEventId(String project, String searchCriteria)
             throws NoSuchElementException, ConnectException, FileNotFoundException;
 
-    public abstract void saveEventId(String eiffelEventId, EiffelEvent eiffelEvent)
+    /**
+     * Returns the event id of the first search criteria in the list that has one, all search
+     * criteria are looked up at once.
+     *
+     * @param project
+     * @param searchCriteria in order of preference, for example the parents of a commit
+     * @return eventId
+     * @throws NoSuchElementException if none of the search criteria has an event id
+     * @throws ConnectException
+     */
+    public String getFirstEventId(final String project, final List<String> searchCriteria)
+            throws NoSuchElementException, ConnectException {
+        return findFirstEventId(project, searchCriteria).orElseThrow(() -> new NoSuchElementException(
+                String.format("No event id saved for any of %s in %s.", searchCriteria, getTable())));
+    }
+
+    /**
+     * Returns the event id saved for the search criteria, without throwing when there is none.
+     *
+     * @param project
+     * @param searchCriteria
+     * @return Optional eventId, empty if no event id is saved
+     * @throws ConnectException
+     */
+    public Optional<String> findEventId(final String project, final String searchCriteria)
+            throws ConnectException {
+        return findEventId(project, searchCriteria, getTable());
+    }
+
+    /**
+     * Returns the event id of the first search criteria in the list that has one, without
+     * throwing when none of them has one.
+     *
+     * @param project
+     * @param searchCriteria in order of preference, for example the parents of a commit
+     * @return Optional eventId, empty if none of the search criteria has an event id
+     * @throws ConnectException
+     */
+    public Optional<String> findFirstEventId(final String project, final List<String> searchCriteria)
+            throws ConnectException {
+        final Optional<String> eventId = eventIdStore.findFirstEventId(
+                pluginConfig.getPluginDirectoryPath(), project, getTable(), searchCriteria);
+        eventId.ifPresent(id -> LOGGER.info(
+                "Fetched old event with id '{}', for project '{}', and first of searchCriteria '{}'",
+                id, project, searchCriteria));
+        return eventId;
+    }
+
+    /**
+     * Saves the id of the event with the {@link EventIdStore} of this storage. When the store collects
+     * saved ids the id is committed later, but is returned by {@link #getEventId(String, String)}
+     * right away.
+     *
+     * @param eiffelEventId
+     * @param eiffelEvent
+     * @return a future completed when the id is committed
+     * @throws NoSuchElementException
+     * @throws SQLException
+     * @throws ConnectException
+     */
+    public abstract CompletableFuture<Void> saveEventId(String eiffelEventId, EiffelEvent eiffelEvent)
             throws NoSuchElementException, SQLException, ConnectException;
 
+    /**
+     * Saves the ids of several events of this storage type together.
+     *
+     * @param eiffelEventIds the generated ids, in the same order as the events
+     * @param eiffelEvents
+     * @return a future completed when the ids are durably saved
+     * @throws ConnectException
+     * @throws SQLException
+     */
+    public CompletableFuture<Void> saveEventIds(final List<String> eiffelEventIds, final List<EiffelEvent> eiffelEvents)
+            throws ConnectException, SQLException {
+        final Map<String, String> eventIds = new LinkedHashMap<>();
+        for (int i = 0; i < eiffelEvents.size(); i++) {
+            eventIds.put(getSearchCriteria(eiffelEvents.get(i)), eiffelEventIds.get(i));
+        }
+
+        return eventIdStore.saveEventIds(pluginConfig.getPluginDirectoryPath(),
+                pluginConfig.getProject(), getTable(), eventIds);
+    }
+
+    /**
+     * Returns the key the event id is stored under for the given event.
+     *
+     * @param eiffelEvent
+     * @return String
+     */
+    protected abstract String getSearchCriteria(EiffelEvent eiffelEvent);
+
+    protected abstract Table getTable();
+
     protected String getLastSavedEiffelEvent(final String project, final String searchCriteria, final Table tableName)
             throws NoSuchElementException, FileNotFoundException, ConnectException {
         return getEventId(project, searchCriteria, tableName);
     }
 
-    protected void saveEiffelEventId(final String searchCriteria, final String eiffelEventId,
-            final Table tableName)
+    protected CompletableFuture<Void> saveEiffelEventId(final String searchCriteria,
+            final String eiffelEventId, final Table tableName)
             throws NoSuchElementException, ConnectException, SQLException {
-        final String project = pluginConfig.getProject();
-        final DatabaseHandler dBHandler = new DatabaseHandler(pluginConfig.getPluginDirectoryPath(), project);
-        final String oldEventId = getOldEventId(dBHandler, tableName, searchCriteria);
-
-        if (!oldEventId.isEmpty()) {
-            dBHandler.updateInto(tableName, searchCriteria, eiffelEventId);
-            LOGGER.info(
-                    "Replaced old event id '{}' with new event if '{}', for project '{}', and searchCriteria '{}'.",
-                    oldEventId, eiffelEventId, project, searchCriteria);
-        } else {
-            dBHandler.insertInto(tableName, searchCriteria, eiffelEventId);
-            LOGGER.info(
-                    "Saved eiffel event with id '{}', for project '{}', and searchCriteria '{}'.",
-                    eiffelEventId, project,
-                    searchCriteria);
-        }
-    }
-
-    private String getOldEventId(final DatabaseHandler dBHandler, final Table tableName, final String searchCriteria)
-            throws ConnectException {
-        try {
-            final String oldEvent = dBHandler.getEventID(tableName, searchCriteria);
-            return oldEvent;
-        } catch (final NoSuchElementException e) {
-            LOGGER.debug("No old event found");
-            return "";
-        }
+        return eventIdStore.saveEventIds(pluginConfig.getPluginDirectoryPath(),
+                pluginConfig.getProject(), tableName, Collections.singletonMap(searchCriteria, eiffelEventId));
     }
 
     private String getEventId(final String project, final String searchCriteria, final Table tableName)
             throws NoSuchElementException, ConnectException {
-        final DatabaseHandler dBHandler = new DatabaseHandler(pluginConfig.getPluginDirectoryPath(), project);
-        final String eventId = dBHandler.getEventID(tableName, searchCriteria);
-        LOGGER.info("Fetched old event with id '{}', for project '{}', and searchCritera '{}'",
-                eventId, project,
-                searchCriteria);
+        return findEventId(project, searchCriteria, tableName).orElseThrow(() -> new NoSuchElementException(
+                String.format("No event id saved for %s in %s.", searchCriteria, tableName)));
+    }
+
+    private Optional<String> findEventId(final String project, final String searchCriteria, final Table tableName)
+            throws ConnectException {
+        final Optional<String> eventId = eventIdStore.findEventId(
+                pluginConfig.getPluginDirectoryPath(), project, tableName, searchCriteria);
+        eventId.ifPresent(id -> LOGGER.info(
+                "Fetched old event with id '{}', for project '{}', and searchCritera '{}'", id, project,
+                searchCriteria));
         return eventId;
     }
 }
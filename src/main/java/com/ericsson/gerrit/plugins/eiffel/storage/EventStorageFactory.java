@@ -26,12 +26,13 @@ import com.ericsson.gerrit.plugins.eiffel.events.EventType;
 public class EventStorageFactory {
     protected static final Logger LOGGER = LoggerFactory.getLogger(EventStorageFactory.class);
 
-    public static EventStorage getEventStorage(final EiffelPluginConfiguration pluginConfig, final String eventType) {
+    public static EventStorage getEventStorage(final EiffelPluginConfiguration pluginConfig,
+            final EventIdStore eventIdStore, final String eventType) {
         switch (eventType) {
             case EventType.SCC_EVENT:
-                return new SourceChangeCreatedStorage(pluginConfig);
+                return new SourceChangeCreatedStorage(pluginConfig, eventIdStore);
             case EventType.SCS_EVENT:
-                return new SourceChangeSubmittedStorage(pluginConfig);
+                return new SourceChangeSubmittedStorage(pluginConfig, eventIdStore);
             default:
                 throw new IllegalArgumentException("The event type does not exist " + eventType + ".");
         }
@@ -0,0 +1,137 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.exceptions.NoSuchElementException;
+import com.ericsson.gerrit.plugins.eiffel.handlers.StorageProfile;
+import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * An {@link EventIdStore} that keeps the event ids of each project in an append-only
+ * {@link EventIdLog}, <code>&lt;project&gt;.idlog</code> in the plugin data directory. Lookups
+ * are answered from memory and a save is one append to the log file.
+ *
+ * Saves are forced to the disk unless <code>storageSynchronous</code> is <code>OFF</code>.
+ *
+ */
+@Singleton
+public class LogEventIdStore implements EventIdStore {
+    public static final String NAME = "log";
+    static final String FILE_TYPE_EXTENSION = "idlog";
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogEventIdStore.class);
+
+    private final boolean sync;
+    private final Map<Path, EventIdLog> logs = new ConcurrentHashMap<>();
+
+    @Inject
+    public LogEventIdStore(final PluginConfigFactory config, @PluginName final String pluginName) {
+        this(!"OFF".equals(StorageProfile.fromConfig(
+                config.getFromGerritConfig(pluginName, true)).getSynchronous()));
+    }
+
+    LogEventIdStore(final boolean sync) {
+        this.sync = sync;
+    }
+
+    @Override
+    public String getEventId(final File pluginDir, final String project, final Table table,
+            final String searchCriteria) throws NoSuchElementException, ConnectException {
+        return findEventId(pluginDir, project, table, searchCriteria).orElseThrow(
+                () -> new NoSuchElementException("Event id log did not contain any value for this query. Table: "
+                        + table + ",searchCriteria: " + searchCriteria));
+    }
+
+    @Override
+    public Optional<String> findEventId(final File pluginDir, final String project, final Table table,
+            final String searchCriteria) throws ConnectException {
+        return Optional.ofNullable(getLog(pluginDir, project).get(table, searchCriteria));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveEventIds(final File pluginDir, final String project,
+            final Table table, final Map<String, String> eventIds) throws ConnectException {
+        final EventIdLog log = getLog(pluginDir, project);
+        try {
+            log.putAll(table, eventIds);
+        } catch (IOException e) {
+            throw connectException("Failed to save event ids", e);
+        }
+        LOGGER.debug("Saved {} eiffel event ids for project '{}'.", eventIds.size(), project);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void close() {
+        for (EventIdLog log : logs.values()) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close event id log.", e);
+            }
+        }
+        logs.clear();
+    }
+
+    private EventIdLog getLog(final File pluginDir, final String project) throws ConnectException {
+        final Path file = Paths.get(pluginDir.toString(),
+                String.format("%s.%s", project, FILE_TYPE_EXTENSION));
+        final EventIdLog log = logs.get(file);
+        if (log != null) {
+            return log;
+        }
+        synchronized (logs) {
+            EventIdLog openedLog = logs.get(file);
+            if (openedLog == null) {
+                try {
+                    Files.createDirectories(file.getParent());
+                    openedLog = EventIdLog.open(file, sync);
+                } catch (IOException e) {
+                    throw connectException("Failed to open event id log", e);
+                }
+                logs.put(file, openedLog);
+            }
+            return openedLog;
+        }
+    }
+
+    private static ConnectException connectException(final String message, final IOException cause) {
+        final ConnectException exception = new ConnectException(String.format("%s: %s", message, cause));
+        exception.initCause(cause);
+        return exception;
+    }
+}
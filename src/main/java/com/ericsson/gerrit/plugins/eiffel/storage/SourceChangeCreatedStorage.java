@@ -20,6 +20,7 @@ package com.ericsson.gerrit.plugins.eiffel.storage;
 import java.io.FileNotFoundException;
 import java.net.ConnectException;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
 
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
@@ -29,8 +30,9 @@ import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
 
 public class SourceChangeCreatedStorage extends EventStorage {
 
-    public SourceChangeCreatedStorage(final EiffelPluginConfiguration pluginConfig) {
-        super(pluginConfig);
+    public SourceChangeCreatedStorage(final EiffelPluginConfiguration pluginConfig,
+            final EventIdStore eventIdStore) {
+        super(pluginConfig, eventIdStore);
     }
 
     @Override
@@ -39,11 +41,19 @@ public class SourceChangeCreatedStorage extends EventStorage {
     }
 
     @Override
-    public void saveEventId(final String eiffelEventId, final EiffelEvent eiffelEvent)
+    public CompletableFuture<Void> saveEventId(final String eiffelEventId, final EiffelEvent eiffelEvent)
             throws NoSuchElementException, SQLException, ConnectException {
+        return saveEiffelEventId(getSearchCriteria(eiffelEvent), eiffelEventId, Table.SCC_TABLE);
+    }
+
+    @Override
+    protected String getSearchCriteria(final EiffelEvent eiffelEvent) {
         final EiffelSourceChangeCreatedEvent eiffelSourceChangeCreatedEvent = (EiffelSourceChangeCreatedEvent) eiffelEvent;
-        final String searchCriteria = eiffelSourceChangeCreatedEvent.eventParams.data.change.id;
+        return eiffelSourceChangeCreatedEvent.eventParams.data.change.id;
+    }
 
-        saveEiffelEventId(searchCriteria, eiffelEventId, Table.SCC_TABLE);
+    @Override
+    protected Table getTable() {
+        return Table.SCC_TABLE;
     }
 }
@@ -20,6 +20,7 @@ package com.ericsson.gerrit.plugins.eiffel.storage;
 import java.io.FileNotFoundException;
 import java.net.ConnectException;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
 
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
@@ -29,8 +30,9 @@ import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
 
 public class SourceChangeSubmittedStorage extends EventStorage {
 
-    public SourceChangeSubmittedStorage(final EiffelPluginConfiguration pluginConfig) {
-        super(pluginConfig);
+    public SourceChangeSubmittedStorage(final EiffelPluginConfiguration pluginConfig,
+            final EventIdStore eventIdStore) {
+        super(pluginConfig, eventIdStore);
     }
 
     @Override
@@ -39,11 +41,19 @@ public class SourceChangeSubmittedStorage extends EventStorage {
     }
 
     @Override
-    public void saveEventId(final String eiffelEventId, final EiffelEvent eiffelEvent)
+    public CompletableFuture<Void> saveEventId(final String eiffelEventId, final EiffelEvent eiffelEvent)
             throws NoSuchElementException, ConnectException, SQLException {
+        return saveEiffelEventId(getSearchCriteria(eiffelEvent), eiffelEventId, Table.SCS_TABLE);
+    }
+
+    @Override
+    protected String getSearchCriteria(final EiffelEvent eiffelEvent) {
         final EiffelSourceChangeSubmittedEvent eiffelSourceChangeSubmittedEvent = (EiffelSourceChangeSubmittedEvent) eiffelEvent;
-        final String searchCriteria = eiffelSourceChangeSubmittedEvent.eventParams.data.gitIdentifier.commitId;
+        return eiffelSourceChangeSubmittedEvent.eventParams.data.gitIdentifier.commitId;
+    }
 
-        saveEiffelEventId(searchCriteria, eiffelEventId, Table.SCS_TABLE);
+    @Override
+    protected Table getTable() {
+        return Table.SCS_TABLE;
     }
 }
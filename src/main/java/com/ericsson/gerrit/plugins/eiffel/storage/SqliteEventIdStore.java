@@ -0,0 +1,119 @@
+/*
+   Copyright 2019 Ericsson AB.
+   For a full list of individual contributors, please see the commit history.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+
+package com.ericsson.gerrit.plugins.eiffel.storage;
+
+import java.io.File;
+import java.net.ConnectException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.gerrit.plugins.eiffel.exceptions.NoSuchElementException;
+import com.ericsson.gerrit.plugins.eiffel.handlers.DatabaseConnectionRegistry;
+import com.ericsson.gerrit.plugins.eiffel.handlers.DatabaseHandler;
+import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * The default {@link EventIdStore}, keeps the event ids in SQLite through
+ * {@link DatabaseHandler} with the connections of the {@link DatabaseConnectionRegistry}.
+ *
+ */
+@Singleton
+public class SqliteEventIdStore implements EventIdStore {
+    public static final String NAME = "sqlite";
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqliteEventIdStore.class);
+
+    private final DatabaseConnectionRegistry databaseRegistry;
+
+    @Inject
+    public SqliteEventIdStore(final DatabaseConnectionRegistry databaseRegistry) {
+        this.databaseRegistry = databaseRegistry;
+    }
+
+    @Override
+    public String getEventId(final File pluginDir, final String project, final Table table,
+            final String searchCriteria) throws NoSuchElementException, ConnectException {
+        final DatabaseHandler dBHandler = new DatabaseHandler(databaseRegistry, pluginDir, project);
+        return dBHandler.getEventID(table, searchCriteria);
+    }
+
+    @Override
+    public Optional<String> findEventId(final File pluginDir, final String project, final Table table,
+            final String searchCriteria) throws ConnectException {
+        final DatabaseHandler dBHandler = new DatabaseHandler(databaseRegistry, pluginDir, project);
+        return dBHandler.findEventID(table, searchCriteria);
+    }
+
+    @Override
+    public String getFirstEventId(final File pluginDir, final String project, final Table table,
+            final List<String> searchCriteria) throws NoSuchElementException, ConnectException {
+        final DatabaseHandler dBHandler = new DatabaseHandler(databaseRegistry, pluginDir, project);
+        return dBHandler.getFirstEventID(table, searchCriteria);
+    }
+
+    @Override
+    public Optional<String> findFirstEventId(final File pluginDir, final String project, final Table table,
+            final List<String> searchCriteria) throws ConnectException {
+        final DatabaseHandler dBHandler = new DatabaseHandler(databaseRegistry, pluginDir, project);
+        return dBHandler.findFirstEventID(table, searchCriteria);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveEventIds(final File pluginDir, final String project,
+            final Table table, final Map<String, String> eventIds) throws ConnectException, SQLException {
+        final DatabaseHandler dBHandler = new DatabaseHandler(databaseRegistry, pluginDir, project);
+        if (dBHandler.isWriteBehindEnabled()) {
+            LOGGER.debug("Saving {} eiffel event ids for project '{}'.", eventIds.size(), project);
+            return dBHandler.saveLater(table, eventIds);
+        }
+
+        if (eventIds.size() == 1) {
+            final Map.Entry<String, String> eventId = eventIds.entrySet().iterator().next();
+            saveEventId(dBHandler, project, table, eventId.getKey(), eventId.getValue());
+        } else {
+            dBHandler.saveAll(table, eventIds);
+            LOGGER.debug("Saved {} eiffel event ids for project '{}'.", eventIds.size(), project);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void saveEventId(final DatabaseHandler dBHandler, final String project, final Table table,
+            final String searchCriteria, final String eiffelEventId) throws ConnectException, SQLException {
+        final String oldEventId = dBHandler.upsert(table, searchCriteria, eiffelEventId);
+
+        if (!StringUtils.isEmpty(oldEventId)) {
+            LOGGER.info(
+                    "Replaced old event id '{}' with new event if '{}', for project '{}', and searchCriteria '{}'.",
+                    oldEventId, eiffelEventId, project, searchCriteria);
+        } else {
+            LOGGER.info(
+                    "Saved eiffel event with id '{}', for project '{}', and searchCriteria '{}'.",
+                    eiffelEventId, project,
+                    searchCriteria);
+        }
+    }
+}
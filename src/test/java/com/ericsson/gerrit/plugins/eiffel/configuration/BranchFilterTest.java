@@ -0,0 +1,80 @@
+package com.ericsson.gerrit.plugins.eiffel.configuration;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BranchFilterTest {
+
+    @Test
+    public void testEmptyFilter() {
+        assertTrue(new BranchFilter("").isEmpty());
+        assertTrue(new BranchFilter(null).isEmpty());
+        assertFalse(new BranchFilter("master").isEmpty());
+    }
+
+    @Test
+    public void testLiteralFilter() {
+        final BranchFilter filter = new BranchFilter("master,release-1");
+
+        assertTrue(filter.matches("master"));
+        assertTrue(filter.matches("release-1"));
+        assertFalse(filter.matches("release-10"));
+        assertFalse(filter.matches("mast"));
+    }
+
+    @Test
+    public void testRegexFilterMustMatchWholeBranch() {
+        final BranchFilter filter = new BranchFilter("nope,(my-).*,release-[0-9]+");
+
+        assertTrue(filter.matches("my-branch"));
+        assertTrue(filter.matches("release-12"));
+        assertFalse(filter.matches("not-my-branch"));
+        assertFalse(filter.matches("release-12-hotfix"));
+    }
+
+    @Test
+    public void testCachedResultIsReturned() {
+        final BranchFilter filter = new BranchFilter("feature/.*");
+
+        assertTrue(filter.matches("feature/a"));
+        assertTrue(filter.matches("feature/a"));
+        assertFalse(filter.matches("master"));
+        assertFalse(filter.matches("master"));
+    }
+
+    @Test
+    public void testBackReferenceFilter() {
+        final BranchFilter filter = new BranchFilter("master,(a+)-\\1");
+
+        assertTrue(filter.matches("aa-aa"));
+        assertFalse(filter.matches("aa-a"));
+    }
+
+    @Test
+    public void testSameNamedGroupInSeveralFilters() {
+        final BranchFilter filter = new BranchFilter("(?<name>release)-[0-9]+,(?<name>hotfix)/.*");
+
+        assertTrue(filter.matches("release-1"));
+        assertTrue(filter.matches("hotfix/a"));
+        assertFalse(filter.matches("master"));
+    }
+
+    @Test
+    public void testNamedBackReferenceFilter() {
+        final BranchFilter filter = new BranchFilter("release-.*,(?<name>a+)-\\k<name>");
+
+        assertTrue(filter.matches("release-1"));
+        assertTrue(filter.matches("aa-aa"));
+        assertFalse(filter.matches("aa-a"));
+    }
+
+    @Test
+    public void testInvalidRegexIsIgnored() {
+        final BranchFilter filter = new BranchFilter("release-[,master");
+
+        assertTrue(filter.matches("master"));
+        assertFalse(filter.matches("release-["));
+    }
+}
@@ -0,0 +1,84 @@
+package com.ericsson.gerrit.plugins.eiffel.configuration;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.reviewdb.client.Project.NameKey;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.project.NoSuchProjectException;
+
+public class EiffelPluginConfigurationCacheTest {
+
+    private static final String PLUGIN_NAME = "plugin";
+    private static final String PROJECT_NAME = "project";
+    private static final String REMREM_PUBLISH_URL = "https://localhost:8080/publish";
+
+    private NameKey nameKey;
+    private PluginConfigFactory pluginConfigFactory;
+    private EiffelPluginConfigurationCache cache;
+
+    @Before
+    public void init() throws NoSuchProjectException {
+        nameKey = new NameKey(PROJECT_NAME);
+        pluginConfigFactory = mock(PluginConfigFactory.class);
+        final PluginConfig pluginConfig = mock(PluginConfig.class);
+
+        when(pluginConfigFactory.getFromProjectConfig(nameKey, PLUGIN_NAME)).thenReturn(
+                pluginConfig);
+        when(pluginConfig.getBoolean(EiffelPluginConfiguration.ENABLED, false)).thenReturn(true);
+        when(pluginConfig.getString(EiffelPluginConfiguration.REMREM_PUBLISH_URL)).thenReturn(
+                REMREM_PUBLISH_URL);
+
+        cache = new EiffelPluginConfigurationCache(PLUGIN_NAME, new File("plugin-data"),
+                pluginConfigFactory);
+    }
+
+    @Test
+    public void testConfigurationIsReadOnce() throws NoSuchProjectException {
+        final EiffelPluginConfiguration first = cache.get(nameKey);
+        final EiffelPluginConfiguration second = cache.get(nameKey);
+
+        assertSame(first, second);
+        verify(pluginConfigFactory, times(1)).getFromProjectConfig(nameKey, PLUGIN_NAME);
+    }
+
+    @Test
+    public void testConfigurationIsReadAgainAfterConfigUpdate() throws NoSuchProjectException {
+        final EiffelPluginConfiguration first = cache.get(nameKey);
+        cache.onGitReferenceUpdated(createEvent("parent-project", RefNames.REFS_CONFIG));
+        final EiffelPluginConfiguration second = cache.get(nameKey);
+
+        assertNotSame(first, second);
+        verify(pluginConfigFactory, times(2)).getFromProjectConfig(nameKey, PLUGIN_NAME);
+    }
+
+    @Test
+    public void testOtherReferenceUpdatesAreIgnored() throws NoSuchProjectException {
+        final EiffelPluginConfiguration first = cache.get(nameKey);
+        cache.onGitReferenceUpdated(createEvent(PROJECT_NAME, "refs/heads/master"));
+
+        assertSame(first, cache.get(nameKey));
+        verify(pluginConfigFactory, times(1)).getFromProjectConfig(nameKey, PLUGIN_NAME);
+    }
+
+    private GitReferenceUpdatedListener.Event createEvent(final String projectName,
+            final String refName) {
+        final GitReferenceUpdatedListener.Event event = mock(
+                GitReferenceUpdatedListener.Event.class);
+        when(event.getProjectName()).thenReturn(projectName);
+        when(event.getRefName()).thenReturn(refName);
+        return event;
+    }
+}
@@ -14,13 +14,12 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
 import java.util.Arrays;
-import java.util.List;
+import java.util.Optional;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -32,16 +31,20 @@ import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
 import com.ericsson.gerrit.plugins.eiffel.exceptions.NoSuchElementException;
 import com.ericsson.gerrit.plugins.eiffel.git.CommitInformation;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStore;
 import com.ericsson.gerrit.plugins.eiffel.storage.EventStorageFactory;
 import com.ericsson.gerrit.plugins.eiffel.storage.SourceChangeCreatedStorage;
 import com.ericsson.gerrit.plugins.eiffel.storage.SourceChangeSubmittedStorage;
 import com.google.common.base.Supplier;
 import com.google.gerrit.reviewdb.client.Change.Key;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
 import com.google.gerrit.server.data.AccountAttribute;
 import com.google.gerrit.server.data.ChangeAttribute;
 import com.google.gerrit.server.data.PatchSetAttribute;
 import com.google.gerrit.server.events.ChangeMergedEvent;
 import com.google.gerrit.server.events.PatchSetCreatedEvent;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
@@ -59,6 +62,7 @@ public class EiffelEventGeneratorTest {
     private static final String COMMIT_ID = "00000000-0000-0000-0000-000000000000";
     private static final String CHANGE_ID = "I13400c37d648c2eedd9eaa24c136bc6d98e9a791";
     private static final String SOURCE_NAME = "Eiffel Gerrit Plugin";
+    private static final String SOURCE_HOST = "gerrit.example.com";
     private static final String PROJECT = "my-project";
     private static final String BRANCH = "my-branch";
     private static final String URL = "http://my-url.com";
@@ -83,12 +87,11 @@ public class EiffelEventGeneratorTest {
 
     private CommitInformation commitInformation;
 
+    private EventIdStore eventIdStore;
+
     private EiffelPluginConfiguration pluginConfig;
 
-    @Captor
-    private ArgumentCaptor<String> keyCaptor;
-    @Captor
-    private ArgumentCaptor<String> valueCaptor;
+    private SourceHostResolver sourceHostResolver;
 
     @Before
     public void setUp() throws ConnectException, FileNotFoundException, NoSuchElementException {
@@ -101,7 +104,7 @@ public class EiffelEventGeneratorTest {
 
         final EiffelSourceChangeSubmittedEvent eiffelEvent =
                 EiffelSourceChangeSubmittedEventGenerator.generate(
-                        pluginConfig, changeMergedEvent, commitInformation);
+                        pluginConfig, changeMergedEvent, commitInformation, eventIdStore, sourceHostResolver);
 
         verifyEiffelSourceChangeSubmittedEvent(eiffelEvent);
     }
@@ -111,7 +114,7 @@ public class EiffelEventGeneratorTest {
      populatePatchSetCreatedEvent();
 
         final EiffelSourceChangeCreatedEvent eiffelEvent = EiffelSourceChangeCreatedEventGenerator.generate(
-                pluginConfig, patchSetCreatedEvent, commitInformation);
+                pluginConfig, patchSetCreatedEvent, commitInformation, eventIdStore, sourceHostResolver);
 
      verifyEiffelSourceChangeCreatedEvent(eiffelEvent);
      }
@@ -140,6 +143,16 @@ public class EiffelEventGeneratorTest {
         assertEquals("Repo URI should have been set to null", null, repoURI);
     }
 
+    @Test
+    public void testEiffelEventGeneratorRepoUriIsCreatedOncePerHost() throws Exception {
+        final String repoURI = sourceHostResolver.getRepoURI(URL + "/c/1", PROJECT);
+        assertEquals(EiffelEventGenerator.createRepoURI(URL, PROJECT), repoURI);
+
+        whenNew(URI.class).withAnyArguments().thenThrow(URISyntaxException.class);
+        assertEquals("Repo URI of the host should be reused", repoURI,
+                sourceHostResolver.getRepoURI(URL + "/c/2", PROJECT));
+    }
+
     @Test
     public void testEiffelEventGeneratorNullHost() {
         final String repoURI = EiffelEventGenerator.createRepoURI(NULL_HOST, PROJECT);
@@ -154,17 +167,14 @@ public class EiffelEventGeneratorTest {
         populatePatchSetCreatedEvent();
 
         final SourceChangeCreatedStorage sourceChangeCreatedState = mock(SourceChangeCreatedStorage.class);
-        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any())).thenReturn(sourceChangeCreatedState);
+        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(sourceChangeCreatedState);
 
         EiffelSourceChangeCreatedEventGenerator.generate(pluginConfig, patchSetCreatedEvent,
-                commitInformation);
-
-        Mockito.verify(sourceChangeCreatedState, Mockito.times(2)).getEventId(keyCaptor.capture(),
-                valueCaptor.capture());
+                commitInformation, eventIdStore, sourceHostResolver);
 
-        final List<String> parametersCalledWith = valueCaptor.getAllValues();
-        assertEquals("Incorrect parameter, should have been a changeID", CHANGE_ID, parametersCalledWith.get(1));
-        assertEquals("Incorrect parameter, should have been a branch.", PARENT_SHA, parametersCalledWith.get(0));
+        final InOrder inOrder = Mockito.inOrder(sourceChangeCreatedState);
+        inOrder.verify(sourceChangeCreatedState).findFirstEventId(PROJECT, Arrays.asList(PARENT_SHA));
+        inOrder.verify(sourceChangeCreatedState).findEventId(PROJECT, CHANGE_ID);
     }
 
     @Test
@@ -174,17 +184,14 @@ public class EiffelEventGeneratorTest {
         populateChangeMergedEvent();
 
         final SourceChangeSubmittedStorage sourceChangeSubmittedState = mock(SourceChangeSubmittedStorage.class);
-        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any())).thenReturn(sourceChangeSubmittedState);
+        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(sourceChangeSubmittedState);
 
         EiffelSourceChangeSubmittedEventGenerator.generate(pluginConfig, changeMergedEvent,
-                commitInformation);
-
-        Mockito.verify(sourceChangeSubmittedState, Mockito.times(2)).getEventId(keyCaptor.capture(),
-                valueCaptor.capture());
+                commitInformation, eventIdStore, sourceHostResolver);
 
-        final List<String> parametersCalledWith = valueCaptor.getAllValues();
-        assertEquals("Incorrect parameter, should have been a changeID", CHANGE_ID, parametersCalledWith.get(0));
-        assertEquals("Incorrect parameter, should have been a branch.", PARENT_SHA, parametersCalledWith.get(1));
+        final InOrder inOrder = Mockito.inOrder(sourceChangeSubmittedState);
+        inOrder.verify(sourceChangeSubmittedState).findEventId(PROJECT, CHANGE_ID);
+        inOrder.verify(sourceChangeSubmittedState).findFirstEventId(PROJECT, Arrays.asList(PARENT_SHA));
     }
 
     @Test
@@ -194,12 +201,14 @@ public class EiffelEventGeneratorTest {
         populatePatchSetCreatedEvent();
 
         final SourceChangeCreatedStorage sourceChangeCreatedState = mock(SourceChangeCreatedStorage.class);
-        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any())).thenReturn(sourceChangeCreatedState);
-        when(sourceChangeCreatedState.getEventId(Mockito.any(), Mockito.any()))
-                .thenThrow(new NoSuchElementException("exception"));
+        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(sourceChangeCreatedState);
+        when(sourceChangeCreatedState.findEventId(Mockito.any(), Mockito.any()))
+                .thenReturn(Optional.empty());
+        when(sourceChangeCreatedState.findFirstEventId(Mockito.any(), Mockito.any()))
+                .thenReturn(Optional.empty());
 
         final EiffelSourceChangeCreatedEvent eiffelEvent = EiffelSourceChangeCreatedEventGenerator
-                .generate(pluginConfig, patchSetCreatedEvent, commitInformation);
+                .generate(pluginConfig, patchSetCreatedEvent, commitInformation, eventIdStore, sourceHostResolver);
         assertEquals("No links should have been created.", 0, eiffelEvent.eventParams.links.size());
     }
 
@@ -210,12 +219,14 @@ public class EiffelEventGeneratorTest {
         populateChangeMergedEvent();
 
         final SourceChangeSubmittedStorage sourceChangeSubmittedState = mock(SourceChangeSubmittedStorage.class);
-        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any())).thenReturn(sourceChangeSubmittedState);
-        when(sourceChangeSubmittedState.getEventId(Mockito.any(), Mockito.any()))
-                .thenThrow(new NoSuchElementException("exception"));
+        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(sourceChangeSubmittedState);
+        when(sourceChangeSubmittedState.findEventId(Mockito.any(), Mockito.any()))
+                .thenReturn(Optional.empty());
+        when(sourceChangeSubmittedState.findFirstEventId(Mockito.any(), Mockito.any()))
+                .thenReturn(Optional.empty());
 
         final EiffelSourceChangeSubmittedEvent eiffelEvent = EiffelSourceChangeSubmittedEventGenerator
-                .generate(pluginConfig, changeMergedEvent, commitInformation);
+                .generate(pluginConfig, changeMergedEvent, commitInformation, eventIdStore, sourceHostResolver);
         assertEquals("No links should have been created.", 0, eiffelEvent.eventParams.links.size());
     }
 
@@ -226,11 +237,12 @@ public class EiffelEventGeneratorTest {
         populatePatchSetCreatedEvent();
 
         final SourceChangeCreatedStorage sourceChangeCreatedState = mock(SourceChangeCreatedStorage.class);
-        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any())).thenReturn(sourceChangeCreatedState);
-        when(sourceChangeCreatedState.getEventId(Mockito.any(), Mockito.any())).thenReturn("previous-event-id");
+        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(sourceChangeCreatedState);
+        when(sourceChangeCreatedState.findEventId(Mockito.any(), Mockito.any())).thenReturn(Optional.of("previous-event-id"));
+        when(sourceChangeCreatedState.findFirstEventId(Mockito.any(), Mockito.any())).thenReturn(Optional.of("previous-event-id"));
 
         final EiffelSourceChangeCreatedEvent eiffelEvent = EiffelSourceChangeCreatedEventGenerator
-                .generate(pluginConfig, patchSetCreatedEvent, commitInformation);
+                .generate(pluginConfig, patchSetCreatedEvent, commitInformation, eventIdStore, sourceHostResolver);
 
         final String expectedTypePreviousVersion = "PREVIOUS_VERSION";
         final String expectedTypeBase = "BASE";
@@ -247,11 +259,12 @@ public class EiffelEventGeneratorTest {
         populateChangeMergedEvent();
 
         final SourceChangeSubmittedStorage sourceChangeSubmittedState = mock(SourceChangeSubmittedStorage.class);
-        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any())).thenReturn(sourceChangeSubmittedState);
-        when(sourceChangeSubmittedState.getEventId(Mockito.any(), Mockito.any())).thenReturn("previous-event-id");
+        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(sourceChangeSubmittedState);
+        when(sourceChangeSubmittedState.findEventId(Mockito.any(), Mockito.any())).thenReturn(Optional.of("previous-event-id"));
+        when(sourceChangeSubmittedState.findFirstEventId(Mockito.any(), Mockito.any())).thenReturn(Optional.of("previous-event-id"));
 
         final EiffelSourceChangeSubmittedEvent eiffelEvent = EiffelSourceChangeSubmittedEventGenerator
-                .generate(pluginConfig, changeMergedEvent, commitInformation);
+                .generate(pluginConfig, changeMergedEvent, commitInformation, eventIdStore, sourceHostResolver);
 
         final String expectedTypeChange = "CHANGE";
         final String expectedTypePreviousVersion = "PREVIOUS_VERSION";
@@ -274,6 +287,13 @@ public class EiffelEventGeneratorTest {
         changeMergedEvent.changeKey = changeKey;
         pluginConfig = mock(EiffelPluginConfiguration.class);
         commitInformation = mock(CommitInformation.class);
+        eventIdStore = mock(EventIdStore.class);
+        final PluginConfigFactory pluginConfigFactory = mock(PluginConfigFactory.class);
+        when(pluginConfigFactory.getFromGerritConfig(Mockito.any(), Mockito.anyBoolean()))
+                .thenReturn(mock(PluginConfig.class));
+        sourceHostResolver = new SourceHostResolver(mock(WorkQueue.class), pluginConfigFactory,
+                "plugin");
+        sourceHostResolver.setHostName(SOURCE_HOST);
 
         mockStatic(EventStorageFactory.class);
         final SourceChangeSubmittedStorage sourceChangeSubmittedState = mock(SourceChangeSubmittedStorage.class);
@@ -283,8 +303,9 @@ public class EiffelEventGeneratorTest {
         when(changeKey.toString()).thenReturn(CHANGE_ID);
         when(pluginConfig.getProject()).thenReturn(PROJECT);
 
-        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any())).thenReturn(sourceChangeSubmittedState);
-        when(sourceChangeSubmittedState.getEventId(Mockito.any(), Mockito.any())).thenReturn("my_event_id");
+        when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn(sourceChangeSubmittedState);
+        when(sourceChangeSubmittedState.findEventId(Mockito.any(), Mockito.any())).thenReturn(Optional.of("my_event_id"));
+        when(sourceChangeSubmittedState.findFirstEventId(Mockito.any(), Mockito.any())).thenReturn(Optional.of("my_event_id"));
 
         when(commitInformation.getParentsSHAs(COMMIT_ID, PROJECT)).thenReturn(Arrays.asList(PARENT_SHA));
 
@@ -364,6 +385,7 @@ public class EiffelEventGeneratorTest {
         final String errorMessage = "Eiffel event did not generate properly";
         assertEquals(errorMessage, SCS_EVENT, meta.get("type").getAsString());
         assertEquals(errorMessage, SOURCE_NAME, source.get("name").getAsString());
+        assertEquals(errorMessage, SOURCE_HOST, source.get("host").getAsString());
         assertEquals(errorMessage, URL, source.get("uri").getAsString());
         assertEquals(errorMessage, NAME, submitter.get("name").getAsString());
         assertEquals(errorMessage, USERNAME, submitter.get("id").getAsString());
@@ -396,6 +418,7 @@ public class EiffelEventGeneratorTest {
         final String errorMessage = "Eiffel event did not generate properly";
         assertEquals(errorMessage, SCC_EVENT, meta.get("type").getAsString());
         assertEquals(errorMessage, SOURCE_NAME, source.get("name").getAsString());
+        assertEquals(errorMessage, SOURCE_HOST, source.get("host").getAsString());
         assertEquals(errorMessage, URL, source.get("uri").getAsString());
         assertEquals(errorMessage, NAME, author.get("name").getAsString());
         assertEquals(errorMessage, USERNAME, author.get("id").getAsString());
@@ -7,6 +7,7 @@ import static org.powermock.api.mockito.PowerMockito.when;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Optional;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -19,6 +20,7 @@ import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguratio
 import com.ericsson.gerrit.plugins.eiffel.events.EventType;
 import com.ericsson.gerrit.plugins.eiffel.events.models.Link;
 import com.ericsson.gerrit.plugins.eiffel.git.CommitInformation;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStore;
 import com.ericsson.gerrit.plugins.eiffel.storage.EventStorage;
 import com.ericsson.gerrit.plugins.eiffel.storage.EventStorageFactory;
 
@@ -31,6 +33,7 @@ public class LinkGeneratorTest {
     private LinkGenerator linkGenerator;
     private EiffelPluginConfiguration pluginConfiguration;
     private CommitInformation commitInformation;
+    private EventIdStore eventIdStore;
 
     @Before
     public void setUp() throws Throwable {
@@ -39,16 +42,18 @@ public class LinkGeneratorTest {
         when(pluginConfiguration.getProject()).thenReturn(PROJECT_NAME);
         mockStatic(EventStorageFactory.class);
         eventStorage = mock(EventStorage.class);
-        when(eventStorage.getEventId(Mockito.any(), Mockito.any())).thenReturn("my_event_id");
+        when(eventStorage.findEventId(Mockito.any(), Mockito.any())).thenReturn(Optional.of("my_event_id"));
+        when(eventStorage.findFirstEventId(Mockito.any(), Mockito.any())).thenReturn(Optional.of("my_event_id"));
 
         commitInformation = mock(CommitInformation.class);
-        linkGenerator = new LinkGenerator(pluginConfiguration, commitInformation);
+        eventIdStore = mock(EventIdStore.class);
+        linkGenerator = new LinkGenerator(pluginConfiguration, eventIdStore, commitInformation);
 
     }
 
     @Test
     public void generateChangeForScs() {
-        when(EventStorageFactory.getEventStorage(pluginConfiguration,
+        when(EventStorageFactory.getEventStorage(pluginConfiguration, eventIdStore,
                 EventType.SCC_EVENT)).thenReturn(eventStorage);
 
         linkGenerator.addScsChange("changeId");
@@ -59,7 +64,7 @@ public class LinkGeneratorTest {
 
     @Test
     public void generatePreviousVersionForScs() {
-        when(EventStorageFactory.getEventStorage(pluginConfiguration,
+        when(EventStorageFactory.getEventStorage(pluginConfiguration, eventIdStore,
                 EventType.SCS_EVENT)).thenReturn(eventStorage);
         when(commitInformation.getParentsSHAs("commit-id", PROJECT_NAME)).thenReturn(
                 Arrays.asList("sha1", "sha2"));
@@ -70,9 +75,23 @@ public class LinkGeneratorTest {
         assertOnlyLinkIs(links, "PREVIOUS_VERSION");
     }
 
+    @Test
+    public void generatePreviousVersionForMergeCommitLooksUpParentsAtOnce() throws Throwable {
+        when(EventStorageFactory.getEventStorage(pluginConfiguration, eventIdStore,
+                EventType.SCS_EVENT)).thenReturn(eventStorage);
+        when(commitInformation.getParentsSHAs("commit-id", PROJECT_NAME)).thenReturn(
+                Arrays.asList("sha1", "sha2", "sha3"));
+
+        linkGenerator.addScsPreviousVersion("commit-id");
+
+        Mockito.verify(eventStorage).findFirstEventId(PROJECT_NAME, Arrays.asList("sha1", "sha2", "sha3"));
+        Mockito.verify(eventStorage, Mockito.never()).findEventId(Mockito.any(), Mockito.any());
+        assertOnlyLinkIs(linkGenerator.generateLinks(), "PREVIOUS_VERSION");
+    }
+
     @Test
     public void generatePreviousVersionForScc() {
-        when(EventStorageFactory.getEventStorage(pluginConfiguration,
+        when(EventStorageFactory.getEventStorage(pluginConfiguration, eventIdStore,
                 EventType.SCC_EVENT)).thenReturn(eventStorage);
 
         linkGenerator.addSccPreviousVersion("changeId");
@@ -83,7 +102,7 @@ public class LinkGeneratorTest {
 
     @Test
     public void generateBaseForScc() {
-        when(EventStorageFactory.getEventStorage(pluginConfiguration,
+        when(EventStorageFactory.getEventStorage(pluginConfiguration, eventIdStore,
                 EventType.SCS_EVENT)).thenReturn(eventStorage);
         when(commitInformation.getParentsSHAs("commit-id", PROJECT_NAME)).thenReturn(
                 Arrays.asList("sha1", "sha2"));
@@ -96,9 +115,9 @@ public class LinkGeneratorTest {
 
     @Test
     public void generateBaseAndPreviousForScc() {
-        when(EventStorageFactory.getEventStorage(pluginConfiguration,
+        when(EventStorageFactory.getEventStorage(pluginConfiguration, eventIdStore,
                 EventType.SCC_EVENT)).thenReturn(eventStorage);
-        when(EventStorageFactory.getEventStorage(pluginConfiguration,
+        when(EventStorageFactory.getEventStorage(pluginConfiguration, eventIdStore,
                 EventType.SCS_EVENT)).thenReturn(eventStorage);
         when(commitInformation.getParentsSHAs("commit-id", PROJECT_NAME)).thenReturn(
                 Arrays.asList("sha1", "sha2"));
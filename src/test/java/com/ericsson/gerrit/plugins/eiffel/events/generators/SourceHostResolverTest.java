@@ -0,0 +1,110 @@
+package com.ericsson.gerrit.plugins.eiffel.events.generators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ EiffelEventGenerator.class, InetAddress.class })
+public class SourceHostResolverTest {
+    private static final String PLUGIN_NAME = "plugin";
+    private static final String HOST_NAME = "gerrit.example.com";
+
+    private PluginConfig pluginConfig;
+    private PluginConfigFactory pluginConfigFactory;
+    private WorkQueue.Executor executor;
+    private WorkQueue workQueue;
+    private SourceHostResolver resolver;
+
+    @Before
+    public void init() {
+        pluginConfig = mock(PluginConfig.class);
+        when(pluginConfig.getString(anyString(), anyString())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(pluginConfig.getLong(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        pluginConfigFactory = mock(PluginConfigFactory.class);
+        when(pluginConfigFactory.getFromGerritConfig(PLUGIN_NAME, true)).thenReturn(pluginConfig);
+        executor = mock(WorkQueue.Executor.class);
+        workQueue = mock(WorkQueue.class);
+        when(workQueue.getDefaultQueue()).thenReturn(executor);
+    }
+
+    @After
+    public void tearDown() {
+        if (resolver != null) {
+            resolver.stop();
+        }
+    }
+
+    @Test
+    public void testConfiguredHostNameIsUsed() {
+        when(pluginConfig.getString(SourceHostResolver.SOURCE_HOST, "")).thenReturn(HOST_NAME);
+
+        createResolver().start();
+
+        assertEquals(HOST_NAME, resolver.getHostName());
+        verify(workQueue, never()).getDefaultQueue();
+    }
+
+    @Test
+    public void testHostNameIsRefreshedInTheBackground() {
+        when(pluginConfig.getLong(eq(SourceHostResolver.REFRESH_INTERVAL), anyLong())).thenReturn(1000L);
+
+        createResolver().start();
+
+        assertNull("Start should not wait for the host name lookup", resolver.getHostName());
+        verify(executor).scheduleAtFixedRate(any(Runnable.class), eq(0L), eq(1000L),
+                eq(TimeUnit.MILLISECONDS));
+
+        resolver.refresh();
+        assertEquals(EiffelEventGenerator.determineHostName(), resolver.getHostName());
+    }
+
+    @Test
+    public void testHostNameIsResolvedOnceInTheBackgroundWithoutRefreshInterval() {
+        when(pluginConfig.getLong(eq(SourceHostResolver.REFRESH_INTERVAL), anyLong())).thenReturn(0L);
+
+        createResolver().start();
+
+        assertNull("Start should not wait for the host name lookup", resolver.getHostName());
+        verify(executor).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testResolvedHostNameIsKeptWhenRefreshFails() throws Exception {
+        createResolver().setHostName(HOST_NAME);
+        mockStatic(InetAddress.class);
+        when(InetAddress.getLocalHost()).thenThrow(UnknownHostException.class);
+
+        resolver.refresh();
+
+        assertEquals(HOST_NAME, resolver.getHostName());
+    }
+
+    private SourceHostResolver createResolver() {
+        resolver = new SourceHostResolver(workQueue, pluginConfigFactory, PLUGIN_NAME);
+        return resolver;
+    }
+}
@@ -3,14 +3,21 @@ package com.ericsson.gerrit.plugins.eiffel.git;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -22,21 +29,26 @@ import com.ericsson.gerrit.plugins.eiffel.loghelper.LogHelper;
 import com.google.gerrit.extensions.restapi.IdString;
 import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.extensions.restapi.UnprocessableEntityException;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.project.CommitResource;
 import com.google.gerrit.server.project.CommitsCollection;
 import com.google.gerrit.server.project.ProjectResource;
 import com.google.gerrit.server.project.ProjectsCollection;
 
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({ RevCommit.class })
+@PrepareForTest({ RevCommit.class, CommitInformation.class })
 public class CommitInformationTest {
+    private static final String COMMIT_SHA = "0123456789abcdef0123456789abcdef01234567";
 
     private final LogHelper logHelper = new LogHelper();
+    private GitRepositoryManager repositoryManager;
 
 
     @Before
     public void setUp() {
         logHelper.setup();
+        repositoryManager = mock(GitRepositoryManager.class);
     }
 
 
@@ -71,7 +83,7 @@ public class CommitInformationTest {
         when(projectsCollection.parse(any(String.class), anyBoolean())).thenReturn(projectResource);
 
         final CommitInformation commitInformation = new CommitInformation(commitsCollection,
-                projectsCollection);
+                projectsCollection, repositoryManager);
         final String commitId = "sha hash";
         final String projectName = "projectName";
         final List<String> expectedParentsSha = Arrays.asList(parent1Sha, parent2Sha);
@@ -98,7 +110,7 @@ public class CommitInformationTest {
         when(projectsCollection.parse(any(String.class), anyBoolean())).thenReturn(projectResource);
 
         final CommitInformation commitInformation = new CommitInformation(commitsCollection,
-                projectsCollection);
+                projectsCollection, repositoryManager);
         final List<String> expectedParentsSha = Arrays.asList();
         final String commitId = "not found hash";
         final String projectName = "projectName";
@@ -123,7 +135,7 @@ public class CommitInformationTest {
         when(projectsCollection.parse(any(String.class), anyBoolean())).thenReturn(projectResource);
 
         final CommitInformation commitInformation = new CommitInformation(commitsCollection,
-                projectsCollection);
+                projectsCollection, repositoryManager);
         final List<String> expectedParentsSha = Arrays.asList();
         final String commitId = "sha hash";
         final String projectName = "projectName";
@@ -146,7 +158,7 @@ public class CommitInformationTest {
                 UnprocessableEntityException.class);
 
         final CommitInformation commitInformation = new CommitInformation(commitsCollection,
-                projectsCollection);
+                projectsCollection, repositoryManager);
         final String commitId = "sha hash";
         final String projectName = "notFoundProject";
         final List<String> expectedParentsSha = Arrays.asList();
@@ -156,4 +168,38 @@ public class CommitInformationTest {
         assertEquals(expectedParentsSha, actualParentSha);
         logHelper.verifyLoggerCalledTimes(1);
     }
+
+    @Test
+    public void testFetchingParentsShasFromRepositoryIsCached() throws Exception {
+        final String parent1Sha = "Parent1 sha";
+        final String parent2Sha = "Parent2 sha";
+
+        final CommitsCollection commitsCollection = mock(CommitsCollection.class);
+        final ProjectsCollection projectsCollection = mock(ProjectsCollection.class);
+        final Repository repository = mock(Repository.class);
+        final RevWalk revWalk = mock(RevWalk.class);
+        final RevCommit revCommit = mock(RevCommit.class);
+        final RevCommit parent1 = mock(RevCommit.class);
+        final RevCommit parent2 = mock(RevCommit.class);
+
+        when(parent1.getName()).thenReturn(parent1Sha);
+        when(parent2.getName()).thenReturn(parent2Sha);
+        final RevCommit[] parents = (RevCommit[]) Arrays.asList(parent1, parent2).toArray();
+        when(revCommit.getParents()).thenReturn(parents);
+
+        when(repositoryManager.openRepository(any(Project.NameKey.class))).thenReturn(repository);
+        whenNew(RevWalk.class).withArguments(repository).thenReturn(revWalk);
+        when(revWalk.parseCommit(any(AnyObjectId.class))).thenReturn(revCommit);
+
+        final CommitInformation commitInformation = new CommitInformation(commitsCollection,
+                projectsCollection, repositoryManager);
+        final List<String> expectedParentsSha = Arrays.asList(parent1Sha, parent2Sha);
+
+        assertEquals(expectedParentsSha, commitInformation.getParentsSHAs(COMMIT_SHA, "projectName"));
+        assertEquals(expectedParentsSha, commitInformation.getParentsSHAs(COMMIT_SHA, "projectName"));
+
+        verify(repositoryManager, times(1)).openRepository(any(Project.NameKey.class));
+        verify(projectsCollection, never()).parse(any(String.class), anyBoolean());
+        logHelper.verifyLoggerCalledTimes(0);
+    }
 }
@@ -0,0 +1,76 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatcherTest {
+
+    private static final int MAX_BATCH_SIZE = 3;
+    private static final long BATCH_WINDOW = 200;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private BlockingQueue<List<String>> flushedBatches;
+    private Batcher<String> batcher;
+
+    @Before
+    public void setUp() {
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        flushedBatches = new LinkedBlockingQueue<>();
+        batcher = new Batcher<>(MAX_BATCH_SIZE, BATCH_WINDOW, scheduler, flushedBatches::add);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testFullBatchIsFlushedImmediately() throws Exception {
+        batcher.add("key", "first");
+        batcher.add("key", "second");
+        batcher.add("key", "third");
+
+        assertEquals(Arrays.asList("first", "second", "third"), flushedBatches.poll());
+    }
+
+    @Test
+    public void testBatchIsFlushedAfterWindow() throws Exception {
+        batcher.add("key", "first");
+        assertTrue("Batch should wait for more items", flushedBatches.isEmpty());
+
+        assertEquals(Arrays.asList("first"), flushedBatches.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testItemsWithDifferentKeysAreNotBatchedTogether() throws Exception {
+        batcher.add("first-key", "first");
+        batcher.add("second-key", "second");
+
+        assertEquals(1, flushedBatches.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS).size());
+        assertEquals(1, flushedBatches.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void testWindowOfFullBatchDoesNotFlushNextBatch() throws Exception {
+        batcher.add("key", "first");
+        batcher.add("key", "second");
+        batcher.add("key", "third");
+        batcher.add("key", "fourth");
+
+        assertEquals(3, flushedBatches.poll().size());
+        assertEquals(Arrays.asList("fourth"), flushedBatches.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(flushedBatches.isEmpty());
+    }
+}
@@ -2,6 +2,7 @@ package com.ericsson.gerrit.plugins.eiffel.handlers;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.powermock.api.mockito.PowerMockito.mock;
 
 import java.io.File;
@@ -14,8 +15,16 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
 import org.junit.Before;
@@ -41,10 +50,12 @@ public class DataBaseHandlerTest {
     private static final String FAULTY_BRANCH = "faulty_branch";
     private static final String SCS_TABLE_KEY = "branch";
     private static final String SCC_TABLE_KEY = "changeId";
+    private static final String WRITE_BEHIND_PROJECT = "write_behind_project";
 
     @Rule
     public final ExpectedException exception = ExpectedException.none();
 
+    private DatabaseConnectionRegistry registry;
     private DatabaseHandler dbHandler;
 
     @Rule
@@ -56,13 +67,15 @@ public class DataBaseHandlerTest {
     @Before
     public void init() throws Exception {
         tmpFolderPath = testFolder.newFolder();
-        dbHandler = new DatabaseHandler(tmpFolderPath, "project_name");
+        registry = new DatabaseConnectionRegistry(StorageProfile.DEFAULT);
+        dbHandler = new DatabaseHandler(registry, tmpFolderPath, "project_name");
         logHelper.setup();
     }
 
     @After
     public void tearDown() throws IOException {
         logHelper.tearDown();
+        registry.closeAll();
 
         // By trying to delete the file we know if we have any open connections
         Path dbfile = tmpFolderPath.toPath().resolve("project_name.db");
@@ -86,7 +99,7 @@ public class DataBaseHandlerTest {
 
         PowerMockito.whenNew(File.class).withParameterTypes(String.class).withArguments(argumentCapture.capture()).thenReturn(file);
 
-        new DatabaseHandler(tmpFolderPath, projectName);
+        new DatabaseHandler(registry, tmpFolderPath, projectName);
         List<String> arguments = argumentCapture.getAllValues();
 
         String expectedFilePath = tmpFolderPath.getPath().replace("\\", "/") + "/parent_project";
@@ -129,6 +142,240 @@ public class DataBaseHandlerTest {
         logHelper.verifyLoggerCalledTimes(0);
     }
 
+    /**
+     * Upsert should insert a new id and replace an existing one, returning the replaced id
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUpsertEventID() throws Exception {
+        String firstEiffelEventId = generateEiffelEventId();
+        String secondEiffelEventId = generateEiffelEventId();
+
+        assertEquals("Expect no replaced event ID", "",
+                dbHandler.upsert(Table.SCS_TABLE, BRANCH, firstEiffelEventId));
+        assertEquals("Expect replaced event ID", firstEiffelEventId,
+                dbHandler.upsert(Table.SCS_TABLE, BRANCH, secondEiffelEventId));
+        assertEquals("Expect fetched event ID", secondEiffelEventId, dbHandler.getEventID(Table.SCS_TABLE, BRANCH));
+        logHelper.verifyLoggerCalledTimes(0);
+    }
+
+    /**
+     * Saving several ids should update existing rows and insert new ones
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSaveAllEventIDs() throws Exception {
+        String firstEiffelEventId = generateEiffelEventId();
+        String secondEiffelEventId = generateEiffelEventId();
+        String thirdEiffelEventId = generateEiffelEventId();
+        dbHandler.insertInto(Table.SCS_TABLE, BRANCH, firstEiffelEventId);
+
+        Map<String, String> eventIds = new LinkedHashMap<>();
+        eventIds.put(BRANCH, secondEiffelEventId);
+        eventIds.put(FAULTY_BRANCH, thirdEiffelEventId);
+        dbHandler.saveAll(Table.SCS_TABLE, eventIds);
+
+        assertEquals("Expect updated event ID", secondEiffelEventId, dbHandler.getEventID(Table.SCS_TABLE, BRANCH));
+        assertEquals("Expect inserted event ID", thirdEiffelEventId,
+                dbHandler.getEventID(Table.SCS_TABLE, FAULTY_BRANCH));
+        logHelper.verifyLoggerCalledTimes(0);
+    }
+
+    /**
+     * Event ids saved later should be returned before they are committed and be committed
+     * together
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSaveLaterEventIDs() throws Exception {
+        String firstEiffelEventId = generateEiffelEventId();
+        String secondEiffelEventId = generateEiffelEventId();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        DatabaseConnectionRegistry writeBehindRegistry = new DatabaseConnectionRegistry(
+                createWriteBehindProfile(StorageProfile.DEFAULT.getBusyTimeout()));
+        writeBehindRegistry.setWriteBehindScheduler(scheduler);
+        try {
+            DatabaseHandler writeBehindDbHandler = new DatabaseHandler(writeBehindRegistry, tmpFolderPath,
+                    WRITE_BEHIND_PROJECT);
+            assertTrue("Expect write-behind enabled", writeBehindDbHandler.isWriteBehindEnabled());
+            CompletableFuture<Void> firstSaved = writeBehindDbHandler.saveLater(Table.SCS_TABLE,
+                    Collections.singletonMap(BRANCH, firstEiffelEventId));
+            CompletableFuture<Void> secondSaved = writeBehindDbHandler.saveLater(Table.SCC_TABLE,
+                    Collections.singletonMap(BRANCH, secondEiffelEventId));
+            assertEquals("Expect saved event ID", firstEiffelEventId,
+                    writeBehindDbHandler.getEventID(Table.SCS_TABLE, BRANCH));
+
+            secondSaved.get(10, TimeUnit.SECONDS);
+            assertTrue("Expect event IDs committed together", firstSaved.isDone());
+        } finally {
+            writeBehindRegistry.closeAll();
+            scheduler.shutdownNow();
+        }
+
+        Path dbfile = tmpFolderPath.toPath().resolve(WRITE_BEHIND_PROJECT + ".db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbfile);
+                Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery(String.format("SELECT eventId FROM %s WHERE %s='%s'",
+                        Table.SCC_TABLE, SCC_TABLE_KEY, BRANCH))) {
+            assertEquals("Expect committed event ID", secondEiffelEventId, result.getString(1));
+        }
+        logHelper.verifyLoggerCalledTimes(0);
+    }
+
+    /**
+     * Event ids saved later should be kept and committed by a retry when the commit fails
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSaveLaterIsRetriedAfterFailedCommit() throws Exception {
+        String eiffelEventId = generateEiffelEventId();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        DatabaseConnectionRegistry writeBehindRegistry = new DatabaseConnectionRegistry(createWriteBehindProfile(0));
+        writeBehindRegistry.setWriteBehindScheduler(scheduler);
+        Path dbfile = tmpFolderPath.toPath().resolve(WRITE_BEHIND_PROJECT + ".db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbfile);
+                Statement statement = connection.createStatement()) {
+            DatabaseHandler writeBehindDbHandler = new DatabaseHandler(writeBehindRegistry, tmpFolderPath,
+                    WRITE_BEHIND_PROJECT);
+
+            // Hold the write lock so that the commit fails right away
+            connection.setAutoCommit(false);
+            statement.execute(String.format("DELETE FROM %s", Table.SCC_TABLE));
+            CompletableFuture<Void> saved = writeBehindDbHandler.saveLater(Table.SCC_TABLE,
+                    Collections.singletonMap(BRANCH, eiffelEventId));
+            writeBehindRegistry.get(tmpFolderPath, WRITE_BEHIND_PROJECT).flush();
+            assertFalse("Expect event ID not committed", saved.isDone());
+            assertEquals("Expect event ID kept", eiffelEventId,
+                    writeBehindDbHandler.getEventID(Table.SCC_TABLE, BRANCH));
+
+            connection.commit();
+            saved.get(10, TimeUnit.SECONDS);
+        } finally {
+            writeBehindRegistry.closeAll();
+            scheduler.shutdownNow();
+        }
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbfile);
+                Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery(String.format("SELECT eventId FROM %s WHERE %s='%s'",
+                        Table.SCC_TABLE, SCC_TABLE_KEY, BRANCH))) {
+            assertEquals("Expect committed event ID", eiffelEventId, result.getString(1));
+        }
+    }
+
+    /**
+     * The event id of the first search criteria that has one should be returned, whether it is
+     * cached or only in the database
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGetFirstEventID() throws Exception {
+        String firstEiffelEventId = generateEiffelEventId();
+        String secondEiffelEventId = generateEiffelEventId();
+        List<String> parents = Arrays.asList(FAULTY_BRANCH, BRANCH);
+        dbHandler.insertInto(Table.SCS_TABLE, BRANCH, secondEiffelEventId);
+        assertEquals("Expect event ID of second search criteria", secondEiffelEventId,
+                dbHandler.getFirstEventID(Table.SCS_TABLE, parents));
+
+        // Saved without the handler, so only the database knows it
+        Path dbfile = tmpFolderPath.toPath().resolve("project_name.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbfile);
+                Statement statement = connection.createStatement()) {
+            statement.execute(String.format("INSERT INTO %s(%s, eventId) VALUES('%s', '%s')",
+                    Table.SCS_TABLE, SCS_TABLE_KEY, FAULTY_BRANCH, firstEiffelEventId));
+        }
+        assertEquals("Expect event ID of first search criteria", firstEiffelEventId,
+                dbHandler.getFirstEventID(Table.SCS_TABLE, parents));
+        assertEquals("Expect event ID of first search criteria", secondEiffelEventId,
+                dbHandler.getFirstEventID(Table.SCS_TABLE, Arrays.asList(BRANCH, FAULTY_BRANCH)));
+        logHelper.verifyLoggerCalledTimes(0);
+    }
+
+    /**
+     * No event id for any of the search criteria should throw
+     *
+     * @throws Exception
+     */
+    @Test(expected = NoSuchElementException.class)
+    public void testGetFirstEventIDNoneExisting() throws Exception {
+        logHelper.expectLoggerCalledTimes(0);
+        dbHandler.getFirstEventID(Table.SCS_TABLE, Arrays.asList(BRANCH, FAULTY_BRANCH));
+    }
+
+    /**
+     * Once the key filter is loaded a search criteria that was never saved should not be looked
+     * up in the database
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testKeyFilterAnswersMissingEventID() throws Exception {
+        String eiffelEventId = generateEiffelEventId();
+        String otherEiffelEventId = generateEiffelEventId();
+        dbHandler.insertInto(Table.SCS_TABLE, BRANCH, eiffelEventId);
+        registry.setKeyFilterLoader(Runnable::run);
+        try {
+            DatabaseHandler loadedDbHandler = new DatabaseHandler(registry, tmpFolderPath, "project_name");
+
+            // Saved without the handler, so only the database knows it
+            Path dbfile = tmpFolderPath.toPath().resolve("project_name.db");
+            try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbfile);
+                    Statement statement = connection.createStatement()) {
+                statement.execute(String.format("INSERT INTO %s(%s, eventId) VALUES('%s', '%s')",
+                        Table.SCS_TABLE, SCS_TABLE_KEY, FAULTY_BRANCH, otherEiffelEventId));
+            }
+
+            assertEquals("Expect event ID of search criteria in key filter", eiffelEventId,
+                    loadedDbHandler.getFirstEventID(Table.SCS_TABLE, Arrays.asList(FAULTY_BRANCH, BRANCH)));
+            assertFalse("Expect no event ID of search criteria not in key filter",
+                    loadedDbHandler.findEventID(Table.SCS_TABLE, FAULTY_BRANCH).isPresent());
+        } finally {
+            registry.setKeyFilterLoader(null);
+        }
+        logHelper.verifyLoggerCalledTimes(0);
+    }
+
+    /**
+     * Handlers of the same project should share one open connection
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        String eiffelEventId = generateEiffelEventId();
+        dbHandler.insertInto(Table.SCS_TABLE, BRANCH, eiffelEventId);
+
+        PowerMockito.mockStatic(DriverManager.class);
+        DatabaseHandler otherDbHandler = new DatabaseHandler(registry, tmpFolderPath, "project_name");
+        String eventId = otherDbHandler.getEventID(Table.SCS_TABLE, BRANCH);
+
+        assertEquals("Expect fetched event ID", eiffelEventId, eventId);
+        PowerMockito.verifyStatic(DriverManager.class, Mockito.never());
+        DriverManager.getConnection(Mockito.any());
+        logHelper.verifyLoggerCalledTimes(0);
+    }
+
+    /**
+     * The default storage profile should use write-ahead logging
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDatabaseUsesWriteAheadLog() throws Exception {
+        Path dbfile = tmpFolderPath.toPath().resolve("project_name.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbfile);
+                Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery("PRAGMA journal_mode")) {
+            assertEquals("Expect write-ahead log journal mode", "wal", result.getString(1));
+        }
+        logHelper.verifyLoggerCalledTimes(0);
+    }
+
     /**
      * Tries to update but no rows updated, should throw SQLException
      *
@@ -183,6 +430,24 @@ public class DataBaseHandlerTest {
         dbHandler.getEventID(Table.SCS_TABLE, FAULTY_BRANCH);
     }
 
+    /**
+     * Looking up a search criteria without an event id should not throw
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFindNoneExistingEventIdIsEmpty() throws Exception {
+        String eiffelEventId = generateEiffelEventId();
+        dbHandler.insertInto(Table.SCS_TABLE, BRANCH, eiffelEventId);
+
+        assertFalse("Expect no event ID", dbHandler.findEventID(Table.SCS_TABLE, FAULTY_BRANCH).isPresent());
+        assertFalse("Expect no event ID", dbHandler.findFirstEventID(Table.SCC_TABLE,
+                Arrays.asList(BRANCH, FAULTY_BRANCH)).isPresent());
+        assertEquals("Expect event ID of second search criteria", eiffelEventId,
+                dbHandler.findFirstEventID(Table.SCS_TABLE, Arrays.asList(FAULTY_BRANCH, BRANCH)).get());
+        logHelper.verifyLoggerCalledTimes(0);
+    }
+
     /**
      * If sqlException is thrown within GetEventId, it should be caught and rethrown as NoSuchElementException
      *
@@ -192,9 +457,13 @@ public class DataBaseHandlerTest {
     public void testGetEventIdSqlError() throws Exception {
         logHelper.removeStdoutAppenders();
         Connection connection = mock(Connection.class);
+        Statement statement = mock(Statement.class);
 
+        // Close the shared connection so that the mocked one is used
+        registry.closeAll();
         PowerMockito.mockStatic(DriverManager.class);
         BDDMockito.given(DriverManager.getConnection(Mockito.any())).willReturn(connection);
+        Mockito.doReturn(statement).when(connection).createStatement();
         Mockito.when(connection.prepareStatement(Mockito.any())).thenThrow(new SQLException());
 
         logHelper.expectLoggerCalledTimes(1);
@@ -231,9 +500,12 @@ public class DataBaseHandlerTest {
         Statement statement = mock(Statement.class);
         ResultSet result = mock(ResultSet.class);
 
+        // Close the shared connection so that the mocked one is used
+        registry.closeAll();
         PowerMockito.mockStatic(DriverManager.class);
         Mockito.when(DriverManager.getConnection(Mockito.any())).thenReturn(connection);
 
+        Mockito.doReturn(statement).when(connection).createStatement();
         Mockito.doReturn(preparedStatement).when(connection).prepareStatement(Mockito.any());
         Mockito.doReturn(result).when(preparedStatement).executeQuery();
 
@@ -251,11 +523,9 @@ public class DataBaseHandlerTest {
         // When we initiate a new DataBaseHandler we throw SQLExceptions, those
         // exceptions should be caught
         // and the class should be created as normal.
-        Mockito.when(connection.getMetaData()).thenThrow(new SQLException("Exception thrown by test"));
-        Mockito.doReturn(statement).when(connection).createStatement();
         Mockito.when(statement.execute(Mockito.any())).thenThrow(new SQLException("Exception thrown by test"));
         File tmpFolderPath = testFolder.newFolder();
-        new DatabaseHandler(tmpFolderPath, "project_name");
+        new DatabaseHandler(registry, tmpFolderPath, "project_name");
 
         // When doing updateInto on the database handler we throw some exceptions and
         // ensures they are
@@ -276,7 +546,11 @@ public class DataBaseHandlerTest {
             // test passed!
         }
 
+        // Prepared statements are kept while the connection is open, close it so that the
+        // statement is prepared again.
         try {
+            registry.closeAll();
+            Mockito.doReturn(false).when(statement).execute(Mockito.any());
             Mockito.when(connection.prepareStatement(Mockito.any()))
                     .thenThrow(new SQLException("Exception thrown by test"));
             dbHandler.updateInto(Table.SCS_TABLE, BRANCH, "event_id");
@@ -284,11 +558,19 @@ public class DataBaseHandlerTest {
         } catch (SQLException e) {
             // test passed!
         }
-        logHelper.verifyLoggerCalledTimes(4);
+        // Opening the database is a single step, a failing new handler logs once
+        logHelper.verifyLoggerCalledTimes(3);
     }
 
     private static String generateEiffelEventId() {
         return UUID.randomUUID().toString();
     }
 
+    private StorageProfile createWriteBehindProfile(final int busyTimeout) {
+        final StorageProfile defaultProfile = StorageProfile.DEFAULT;
+        return new StorageProfile(defaultProfile.isWriteAheadLog(), false, defaultProfile.getSynchronous(),
+                busyTimeout, defaultProfile.getCacheSize(), defaultProfile.getCheckpointInterval(), 10,
+                defaultProfile.getWriteBehindSize(), defaultProfile.getEventIdCacheSize(),
+                defaultProfile.getEventIdCacheTtl(), defaultProfile.isKeyFilterEnabled());
+    }
 }
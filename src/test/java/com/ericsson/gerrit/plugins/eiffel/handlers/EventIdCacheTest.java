@@ -0,0 +1,82 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class EventIdCacheTest {
+    private static final String CHANGE_ID = "I1234";
+    private static final String OTHER_CHANGE_ID = "I5678";
+
+    @Test
+    public void testSavedEventIdIsReturned() {
+        final EventIdCache eventIdCache = new EventIdCache(10, 0);
+        eventIdCache.putAll(Table.SCC_TABLE, Collections.singletonMap(CHANGE_ID, "event-id"));
+
+        assertEquals("event-id", eventIdCache.get(Table.SCC_TABLE, CHANGE_ID));
+        assertNull(eventIdCache.get(Table.SCS_TABLE, CHANGE_ID));
+        assertEquals(1, eventIdCache.getHits());
+        assertEquals(1, eventIdCache.getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        final EventIdCache eventIdCache = new EventIdCache(2, 0);
+        eventIdCache.putAll(Table.SCC_TABLE, Collections.singletonMap(CHANGE_ID, "first"));
+        eventIdCache.putAll(Table.SCC_TABLE, Collections.singletonMap(OTHER_CHANGE_ID, "second"));
+        eventIdCache.get(Table.SCC_TABLE, CHANGE_ID);
+        eventIdCache.putAll(Table.SCC_TABLE, Collections.singletonMap("I9999", "third"));
+
+        assertEquals("first", eventIdCache.get(Table.SCC_TABLE, CHANGE_ID));
+        assertNull(eventIdCache.get(Table.SCC_TABLE, OTHER_CHANGE_ID));
+    }
+
+    @Test
+    public void testExpiredEventIdIsNotReturned() throws Exception {
+        final EventIdCache eventIdCache = new EventIdCache(10, 1);
+        eventIdCache.putAll(Table.SCC_TABLE, Collections.singletonMap(CHANGE_ID, "event-id"));
+        Thread.sleep(5);
+
+        assertNull(eventIdCache.get(Table.SCC_TABLE, CHANGE_ID));
+    }
+
+    @Test
+    public void testReadEventIdIsNotAddedAfterSave() {
+        final EventIdCache eventIdCache = new EventIdCache(10, 0);
+        final long version = eventIdCache.getVersion();
+        eventIdCache.putAll(Table.SCC_TABLE, Collections.singletonMap(CHANGE_ID, "new-event-id"));
+        eventIdCache.putIfUnchanged(Table.SCC_TABLE, CHANGE_ID, "old-event-id", version);
+        eventIdCache.putIfUnchanged(Table.SCC_TABLE, OTHER_CHANGE_ID, "other-event-id", version);
+
+        assertEquals("new-event-id", eventIdCache.get(Table.SCC_TABLE, CHANGE_ID));
+        assertNull(eventIdCache.get(Table.SCC_TABLE, OTHER_CHANGE_ID));
+    }
+
+    @Test
+    public void testDeletedEventIdIsNotReturned() {
+        final EventIdCache eventIdCache = new EventIdCache(10, 0);
+        eventIdCache.putAll(Table.SCC_TABLE, Collections.singletonMap(CHANGE_ID, "event-id"));
+        eventIdCache.putAll(Table.SCC_TABLE, Collections.singletonMap(OTHER_CHANGE_ID, "other-event-id"));
+        final long version = eventIdCache.getVersion();
+        eventIdCache.invalidate(Table.SCC_TABLE, Collections.singletonList(CHANGE_ID));
+        eventIdCache.putIfUnchanged(Table.SCC_TABLE, CHANGE_ID, "event-id", version);
+
+        assertNull(eventIdCache.get(Table.SCC_TABLE, CHANGE_ID));
+        assertEquals("other-event-id", eventIdCache.get(Table.SCC_TABLE, OTHER_CHANGE_ID));
+
+        eventIdCache.invalidateAll(Table.SCC_TABLE);
+
+        assertNull(eventIdCache.get(Table.SCC_TABLE, OTHER_CHANGE_ID));
+    }
+
+    @Test
+    public void testDisabledCache() {
+        final EventIdCache eventIdCache = new EventIdCache(0, 0);
+        eventIdCache.putAll(Table.SCC_TABLE, Collections.singletonMap(CHANGE_ID, "event-id"));
+
+        assertNull(eventIdCache.get(Table.SCC_TABLE, CHANGE_ID));
+    }
+}
@@ -0,0 +1,123 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.query.change.ChangeData;
+import com.google.gerrit.server.query.change.InternalChangeQuery;
+
+public class EventIdRetentionTest {
+    private static final String PLUGIN_NAME = "plugin";
+    private static final String PROJECT = "project";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+    private File tmpFolderPath;
+    private PluginConfig pluginConfig;
+    private PluginConfigFactory pluginConfigFactory;
+    private WorkQueue workQueue;
+    private InternalChangeQuery changeQuery;
+    private DatabaseConnectionRegistry registry;
+
+    @Before
+    public void init() throws Exception {
+        tmpFolderPath = testFolder.newFolder();
+        registry = new DatabaseConnectionRegistry(StorageProfile.DEFAULT);
+
+        pluginConfig = mock(PluginConfig.class);
+        when(pluginConfig.getInt(anyString(), anyInt())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(pluginConfig.getLong(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        pluginConfigFactory = mock(PluginConfigFactory.class);
+        when(pluginConfigFactory.getFromGerritConfig(PLUGIN_NAME, true)).thenReturn(pluginConfig);
+
+        // Run every step of a retention run right away
+        final WorkQueue.Executor executor = mock(WorkQueue.Executor.class);
+        when(executor.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenAnswer(invocation -> {
+            invocation.<Runnable> getArgument(0).run();
+            return null;
+        });
+        workQueue = mock(WorkQueue.class);
+        when(workQueue.getDefaultQueue()).thenReturn(executor);
+
+        changeQuery = mock(InternalChangeQuery.class);
+        when(changeQuery.byProjectOpen(any(Project.NameKey.class))).thenReturn(Collections.emptyList());
+    }
+
+    @After
+    public void tearDown() {
+        registry.closeAll();
+    }
+
+    @Test
+    public void testRetentionIsDisabledByDefault() {
+        assertFalse(createRetention().isEnabled());
+    }
+
+    @Test
+    public void testOldClosedChangesAreRemoved() throws Exception {
+        when(pluginConfig.getInt(eq(EventIdRetention.CHANGE_DAYS), anyInt())).thenReturn(30);
+        when(pluginConfig.getInt(eq(EventIdRetention.BATCH_SIZE), anyInt())).thenReturn(2);
+        final DatabaseHandler dbHandler = new DatabaseHandler(registry, tmpFolderPath, PROJECT);
+        for (int i = 0; i < 5; i++) {
+            dbHandler.insertInto(Table.SCC_TABLE, "I" + i, "event-id-" + i);
+        }
+        dbHandler.insertInto(Table.SCS_TABLE, "commit-id", "scs-event-id");
+        setUpdated(Table.SCC_TABLE, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(31), "I0", "I1", "I2");
+        setUpdated(Table.SCS_TABLE, 0, "commit-id");
+        final ChangeData openChange = mock(ChangeData.class);
+        final Change change = mock(Change.class);
+        when(change.getKey()).thenReturn(new Change.Key("I1"));
+        when(openChange.change()).thenReturn(change);
+        when(changeQuery.byProjectOpen(new Project.NameKey(PROJECT))).thenReturn(Arrays.asList(openChange));
+
+        createRetention().startRun();
+
+        final ProjectDatabase database = registry.get(tmpFolderPath, PROJECT);
+        final long later = System.currentTimeMillis() + 1000;
+        assertEquals(Arrays.asList("I1", "I3", "I4"), database.getSavedBefore(Table.SCC_TABLE, later));
+        assertEquals(Arrays.asList("commit-id"), database.getSavedBefore(Table.SCS_TABLE, later));
+    }
+
+    private EventIdRetention createRetention() {
+        return new EventIdRetention(workQueue, registry, mock(GitRepositoryManager.class),
+                () -> changeQuery, pluginConfigFactory, PLUGIN_NAME, tmpFolderPath);
+    }
+
+    private void setUpdated(final Table table, final long updated, final String... keys) throws Exception {
+        try (Connection connection = DriverManager.getConnection(
+                "jdbc:sqlite:" + new File(tmpFolderPath, PROJECT + ".db"));
+                Statement statement = connection.createStatement()) {
+            for (String key : keys) {
+                statement.execute(String.format("UPDATE %s SET updated=%d WHERE %s='%s'", table, updated,
+                        table.getKeyName(), key));
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EventType;
+
+public class EventOutboxTest {
+
+    private static final String PROJECT = "my-project";
+    private static final String CHANGE_ID = "I1234";
+    private static final String GERRIT_EVENT_ID = "4f1c0d6e-9a7b-4d21-8c3e-2b5f6a7d8e90";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+    private File tmpFolderPath;
+    private EventOutbox outbox;
+
+    @Before
+    public void init() throws Exception {
+        tmpFolderPath = testFolder.newFolder();
+        outbox = new EventOutbox(tmpFolderPath);
+        assertTrue("New outbox should be empty", outbox.open().isEmpty());
+    }
+
+    @After
+    public void tearDown() {
+        outbox.close();
+    }
+
+    @Test
+    public void testUnsentEventsAreReturnedWhenReopened() throws Exception {
+        final EiffelSourceChangeCreatedEvent createdEvent = new EiffelSourceChangeCreatedEvent();
+        createdEvent.msgParams.meta.type = EventType.SCC_EVENT;
+        createdEvent.eventParams.data.change.id = CHANGE_ID;
+        final EiffelSourceChangeSubmittedEvent submittedEvent = new EiffelSourceChangeSubmittedEvent();
+        submittedEvent.msgParams.meta.type = EventType.SCS_EVENT;
+
+        outbox.add(PROJECT, createdEvent).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        outbox.add(PROJECT, submittedEvent).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final List<EventOutbox.Entry> entries = reopen();
+
+        assertEquals(2, entries.size());
+        assertEquals(PROJECT, entries.get(0).getProject());
+        assertEquals(CHANGE_ID, ((EiffelSourceChangeCreatedEvent) entries.get(0)
+                                                                        .getEiffelEvent()).eventParams.data.change.id);
+        assertTrue(entries.get(1).getEiffelEvent() instanceof EiffelSourceChangeSubmittedEvent);
+    }
+
+    @Test
+    public void testSentEventsAreNotReturnedWhenReopened() throws Exception {
+        final EiffelSourceChangeSubmittedEvent firstEvent = new EiffelSourceChangeSubmittedEvent();
+        firstEvent.msgParams.meta.type = EventType.SCS_EVENT;
+        final EiffelSourceChangeSubmittedEvent secondEvent = new EiffelSourceChangeSubmittedEvent();
+        secondEvent.msgParams.meta.type = EventType.SCS_EVENT;
+
+        final EventOutbox.Entry firstEntry = outbox.add(PROJECT, firstEvent)
+                                                   .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final EventOutbox.Entry secondEntry = outbox.add(PROJECT, secondEvent)
+                                                    .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        outbox.remove(firstEntry);
+        final List<EventOutbox.Entry> entries = reopen();
+
+        assertEquals(1, entries.size());
+        assertEquals(secondEntry.getSequence(), entries.get(0).getSequence());
+    }
+
+    @Test
+    public void testGerritEventIdIsReturnedWhenReopened() throws Exception {
+        final EiffelSourceChangeSubmittedEvent eiffelEvent = new EiffelSourceChangeSubmittedEvent();
+        eiffelEvent.msgParams.meta.type = EventType.SCS_EVENT;
+
+        outbox.add(PROJECT, GERRIT_EVENT_ID, eiffelEvent).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final List<EventOutbox.Entry> entries = reopen();
+
+        assertEquals(1, entries.size());
+        assertEquals(GERRIT_EVENT_ID, entries.get(0).getGerritEventId());
+    }
+
+    @Test
+    public void testJournalIsTruncatedWhenAllEventsAreSent() throws Exception {
+        final EiffelSourceChangeSubmittedEvent eiffelEvent = new EiffelSourceChangeSubmittedEvent();
+        eiffelEvent.msgParams.meta.type = EventType.SCS_EVENT;
+
+        outbox.remove(outbox.add(PROJECT, eiffelEvent).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        outbox.close();
+
+        assertEquals("Journal should be empty", 0, Files.size(getJournalPath()));
+    }
+
+    @Test
+    public void testIncompleteRecordIsSkipped() throws Exception {
+        final EiffelSourceChangeSubmittedEvent eiffelEvent = new EiffelSourceChangeSubmittedEvent();
+        eiffelEvent.msgParams.meta.type = EventType.SCS_EVENT;
+
+        outbox.add(PROJECT, eiffelEvent).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        outbox.close();
+        Files.write(getJournalPath(), "{\"operation\":\"ADDED\",\"seq".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        assertEquals(1, reopen().size());
+    }
+
+    private List<EventOutbox.Entry> reopen() throws Exception {
+        outbox.close();
+        outbox = new EventOutbox(tmpFolderPath);
+        return outbox.open();
+    }
+
+    private Path getJournalPath() {
+        return tmpFolderPath.toPath().resolve("outbox.journal");
+    }
+}
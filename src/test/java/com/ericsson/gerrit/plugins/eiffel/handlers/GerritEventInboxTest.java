@@ -0,0 +1,104 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Suppliers;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.data.ChangeAttribute;
+import com.google.gerrit.server.events.ChangeMergedEvent;
+import com.google.gson.Gson;
+
+public class GerritEventInboxTest {
+
+    private static final String PROJECT = "my-project";
+    private static final String BRANCH = "my-branch";
+    private static final String NEW_REV = "0123456789abcdef0123456789abcdef01234567";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+    private File tmpFolderPath;
+    private GerritEventInbox inbox;
+
+    @Before
+    public void init() throws Exception {
+        tmpFolderPath = testFolder.newFolder();
+        inbox = new GerritEventInbox(tmpFolderPath);
+        assertTrue("New inbox should be empty", inbox.open().isEmpty());
+    }
+
+    @After
+    public void tearDown() {
+        inbox.close();
+    }
+
+    @Test
+    public void testPendingEventsAreReturnedWhenReopened() throws Exception {
+        inbox.add(PROJECT, createChangeMergedEvent()).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final List<GerritEventInbox.Entry> entries = reopen();
+
+        assertEquals(1, entries.size());
+        assertEquals(PROJECT, entries.get(0).getProject());
+        final ChangeMergedEvent changeMergedEvent = (ChangeMergedEvent) entries.get(0)
+                                                                              .getGerritEvent();
+        assertEquals(NEW_REV, changeMergedEvent.newRev);
+        assertEquals(BRANCH, changeMergedEvent.change.get().branch);
+        assertEquals(PROJECT, changeMergedEvent.getProjectNameKey().get());
+    }
+
+    @Test
+    public void testRemovedEventsAreNotReturnedWhenReopened() throws Exception {
+        final GerritEventInbox.Entry firstEntry = inbox.add(PROJECT, createChangeMergedEvent())
+                                                       .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final GerritEventInbox.Entry secondEntry = inbox.add(PROJECT, createChangeMergedEvent())
+                                                        .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        inbox.remove(firstEntry);
+        final List<GerritEventInbox.Entry> entries = reopen();
+
+        assertEquals(1, entries.size());
+        assertEquals(secondEntry.getSequence(), entries.get(0).getSequence());
+    }
+
+    @Test
+    public void testPendingEventsAreReturnedFromSequence() throws Exception {
+        inbox.add(PROJECT, createChangeMergedEvent()).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final GerritEventInbox.Entry secondEntry = inbox.add(PROJECT, createChangeMergedEvent())
+                                                        .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        inbox.add(PROJECT, createChangeMergedEvent()).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        final List<GerritEventInbox.Entry> entries = inbox.getPending(secondEntry.getSequence(), 1);
+
+        assertEquals(1, entries.size());
+        assertEquals(secondEntry.getSequence(), entries.get(0).getSequence());
+        assertEquals(NEW_REV, ((ChangeMergedEvent) entries.get(0).getGerritEvent()).newRev);
+    }
+
+    private ChangeMergedEvent createChangeMergedEvent() {
+        final ChangeAttribute changeAttribute = new ChangeAttribute();
+        changeAttribute.project = PROJECT;
+        changeAttribute.branch = BRANCH;
+        final ChangeMergedEvent changeMergedEvent = new Gson().fromJson(
+                "{\"type\":\"change-merged\"}", ChangeMergedEvent.class);
+        changeMergedEvent.change = Suppliers.ofInstance(changeAttribute);
+        changeMergedEvent.project = new Project.NameKey(PROJECT);
+        changeMergedEvent.newRev = NEW_REV;
+        return changeMergedEvent;
+    }
+
+    private List<GerritEventInbox.Entry> reopen() throws Exception {
+        inbox.close();
+        inbox = new GerritEventInbox(tmpFolderPath);
+        return inbox.open();
+    }
+}
@@ -0,0 +1,53 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class KeyFilterTest {
+    private static final int KEYS = 10 * KeyFilter.MIN_CAPACITY;
+
+    @Test
+    public void testAddedKeysAreContained() {
+        final KeyFilter keyFilter = new KeyFilter();
+        assertFalse(keyFilter.mightContain("I1234"));
+
+        for (int i = 0; i < KEYS; i++) {
+            keyFilter.put("I" + i);
+        }
+
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(keyFilter.mightContain("I" + i));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRateIsKeptWhenGrowing() {
+        final KeyFilter keyFilter = new KeyFilter();
+        for (int i = 0; i < KEYS; i++) {
+            keyFilter.put("I" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = KEYS; i < 2 * KEYS; i++) {
+            if (keyFilter.mightContain("I" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(keyFilter.getStageCount() > 1);
+        assertTrue("False positives: " + falsePositives, falsePositives < KEYS * KeyFilter.FALSE_POSITIVE_RATE);
+    }
+
+    @Test
+    public void testReservedKeysFitInOneStage() {
+        final KeyFilter keyFilter = new KeyFilter();
+        keyFilter.reserve(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            keyFilter.put("I" + i);
+        }
+
+        assertEquals(1, keyFilter.getStageCount());
+    }
+}
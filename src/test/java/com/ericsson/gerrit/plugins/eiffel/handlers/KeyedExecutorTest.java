@@ -0,0 +1,144 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ericsson.gerrit.plugins.eiffel.loghelper.LogHelper;
+
+public class KeyedExecutorTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final List<String> CHANGE_KEY = Collections.singletonList("change");
+    private static final List<String> BRANCH_KEY = Collections.singletonList("branch");
+
+    private ExecutorService pool;
+    private KeyedExecutor keyedExecutor;
+    private final LogHelper logHelper = new LogHelper();
+
+    @Before
+    public void setUp() {
+        logHelper.setup();
+        pool = Executors.newFixedThreadPool(4);
+        keyedExecutor = new KeyedExecutor(pool);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        logHelper.tearDown();
+    }
+
+    @Test
+    public void testTasksWithSameKeyRunInOrder() throws Exception {
+        final List<Integer> order = new CopyOnWriteArrayList<>();
+        final CompletableFuture<Void> firstSent = new CompletableFuture<>();
+
+        keyedExecutor.submit(CHANGE_KEY, () -> {
+            order.add(1);
+            return firstSent;
+        });
+        final CompletableFuture<Void> second = keyedExecutor.execute(CHANGE_KEY, () -> order.add(2));
+
+        Thread.sleep(100);
+        assertEquals("Second task must wait for the first to finish", Arrays.asList(1), order);
+
+        firstSent.complete(null);
+        second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList(1, 2), order);
+        assertEquals("Keys should be released", 0, keyedExecutor.getActiveKeyCount());
+    }
+
+    @Test
+    public void testTasksWithDifferentKeysRunInParallel() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final Runnable task = () -> {
+            bothStarted.countDown();
+            try {
+                bothStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        keyedExecutor.execute(CHANGE_KEY, task);
+        keyedExecutor.execute(BRANCH_KEY, task);
+
+        assertTrue("Tasks with different keys should run at the same time",
+                bothStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTaskWithSeveralKeysWaitsForAll() throws Exception {
+        final CompletableFuture<Void> changeTask = new CompletableFuture<>();
+        final CompletableFuture<Void> branchTask = new CompletableFuture<>();
+        final CountDownLatch started = new CountDownLatch(1);
+
+        keyedExecutor.submit(CHANGE_KEY, () -> changeTask);
+        keyedExecutor.submit(BRANCH_KEY, () -> branchTask);
+        final CompletableFuture<Void> submitted = keyedExecutor.execute(
+                Arrays.asList("change", "branch"), () -> started.countDown());
+
+        changeTask.complete(null);
+        assertFalse("Task must wait for the branch key",
+                started.await(100, TimeUnit.MILLISECONDS));
+
+        branchTask.complete(null);
+        submitted.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(0, started.getCount());
+    }
+
+    @Test
+    public void testFailingTaskDoesNotBlockKey() throws Exception {
+        logHelper.removeStdoutAppenders();
+        final CountDownLatch started = new CountDownLatch(1);
+
+        keyedExecutor.execute(CHANGE_KEY, () -> {
+            throw new IllegalStateException("Exception thrown by test");
+        });
+        keyedExecutor.execute(CHANGE_KEY, () -> started.countDown())
+                     .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertEquals(0, started.getCount());
+        logHelper.verifyLoggerCalledTimes(1);
+    }
+
+    @Test
+    public void testSubmitIsRejectedWhenMaxOutstandingTasksIsReached() throws Exception {
+        final KeyedExecutor boundedExecutor = new KeyedExecutor(pool, 2);
+        final CompletableFuture<Void> firstSent = new CompletableFuture<>();
+
+        boundedExecutor.submit(CHANGE_KEY, () -> firstSent);
+        final CompletableFuture<Void> second = boundedExecutor.execute(CHANGE_KEY, () -> {
+        });
+        try {
+            boundedExecutor.execute(BRANCH_KEY, () -> {
+            });
+            fail("Task should be rejected when two tasks are outstanding");
+        } catch (final RejectedExecutionException e) {
+            assertEquals(2, boundedExecutor.getOutstandingTaskCount());
+        }
+
+        firstSent.complete(null);
+        second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        boundedExecutor.execute(BRANCH_KEY, () -> {
+        }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals("Tasks should be released", 0, boundedExecutor.getOutstandingTaskCount());
+    }
+}
@@ -0,0 +1,179 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gerrit.server.config.PluginConfig;
+
+public class ProjectDatabaseTest {
+    private static final String CHANGE_ID = "I1234";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+    private File tmpFolderPath;
+    private DatabaseConnectionRegistry registry;
+    private DatabaseConnectionRegistry singleDatabaseRegistry;
+
+    @Before
+    public void init() throws Exception {
+        tmpFolderPath = testFolder.newFolder();
+
+        final PluginConfig pluginConfig = mock(PluginConfig.class);
+        when(pluginConfig.getString(anyString(), anyString())).thenAnswer(
+                invocation -> invocation.getArgument(1));
+        when(pluginConfig.getInt(anyString(), anyInt())).thenAnswer(
+                invocation -> invocation.getArgument(1));
+        when(pluginConfig.getLong(anyString(), anyLong())).thenAnswer(
+                invocation -> invocation.getArgument(1));
+        when(pluginConfig.getString(eq(StorageProfile.LAYOUT), anyString())).thenReturn("single");
+        registry = new DatabaseConnectionRegistry(StorageProfile.DEFAULT);
+        singleDatabaseRegistry = new DatabaseConnectionRegistry(StorageProfile.fromConfig(pluginConfig));
+    }
+
+    @After
+    public void tearDown() {
+        registry.closeAll();
+        singleDatabaseRegistry.closeAll();
+    }
+
+    @Test
+    public void testProjectsShareOneDatabase() throws Exception {
+        final DatabaseHandler firstDbHandler = new DatabaseHandler(singleDatabaseRegistry, tmpFolderPath,
+                "first_project");
+        final DatabaseHandler secondDbHandler = new DatabaseHandler(singleDatabaseRegistry, tmpFolderPath,
+                "parent/second_project");
+
+        firstDbHandler.insertInto(Table.SCC_TABLE, CHANGE_ID, "first-event-id");
+        secondDbHandler.upsert(Table.SCC_TABLE, CHANGE_ID, "second-event-id");
+        singleDatabaseRegistry.closeAll();
+
+        assertEquals("first-event-id", new DatabaseHandler(singleDatabaseRegistry, tmpFolderPath,
+                "first_project").getEventID(Table.SCC_TABLE, CHANGE_ID));
+        assertEquals("second-event-id", new DatabaseHandler(singleDatabaseRegistry, tmpFolderPath,
+                "parent/second_project").getEventID(Table.SCC_TABLE, CHANGE_ID));
+        assertTrue(Files.exists(tmpFolderPath.toPath().resolve(DatabaseConnectionRegistry.SHARED_DATABASE_FILE)));
+        assertFalse(Files.exists(tmpFolderPath.toPath().resolve("first_project.db")));
+        assertFalse(Files.exists(tmpFolderPath.toPath().resolve("parent")));
+    }
+
+    @Test
+    public void testProjectDatabaseIsMigrated() throws Exception {
+        final DatabaseHandler projectDbHandler = new DatabaseHandler(registry, tmpFolderPath, "parent/project");
+        projectDbHandler.insertInto(Table.SCC_TABLE, CHANGE_ID, "old-event-id");
+        projectDbHandler.insertInto(Table.SCS_TABLE, "commit-id", "scs-event-id");
+        registry.closeAll();
+
+        final DatabaseHandler dbHandler = new DatabaseHandler(singleDatabaseRegistry, tmpFolderPath,
+                "parent/project");
+
+        final Path projectDatabaseFile = tmpFolderPath.toPath().resolve("parent/project.db");
+        assertFalse(Files.exists(projectDatabaseFile));
+        assertFalse(Files.exists(tmpFolderPath.toPath().resolve("parent/project.db-wal")));
+        assertFalse(Files.exists(tmpFolderPath.toPath().resolve("parent/project.db-shm")));
+        assertTrue(Files.exists(tmpFolderPath.toPath().resolve("parent/project.db.migrated")));
+        assertEquals("old-event-id", dbHandler.getEventID(Table.SCC_TABLE, CHANGE_ID));
+        assertEquals("scs-event-id", dbHandler.getEventID(Table.SCS_TABLE, "commit-id"));
+    }
+
+    @Test
+    public void testSharedDatabaseIsUsedWhenMigrationFails() throws Exception {
+        final Path projectDatabaseFile = tmpFolderPath.toPath().resolve("project.db");
+        Files.write(projectDatabaseFile, "not a database".getBytes(StandardCharsets.UTF_8));
+
+        final DatabaseHandler dbHandler = new DatabaseHandler(singleDatabaseRegistry, tmpFolderPath,
+                "project");
+        dbHandler.insertInto(Table.SCC_TABLE, CHANGE_ID, "new-event-id");
+
+        assertEquals("new-event-id", dbHandler.getEventID(Table.SCC_TABLE, CHANGE_ID));
+        assertTrue("The database should be kept for the next start",
+                Files.exists(projectDatabaseFile));
+        assertFalse(Files.exists(tmpFolderPath.toPath().resolve("project.db.migrated")));
+    }
+
+    @Test
+    public void testRowsSavedBeforeAreDeleted() throws Exception {
+        final DatabaseHandler dbHandler = new DatabaseHandler(registry, tmpFolderPath, "project");
+        dbHandler.insertInto(Table.SCC_TABLE, "I1", "first-event-id");
+        dbHandler.insertInto(Table.SCC_TABLE, "I2", "second-event-id");
+        dbHandler.insertInto(Table.SCC_TABLE, "I3", "third-event-id");
+        dbHandler.insertInto(Table.SCS_TABLE, "commit-1", "scs-event-id");
+        dbHandler.insertInto(Table.SCS_TABLE, "commit-2", "scs-event-id");
+        final ProjectDatabase database = registry.get(tmpFolderPath, "project");
+        final long later = System.currentTimeMillis() + 1000;
+
+        assertEquals(0, database.deleteSavedBefore(Table.SCC_TABLE, 0, 10));
+        assertEquals(2, database.deleteSavedBefore(Table.SCC_TABLE, later, 2));
+        assertEquals(1, database.getSavedBefore(Table.SCC_TABLE, later).size());
+        assertEquals(1, database.deleteAll(Table.SCS_TABLE, Collections.singletonList("commit-1")));
+        assertEquals(Arrays.asList("commit-2"), database.getSavedBefore(Table.SCS_TABLE, later));
+        assertEquals(0, database.vacuum(100));
+    }
+
+    @Test
+    public void testIncrementalVacuumIsOnlyEnabledOnRequest() throws Exception {
+        final File databaseFile = new File(tmpFolderPath, "project.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+                Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE SCC_TABLE (changeId text PRIMARY KEY, eventId text)");
+        }
+
+        final DatabaseHandler dbHandler = new DatabaseHandler(registry, tmpFolderPath, "project");
+        dbHandler.insertInto(Table.SCC_TABLE, CHANGE_ID, "event-id");
+        final ProjectDatabase database = registry.get(tmpFolderPath, "project");
+        assertEquals("Opening the database should not vacuum it", 0, getAutoVacuum(databaseFile));
+
+        assertTrue(database.enableIncrementalVacuum());
+        assertEquals(2, getAutoVacuum(databaseFile));
+        assertEquals("event-id", dbHandler.getEventID(Table.SCC_TABLE, CHANGE_ID));
+    }
+
+    @Test
+    public void testUpdatedColumnIsAdded() throws Exception {
+        final File databaseFile = new File(tmpFolderPath, "project.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+                Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE SCC_TABLE (changeId text PRIMARY KEY, eventId text)");
+            statement.execute("INSERT INTO SCC_TABLE VALUES('" + CHANGE_ID + "', 'old-event-id')");
+        }
+
+        final DatabaseHandler dbHandler = new DatabaseHandler(registry, tmpFolderPath, "project");
+        final ProjectDatabase database = registry.get(tmpFolderPath, "project");
+
+        assertEquals("old-event-id", dbHandler.getEventID(Table.SCC_TABLE, CHANGE_ID));
+        assertEquals(Arrays.asList(CHANGE_ID),
+                database.getSavedBefore(Table.SCC_TABLE, System.currentTimeMillis() + 1000));
+        assertEquals(Collections.emptyList(), database.getSavedBefore(Table.SCC_TABLE, 0));
+    }
+
+    private int getAutoVacuum(final File databaseFile) throws Exception {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+                Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery("PRAGMA auto_vacuum")) {
+            return result.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SenderPoolAutoscalerTest {
+
+    private static final int MIN_POOL_SIZE = 1;
+    private static final int MAX_POOL_SIZE = 4;
+    private static final long NO_LATENCY = -1;
+    private static final long LATENCY = 100;
+
+    private ScheduledThreadPoolExecutor pool;
+    private SenderPoolAutoscaler autoscaler;
+
+    @Before
+    public void setUp() {
+        pool = new ScheduledThreadPoolExecutor(MIN_POOL_SIZE);
+        autoscaler = new SenderPoolAutoscaler(pool, MIN_POOL_SIZE, MAX_POOL_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testGrowsWhenSendsAreQueued() {
+        assertEquals("Pool should grow when sends are queued", 3,
+                autoscaler.computePoolSize(2, 10, 2, LATENCY));
+    }
+
+    @Test
+    public void testDoesNotGrowAboveMaxPoolSize() {
+        assertEquals("Pool should not grow above max pool size", MAX_POOL_SIZE,
+                autoscaler.computePoolSize(MAX_POOL_SIZE, 100, MAX_POOL_SIZE, LATENCY));
+    }
+
+    @Test
+    public void testShrinksWhenIdle() {
+        assertEquals("Pool should shrink when threads are idle", 2,
+                autoscaler.computePoolSize(3, 0, 1, NO_LATENCY));
+    }
+
+    @Test
+    public void testDoesNotShrinkBelowPoolSize() {
+        assertEquals("Pool should not shrink below configured pool size", MIN_POOL_SIZE,
+                autoscaler.computePoolSize(MIN_POOL_SIZE, 0, 0, NO_LATENCY));
+    }
+
+    @Test
+    public void testBacksOffWhenLatencyDegrades() {
+        autoscaler.computePoolSize(2, 10, 2, LATENCY);
+
+        assertEquals("Pool should back off when REMReM latency degrades", 2,
+                autoscaler.computePoolSize(3, 10, 3, LATENCY * 5));
+    }
+}
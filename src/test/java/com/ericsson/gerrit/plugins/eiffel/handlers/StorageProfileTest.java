@@ -0,0 +1,79 @@
+package com.ericsson.gerrit.plugins.eiffel.handlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gerrit.server.config.PluginConfig;
+
+public class StorageProfileTest {
+
+    private PluginConfig pluginConfig;
+
+    @Before
+    public void init() {
+        pluginConfig = mock(PluginConfig.class);
+        when(pluginConfig.getString(anyString(), anyString())).thenAnswer(
+                invocation -> invocation.getArgument(1));
+        when(pluginConfig.getInt(anyString(), anyInt())).thenAnswer(
+                invocation -> invocation.getArgument(1));
+        when(pluginConfig.getLong(anyString(), anyLong())).thenAnswer(
+                invocation -> invocation.getArgument(1));
+    }
+
+    @Test
+    public void testDefaultProfileUsesWriteAheadLog() {
+        final StorageProfile profile = StorageProfile.fromConfig(pluginConfig);
+
+        assertTrue(profile.isWriteAheadLog());
+        assertEquals("NORMAL", profile.getSynchronous());
+        assertTrue(profile.getPragmas(false).contains("PRAGMA journal_mode=WAL"));
+        assertTrue(profile.getPragmas(true).contains("PRAGMA query_only=1"));
+    }
+
+    @Test
+    public void testRollbackProfile() {
+        when(pluginConfig.getString(eq(StorageProfile.PROFILE), anyString())).thenReturn("rollback");
+
+        final StorageProfile profile = StorageProfile.fromConfig(pluginConfig);
+
+        assertFalse(profile.isWriteAheadLog());
+        assertEquals("FULL", profile.getSynchronous());
+        assertTrue(profile.getPragmas(false).contains("PRAGMA journal_mode=DELETE"));
+    }
+
+    @Test
+    public void testInvalidSynchronousUsesDefault() {
+        when(pluginConfig.getString(eq(StorageProfile.SYNCHRONOUS), anyString())).thenReturn("fastest");
+
+        assertEquals("NORMAL", StorageProfile.fromConfig(pluginConfig).getSynchronous());
+    }
+
+    @Test
+    public void testCacheSizeIsSkippedWhenNotPositive() {
+        when(pluginConfig.getInt(eq(StorageProfile.CACHE_SIZE), anyInt())).thenReturn(0);
+
+        final StorageProfile profile = StorageProfile.fromConfig(pluginConfig);
+
+        assertFalse(profile.getPragmas(false).stream().anyMatch(pragma -> pragma.contains("cache_size")));
+    }
+
+    @Test
+    public void testWriteBehindSizeIsAtLeastOne() {
+        when(pluginConfig.getInt(eq(StorageProfile.WRITE_BEHIND_SIZE), anyInt())).thenReturn(0);
+
+        final StorageProfile profile = StorageProfile.fromConfig(pluginConfig);
+
+        assertEquals(0, profile.getWriteBehindWindow());
+        assertEquals(1, profile.getWriteBehindSize());
+    }
+}
@@ -0,0 +1,252 @@
+package com.ericsson.gerrit.plugins.eiffel.listeners;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.handlers.GerritEventInbox;
+import com.ericsson.gerrit.plugins.eiffel.handlers.MessageQueueHandler;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.server.events.ChangeMergedEvent;
+import com.google.gerrit.server.events.Event;
+import com.google.gson.Gson;
+import com.google.inject.Provider;
+
+public class EventGenerationQueueTest {
+
+    private static final String PROJECT = "my-project";
+    private static final int QUEUE_SIZE = 2;
+    private static final int EVENT_COUNT = 6;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+    private File tmpFolderPath;
+    private EiffelPluginConfiguration pluginConfig;
+    private MessageQueueHandler messageQueueHandler;
+    private GenerationRecorder listener;
+    private EventGenerationQueue generationQueue;
+
+    @Before
+    public void init() throws Exception {
+        tmpFolderPath = testFolder.newFolder();
+        pluginConfig = mock(EiffelPluginConfiguration.class);
+        when(pluginConfig.getProject()).thenReturn(PROJECT);
+        messageQueueHandler = mock(MessageQueueHandler.class);
+        when(messageQueueHandler.getResend()).thenReturn(
+                CompletableFuture.completedFuture(Collections.emptySet()));
+        listener = new GenerationRecorder(pluginConfig, EVENT_COUNT, false);
+        generationQueue = createGenerationQueue();
+        generationQueue.start();
+    }
+
+    @After
+    public void tearDown() {
+        generationQueue.stop();
+    }
+
+    @Test
+    public void testEventsKeptInTheInboxWhenQueueIsFullAreGeneratedInOrder() throws Exception {
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            generationQueue.submit(listener, createChangeMergedEvent(i), pluginConfig);
+        }
+        assertTrue("First event should be generated",
+                listener.firstGenerated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        listener.firstSent.complete(null);
+
+        assertTrue("All events should be generated",
+                listener.allGenerated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5"), listener.generated);
+    }
+
+    @Test
+    public void testEventsLeftInTheInboxAreGeneratedInOrderAfterRestart() throws Exception {
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            generationQueue.submit(listener, createChangeMergedEvent(i), pluginConfig);
+        }
+        assertTrue("First event should be generated",
+                listener.firstGenerated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        generationQueue.stop();
+
+        listener = new GenerationRecorder(pluginConfig, EVENT_COUNT, false);
+        listener.firstSent.complete(null);
+        generationQueue = createGenerationQueue();
+        generationQueue.start();
+
+        assertTrue("All events should be generated again",
+                listener.allGenerated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5"), listener.generated);
+    }
+
+    @Test
+    public void testEventHandedOverToTheOutboxIsNotGeneratedAfterRestart() throws Exception {
+        generationQueue.stop();
+        listener = new GenerationRecorder(pluginConfig, EVENT_COUNT, true);
+        generationQueue = createGenerationQueue();
+        generationQueue.start();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            generationQueue.submit(listener, createChangeMergedEvent(i), pluginConfig);
+        }
+        assertTrue("First event should be generated",
+                listener.firstGenerated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        generationQueue.stop();
+
+        listener = new GenerationRecorder(pluginConfig, EVENT_COUNT - 1, false);
+        listener.firstSent.complete(null);
+        generationQueue = createGenerationQueue();
+        generationQueue.start();
+
+        assertTrue("The events not handed over should be generated",
+                listener.allGenerated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("1", "2", "3", "4", "5"), listener.generated);
+    }
+
+    @Test
+    public void testEventLeftInTheInboxAndTheOutboxIsSentOnceAfterRestart() throws Exception {
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            generationQueue.submit(listener, createChangeMergedEvent(i), pluginConfig);
+        }
+        assertTrue("First event should be generated",
+                listener.firstGenerated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        generationQueue.stop();
+
+        // The Eiffel event of the first Gerrit event was written to the outbox, but the removal
+        // from the inbox was lost, so the outbox resends it at start.
+        final Set<String> resentGerritEventIds = new HashSet<>();
+        resentGerritEventIds.add(listener.entries.get(0).getId());
+        when(messageQueueHandler.getResend()).thenReturn(
+                CompletableFuture.completedFuture(resentGerritEventIds));
+        listener = new GenerationRecorder(pluginConfig, EVENT_COUNT - 1, false);
+        listener.firstSent.complete(null);
+        generationQueue = createGenerationQueue();
+        generationQueue.start();
+
+        assertTrue("The events not resent from the outbox should be generated",
+                listener.allGenerated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("1", "2", "3", "4", "5"), listener.generated);
+    }
+
+    @Test
+    public void testInboxIsNotReplayedBeforeTheOutboxIsResent() throws Exception {
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            generationQueue.submit(listener, createChangeMergedEvent(i), pluginConfig);
+        }
+        assertTrue("First event should be generated",
+                listener.firstGenerated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        generationQueue.stop();
+
+        final CompletableFuture<Set<String>> resend = new CompletableFuture<>();
+        when(messageQueueHandler.getResend()).thenReturn(resend);
+        listener = new GenerationRecorder(pluginConfig, EVENT_COUNT, false);
+        listener.firstSent.complete(null);
+        generationQueue = createGenerationQueue();
+        generationQueue.start();
+
+        assertFalse("No event should be generated before the outbox is resent",
+                listener.firstGenerated.await(1, TimeUnit.SECONDS));
+        resend.complete(Collections.emptySet());
+        assertTrue("All events should be generated",
+                listener.allGenerated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5"), listener.generated);
+    }
+
+    private EventGenerationQueue createGenerationQueue() {
+        final GenerationRecorder currentListener = listener;
+        final Provider<GenerationRecorder> listenerProvider = () -> currentListener;
+        return new EventGenerationQueue(tmpFolderPath,
+                Collections.<Provider<? extends AbstractEventListener>> singletonList(listenerProvider),
+                messageQueueHandler, QUEUE_SIZE);
+    }
+
+    private ChangeMergedEvent createChangeMergedEvent(final int number) {
+        final ChangeMergedEvent changeMergedEvent = new Gson().fromJson(
+                "{\"type\":\"change-merged\"}", ChangeMergedEvent.class);
+        changeMergedEvent.project = new Project.NameKey(PROJECT);
+        changeMergedEvent.newRev = String.valueOf(number);
+        return changeMergedEvent;
+    }
+
+    /**
+     * Records the order events are generated in, sending of the first event does not finish until
+     * the test completes it. When handing over, the inbox entry is removed as soon as the event is
+     * generated, like when the Eiffel event is written to the outbox.
+     */
+    private static class GenerationRecorder extends AbstractEventListener {
+        private final EiffelPluginConfiguration pluginConfig;
+        private final boolean handOver;
+        private final List<String> generated = new CopyOnWriteArrayList<>();
+        private final List<GerritEventInbox.Entry> entries = new CopyOnWriteArrayList<>();
+        private final CountDownLatch firstGenerated = new CountDownLatch(1);
+        private final CountDownLatch allGenerated;
+        private final CompletableFuture<Void> firstSent = new CompletableFuture<>();
+
+        GenerationRecorder(final EiffelPluginConfiguration pluginConfig, final int eventCount,
+                final boolean handOver) {
+            super(null, null);
+            this.pluginConfig = pluginConfig;
+            this.allGenerated = new CountDownLatch(eventCount);
+            this.handOver = handOver;
+        }
+
+        @Override
+        public EiffelPluginConfiguration createPluginConfig(final Event gerritEvent) {
+            return pluginConfig;
+        }
+
+        @Override
+        protected boolean isExpectedGerritEvent(final Event gerritEvent) {
+            return gerritEvent instanceof ChangeMergedEvent;
+        }
+
+        @Override
+        protected EiffelEvent generateEiffelEvent(final Event gerritEvent,
+                final EiffelPluginConfiguration pluginConfig) {
+            return null;
+        }
+
+        @Override
+        CompletableFuture<Void> generateAndSendEiffelEvent(final Event gerritEvent,
+                final EiffelPluginConfiguration pluginConfig,
+                final GerritEventInbox.Entry gerritEventEntry) {
+            generated.add(((ChangeMergedEvent) gerritEvent).newRev);
+            entries.add(gerritEventEntry);
+            if (handOver) {
+                gerritEventEntry.remove();
+            }
+            allGenerated.countDown();
+            if (generated.size() == 1) {
+                firstGenerated.countDown();
+                return firstSent;
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        protected List<String> getOrderingKeys(final Event gerritEvent,
+                final EiffelPluginConfiguration pluginConfig) {
+            return Collections.singletonList(PROJECT);
+        }
+    }
+}
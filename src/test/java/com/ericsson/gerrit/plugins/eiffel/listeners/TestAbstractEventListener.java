@@ -6,20 +6,34 @@ import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.powermock.reflect.Whitebox;
 
+import com.ericsson.gerrit.plugins.eiffel.configuration.BranchFilter;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.handlers.GerritEventInbox;
 import com.google.common.base.Supplier;
 import com.google.gerrit.server.data.AccountAttribute;
 import com.google.gerrit.server.data.ChangeAttribute;
 import com.google.gerrit.server.data.PatchSetAttribute;
 import com.google.gerrit.server.events.ChangeMergedEvent;
 import com.google.gerrit.server.events.Event;
+import com.google.inject.Provider;
 
 public class TestAbstractEventListener {
 
+    private static final int QUEUE_SIZE = 16;
+
+    private EventGenerationQueue generationQueue;
     private ListenerTestMock listenerTestMock;
     private EiffelPluginConfiguration pluginConfig;
     private ChangeMergedEvent changeMergedEvent;
@@ -31,13 +45,22 @@ public class TestAbstractEventListener {
 
     @Before
     public void init() {
+        generationQueue = new EventGenerationQueue(null,
+                Collections.<Provider<? extends AbstractEventListener>> emptyList(), null,
+                QUEUE_SIZE);
         listenerTestMock = new ListenerTestMock(null, null);
+        Whitebox.setInternalState(listenerTestMock, "generationQueue", generationQueue);
         pluginConfig = mock(EiffelPluginConfiguration.class);
 
         setUpMocks();
         populateChangeMergedEvent();
     }
 
+    @After
+    public void tearDown() {
+        generationQueue.stop();
+    }
+
     @Test
     public void testVerifyPluginDisabled() throws Throwable {
         boolean enabled;
@@ -50,7 +73,7 @@ public class TestAbstractEventListener {
     public void testVerifyPluginEnabledForMyBranch() throws Throwable {
         boolean enabled;
         when(pluginConfig.isEnabled()).thenReturn(true);
-        when(pluginConfig.getFilter()).thenReturn("my-branch");
+        when(pluginConfig.getBranchFilter()).thenReturn(new BranchFilter("my-branch"));
 
         enabled = listenerTestMock.verifyPluginEnabled(changeMergedEvent, pluginConfig);
         assertTrue("Plugin should be enabled config filter and branch from GerritEvent match.",
@@ -61,7 +84,7 @@ public class TestAbstractEventListener {
     public void testVerifyPluginEnabledForMyBranchUsingMultipleFilter() throws Throwable {
         boolean enabled;
         when(pluginConfig.isEnabled()).thenReturn(true);
-        when(pluginConfig.getFilter()).thenReturn("nope,nupe,my-branch,nepp,nupp");
+        when(pluginConfig.getBranchFilter()).thenReturn(new BranchFilter("nope,nupe,my-branch,nepp,nupp"));
 
         enabled = listenerTestMock.verifyPluginEnabled(changeMergedEvent, pluginConfig);
         assertTrue("Plugin should be enabled config filter and branch from GerritEvent match.",
@@ -72,7 +95,7 @@ public class TestAbstractEventListener {
     public void testVerifyPluginEnabledForMyBranchUsingMultipleFilterUsingSpaces() throws Throwable {
         boolean enabled;
         when(pluginConfig.isEnabled()).thenReturn(true);
-        when(pluginConfig.getFilter()).thenReturn("nope, nupe,my-branch, nepp,nupp");
+        when(pluginConfig.getBranchFilter()).thenReturn(new BranchFilter("nope, nupe,my-branch, nepp,nupp"));
 
         enabled = listenerTestMock.verifyPluginEnabled(changeMergedEvent, pluginConfig);
         assertTrue("Plugin should be enabled config filter and branch from GerritEvent match.",
@@ -83,7 +106,7 @@ public class TestAbstractEventListener {
     public void testVerifyPluginEnabledForMyBranchUsingMultipleFilterAndRegex() throws Throwable {
         boolean enabled;
         when(pluginConfig.isEnabled()).thenReturn(true);
-        when(pluginConfig.getFilter()).thenReturn("nope,nupe,(my-).*,nepp,nupp");
+        when(pluginConfig.getBranchFilter()).thenReturn(new BranchFilter("nope,nupe,(my-).*,nepp,nupp"));
 
         enabled = listenerTestMock.verifyPluginEnabled(changeMergedEvent, pluginConfig);
         assertTrue("Plugin should be enabled config filter and branch from GerritEvent match.",
@@ -94,7 +117,7 @@ public class TestAbstractEventListener {
     public void testVerifyPluginDisableForAnotherBranch() throws Throwable {
         boolean enabled;
         when(pluginConfig.isEnabled()).thenReturn(true);
-        when(pluginConfig.getFilter()).thenReturn("another-branch");
+        when(pluginConfig.getBranchFilter()).thenReturn(new BranchFilter("another-branch"));
 
         enabled = listenerTestMock.verifyPluginEnabled(changeMergedEvent, pluginConfig);
         assertFalse(
@@ -106,7 +129,7 @@ public class TestAbstractEventListener {
     public void testVerifyPluginEnabledForAnotherBranchNoFilter() throws Throwable {
         boolean enabled;
         when(pluginConfig.isEnabled()).thenReturn(true);
-        when(pluginConfig.getFilter()).thenReturn("");
+        when(pluginConfig.getBranchFilter()).thenReturn(new BranchFilter(""));
 
         enabled = listenerTestMock.verifyPluginEnabled(changeMergedEvent, pluginConfig);
         assertTrue("Plugin should be enabled when config filter is empty.", enabled);
@@ -117,7 +140,7 @@ public class TestAbstractEventListener {
         boolean methodWasCalled;
         when(pluginConfig.isEnabled()).thenReturn(false);
 
-        methodWasCalled = listenerTestMock.isPrepareAndSendEiffelEventMethodCalled();
+        methodWasCalled = listenerTestMock.isGenerateEiffelEventMethodCalled();
         assertFalse("Plugin should be enabled when config filter is empty.", methodWasCalled);
     }
 
@@ -127,7 +150,7 @@ public class TestAbstractEventListener {
         listenerTestMock.setIsExpectedGerritEvent(false);
 
         listenerTestMock.onEvent(changeMergedEvent);
-        methodWasCalled = listenerTestMock.isPrepareAndSendEiffelEventMethodCalled();
+        methodWasCalled = listenerTestMock.isGenerateEiffelEventMethodCalled();
         assertFalse("Gerrit event listener should not try to send events on wrong gerrit event.",
                 methodWasCalled);
     }
@@ -140,7 +163,7 @@ public class TestAbstractEventListener {
         listenerTestMock.setPluginConfig(pluginConfig);
 
         listenerTestMock.onEvent(changeMergedEvent);
-        methodWasCalled = listenerTestMock.isPrepareAndSendEiffelEventMethodCalled();
+        methodWasCalled = listenerTestMock.isGenerateEiffelEventMethodCalled();
         assertFalse("Gerrit event listener should not try to send events when plugin is disabled.",
                 methodWasCalled);
     }
@@ -149,11 +172,11 @@ public class TestAbstractEventListener {
     public void testPrepareAndSendEiffelEventNotCalledWhenInvalidFilter() throws Throwable {
         boolean methodWasCalled;
         when(pluginConfig.isEnabled()).thenReturn(true);
-        when(pluginConfig.getFilter()).thenReturn("not-valid-branch");
+        when(pluginConfig.getBranchFilter()).thenReturn(new BranchFilter("not-valid-branch"));
         listenerTestMock.setIsExpectedGerritEvent(false);
 
         listenerTestMock.onEvent(changeMergedEvent);
-        methodWasCalled = listenerTestMock.isPrepareAndSendEiffelEventMethodCalled();
+        methodWasCalled = listenerTestMock.isGenerateEiffelEventMethodCalled();
         assertFalse(
                 "Gerrit event listener should not try to send events when branch does not match filter.",
                 methodWasCalled);
@@ -163,12 +186,12 @@ public class TestAbstractEventListener {
     public void testPrepareAndSendEiffelEventCalledMultipleFilter() throws Throwable {
         boolean methodWasCalled;
         when(pluginConfig.isEnabled()).thenReturn(true);
-        when(pluginConfig.getFilter()).thenReturn("nope,nupe,(my-).*,nepp,nupp");
+        when(pluginConfig.getBranchFilter()).thenReturn(new BranchFilter("nope,nupe,(my-).*,nepp,nupp"));
         listenerTestMock.setIsExpectedGerritEvent(true);
         listenerTestMock.setPluginConfig(pluginConfig);
 
         listenerTestMock.onEvent(changeMergedEvent);
-        methodWasCalled = listenerTestMock.isPrepareAndSendEiffelEventMethodCalled();
+        methodWasCalled = listenerTestMock.isGenerateEiffelEventMethodCalled();
         assertTrue(
                 "Gerrit event listener should send events when plugin is enabled and branch is set in filter.",
                 methodWasCalled);
@@ -207,7 +230,9 @@ public class TestAbstractEventListener {
  */
 class ListenerTestMock extends AbstractEventListener {
 
-    private boolean isPrepareAndSendEiffelEventMethodCalled = false;
+    private static final long GENERATOR_WAIT_MILLIS = 500;
+
+    private volatile CountDownLatch generateEiffelEventCalled = new CountDownLatch(1);
     private boolean isExpectedGerritEvent = false;
     private EiffelPluginConfiguration pluginConfig;
 
@@ -223,12 +248,18 @@ class ListenerTestMock extends AbstractEventListener {
         this.isExpectedGerritEvent = isExpectedGerritEvent;
     }
 
-    public boolean isPrepareAndSendEiffelEventMethodCalled() {
-        if (isPrepareAndSendEiffelEventMethodCalled) {
-            isPrepareAndSendEiffelEventMethodCalled = false;
-            return true;
-        }
-        return false;
+    /**
+     * The Eiffel event is generated on the generator workers, wait a short while for the call to
+     * happen before deciding that it was not made.
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    public boolean isGenerateEiffelEventMethodCalled() throws InterruptedException {
+        final boolean called = generateEiffelEventCalled.await(GENERATOR_WAIT_MILLIS,
+                TimeUnit.MILLISECONDS);
+        generateEiffelEventCalled = new CountDownLatch(1);
+        return called;
     }
 
     /**
@@ -271,9 +302,29 @@ class ListenerTestMock extends AbstractEventListener {
      * This method is enforced by the AbstractEventListener and not used in test.
      */
     @Override
-    protected void prepareAndSendEiffelEvent(final Event gerritEvent,
+    protected EiffelEvent generateEiffelEvent(final Event gerritEvent,
+            final EiffelPluginConfiguration pluginConfig) {
+        generateEiffelEventCalled.countDown();
+        return null;
+    }
+
+    /**
+     * Nothing is sent in test.
+     */
+    @Override
+    public CompletableFuture<Void> sendEiffelEvent(final EiffelEvent eiffelEvent,
+            final EiffelPluginConfiguration pluginConfig,
+            final GerritEventInbox.Entry gerritEventEntry) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * This method is enforced by the AbstractEventListener, all test events share one key.
+     */
+    @Override
+    protected List<String> getOrderingKeys(final Event gerritEvent,
             final EiffelPluginConfiguration pluginConfig) {
-        isPrepareAndSendEiffelEventMethodCalled = true;
+        return Collections.singletonList("test-key");
     }
 
 }
\ No newline at end of file
@@ -1,31 +1,36 @@
 package com.ericsson.gerrit.plugins.eiffel.messaging;
 
 import java.io.IOException;
+import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.http.HttpStatus;
 import org.assertj.core.api.Assertions;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.powermock.reflect.Whitebox;
 
-import com.ericsson.eiffelcommons.utils.HttpRequest;
-import com.ericsson.eiffelcommons.utils.ResponseEntity;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
+import com.ericsson.gerrit.plugins.eiffel.exceptions.EventRejectedException;
 import com.ericsson.gerrit.plugins.eiffel.exceptions.HttpRequestFailedException;
 import com.ericsson.gerrit.plugins.eiffel.exceptions.MissingConfigurationException;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStore;
 
 public class EiffelEventSenderTest {
 
     private EiffelPluginConfiguration pluginConfig;
-    private HttpRequest httpRequest;
-    private ResponseEntity response;
+    private RemremHttpClient httpClient;
+    private EventIdStore eventIdStore;
 
     private static final String EIFFEL_TYPE = "EiffelSourceChangeCreatedEvent";
     private static final int STATUS_OK = HttpStatus.SC_OK;
     private static final int STATUS_NOT_FOUND = HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
 
     @Before
     public void beforeTest() throws IOException, URISyntaxException {
@@ -36,7 +41,8 @@ public class EiffelEventSenderTest {
     public void testEventSender() throws Exception {
         setUpMockActions();
 
-        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpRequest);
+        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpClient, eventIdStore,
+                new EventTemplateCache());
         sender.setEiffelEventMessage(new EiffelSourceChangeCreatedEvent());
         sender.setEiffelEventType(EIFFEL_TYPE);
 
@@ -44,9 +50,100 @@ public class EiffelEventSenderTest {
         }).doesNotThrowAnyException();
     }
 
+    @Test
+    public void testEventSenderWithSeveralEvents() throws Exception {
+        setUpMockActions();
+        Mockito.when(httpClient.post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(new RemremResponse(STATUS_OK,
+                       "{'events': [{'id': 'first_id'}, {'status_code': 400}, {'id': 'third_id'}]}"));
+
+        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpClient, eventIdStore,
+                new EventTemplateCache());
+        sender.setEiffelEventMessages(Arrays.asList(new EiffelSourceChangeCreatedEvent(),
+                new EiffelSourceChangeCreatedEvent(), new EiffelSourceChangeCreatedEvent()));
+        sender.setEiffelEventType(EIFFEL_TYPE);
+
+        final List<String> generatedEventIds = Whitebox.invokeMethod(sender, "generateAndPublish");
+        Assertions.assertThat(generatedEventIds).containsExactly("first_id", null, "third_id");
+
+        final ArgumentCaptor<JsonRequestBody> body = ArgumentCaptor.forClass(JsonRequestBody.class);
+        Mockito.verify(httpClient).post(Mockito.any(), Mockito.any(), Mockito.any(), body.capture());
+        Assertions.assertThat(body.getValue().toString()).startsWith("[");
+    }
+
+    @Test
+    public void testPublishUrlWithTrailingSlash() throws Exception {
+        setUpMockActions();
+        Mockito.when(pluginConfig.getRemremPublishURL()).thenReturn("http://remrem.example.com/remrem/");
+
+        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpClient, eventIdStore,
+                new EventTemplateCache());
+        sender.setEiffelEventMessage(new EiffelSourceChangeCreatedEvent());
+        sender.setEiffelEventType(EIFFEL_TYPE);
+        Whitebox.invokeMethod(sender, "generateAndPublish");
+
+        final ArgumentCaptor<URI> uri = ArgumentCaptor.forClass(URI.class);
+        Mockito.verify(httpClient).post(uri.capture(), Mockito.any(), Mockito.any(), Mockito.any());
+        Assertions.assertThat(uri.getValue().toString()).isEqualTo(
+                "http://remrem.example.com/remrem/generateAndPublish/?mp=eiffelsemantics&msgType="
+                        + EIFFEL_TYPE);
+    }
+
+    @Test
+    public void testEventSenderWithFailedStatusOfEvent() throws Exception {
+        setUpMockActions();
+        Mockito.when(httpClient.post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(new RemremResponse(STATUS_OK,
+                       "{\"events\": [{\"id\": \"first_id\", \"status_code\": 200},"
+                               + " {\"id\": \"second_id\", \"status_code\": 503}]}"));
+
+        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpClient, eventIdStore,
+                new EventTemplateCache());
+        sender.setEiffelEventMessages(Arrays.asList(new EiffelSourceChangeCreatedEvent(),
+                new EiffelSourceChangeCreatedEvent()));
+        sender.setEiffelEventType(EIFFEL_TYPE);
+
+        final List<String> generatedEventIds = Whitebox.invokeMethod(sender, "generateAndPublish");
+        Assertions.assertThat(generatedEventIds).containsExactly("first_id", null);
+    }
+
+    @Test
+    public void testUnpublishedEventsAreNotSaved() throws Exception {
+        final EiffelSourceChangeCreatedEvent firstEvent = new EiffelSourceChangeCreatedEvent();
+        final EiffelSourceChangeCreatedEvent secondEvent = new EiffelSourceChangeCreatedEvent();
+        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpClient, eventIdStore,
+                new EventTemplateCache());
+        sender.setEiffelEventMessages(Arrays.asList(firstEvent, secondEvent));
+        sender.setEiffelEventType(EIFFEL_TYPE);
+
+        Whitebox.invokeMethod(sender, "saveEventIds", Arrays.asList(null, null));
+        Assertions.assertThat(sender.getUnpublishedEvents()).containsExactly(firstEvent, secondEvent);
+    }
+
+    @Test
+    public void testRejectedEventsAreNotSentAgain() throws Exception {
+        setUpMockActions();
+        Mockito.when(httpClient.post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(new RemremResponse(STATUS_OK,
+                       "{\"events\": [{\"status_code\": 400}, {\"status_code\": 503}]}"));
+        final EiffelSourceChangeCreatedEvent rejectedEvent = new EiffelSourceChangeCreatedEvent();
+        final EiffelSourceChangeCreatedEvent unpublishedEvent = new EiffelSourceChangeCreatedEvent();
+
+        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpClient, eventIdStore,
+                new EventTemplateCache());
+        sender.setEiffelEventMessages(Arrays.asList(rejectedEvent, unpublishedEvent));
+        sender.setEiffelEventType(EIFFEL_TYPE);
+        final List<String> generatedEventIds = Whitebox.invokeMethod(sender, "generateAndPublish");
+        Whitebox.invokeMethod(sender, "saveEventIds", generatedEventIds);
+
+        Assertions.assertThat(sender.getRejectedEvents()).containsExactly(rejectedEvent);
+        Assertions.assertThat(sender.getUnpublishedEvents()).containsExactly(unpublishedEvent);
+    }
+
     @Test(expected = MissingConfigurationException.class)
     public void testEventSenderWithMissingConfiguration() throws Exception {
-        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpRequest);
+        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpClient, eventIdStore,
+                new EventTemplateCache());
         sender.setEiffelEventMessage(new EiffelSourceChangeCreatedEvent());
         sender.setEiffelEventType("");
 
@@ -57,31 +154,61 @@ public class EiffelEventSenderTest {
     public void testEventSenderWithBadStatus() throws Exception {
         setUpMockActionsWithBadStatus();
 
-        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpRequest);
+        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpClient, eventIdStore,
+                new EventTemplateCache());
         sender.setEiffelEventMessage(new EiffelSourceChangeCreatedEvent());
         sender.setEiffelEventType(EIFFEL_TYPE);
 
         Whitebox.invokeMethod(sender, "generateAndPublish");
     }
 
+    @Test(expected = EventRejectedException.class)
+    public void testEventSenderWithClientErrorStatus() throws Exception {
+        Mockito.when(httpClient.post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(new RemremResponse(HttpStatus.SC_BAD_REQUEST,
+                       "{\"events\": [{\"id\": \"my_id\"}]}"));
+        Mockito.when(pluginConfig.getRemremPublishURL()).thenReturn("");
+
+        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpClient, eventIdStore,
+                new EventTemplateCache());
+        sender.setEiffelEventMessage(new EiffelSourceChangeCreatedEvent());
+        sender.setEiffelEventType(EIFFEL_TYPE);
+
+        Whitebox.invokeMethod(sender, "generateAndPublish");
+    }
+
+    @Test
+    public void testEventSenderWithTooManyRequestsStatus() throws Exception {
+        Mockito.when(httpClient.post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(new RemremResponse(STATUS_TOO_MANY_REQUESTS, ""));
+        Mockito.when(pluginConfig.getRemremPublishURL()).thenReturn("");
+
+        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpClient, eventIdStore,
+                new EventTemplateCache());
+        sender.setEiffelEventMessage(new EiffelSourceChangeCreatedEvent());
+        sender.setEiffelEventType(EIFFEL_TYPE);
+
+        Assertions.assertThatThrownBy(() -> Whitebox.invokeMethod(sender, "generateAndPublish"))
+                  .isExactlyInstanceOf(HttpRequestFailedException.class);
+    }
+
     private void setUpMockObjects() throws URISyntaxException, IOException {
-        httpRequest = Mockito.mock(HttpRequest.class);
+        httpClient = Mockito.mock(RemremHttpClient.class);
         pluginConfig = Mockito.mock(EiffelPluginConfiguration.class);
-        response = Mockito.mock(ResponseEntity.class);
+        eventIdStore = Mockito.mock(EventIdStore.class);
     }
 
     private void setUpMockActions() throws URISyntaxException, IOException {
-        Mockito.when(httpRequest.performRequest()).thenReturn(response);
-        Mockito.when(response.getStatusCode()).thenReturn(STATUS_OK);
-        Mockito.when(response.getBody()).thenReturn("{'events': [{'id': 'my_id'}]}");
+        Mockito.when(httpClient.post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(new RemremResponse(STATUS_OK, "{'events': [{'id': 'my_id'}]}"));
         Mockito.when(pluginConfig.getRemremPublishURL()).thenReturn("");
         Mockito.when(pluginConfig.getRemremUsername()).thenReturn("");
         Mockito.when(pluginConfig.getRemremPassword()).thenReturn("");
     }
 
     private void setUpMockActionsWithBadStatus() throws URISyntaxException, IOException {
-        Mockito.when(httpRequest.performRequest()).thenReturn(response);
-        Mockito.when(response.getStatusCode()).thenReturn(STATUS_NOT_FOUND);
-        Mockito.when(response.getBody()).thenReturn("");
+        Mockito.when(httpClient.post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(new RemremResponse(STATUS_NOT_FOUND, ""));
+        Mockito.when(pluginConfig.getRemremPublishURL()).thenReturn("");
     }
 }
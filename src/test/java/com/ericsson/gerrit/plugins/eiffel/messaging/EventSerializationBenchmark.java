@@ -0,0 +1,134 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.models.Link;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Compares the time and the bytes allocated per event of building the REMReM request body with a
+ * JSON tree and a string, as before, of streaming it with Gson reflection and of streaming it
+ * with {@link EventSerializer}, which uses the event templates. Not run by
+ * the test suite, start it with the test classpath on a JVM that measures thread allocation:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; \
+ *     com.ericsson.gerrit.plugins.eiffel.messaging.EventSerializationBenchmark [events]
+ * </pre>
+ */
+public class EventSerializationBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(final String[] args) throws Exception {
+        final int events = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final List<EiffelEvent> eiffelEvents = Collections.singletonList(createEvent());
+
+        // Warm up both paths before measuring
+        serializeWithTree(eiffelEvents, events);
+        serializeWithReflection(eiffelEvents, events);
+        serializeWithStream(eiffelEvents, events);
+
+        long start = System.nanoTime();
+        long allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        final long treeBytes = serializeWithTree(eiffelEvents, events);
+        final long treeNanos = System.nanoTime() - start;
+        final long treeAllocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId())
+                - allocated;
+
+        start = System.nanoTime();
+        allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        final long reflectionBytes = serializeWithReflection(eiffelEvents, events);
+        final long reflectionNanos = System.nanoTime() - start;
+        final long reflectionAllocated = THREADS.getThreadAllocatedBytes(
+                Thread.currentThread().getId()) - allocated;
+
+        start = System.nanoTime();
+        allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        final long streamBytes = serializeWithStream(eiffelEvents, events);
+        final long streamNanos = System.nanoTime() - start;
+        final long streamAllocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId())
+                - allocated;
+
+        System.out.printf("tree:       %8.2f us/op %8d B/op (body %d B)%n",
+                treeNanos / 1000.0 / events, treeAllocated / events, treeBytes / events);
+        System.out.printf("reflection: %8.2f us/op %8d B/op (body %d B)%n",
+                reflectionNanos / 1000.0 / events, reflectionAllocated / events,
+                reflectionBytes / events);
+        System.out.printf("template:   %8.2f us/op %8d B/op (body %d B)%n",
+                streamNanos / 1000.0 / events, streamAllocated / events, streamBytes / events);
+    }
+
+    private static long serializeWithTree(final List<EiffelEvent> eiffelEvents, final int events) {
+        long bytes = 0;
+        for (int i = 0; i < events; i++) {
+            // A new Gson per sender and the encoding done by the StringEntity of the request
+            final String body = new Gson().toJsonTree(eiffelEvents.get(0)).toString();
+            bytes += body.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return bytes;
+    }
+
+    private static long serializeWithReflection(final List<EiffelEvent> eiffelEvents,
+            final int events) throws Exception {
+        final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+        final Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8);
+        long bytes = 0;
+        for (int i = 0; i < events; i++) {
+            body.reset();
+            final JsonWriter jsonWriter = new JsonWriter(writer);
+            gson.toJson(eiffelEvents.get(0), eiffelEvents.get(0).getClass(), jsonWriter);
+            jsonWriter.flush();
+            bytes += body.size();
+        }
+        return bytes;
+    }
+
+    private static long serializeWithStream(final List<EiffelEvent> eiffelEvents, final int events)
+            throws Exception {
+        final EventTemplateCache eventTemplates = new EventTemplateCache();
+        long bytes = 0;
+        for (int i = 0; i < events; i++) {
+            bytes += EventSerializer.serialize(eiffelEvents, eventTemplates).size();
+        }
+        return bytes;
+    }
+
+    private static EiffelSourceChangeCreatedEvent createEvent() {
+        final EiffelSourceChangeCreatedEvent eiffelEvent = new EiffelSourceChangeCreatedEvent();
+        eiffelEvent.msgParams.meta.type = "EiffelSourceChangeCreatedEvent";
+        eiffelEvent.msgParams.meta.source.name = "Eiffel Gerrit Plugin";
+        eiffelEvent.msgParams.meta.source.host = "gerrit.example.com";
+        eiffelEvent.msgParams.meta.source.uri = "http://gerrit.example.com/c/my-project/+/12345";
+        eiffelEvent.eventParams.data.author.name = "User Usersson";
+        eiffelEvent.eventParams.data.author.id = "my-user";
+        eiffelEvent.eventParams.data.author.email = "my@email.com";
+        eiffelEvent.eventParams.data.change.id = "I13400c37d648c2eedd9eaa24c136bc6d98e9a791";
+        eiffelEvent.eventParams.data.change.tracker = "Gerrit";
+        eiffelEvent.eventParams.data.change.details = eiffelEvent.msgParams.meta.source.uri;
+        eiffelEvent.eventParams.data.change.insertions = 10;
+        eiffelEvent.eventParams.data.change.deletions = 2;
+        eiffelEvent.eventParams.data.gitIdentifier.commitId = "a2e2a4c1b8ea1c1c0a7e2fe40b9df0f4a0b5f2a1";
+        eiffelEvent.eventParams.data.gitIdentifier.repoUri = "ssh://gerrit.example.com:29418/";
+        eiffelEvent.eventParams.data.gitIdentifier.branch = "master";
+        eiffelEvent.eventParams.data.gitIdentifier.repoName = "my-project";
+        for (String type : new String[] { "BASE", "PREVIOUS_VERSION" }) {
+            final Link link = new Link();
+            link.type = type;
+            link.target = "aaaaaaaa-bbbb-5ccc-8ddd-eeeeeeeeeee0";
+            eiffelEvent.eventParams.links.add(link);
+        }
+        return eiffelEvent;
+    }
+}
@@ -0,0 +1,70 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
+import com.google.gson.Gson;
+
+public class EventSerializerTest {
+    private final Gson gson = new Gson();
+    private final EventTemplateCache eventTemplates = new EventTemplateCache();
+
+    @Test
+    public void testSingleEventIsSerializedAsObject() throws Exception {
+        final EiffelSourceChangeCreatedEvent eiffelEvent = createSourceChangeCreatedEvent();
+
+        final JsonRequestBody body = EventSerializer.serialize(Collections.singletonList(eiffelEvent),
+                eventTemplates);
+
+        final String expected = gson.toJsonTree(eiffelEvent).toString();
+        assertEquals(expected, body.toString());
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8),
+                Arrays.copyOf(body.getBuffer(), body.size()));
+    }
+
+    @Test
+    public void testSeveralEventsAreSerializedAsArray() throws Exception {
+        final EiffelSourceChangeSubmittedEvent submittedEvent = new EiffelSourceChangeSubmittedEvent();
+        submittedEvent.msgParams.meta.type = "EiffelSourceChangeSubmittedEvent";
+        submittedEvent.eventParams.data.gitIdentifier.commitId = "commit-id";
+        final List<EiffelEvent> eiffelEvents = Arrays.asList(createSourceChangeCreatedEvent(),
+                submittedEvent);
+
+        final JsonRequestBody body = EventSerializer.serialize(eiffelEvents, eventTemplates);
+
+        assertEquals(gson.toJsonTree(eiffelEvents).toString(), body.toString());
+    }
+
+    @Test
+    public void testBodyIsReusedOnTheSameThread() throws Exception {
+        final JsonRequestBody firstBody = EventSerializer.serialize(
+                Collections.singletonList(createSourceChangeCreatedEvent()), eventTemplates);
+        final EiffelSourceChangeSubmittedEvent submittedEvent = new EiffelSourceChangeSubmittedEvent();
+
+        final JsonRequestBody secondBody = EventSerializer.serialize(
+                Collections.singletonList(submittedEvent), eventTemplates);
+
+        assertSame(firstBody, secondBody);
+        assertEquals(gson.toJsonTree(submittedEvent).toString(), secondBody.toString());
+    }
+
+    private EiffelSourceChangeCreatedEvent createSourceChangeCreatedEvent() {
+        final EiffelSourceChangeCreatedEvent eiffelEvent = new EiffelSourceChangeCreatedEvent();
+        eiffelEvent.msgParams.meta.type = "EiffelSourceChangeCreatedEvent";
+        eiffelEvent.msgParams.meta.source.uri = "http://gerrit.example.com/c/project/+/1?tab=<files>";
+        eiffelEvent.eventParams.data.author.name = "Us\u00e9r \"Quoted\" Usersson";
+        eiffelEvent.eventParams.data.change.insertions = 3;
+        return eiffelEvent;
+    }
+}
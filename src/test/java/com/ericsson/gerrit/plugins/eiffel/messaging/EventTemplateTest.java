@@ -0,0 +1,201 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
+import com.ericsson.gerrit.plugins.eiffel.events.models.Author;
+import com.ericsson.gerrit.plugins.eiffel.events.models.KeyValue;
+import com.ericsson.gerrit.plugins.eiffel.events.models.Link;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+public class EventTemplateTest {
+    private static final String PROJECT = "my-project";
+    private static final String HOST = "gerrit.example.com";
+
+    private final Gson gson = new Gson();
+    private final EventTemplateCache eventTemplates = new EventTemplateCache();
+    private int nextNumber = 1;
+
+    @Test
+    public void testCreatedEventIsWrittenAsByGson() throws Exception {
+        final EiffelSourceChangeCreatedEvent eiffelEvent = createSourceChangeCreatedEvent("1");
+        eiffelEvent.msgParams.meta.source.domainId = "domain";
+        eiffelEvent.eventParams.data.author.group = "group";
+        final KeyValue keyValue = new KeyValue();
+        keyValue.key = "key";
+        keyValue.value = "value";
+        eiffelEvent.eventParams.data.customData.add(keyValue);
+        eiffelEvent.eventParams.data.customData.add(null);
+        eiffelEvent.eventParams.links.add(null);
+
+        assertSerializedAsByGson(eiffelEvent);
+        // The second event of the project is written with the same template
+        assertSerializedAsByGson(createSourceChangeCreatedEvent("2"));
+    }
+
+    @Test
+    public void testSubmittedEventIsWrittenAsByGson() throws Exception {
+        final EiffelSourceChangeSubmittedEvent eiffelEvent = new EiffelSourceChangeSubmittedEvent();
+        eiffelEvent.msgParams.meta.type = "EiffelSourceChangeSubmittedEvent";
+        eiffelEvent.msgParams.meta.source.name = "Eiffel Gerrit Plugin";
+        eiffelEvent.msgParams.meta.source.host = HOST;
+        eiffelEvent.msgParams.meta.source.uri = "http://gerrit.example.com/c/my-project/+/1";
+        eiffelEvent.eventParams.data.submitter.name = "User \"Quoted\" Usersson";
+        eiffelEvent.eventParams.data.submitter.id = "my-user";
+        eiffelEvent.eventParams.data.gitIdentifier.commitId = "commit-id";
+        eiffelEvent.eventParams.data.gitIdentifier.branch = "master";
+        eiffelEvent.eventParams.data.gitIdentifier.repoName = PROJECT;
+        eiffelEvent.eventParams.data.gitIdentifier.repoUri = "ssh://gerrit.example.com:29418/";
+        eiffelEvent.eventParams.links.add(createLink("CHANGE", "event-id"));
+
+        assertSerializedAsByGson(eiffelEvent);
+    }
+
+    @Test
+    public void testChangedConstantValueIsWritten() throws Exception {
+        assertSerializedAsByGson(createSourceChangeCreatedEvent("1"));
+
+        final EiffelSourceChangeCreatedEvent eiffelEvent = createSourceChangeCreatedEvent("2");
+        eiffelEvent.msgParams.meta.source.host = "other.example.com";
+        eiffelEvent.eventParams.data.gitIdentifier.repoUri = null;
+        assertSerializedAsByGson(eiffelEvent);
+    }
+
+    @Test
+    public void testTemplatesAreRemovedWhenProjectConfigIsUpdated() throws Exception {
+        final String key = EiffelSourceChangeCreatedEvent.class.getName() + ':' + PROJECT;
+        final EventTemplateInvalidator invalidator = new EventTemplateInvalidator(eventTemplates);
+        assertSerializedAsByGson(createSourceChangeCreatedEvent("1"));
+
+        invalidator.onGitReferenceUpdated(createRefUpdatedEvent("refs/heads/master"));
+        assertNotNull(eventTemplates.get(key));
+
+        invalidator.onGitReferenceUpdated(createRefUpdatedEvent(RefNames.REFS_CONFIG));
+        assertNull(eventTemplates.get(key));
+    }
+
+    @Test
+    public void testEventWithoutTemplateFieldsIsWrittenAsByGson() throws Exception {
+        final EiffelSourceChangeCreatedEvent eiffelEvent = createSourceChangeCreatedEvent("1");
+        eiffelEvent.eventParams.data = null;
+
+        assertSerializedAsByGson(eiffelEvent);
+    }
+
+    @Test
+    public void testAllModelFieldsAreWritten() throws Exception {
+        // Every field of the event models is set, a field that is not written by the template
+        // makes the output differ from that of Gson
+        for (Class<? extends EiffelEvent> eventClass : Arrays.asList(
+                EiffelSourceChangeCreatedEvent.class, EiffelSourceChangeSubmittedEvent.class)) {
+            final EiffelEvent eiffelEvent = eventClass.newInstance();
+            setAllFields(eiffelEvent, eventClass.getSimpleName());
+
+            final StringWriter writer = new StringWriter();
+            assertTrue(EventTemplate.write(gson, eventTemplates, new JsonWriter(writer), eiffelEvent));
+            assertEquals(gson.toJsonTree(eiffelEvent).toString(), writer.toString());
+        }
+    }
+
+    private void setAllFields(final Object object, final String path) throws Exception {
+        for (Class<?> type = object.getClass(); type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || field.isSynthetic()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                field.set(object, createValue(field.getType(), field.getGenericType(),
+                        path + "." + field.getName()));
+            }
+        }
+    }
+
+    private Object createValue(final Class<?> type, final Type genericType, final String path)
+            throws Exception {
+        if (type == String.class) {
+            return path;
+        }
+        if (type == int.class) {
+            return nextNumber++;
+        }
+        if (type.isAssignableFrom(ArrayList.class)) {
+            final Class<?> elementType = (Class<?>) ((ParameterizedType) genericType)
+                    .getActualTypeArguments()[0];
+            final List<Object> list = new ArrayList<>();
+            list.add(createValue(elementType, elementType, path + "[0]"));
+            return list;
+        }
+        if (Author.class.getPackage().equals(type.getPackage())) {
+            final Object value = type.newInstance();
+            setAllFields(value, path);
+            return value;
+        }
+        throw new AssertionError("No test value for " + path + " of type " + type.getName()
+                + ", add it here and write the field in EventTemplate");
+    }
+
+    private void assertSerializedAsByGson(final EiffelEvent eiffelEvent) throws Exception {
+        assertEquals(gson.toJsonTree(eiffelEvent).toString(),
+                EventSerializer.serialize(Collections.singletonList(eiffelEvent), eventTemplates)
+                               .toString());
+    }
+
+    private EiffelSourceChangeCreatedEvent createSourceChangeCreatedEvent(final String number) {
+        final String url = "http://gerrit.example.com/c/my-project/+/" + number + "?tab=<files>";
+        final EiffelSourceChangeCreatedEvent eiffelEvent = new EiffelSourceChangeCreatedEvent();
+        eiffelEvent.msgParams.meta.type = "EiffelSourceChangeCreatedEvent";
+        eiffelEvent.msgParams.meta.source.name = "Eiffel Gerrit Plugin";
+        eiffelEvent.msgParams.meta.source.host = HOST;
+        eiffelEvent.msgParams.meta.source.uri = url;
+        eiffelEvent.eventParams.data.author.name = "Us\u00e9r Usersson";
+        eiffelEvent.eventParams.data.author.id = "my-user";
+        eiffelEvent.eventParams.data.author.email = "my@email.com";
+        eiffelEvent.eventParams.data.change.id = "I" + number;
+        eiffelEvent.eventParams.data.change.tracker = "Gerrit";
+        eiffelEvent.eventParams.data.change.details = url;
+        eiffelEvent.eventParams.data.change.insertions = 10;
+        eiffelEvent.eventParams.data.change.deletions = 2;
+        eiffelEvent.eventParams.data.gitIdentifier.commitId = "commit-" + number;
+        eiffelEvent.eventParams.data.gitIdentifier.branch = "master";
+        eiffelEvent.eventParams.data.gitIdentifier.repoName = PROJECT;
+        eiffelEvent.eventParams.data.gitIdentifier.repoUri = "ssh://gerrit.example.com:29418/";
+        eiffelEvent.eventParams.links.add(createLink("BASE", "base-event-id"));
+        return eiffelEvent;
+    }
+
+    private GitReferenceUpdatedListener.Event createRefUpdatedEvent(final String refName) {
+        final GitReferenceUpdatedListener.Event event = mock(GitReferenceUpdatedListener.Event.class);
+        when(event.getProjectName()).thenReturn(PROJECT);
+        when(event.getRefName()).thenReturn(refName);
+        return event;
+    }
+
+    private Link createLink(final String type, final String target) {
+        final Link link = new Link();
+        link.type = type;
+        link.target = target;
+        return link;
+    }
+}
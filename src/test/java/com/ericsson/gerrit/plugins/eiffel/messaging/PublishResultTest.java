@@ -0,0 +1,82 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PublishResultTest {
+
+    @Test
+    public void testResultsOfEventsArrayAreRead() throws Exception {
+        final List<PublishResult> results = PublishResult.parse("{\"events\": ["
+                + "{\"id\": \"first_id\", \"status_code\": 200, \"result\": \"SUCCESS\", \"message\": \"sent\"},"
+                + "{\"status_code\": 400, \"result\": \"Bad Request\", \"message\": {\"details\": [1, 2]}},"
+                + "{\"id\": \"third_id\", \"status_code\": 503, \"result\": \"Service Unavailable\"},"
+                + "{\"id\": null, \"meta\": {\"id\": \"nested\"}}]}");
+
+        assertEquals(4, results.size());
+        assertEquals("first_id", results.get(0).getId());
+        assertTrue(results.get(0).isPublished());
+        assertNull(results.get(1).getId());
+        assertEquals(400, results.get(1).getStatusCode());
+        assertFalse(results.get(1).isPublished());
+        assertTrue(results.get(1).isRejected());
+        assertEquals("third_id", results.get(2).getId());
+        assertFalse(results.get(2).isPublished());
+        assertFalse(results.get(2).isRejected());
+        assertNull(results.get(3).getId());
+    }
+
+    @Test
+    public void testResultsAreReadFromStream() throws Exception {
+        final byte[] body = "{\"events\": [{\"id\": \"first_id\"}, {\"id\": \"second_id\"}]}".getBytes(
+                StandardCharsets.UTF_8);
+        final List<PublishResult> results = PublishResult.parse(
+                new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+
+        assertEquals(2, results.size());
+        assertEquals("first_id", results.get(0).getId());
+        assertEquals("second_id", results.get(1).getId());
+    }
+
+    @Test
+    public void testLenientResponseIsRead() throws Exception {
+        final List<PublishResult> results = PublishResult.parse("{'events': [{'id': 'my_id'}]}");
+
+        assertEquals(1, results.size());
+        assertEquals("my_id", results.get(0).getId());
+        assertTrue(results.get(0).isPublished());
+    }
+
+    @Test
+    public void testArrayAndSingleResultResponsesAreRead() throws Exception {
+        final List<PublishResult> arrayResults = PublishResult.parse(
+                "[{\"id\": \"first_id\", \"status_code\": 200}, {\"id\": \"second_id\"}]");
+        assertEquals(2, arrayResults.size());
+        assertEquals("second_id", arrayResults.get(1).getId());
+
+        final List<PublishResult> singleResult = PublishResult.parse(
+                "{\"id\": \"my_id\", \"status_code\": 200}");
+        assertEquals(1, singleResult.size());
+        assertEquals("my_id", singleResult.get(0).getId());
+    }
+
+    @Test
+    public void testResponseWithoutResultsHasNone() throws Exception {
+        assertTrue(PublishResult.parse("{\"status_code\": 500, \"result\": \"error\"}").isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testEmptyResponseIsNotRead() throws Exception {
+        PublishResult.parse("");
+    }
+}
@@ -0,0 +1,47 @@
+package com.ericsson.gerrit.plugins.eiffel.messaging;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.junit.Test;
+
+public class RemremHttpClientTest {
+    private static final long KEEP_ALIVE = 60000;
+
+    @Test
+    public void testConfiguredKeepAliveWithoutServerTimeout() {
+        assertEquals(KEEP_ALIVE, RemremHttpClient.getKeepAlive(createResponse(null),
+                new BasicHttpContext(), KEEP_ALIVE));
+    }
+
+    @Test
+    public void testShorterServerTimeoutIsUsed() {
+        assertEquals(5000, RemremHttpClient.getKeepAlive(createResponse("timeout=5, max=100"),
+                new BasicHttpContext(), KEEP_ALIVE));
+    }
+
+    @Test
+    public void testLongerServerTimeoutIsNotUsed() {
+        assertEquals(KEEP_ALIVE, RemremHttpClient.getKeepAlive(createResponse("timeout=300"),
+                new BasicHttpContext(), KEEP_ALIVE));
+    }
+
+    @Test
+    public void testServerTimeoutWithoutConfiguredKeepAlive() {
+        assertEquals(5000, RemremHttpClient.getKeepAlive(createResponse("timeout=5"),
+                new BasicHttpContext(), 0));
+    }
+
+    private HttpResponse createResponse(final String keepAlive) {
+        final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK,
+                "OK");
+        if (keepAlive != null) {
+            response.addHeader("Keep-Alive", keepAlive);
+        }
+        return response;
+    }
+}
@@ -1,13 +1,20 @@
 package com.ericsson.gerrit.plugins.eiffel.messaging;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.lang3.mutable.MutableInt;
 import org.apache.http.HttpStatus;
 import org.junit.After;
 import org.junit.Before;
@@ -19,32 +26,31 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.powermock.reflect.Whitebox;
 
-import com.ericsson.eiffelcommons.utils.HttpRequest;
-import com.ericsson.eiffelcommons.utils.ResponseEntity;
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
+import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfigurationCache;
 import com.ericsson.gerrit.plugins.eiffel.configuration.RetryConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeCreatedEvent;
 import com.ericsson.gerrit.plugins.eiffel.events.EiffelSourceChangeSubmittedEvent;
 import com.ericsson.gerrit.plugins.eiffel.events.generators.EiffelSourceChangeSubmittedEventGenerator;
 import com.ericsson.gerrit.plugins.eiffel.git.CommitInformation;
-import com.ericsson.gerrit.plugins.eiffel.listeners.AbstractEventListener;
+import com.ericsson.gerrit.plugins.eiffel.handlers.MessageQueueHandler;
 import com.ericsson.gerrit.plugins.eiffel.listeners.ChangeMergedEventListener;
 import com.ericsson.gerrit.plugins.eiffel.loghelper.LogHelper;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStore;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventIdStoreRegistry;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventStorage;
+import com.ericsson.gerrit.plugins.eiffel.storage.EventStorageFactory;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
 import com.google.gerrit.server.events.ChangeMergedEvent;
 
-import io.github.resilience4j.decorators.Decorators;
-import io.github.resilience4j.retry.Retry;
-import io.vavr.control.Try;
-
 @RunWith(PowerMockRunner.class)
 @PrepareForTest({ EiffelSourceChangeSubmittedEventGenerator.class,
-        ChangeMergedEventListener.class })
+        ChangeMergedEventListener.class, EventStorageFactory.class })
 public class RetryRequestTest {
     private EiffelPluginConfiguration pluginConfig;
-    private HttpRequest httpRequest;
-    private ResponseEntity response;
+    private RemremHttpClient httpClient;
     private ChangeMergedEvent changeMergedEvent;
-    private final MutableInt counter = new MutableInt();
     private final EiffelSourceChangeSubmittedEvent eiffelEvent = new EiffelSourceChangeSubmittedEvent();
 
     private static final String EIFFEL_TYPE = "EiffelSourceChangeCreatedEvent";
@@ -52,6 +58,7 @@ public class RetryRequestTest {
     private static final String PLUGIN_NAME = "Eiffel-Integration";
     private static final File FILE_DIR = new File("");
     private CommitInformation commitInformation;
+    private EventIdStore eventIdStore;
 
     private final LogHelper logHelper = new LogHelper();
 
@@ -67,32 +74,80 @@ public class RetryRequestTest {
     }
 
     @Test
-    public void testRetryLogic() throws URISyntaxException, IOException {
+    public void testRetryLogic() throws Exception {
         logHelper.removeStdoutAppenders();
         setUpMockActions();
-        counter.setValue(0);
 
         final RetryConfiguration retryConfiguration = new RetryConfiguration();
-        final EiffelEventSender eiffelEventSender = new EiffelEventSender(pluginConfig, httpRequest);
-        eiffelEventSender.setEiffelEventMessage(new EiffelSourceChangeCreatedEvent());
-        eiffelEventSender.setEiffelEventType(EIFFEL_TYPE);
-
-        final Retry policy = retryConfiguration.getRetryPolicy();
-        final Runnable decoratedRunnable = Decorators.ofRunnable(() -> {
-            counter.setValue(counter.getValue().intValue() + 1);
-            eiffelEventSender.send();
-        }).withRetry(policy).decorate();
-        Try.runRunnable(decoratedRunnable);
-
-        final int expectedValue = retryConfiguration.getMaxAttempts();
-        final int actualValue = counter.getValue().intValue();
-        final String errorMessage = String.format("Expected retry counter to be %d but was %d",
-                expectedValue, actualValue);
-        assertEquals(errorMessage, expectedValue, actualValue);
+        final ImmediateRetryExecutor executor = new ImmediateRetryExecutor();
+        final MessageQueueHandler messageQueueHandler = createMessageQueueHandler(
+                retryConfiguration, executor);
+        try {
+            messageQueueHandler.send(new EiffelSourceChangeCreatedEvent(), pluginConfig)
+                               .get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
 
+        Mockito.verify(httpClient, Mockito.times(retryConfiguration.getMaxAttempts()))
+               .post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
         logHelper.verifyLoggerCalledTimes(3);
     }
 
+    @Test
+    public void testRejectedEventIsNotRetried() throws Exception {
+        logHelper.removeStdoutAppenders();
+        setUpMockActions();
+        Mockito.when(httpClient.post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(new RemremResponse(HttpStatus.SC_BAD_REQUEST, ""));
+
+        final ImmediateRetryExecutor executor = new ImmediateRetryExecutor();
+        final MessageQueueHandler messageQueueHandler = createMessageQueueHandler(
+                new RetryConfiguration(), executor);
+        try {
+            messageQueueHandler.send(new EiffelSourceChangeCreatedEvent(), pluginConfig)
+                               .get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+
+        Mockito.verify(httpClient, Mockito.times(1))
+               .post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        assertEquals(0, executor.retryDelays.size());
+    }
+
+    @Test
+    public void testEventIsCompletedWhenItsIdIsStored() throws Exception {
+        logHelper.removeStdoutAppenders();
+        setUpMockActions();
+        Mockito.when(httpClient.post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(new RemremResponse(HttpStatus.SC_OK, "{\"events\": [{\"id\": \"event_id\"}]}"));
+        final CompletableFuture<Void> stored = new CompletableFuture<>();
+        final EventStorage eventStorage = Mockito.mock(EventStorage.class);
+        Mockito.when(eventStorage.saveEventId(Mockito.any(), Mockito.any())).thenReturn(stored);
+        PowerMockito.mockStatic(EventStorageFactory.class);
+        Mockito.when(EventStorageFactory.getEventStorage(Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(eventStorage);
+
+        final ImmediateRetryExecutor executor = new ImmediateRetryExecutor();
+        final MessageQueueHandler messageQueueHandler = createMessageQueueHandler(
+                new RetryConfiguration(), executor);
+        try {
+            final CompletableFuture<Void> sent = messageQueueHandler.send(
+                    new EiffelSourceChangeCreatedEvent(), pluginConfig);
+            Mockito.verify(eventStorage, Mockito.timeout(30000))
+                   .saveEventId(Mockito.any(), Mockito.any());
+            assertFalse("The event should not be completed before its id is stored", sent.isDone());
+
+            // A failed store also completes the event, it stays in the outbox
+            stored.completeExceptionally(new SQLException("Failed to store"));
+            sent.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, executor.retryDelays.size());
+    }
+
     @Test(expected = Test.None.class)
     public void testPrepareAndSendEiffelEvent() throws Exception {
         logHelper.removeStdoutAppenders();
@@ -100,50 +155,52 @@ public class RetryRequestTest {
         setUpMocksAndActionsForMethodInvoke();
 
         final RetryConfiguration retryConfiguration = new RetryConfiguration();
+        final ImmediateRetryExecutor executor = new ImmediateRetryExecutor();
         final ChangeMergedEventListener listener = new ChangeMergedEventListener(PLUGIN_NAME, FILE_DIR);
-        Whitebox.setInternalState(listener, "retryConfiguration", retryConfiguration);
-        Whitebox.invokeMethod(listener, "sendEiffelEvent", eiffelEvent,
-                pluginConfig);
-
-        final ThreadPoolExecutor executor = Whitebox.<ThreadPoolExecutor>getInternalState(
-                AbstractEventListener.class, "executor");
-        int expectedValue = 1;
-        int actualValue = executor.getActiveCount();
-        String errorMessage = String.format("Expected active jobs to be %d but was %d",
-                expectedValue, actualValue);
-        assertEquals(errorMessage, expectedValue, actualValue);
-
-        boolean finished = false;
-        final long stopTime = System.currentTimeMillis() + 30000;
-        while (!finished && stopTime > System.currentTimeMillis()) {
-            if (executor.getActiveCount() > 0) {
-                Thread.sleep(1000);
-            } else {
-                finished = true;
-            }
+        Whitebox.setInternalState(listener, "messageQueueHandler",
+                createMessageQueueHandler(retryConfiguration, executor));
+        try {
+            final CompletableFuture<Void> sent = Whitebox.invokeMethod(listener, "sendEiffelEvent",
+                    eiffelEvent, pluginConfig);
+            sent.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
         }
 
-        expectedValue = 0;
-        actualValue = executor.getActiveCount();
-        errorMessage = String.format("Expected active jobs to be %d but was %d",
-                expectedValue, actualValue);
-        assertEquals(errorMessage, expectedValue, actualValue);
-
+        // The retries are scheduled on the pool after the retry interval, not slept through
+        assertEquals(Arrays.asList(retryConfiguration.getRetryInterval(1),
+                retryConfiguration.getRetryInterval(2)), executor.retryDelays);
         logHelper.verifyLoggerCalledTimes(3);
     }
 
+    private MessageQueueHandler createMessageQueueHandler(
+            final RetryConfiguration retryConfiguration, final ScheduledThreadPoolExecutor executor) {
+        final PluginConfigFactory pluginConfigFactory = Mockito.mock(PluginConfigFactory.class);
+        Mockito.when(pluginConfigFactory.getFromGerritConfig(PLUGIN_NAME, true))
+               .thenReturn(Mockito.mock(PluginConfig.class));
+        final EventIdStoreRegistry eventIdStoreRegistry = Mockito.mock(EventIdStoreRegistry.class);
+        Mockito.when(eventIdStoreRegistry.get()).thenReturn(eventIdStore);
+        return new MessageQueueHandler(null, pluginConfigFactory, PLUGIN_NAME, FILE_DIR,
+                Mockito.mock(EiffelPluginConfigurationCache.class), retryConfiguration, httpClient,
+                eventIdStoreRegistry, new EventTemplateCache()) {
+            @Override
+            public ScheduledThreadPoolExecutor getPool() {
+                return executor;
+            }
+        };
+    }
+
     private void setUpMockObjects() throws URISyntaxException, IOException {
-        httpRequest = Mockito.mock(HttpRequest.class);
+        httpClient = Mockito.mock(RemremHttpClient.class);
         pluginConfig = Mockito.mock(EiffelPluginConfiguration.class);
-        response = Mockito.mock(ResponseEntity.class);
         changeMergedEvent = Mockito.mock(ChangeMergedEvent.class);
         commitInformation = Mockito.mock(CommitInformation.class);
+        eventIdStore = Mockito.mock(EventIdStore.class);
     }
 
     private void setUpMockActions() throws URISyntaxException, IOException {
-        Mockito.when(httpRequest.performRequest()).thenReturn(response);
-        Mockito.when(response.getStatusCode()).thenReturn(STATUS_ERROR);
-        Mockito.when(response.getBody()).thenReturn("");
+        Mockito.when(httpClient.post(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
+               .thenReturn(new RemremResponse(STATUS_ERROR, ""));
         Mockito.when(pluginConfig.getRemremPublishURL()).thenReturn("");
         Mockito.when(pluginConfig.getRemremUsername()).thenReturn("");
         Mockito.when(pluginConfig.getRemremPassword()).thenReturn("");
@@ -153,11 +210,28 @@ public class RetryRequestTest {
         PowerMockito.mockStatic(EiffelSourceChangeSubmittedEventGenerator.class);
         Mockito.when(
                 EiffelSourceChangeSubmittedEventGenerator.generate(pluginConfig, changeMergedEvent,
-                        commitInformation))
+                        commitInformation, eventIdStore, null))
                .thenReturn(eiffelEvent);
-        final EiffelEventSender sender = new EiffelEventSender(pluginConfig, httpRequest);
-        PowerMockito.whenNew(EiffelEventSender.class)
-                    .withArguments(pluginConfig)
-                    .thenReturn(sender);
+    }
+
+    /**
+     * Records the delays of the scheduled retries and runs them at once, so that the test does
+     * not wait for the retry intervals.
+     */
+    private static class ImmediateRetryExecutor extends ScheduledThreadPoolExecutor {
+        private final List<Long> retryDelays = new CopyOnWriteArrayList<>();
+
+        ImmediateRetryExecutor() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(final Runnable command, final long delay,
+                final TimeUnit unit) {
+            if (delay > 0) {
+                retryDelays.add(unit.toMillis(delay));
+            }
+            return super.schedule(command, 0, unit);
+        }
     }
 }
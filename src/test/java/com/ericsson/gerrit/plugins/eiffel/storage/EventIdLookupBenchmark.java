@@ -0,0 +1,120 @@
+package com.ericsson.gerrit.plugins.eiffel.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.ericsson.gerrit.plugins.eiffel.exceptions.NoSuchElementException;
+import com.ericsson.gerrit.plugins.eiffel.handlers.DatabaseConnectionRegistry;
+import com.ericsson.gerrit.plugins.eiffel.handlers.StorageProfile;
+import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
+
+/**
+ * Compares looking up event ids with {@link EventIdStore#getEventId}, which throws when no event
+ * id is saved, and {@link EventIdStore#findEventId}, when most lookups miss as for the first patch
+ * set of a change. Not run by the test suite, start it with the test classpath:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; \
+ *     com.ericsson.gerrit.plugins.eiffel.storage.EventIdLookupBenchmark [lookups] [miss percentage]
+ * </pre>
+ */
+public class EventIdLookupBenchmark {
+    private static final String PROJECT = "benchmark";
+    private static final int KEYS = 1000;
+    private static final DatabaseConnectionRegistry DATABASE_REGISTRY = new DatabaseConnectionRegistry(
+            StorageProfile.DEFAULT);
+
+    public static void main(final String[] args) throws Exception {
+        final int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final int missPercentage = args.length > 1 ? Integer.parseInt(args[1]) : 90;
+
+        run("sqlite", new SqliteEventIdStore(DATABASE_REGISTRY), lookups, missPercentage);
+        run("log", new LogEventIdStore(false), lookups, missPercentage);
+    }
+
+    private static void run(final String name, final EventIdStore store, final int lookups,
+            final int missPercentage) throws Exception {
+        final Path pluginPath = Files.createTempDirectory("eventIdLookupBenchmark");
+        final File pluginDir = pluginPath.toFile();
+        try {
+            final Map<String, String> eventIds = new LinkedHashMap<>();
+            for (int i = 0; i < KEYS; i++) {
+                eventIds.put("I" + i, UUID.randomUUID().toString());
+            }
+            store.saveEventIds(pluginDir, PROJECT, Table.SCC_TABLE, eventIds).get();
+
+            final String[] keys = createKeys(lookups, missPercentage);
+            // Warm up both paths before measuring
+            lookUpWithException(store, pluginDir, keys);
+            lookUpWithOptional(store, pluginDir, keys);
+
+            long start = System.nanoTime();
+            final int foundWithException = lookUpWithException(store, pluginDir, keys);
+            final long exceptionNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            final int foundWithOptional = lookUpWithOptional(store, pluginDir, keys);
+            final long optionalNanos = System.nanoTime() - start;
+
+            System.out.printf("%-7s %d%% misses: exception %8.2f us/op, optional %8.2f us/op (found %d/%d)%n",
+                    name, missPercentage, exceptionNanos / 1000.0 / lookups, optionalNanos / 1000.0 / lookups,
+                    foundWithException, foundWithOptional);
+        } finally {
+            store.close();
+            DATABASE_REGISTRY.closeAll();
+            delete(pluginPath);
+        }
+    }
+
+    private static String[] createKeys(final int lookups, final int missPercentage) {
+        final Random random = new Random(42);
+        final String[] keys = new String[lookups];
+        for (int i = 0; i < lookups; i++) {
+            keys[i] = random.nextInt(100) < missPercentage ? "I" + (KEYS + random.nextInt(KEYS))
+                    : "I" + random.nextInt(KEYS);
+        }
+        return keys;
+    }
+
+    private static int lookUpWithException(final EventIdStore store, final File pluginDir,
+            final String[] keys) throws Exception {
+        int found = 0;
+        for (String key : keys) {
+            try {
+                store.getEventId(pluginDir, PROJECT, Table.SCC_TABLE, key);
+                found++;
+            } catch (NoSuchElementException e) {
+                // A miss
+            }
+        }
+        return found;
+    }
+
+    private static int lookUpWithOptional(final EventIdStore store, final File pluginDir,
+            final String[] keys) throws Exception {
+        int found = 0;
+        for (String key : keys) {
+            if (store.findEventId(pluginDir, PROJECT, Table.SCC_TABLE, key).isPresent()) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static void delete(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+}
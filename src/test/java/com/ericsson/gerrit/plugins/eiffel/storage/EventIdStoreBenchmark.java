@@ -0,0 +1,89 @@
+package com.ericsson.gerrit.plugins.eiffel.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.ericsson.gerrit.plugins.eiffel.handlers.DatabaseConnectionRegistry;
+import com.ericsson.gerrit.plugins.eiffel.handlers.StorageProfile;
+import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
+
+/**
+ * Compares the write and point lookup times of the event id stores. Not run by the test suite,
+ * start it with the test classpath:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; \
+ *     com.ericsson.gerrit.plugins.eiffel.storage.EventIdStoreBenchmark [keys]
+ * </pre>
+ *
+ * More keys than the event id cache holds are used, so that SQLite lookups go to the database.
+ * Each store is warmed up with a project of its own before it is measured.
+ */
+public class EventIdStoreBenchmark {
+    private static final String PROJECT = "benchmark";
+    private static final String WARMUP_PROJECT = "warmup";
+    private static final DatabaseConnectionRegistry DATABASE_REGISTRY = new DatabaseConnectionRegistry(
+            StorageProfile.DEFAULT);
+
+    public static void main(final String[] args) throws Exception {
+        final int keys = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        run("sqlite", new SqliteEventIdStore(DATABASE_REGISTRY), keys);
+        run("log (sync)", new LogEventIdStore(true), keys);
+        run("log (no sync)", new LogEventIdStore(false), keys);
+    }
+
+    private static void run(final String name, final EventIdStore store, final int keys) throws Exception {
+        final Path pluginDir = Files.createTempDirectory("eventIdStoreBenchmark");
+        try {
+            save(store, pluginDir.toFile(), WARMUP_PROJECT, keys);
+            lookUp(store, pluginDir.toFile(), WARMUP_PROJECT, keys);
+
+            final long writeNanos = save(store, pluginDir.toFile(), PROJECT, keys);
+            final long readNanos = lookUp(store, pluginDir.toFile(), PROJECT, keys);
+
+            System.out.printf("%-14s writes %8.1f us/op, reads %8.1f us/op%n", name,
+                    writeNanos / 1000.0 / keys, readNanos / 1000.0 / keys);
+        } finally {
+            store.close();
+            DATABASE_REGISTRY.closeAll();
+            delete(pluginDir);
+        }
+    }
+
+    private static long save(final EventIdStore store, final File pluginDir, final String project,
+            final int keys) throws Exception {
+        final long start = System.nanoTime();
+        for (int i = 0; i < keys; i++) {
+            store.saveEventIds(pluginDir, project, Table.SCC_TABLE,
+                    Collections.singletonMap("I" + i, UUID.randomUUID().toString())).get();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long lookUp(final EventIdStore store, final File pluginDir, final String project,
+            final int keys) throws Exception {
+        final Random random = new Random(42);
+        final long start = System.nanoTime();
+        for (int i = 0; i < keys; i++) {
+            store.getEventId(pluginDir, project, Table.SCC_TABLE, "I" + random.nextInt(keys));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void delete(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+}
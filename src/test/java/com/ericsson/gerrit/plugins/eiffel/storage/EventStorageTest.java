@@ -5,6 +5,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.net.ConnectException;
+import java.util.Optional;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -19,7 +20,9 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.ericsson.gerrit.plugins.eiffel.configuration.EiffelPluginConfiguration;
 import com.ericsson.gerrit.plugins.eiffel.exceptions.NoSuchElementException;
+import com.ericsson.gerrit.plugins.eiffel.handlers.DatabaseConnectionRegistry;
 import com.ericsson.gerrit.plugins.eiffel.handlers.DatabaseHandler;
+import com.ericsson.gerrit.plugins.eiffel.handlers.StorageProfile;
 import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
 
 @RunWith(PowerMockRunner.class)
@@ -49,19 +52,21 @@ public class EventStorageTest {
         PowerMockito.when(pluginConfig.getPluginDirectoryPath()).thenReturn(tmpFolderPath);
 
         dbHandler = Mockito.mock(DatabaseHandler.class);
-        PowerMockito.whenNew(DatabaseHandler.class).withParameterTypes(File.class, String.class).withArguments(Mockito.any())
+        PowerMockito.whenNew(DatabaseHandler.class).withParameterTypes(DatabaseConnectionRegistry.class, File.class, String.class).withArguments(Mockito.any())
                 .thenReturn(dbHandler);
+        final EventIdStore eventIdStore = new SqliteEventIdStore(
+                new DatabaseConnectionRegistry(StorageProfile.DEFAULT));
         sourceChangeCreatedState = (SourceChangeCreatedStorage) EventStorageFactory.getEventStorage(
-                pluginConfig, "EiffelSourceChangeCreatedEvent");
+                pluginConfig, eventIdStore, "EiffelSourceChangeCreatedEvent");
         sourceChangeSubmittedState = (SourceChangeSubmittedStorage) EventStorageFactory.getEventStorage(
-                pluginConfig, "EiffelSourceChangeSubmittedEvent");
+                pluginConfig, eventIdStore, "EiffelSourceChangeSubmittedEvent");
     }
 
     @Test
     public void testBuildParentFilePath() throws Exception {
         final String expectedParentPath = tmpFolderPath.toString();
 
-        Mockito.when(dbHandler.getEventID(Table.SCC_TABLE, BRANCH)).thenReturn("");
+        Mockito.when(dbHandler.upsert(Mockito.any(), Mockito.any(), Mockito.any())).thenReturn("");
         sourceChangeCreatedState.saveEiffelEventId(BRANCH, "{eiffel_event}", Table.SCC_TABLE);
 
         final File parentDirectory = new File(expectedParentPath);
@@ -70,42 +75,43 @@ public class EventStorageTest {
 
     @Test
     public void testgetLastSentEvent() throws Exception {
-        Mockito.when(dbHandler.getEventID(Mockito.any(), Mockito.any())).thenReturn("eventID");
+        Mockito.when(dbHandler.findEventID(Mockito.any(), Mockito.any())).thenReturn(Optional.of("eventID"));
 
         final String eventId = sourceChangeSubmittedState.getLastSavedEiffelEvent(PROJECT, BRANCH, Table.SCS_TABLE);
         assertEquals("Table.SCS_TABLE tabler key should be", "eventID", eventId);
 
-        Mockito.when(dbHandler.getEventID(Table.SCS_TABLE, ""))
-                .thenThrow(new NoSuchElementException("Exception thrown by test"));
+        Mockito.when(dbHandler.findEventID(Table.SCS_TABLE, "")).thenReturn(Optional.empty());
         exception.expect(NoSuchElementException.class);
         sourceChangeSubmittedState.getLastSavedEiffelEvent("", "", Table.SCS_TABLE);
     }
 
     @Test
-    public void testUpdateLastEventCalled() throws Exception {
-        Mockito.when(dbHandler.getEventID(Table.SCS_TABLE, BRANCH)).thenReturn("old-event-id");
+    public void testUpsertReplacesLastEvent() throws Exception {
+        Mockito.when(dbHandler.upsert(Table.SCS_TABLE, BRANCH, "event-id")).thenReturn("old-event-id");
 
         final String eventId = "event-id";
         sourceChangeSubmittedState.saveEiffelEventId(BRANCH, eventId, Table.SCS_TABLE);
-        Mockito.verify(dbHandler).updateInto(Table.SCS_TABLE, BRANCH, eventId);
+        Mockito.verify(dbHandler).upsert(Table.SCS_TABLE, BRANCH, eventId);
+        Mockito.verify(dbHandler, Mockito.never()).getEventID(Mockito.any(), Mockito.any());
+        Mockito.verify(dbHandler, Mockito.never()).updateInto(Mockito.any(), Mockito.any(), Mockito.any());
         Mockito.verify(dbHandler, Mockito.never()).insertInto(Mockito.any(), Mockito.any(), Mockito.any());
 
     }
 
     @Test
-    public void testInsertLastEventCalled() throws Exception {
-        Mockito.when(dbHandler.getEventID(Table.SCS_TABLE, BRANCH)).thenReturn("");
+    public void testUpsertInsertsLastEvent() throws Exception {
+        Mockito.when(dbHandler.upsert(Table.SCS_TABLE, BRANCH, "event-id")).thenReturn("");
 
         final String eventId = "event-id";
         sourceChangeSubmittedState.saveEiffelEventId(BRANCH, eventId, Table.SCS_TABLE);
-        Mockito.verify(dbHandler, Mockito.never()).updateInto(Mockito.any(), Mockito.any(), Mockito.any());
-        Mockito.verify(dbHandler).insertInto(Table.SCS_TABLE, BRANCH, eventId);
+        Mockito.verify(dbHandler).upsert(Table.SCS_TABLE, BRANCH, eventId);
+        Mockito.verify(dbHandler, Mockito.never()).getEventID(Mockito.any(), Mockito.any());
 
     }
 
     @Test
     public void testConnectionErrorsHandled() throws Exception {
-        Mockito.when(dbHandler.getEventID(Table.SCS_TABLE, BRANCH)).thenThrow(new ConnectException("Test Exception"));
+        Mockito.when(dbHandler.upsert(Table.SCS_TABLE, BRANCH, "event-id")).thenThrow(new ConnectException("Test Exception"));
 
         final String eventId = "event-id";
 
@@ -0,0 +1,96 @@
+package com.ericsson.gerrit.plugins.eiffel.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ericsson.gerrit.plugins.eiffel.exceptions.NoSuchElementException;
+import com.ericsson.gerrit.plugins.eiffel.handlers.Table;
+
+public class LogEventIdStoreTest {
+    private static final String PROJECT = "parent/project";
+    private static final String CHANGE_ID = "I1234";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+    private File tmpFolderPath;
+    private LogEventIdStore eventIdStore;
+
+    @Before
+    public void init() throws Exception {
+        tmpFolderPath = testFolder.newFolder();
+        eventIdStore = new LogEventIdStore(true);
+    }
+
+    @After
+    public void tearDown() {
+        eventIdStore.close();
+    }
+
+    @Test
+    public void testSavedEventIdsAreKeptAfterReopen() throws Exception {
+        final Map<String, String> eventIds = new LinkedHashMap<>();
+        eventIds.put("commit-1", "first-event-id");
+        eventIds.put("commit-2", "second-event-id");
+        eventIdStore.saveEventIds(tmpFolderPath, PROJECT, Table.SCS_TABLE, eventIds);
+        eventIdStore.saveEventIds(tmpFolderPath, PROJECT, Table.SCC_TABLE,
+                Collections.singletonMap(CHANGE_ID, "old-event-id"));
+        eventIdStore.saveEventIds(tmpFolderPath, PROJECT, Table.SCC_TABLE,
+                Collections.singletonMap(CHANGE_ID, "new-event-id"));
+        assertEquals("new-event-id", eventIdStore.getEventId(tmpFolderPath, PROJECT, Table.SCC_TABLE, CHANGE_ID));
+
+        eventIdStore.close();
+        eventIdStore = new LogEventIdStore(true);
+
+        assertEquals("new-event-id", eventIdStore.getEventId(tmpFolderPath, PROJECT, Table.SCC_TABLE, CHANGE_ID));
+        assertEquals("second-event-id", eventIdStore.getEventId(tmpFolderPath, PROJECT, Table.SCS_TABLE, "commit-2"));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testMissingEventIdThrows() throws Exception {
+        eventIdStore.getEventId(tmpFolderPath, PROJECT, Table.SCC_TABLE, CHANGE_ID);
+    }
+
+    @Test
+    public void testIncompleteRecordIsCutOff() throws Exception {
+        eventIdStore.saveEventIds(tmpFolderPath, PROJECT, Table.SCC_TABLE,
+                Collections.singletonMap(CHANGE_ID, "event-id"));
+        eventIdStore.close();
+
+        final Path logFile = tmpFolderPath.toPath().resolve(PROJECT + "." + LogEventIdStore.FILE_TYPE_EXTENSION);
+        final long validLength = Files.size(logFile);
+        Files.write(logFile, new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+
+        eventIdStore = new LogEventIdStore(true);
+        assertEquals("event-id", eventIdStore.getEventId(tmpFolderPath, PROJECT, Table.SCC_TABLE, CHANGE_ID));
+        assertEquals(validLength, Files.size(logFile));
+    }
+
+    @Test
+    public void testReplacedEventIdsAreCompacted() throws Exception {
+        for (int i = 0; i < 3000; i++) {
+            eventIdStore.saveEventIds(tmpFolderPath, PROJECT, Table.SCC_TABLE,
+                    Collections.singletonMap(CHANGE_ID, "event-id-" + i));
+        }
+        eventIdStore.close();
+
+        final Path logFile = tmpFolderPath.toPath().resolve(PROJECT + "." + LogEventIdStore.FILE_TYPE_EXTENSION);
+        assertTrue("Expect compacted log", Files.size(logFile) < 1024 * 64);
+
+        eventIdStore = new LogEventIdStore(true);
+        assertEquals("event-id-2999", eventIdStore.getEventId(tmpFolderPath, PROJECT, Table.SCC_TABLE, CHANGE_ID));
+    }
+}